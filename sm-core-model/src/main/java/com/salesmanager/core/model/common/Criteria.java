@@ -13,6 +13,9 @@ public class Criteria {
 	private int startPage = 0;
 	private int pageSize = 10;
 	private boolean legacyPagination = true;
+	// cursor pagination, empty cursor for the first page
+	private String cursor;
+	private boolean countTotal = true;
 	private String code;
 	private String name;
 	private String language;
@@ -128,6 +131,26 @@ public class Criteria {
 		this.legacyPagination = legacyPagination;
 	}
 
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
+	public boolean isCursorPagination() {
+		return cursor != null;
+	}
+
+	public boolean isCountTotal() {
+		return countTotal;
+	}
+
+	public void setCountTotal(boolean countTotal) {
+		this.countTotal = countTotal;
+	}
+
 	public List<Integer> getStoreIds() {
 		return storeIds;
 	}
@@ -12,6 +12,8 @@ public class EntityList implements Serializable {
 	//private int totalCount;
 	private long totalCount;
 	private int totalPages;
+	//cursor of the next page, null on the last page
+	private String next;
 	
 /*	public int getTotalCount() {
 		return totalCount;
@@ -31,5 +33,11 @@ public class EntityList implements Serializable {
 	public void setTotalCount(long totalCount) {
 		this.totalCount = totalCount;
 	}
+	public String getNext() {
+		return next;
+	}
+	public void setNext(String next) {
+		this.next = next;
+	}
 
 }
@@ -2,11 +2,15 @@ package com.salesmanager.core.model.content;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.file.Path;
 
 /**
  * Data class responsible for carrying out static content data from Infispan cache to 
  * service layer.
  * 
+ * A file system backend can set the path of the file instead of its content,
+ * the file is then streamed from disk by the caller.
+ * 
  * @author Umesh Awasthi
  * @since 1.2
  */
@@ -14,6 +18,8 @@ public class OutputContentFile extends StaticContentFile implements Serializable
 {
     private static final long serialVersionUID = 1L;
     private ByteArrayOutputStream file;
+    private transient Path path;
+    private long lastModified;
     public ByteArrayOutputStream getFile()
     {
         return file;
@@ -22,5 +28,27 @@ public class OutputContentFile extends StaticContentFile implements Serializable
     {
         this.file = file;
     }
+    /**
+     * @return file on the local file system or null when the content is in {@link #getFile()}
+     */
+    public Path getPath()
+    {
+        return path;
+    }
+    public void setPath( Path path )
+    {
+        this.path = path;
+    }
+    /**
+     * @return last modification time in milliseconds, 0 when unknown
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+    public void setLastModified( long lastModified )
+    {
+        this.lastModified = lastModified;
+    }
     
-}
\ No newline at end of file
+}
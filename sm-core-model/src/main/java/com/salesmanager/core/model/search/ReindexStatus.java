@@ -0,0 +1,115 @@
+package com.salesmanager.core.model.search;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Progress of the rebuild of the product search indexes of a store
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ReindexStatus {
+
+	public enum State {
+		RUNNING, COMPLETED, FAILED, INTERRUPTED
+	}
+
+	private String store;
+	private volatile State state;
+	private Date startDate;
+	private volatile Date endDate;
+	private long total = 0;//products of the store when the rebuild started
+	private volatile long indexed = 0;//products written
+	private volatile long documents = 0;//documents written, one per product description
+	private volatile long failed = 0;//documents or products that could not be written
+	private volatile Long lastId;//last product id written, the rebuild resumes after it
+	private volatile double throughput = 0;//products per second
+	private volatile String error;
+	private final Map<String,String> indexes = new ConcurrentHashMap<String,String>();//language code & index being built
+	private final Set<Long> deleted = ConcurrentHashMap.newKeySet();//products deleted during the rebuild, not yet removed from the new indexes
+
+	public String getStore() {
+		return store;
+	}
+	public void setStore(String store) {
+		this.store = store;
+	}
+	public State getState() {
+		return state;
+	}
+	public void setState(State state) {
+		this.state = state;
+	}
+	public Date getStartDate() {
+		return startDate;
+	}
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+	public Date getEndDate() {
+		return endDate;
+	}
+	public void setEndDate(Date endDate) {
+		this.endDate = endDate;
+	}
+	public long getTotal() {
+		return total;
+	}
+	public void setTotal(long total) {
+		this.total = total;
+	}
+	public long getIndexed() {
+		return indexed;
+	}
+	public void setIndexed(long indexed) {
+		this.indexed = indexed;
+	}
+	public long getDocuments() {
+		return documents;
+	}
+	public void setDocuments(long documents) {
+		this.documents = documents;
+	}
+	public long getFailed() {
+		return failed;
+	}
+	public void setFailed(long failed) {
+		this.failed = failed;
+	}
+	public Long getLastId() {
+		return lastId;
+	}
+	public void setLastId(Long lastId) {
+		this.lastId = lastId;
+	}
+	public double getThroughput() {
+		return throughput;
+	}
+	public void setThroughput(double throughput) {
+		this.throughput = throughput;
+	}
+	public String getError() {
+		return error;
+	}
+	public void setError(String error) {
+		this.error = error;
+	}
+	public Map<String,String> getIndexes() {
+		return indexes;
+	}
+	public void setIndexes(Map<String,String> indexes) {
+		this.indexes.clear();
+		this.indexes.putAll(indexes);
+	}
+	public Set<Long> getDeleted() {
+		return deleted;
+	}
+	public void setDeleted(Set<Long> deleted) {
+		this.deleted.clear();
+		this.deleted.addAll(deleted);
+	}
+
+}
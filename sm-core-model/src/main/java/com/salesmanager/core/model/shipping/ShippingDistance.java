@@ -0,0 +1,70 @@
+package com.salesmanager.core.model.shipping;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.salesmanager.core.model.generic.SalesManagerEntity;
+
+/**
+ * Driving distance in km between two geocoded addresses, keyed by the
+ * origin and destination address keys.
+ */
+@Entity
+@Table(name = "SHIPPING_DISTANCE")
+public class ShippingDistance extends SalesManagerEntity<String, ShippingDistance> {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name = "DISTANCE_KEY", length = 129, nullable = false)
+	private String id;
+
+	@Column(name = "DISTANCE_KM", nullable = false)
+	private double distance;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "DATE_CREATED", nullable = false)
+	private Date dateCreated;
+
+	public ShippingDistance() {
+	}
+
+	public ShippingDistance(String id, double distance) {
+		this.id = id;
+		this.distance = distance;
+		this.dateCreated = new Date();
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	public void setDistance(double distance) {
+		this.distance = distance;
+	}
+
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.salesmanager.core.model.shipping;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.salesmanager.core.model.generic.SalesManagerEntity;
+
+/**
+ * Coordinates of a geocoded address, keyed by a hash of the normalized
+ * address. Used by the shipping distance pre-processor.
+ */
+@Entity
+@Table(name = "SHIPPING_GEOCODE")
+public class ShippingGeoCode extends SalesManagerEntity<String, ShippingGeoCode> {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name = "ADDRESS_KEY", length = 64, nullable = false)
+	private String id;
+
+	@Column(name = "LATITUDE", nullable = false)
+	private double latitude;
+
+	@Column(name = "LONGITUDE", nullable = false)
+	private double longitude;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "DATE_CREATED", nullable = false)
+	private Date dateCreated;
+
+	public ShippingGeoCode() {
+	}
+
+	public ShippingGeoCode(String id, double latitude, double longitude) {
+		this.id = id;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.dateCreated = new Date();
+	}
+
+	@Override
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+}
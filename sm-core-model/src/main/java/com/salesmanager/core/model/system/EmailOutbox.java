@@ -0,0 +1,162 @@
+package com.salesmanager.core.model.system;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.Type;
+
+import com.salesmanager.core.model.generic.SalesManagerEntity;
+
+/**
+ * An email waiting to be sent. Written in the transaction of the business
+ * change that triggers the email and delivered later by the email outbox
+ * dispatcher, the email itself is kept as json.
+ */
+@Entity
+@Table(name = "EMAIL_OUTBOX", indexes = { @Index(name = "EMAIL_OUTBOX_DUE_IDX", columnList = "STATUS,NEXT_ATTEMPT") })
+public class EmailOutbox extends SalesManagerEntity<Long, EmailOutbox> {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Status {
+		/** waiting for its next attempt **/
+		PENDING,
+		/** claimed by a dispatcher until next attempt **/
+		SENDING,
+		SENT,
+		/** gave up after the maximum number of attempts **/
+		FAILED
+	}
+
+	@Id
+	@Column(name = "EMAIL_OUTBOX_ID")
+	@TableGenerator(name = "TABLE_GEN", table = "SM_SEQUENCER", pkColumnName = "SEQ_NAME", valueColumnName = "SEQ_COUNT", pkColumnValue = "EMAIL_OUTBOX_SEQ_NEXT_VAL")
+	@GeneratedValue(strategy = GenerationType.TABLE, generator = "TABLE_GEN")
+	private Long id;
+
+	@Column(name = "MERCHANT_ID", nullable = false)
+	private Integer storeId;
+
+	@Column(name = "EMAIL", nullable = false)
+	@Type(type = "org.hibernate.type.TextType")
+	private String email;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "STATUS", length = 10, nullable = false)
+	private Status status = Status.PENDING;
+
+	@Column(name = "ATTEMPTS", nullable = false)
+	private int attempts;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "NEXT_ATTEMPT", nullable = false)
+	private Date nextAttempt;
+
+	@Column(name = "LAST_ERROR", length = 1000)
+	private String lastError;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "DATE_CREATED", nullable = false)
+	private Date dateCreated;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "DATE_SENT")
+	private Date dateSent;
+
+	public EmailOutbox() {
+	}
+
+	public EmailOutbox(Integer storeId, String email) {
+		this.storeId = storeId;
+		this.email = email;
+		this.dateCreated = new Date();
+		this.nextAttempt = this.dateCreated;
+	}
+
+	@Override
+	public Long getId() {
+		return id;
+	}
+
+	@Override
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Integer getStoreId() {
+		return storeId;
+	}
+
+	public void setStoreId(Integer storeId) {
+		this.storeId = storeId;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public void setEmail(String email) {
+		this.email = email;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public Date getNextAttempt() {
+		return nextAttempt;
+	}
+
+	public void setNextAttempt(Date nextAttempt) {
+		this.nextAttempt = nextAttempt;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	public Date getDateCreated() {
+		return dateCreated;
+	}
+
+	public void setDateCreated(Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+	public Date getDateSent() {
+		return dateSent;
+	}
+
+	public void setDateSent(Date dateSent) {
+		this.dateSent = dateSent;
+	}
+
+}
@@ -1,9 +1,25 @@
 package com.salesmanager.core.modules.utils;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.salesmanager.core.model.common.Address;
 
 public interface GeoLocation {
 	
 	Address getAddress(String ipAddress) throws Exception;
 
+	/**
+	 * Resolves the address without blocking the caller when the implementation supports it
+	 * @return future completed with the address, null when it cannot be resolved
+	 */
+	default CompletableFuture<Address> getAddressAsync(String ipAddress) {
+		try {
+			return CompletableFuture.completedFuture(getAddress(ipAddress));
+		} catch (Exception e) {
+			CompletableFuture<Address> failed = new CompletableFuture<Address>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+	}
+
 }
@@ -1,8 +1,14 @@
 package com.salesmanager.core.business.configuration;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URL;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
 
 import org.drools.decisiontable.DecisionTableProviderImpl;
 import org.kie.api.KieServices;
@@ -10,20 +16,39 @@ import org.kie.api.builder.KieBuilder;
 import org.kie.api.builder.KieFileSystem;
 import org.kie.api.builder.KieModule;
 import org.kie.api.builder.KieRepository;
-import org.kie.api.builder.ReleaseId;
+import org.kie.api.KieBase;
 import org.kie.api.io.Resource;
+import org.kie.api.io.ResourceType;
 import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
 import org.kie.internal.builder.DecisionTableConfiguration;
 import org.kie.internal.builder.DecisionTableInputType;
 import org.kie.internal.builder.KnowledgeBuilderFactory;
 import org.kie.internal.io.ResourceFactory;
+import org.kie.internal.utils.KieHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+/**
+ * Compiles drools rule files once and hands out sessions from the
+ * compiled KieBase. Rule files found on the file system (exploded
+ * classpath) are recompiled when modified, checked at most every
+ * config.rules.reloadInterval seconds.
+ */
 @Component
 public class DroolsBeanFactory {
 	
+	private static final Logger LOGGER = LoggerFactory.getLogger(DroolsBeanFactory.class);
+	
+	public static final String PROMO_COUPON_RULE = "PromoCoupon.drl";
+	public static final String SHIPPING_DECISION_RULE = "ShippingDecision.drl";
+	public static final String PRICE_BY_DISTANCE_RULE = "PriceByDistance.drl";
+	
+	@Value("${config.rules.reloadInterval:30}")
+	private long reloadInterval;
 	
 	@Value("${config.shipping.rule.priceByDistance}")
 	private String priceByDistance;
@@ -34,6 +59,30 @@ public class DroolsBeanFactory {
 
     private static final String RULES_PATH = "com/salesmanager/drools/rules/";
     private KieServices kieServices = KieServices.Factory.get();
+    
+    private final Map<String, CompiledRules> rules = new ConcurrentHashMap<String, CompiledRules>();
+    
+    @PostConstruct
+    public void init() {
+    	for(String rule : Arrays.asList(PROMO_COUPON_RULE, SHIPPING_DECISION_RULE, PRICE_BY_DISTANCE_RULE)) {
+    		try {
+    			getKieBase(RULES_PATH + rule);
+    		} catch(Exception | LinkageError e) {
+    			//will be compiled again on first use
+    			LOGGER.error("Cannot compile rule file " + rule, e);
+    		}
+    	}
+    }
+    
+    /**
+     * Stateless session created from the compiled rule file. Those sessions are cheap to
+     * create and do not need to be disposed
+     * @param rule rule file name such as PromoCoupon.drl
+     * @return StatelessKieSession
+     */
+    public StatelessKieSession getStatelessKieSession(String rule) {
+    	return getKieBase(RULES_PATH + rule).newStatelessKieSession();
+    }
 
     private  KieFileSystem getKieFileSystem() throws IOException{
         KieFileSystem kieFileSystem = kieServices.newKieFileSystem();
@@ -78,20 +127,80 @@ public class DroolsBeanFactory {
 
     }
 
+    /**
+     * Stateful session from a compiled rule file, the caller must dispose the session
+     */
     public KieSession getKieSession(Resource dt) {
-        KieFileSystem kieFileSystem = kieServices.newKieFileSystem()
-            .write(dt);
-
-       KieBuilder kieBuilder = kieServices.newKieBuilder(kieFileSystem)
-            .buildAll();
-
-        KieRepository kieRepository = kieServices.getRepository();
-
-        ReleaseId krDefaultReleaseId = kieRepository.getDefaultReleaseId();
-
-        KieContainer kieContainer = kieServices.newKieContainer(krDefaultReleaseId);
-
-        return kieContainer.newKieSession();
+        return getKieBase(dt.getSourcePath()).newKieSession();
+    }
+    
+    private KieBase getKieBase(String path) {
+    	CompiledRules compiled = rules.get(path);
+    	if(compiled == null || compiled.isStale(reloadInterval)) {
+    		synchronized(rules) {
+    			compiled = rules.get(path);
+    			//checked again without waiting for the interval, another thread may have recompiled
+    			if(compiled == null || compiled.isModified()) {
+    				compiled = compile(path);
+    				rules.put(path, compiled);
+    			}
+    		}
+    	}
+    	return compiled.kieBase;
+    }
+    
+    private CompiledRules compile(String path) {
+    	LOGGER.info("Compiling rule file " + path);
+    	KieBase kieBase = new KieHelper()
+    			.addResource(ResourceFactory.newClassPathResource(path), ResourceType.DRL)
+    			.build();
+    	File file = ruleFile(path);
+    	return new CompiledRules(kieBase, file, file != null ? file.lastModified() : 0);
+    }
+    
+    /**
+     * Rule file when the classpath is exploded on the file system, null when packaged in a jar
+     */
+    private File ruleFile(String path) {
+    	URL url = Thread.currentThread().getContextClassLoader().getResource(path);
+    	if(url == null || !"file".equals(url.getProtocol())) {
+    		return null;
+    	}
+    	try {
+    		return new File(url.toURI());
+    	} catch (Exception e) {
+    		return null;
+    	}
+    }
+    
+    private static class CompiledRules {
+    	
+    	private final KieBase kieBase;
+    	private final File file;
+    	private final long lastModified;
+    	private volatile long lastCheck = System.currentTimeMillis();
+    	
+    	CompiledRules(KieBase kieBase, File file, long lastModified) {
+    		this.kieBase = kieBase;
+    		this.file = file;
+    		this.lastModified = lastModified;
+    	}
+    	
+    	boolean isStale(long reloadInterval) {
+    		if(file == null || reloadInterval <= 0) {
+    			return false;
+    		}
+    		long now = System.currentTimeMillis();
+    		if(now - lastCheck < reloadInterval * 1000) {
+    			return false;
+    		}
+    		lastCheck = now;
+    		return isModified();
+    	}
+    	
+    	boolean isModified() {
+    		return file != null && file.lastModified() != lastModified;
+    	}
     }
 
     /*
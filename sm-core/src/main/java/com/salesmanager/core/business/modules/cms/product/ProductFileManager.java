@@ -1,10 +1,16 @@
 package com.salesmanager.core.business.modules.cms.product;
 
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.model.content.OutputContentFile;
 
 
 public abstract class ProductFileManager
     implements ProductImagePut, ProductImageGet, ProductImageRemove {
 
-
+  /**
+   * Product image best suited to display at the given width
+   */
+  public abstract OutputContentFile getProductImage(String merchantStoreCode, String productCode,
+      String imageName, int width) throws ServiceException;
 
 }
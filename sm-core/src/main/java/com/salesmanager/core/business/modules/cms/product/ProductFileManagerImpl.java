@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.salesmanager.core.business.constants.Constants;
 import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.modules.cms.product.ProductImageVariants.Variant;
 import com.salesmanager.core.business.utils.CoreConfiguration;
 import com.salesmanager.core.business.utils.ProductImageCropUtils;
 import com.salesmanager.core.business.utils.ProductImageSizeUtils;
@@ -37,6 +38,8 @@ public class ProductFileManagerImpl extends ProductFileManager {
 
   private CoreConfiguration configuration;
 
+  private ProductImageVariants imageVariants;
+
   private final static String PRODUCT_IMAGE_HEIGHT_SIZE = "PRODUCT_IMAGE_HEIGHT_SIZE";
   private final static String PRODUCT_IMAGE_WIDTH_SIZE = "PRODUCT_IMAGE_WIDTH_SIZE";
   private final static String CROP_UPLOADED_IMAGES = "CROP_UPLOADED_IMAGES";
@@ -82,8 +85,9 @@ public class ProductFileManagerImpl extends ProductFileManager {
 
       // Open new InputStreams using the recorded bytes
       // Can be repeated as many times as you wish
-      InputStream is1 = new ByteArrayInputStream(baos.toByteArray());
-      InputStream is2 = new ByteArrayInputStream(baos.toByteArray());
+      byte[] original = baos.toByteArray();
+      InputStream is1 = new ByteArrayInputStream(original);
+      InputStream is2 = new ByteArrayInputStream(original);
 
       BufferedImage bufferedImage = ImageIO.read(is2);
 
@@ -127,6 +131,18 @@ public class ProductFileManagerImpl extends ProductFileManager {
 
       // get template properties file
 
+      FileNameMap fileNameMap = URLConnection.getFileNameMap();
+
+      String contentType = fileNameMap.getContentTypeFor(contentImage.getFileName());
+      String extension = null;
+      if (contentType != null) {
+        extension = contentType.substring(contentType.indexOf('/') + 1, contentType.length());
+      }
+
+      if (extension == null) {
+        extension = "jpeg";
+      }
+
       String slargeImageHeight = configuration.getProperty(PRODUCT_IMAGE_HEIGHT_SIZE);
       String slargeImageWidth = configuration.getProperty(PRODUCT_IMAGE_WIDTH_SIZE);
 
@@ -141,19 +157,6 @@ public class ProductFileManagerImpl extends ProductFileManager {
                                                                                                // {
 
 
-        FileNameMap fileNameMap = URLConnection.getFileNameMap();
-
-        String contentType = fileNameMap.getContentTypeFor(contentImage.getFileName());
-        String extension = null;
-        if (contentType != null) {
-          extension = contentType.substring(contentType.indexOf('/') + 1, contentType.length());
-        }
-
-        if (extension == null) {
-          extension = "jpeg";
-        }
-
-
         int largeImageHeight = Integer.parseInt(slargeImageHeight);
         int largeImageWidth = Integer.parseInt(slargeImageWidth);
 
@@ -256,7 +259,10 @@ public class ProductFileManagerImpl extends ProductFileManager {
         uploadImage.addProductImage(productImage, contentImage);
       }
 
-
+      // thumbnail, listing, zoom... generated in background
+      if (imageVariants != null) {
+        imageVariants.submit(productImage, original, extension, uploadImage);
+      }
 
     } catch (Exception e) {
       throw new ServiceException(e);
@@ -295,6 +301,19 @@ public class ProductFileManagerImpl extends ProductFileManager {
 
     this.removeImage.removeProductImage(productImage);
 
+    if (imageVariants != null) {
+      for (Variant variant : imageVariants.getVariants()) {
+        ProductImage variantImage = new ProductImage();
+        variantImage.setProduct(productImage.getProduct());
+        variantImage.setProductImage(ProductImageVariants.fileName(productImage.getProductImage(), variant));
+        try {
+          this.removeImage.removeProductImage(variantImage);
+        } catch (ServiceException e) {
+          LOGGER.warn("Cannot remove image variant " + variantImage.getProductImage(), e);
+        }
+      }
+    }
+
     /*
      * ProductImage large = new ProductImage(); large.setProduct(productImage.getProduct());
      * large.setProductImage("L" + productImage.getProductImage());
@@ -326,6 +345,16 @@ public class ProductFileManagerImpl extends ProductFileManager {
   }
 
 
+  public ProductImageVariants getImageVariants() {
+    return imageVariants;
+  }
+
+
+  public void setImageVariants(ProductImageVariants imageVariants) {
+    this.imageVariants = imageVariants;
+  }
+
+
   public ProductImagePut getUploadImage() {
     return uploadImage;
   }
@@ -363,4 +392,32 @@ public class ProductFileManagerImpl extends ProductFileManager {
 
 
 
+  /**
+   * Closest generated variant for the requested width, the regular
+   * small or large image when no variant fits or the variant is not generated yet
+   */
+  @Override
+  public OutputContentFile getProductImage(String merchantStoreCode, String productCode,
+      String imageName, int width) throws ServiceException {
+    Variant variant = imageVariants != null ? imageVariants.closest(width) : null;
+    if (variant != null) {
+      OutputContentFile image = null;
+      try {
+        image = getImage.getProductImage(merchantStoreCode, productCode,
+            ProductImageVariants.fileName(imageName, variant), ProductImageSize.SMALL);
+      } catch (ServiceException e) {
+        LOGGER.debug("Image variant not available " + imageName + " " + variant.getName());
+      }
+      if (image != null) {
+        return image;
+      }
+    }
+    String largeImageWidth = configuration.getProperty(PRODUCT_IMAGE_WIDTH_SIZE);
+    ProductImageSize size = StringUtils.isNumeric(largeImageWidth) && width > Integer.parseInt(largeImageWidth)
+        ? ProductImageSize.LARGE : ProductImageSize.SMALL;
+    return getImage.getProductImage(merchantStoreCode, productCode, imageName, size);
+  }
+
+
+
 }
@@ -0,0 +1,268 @@
+package com.salesmanager.core.business.modules.cms.product;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.salesmanager.core.business.utils.ProductImageSizeUtils;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.image.ProductImage;
+import com.salesmanager.core.model.content.FileContentType;
+import com.salesmanager.core.model.content.ImageContentFile;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Produces resized variants (thumbnail, listing, zoom...) of uploaded product images
+ * on a bounded worker pool. Variants are stored through the configured ProductImagePut
+ * as regular product images named &lt;image name&gt;-&lt;variant&gt;.&lt;extension&gt;
+ *
+ * Variants are configured with config.image.variants as name:widthxheight pairs.
+ * When the work queue is full the uploading thread generates the variants itself,
+ * which slows down bulk imports instead of piling decoded images on the heap.
+ */
+@Component("productImageVariants")
+public class ProductImageVariants {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductImageVariants.class);
+
+	private static final String METRIC_PREFIX = "shopizer.image.variants";
+
+	@Value("${config.image.variants:thumbnail:150x150,listing:400x400,zoom:1200x1200}")
+	private String variantsConfiguration;
+
+	@Value("${config.image.variants.threads:2}")
+	private int threads;
+
+	@Value("${config.image.variants.queue:20}")
+	private int queueCapacity;
+
+	@Value("${config.image.variants.progressive:true}")
+	private boolean progressive;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	private List<Variant> variants = Collections.emptyList();
+
+	private ThreadPoolExecutor executor;
+
+	private final AtomicLong generated = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		variants = parse(variantsConfiguration);
+
+		AtomicInteger count = new AtomicInteger();
+		BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, r -> {
+			Thread t = new Thread(r, "product-image-variants-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+
+		if (meterRegistry != null) {
+			Gauge.builder(METRIC_PREFIX + ".queue", queue, BlockingQueue::size)
+					.description("Images waiting for their variants").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".generated", generated, AtomicLong::get).register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".failed", failed, AtomicLong::get).register(meterRegistry);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Configured variants ordered by width
+	 */
+	public List<Variant> getVariants() {
+		return variants;
+	}
+
+	/**
+	 * Smallest variant at least as wide as the requested width,
+	 * null when the width is larger than every variant
+	 */
+	public Variant closest(int width) {
+		for (Variant variant : variants) {
+			if (variant.getWidth() >= width) {
+				return variant;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * shirt.jpg -> shirt-thumbnail.jpg
+	 */
+	public static String fileName(String imageName, Variant variant) {
+		int dot = imageName.lastIndexOf('.');
+		if (dot < 0) {
+			return imageName + "-" + variant.getName();
+		}
+		return imageName.substring(0, dot) + "-" + variant.getName() + imageName.substring(dot);
+	}
+
+	/**
+	 * Generates and stores the variants of an image
+	 * @param productImage image, only product sku, store and image name are used
+	 * @param original uploaded image
+	 * @param format image format name (jpeg, png, gif)
+	 * @param target where variants are stored
+	 */
+	public void submit(ProductImage productImage, byte[] original, String format, ProductImagePut target) {
+		if (variants.isEmpty()) {
+			return;
+		}
+		ProductImage image = detach(productImage);
+		executor.execute(() -> generate(image, original, format, target));
+	}
+
+	void generate(ProductImage productImage, byte[] original, String format, ProductImagePut target) {
+		try {
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(original));
+			if (image == null) {
+				LOGGER.warn("Cannot read image format for " + productImage.getProductImage());
+				return;
+			}
+			for (Variant variant : variants) {
+				if (image.getWidth() <= variant.getWidth() && image.getHeight() <= variant.getHeight()) {
+					// never upscale, the read path falls back to the original
+					continue;
+				}
+				BufferedImage resized = ProductImageSizeUtils.resizeWithRatio(image, variant.getWidth(),
+						variant.getHeight());
+
+				ImageContentFile content = new ImageContentFile();
+				content.setFileContentType(FileContentType.PRODUCT);
+				content.setFileName(fileName(productImage.getProductImage(), variant));
+				content.setMimeType("image/" + format);
+				content.setFile(new ByteArrayInputStream(encode(resized, format)));
+				target.addProductImage(productImage, content);
+				generated.incrementAndGet();
+			}
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			LOGGER.error("Cannot generate variants of image " + productImage.getProductImage(), e);
+		}
+	}
+
+	/**
+	 * Progressive jpeg when enabled, other formats are written as is
+	 */
+	byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new IOException("No image writer for " + format);
+		}
+		ImageWriter writer = writers.next();
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(ios);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (progressive && param.canWriteProgressive()) {
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Copy holding what the storage backends use, the entity is not
+	 * touched outside of the upload thread
+	 */
+	private ProductImage detach(ProductImage productImage) {
+		Product product = new Product();
+		product.setId(productImage.getProduct().getId());
+		product.setSku(productImage.getProduct().getSku());
+		product.setMerchantStore(productImage.getProduct().getMerchantStore());
+		ProductImage image = new ProductImage();
+		image.setProduct(product);
+		image.setProductImage(productImage.getProductImage());
+		return image;
+	}
+
+	static List<Variant> parse(String configuration) {
+		List<Variant> parsed = new ArrayList<Variant>();
+		if (StringUtils.isBlank(configuration)) {
+			return parsed;
+		}
+		for (String entry : configuration.split(",")) {
+			String[] nameAndSize = entry.trim().split(":");
+			String[] size = nameAndSize.length == 2 ? nameAndSize[1].split("x") : new String[0];
+			if (size.length != 2) {
+				throw new IllegalArgumentException("Invalid image variant [" + entry + "], expected name:widthxheight");
+			}
+			parsed.add(new Variant(nameAndSize[0].trim(), Integer.parseInt(size[0].trim()),
+					Integer.parseInt(size[1].trim())));
+		}
+		parsed.sort(Comparator.comparingInt(Variant::getWidth));
+		return Collections.unmodifiableList(parsed);
+	}
+
+	public static final class Variant {
+
+		private final String name;
+		private final int width;
+		private final int height;
+
+		Variant(String name, int width, int height) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+	}
+
+}
@@ -1,16 +1,28 @@
 package com.salesmanager.core.business.modules.cms.product.local;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import javax.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.salesmanager.core.business.constants.Constants;
+import org.springframework.beans.factory.annotation.Value;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.modules.cms.impl.CMSManager;
 import com.salesmanager.core.business.modules.cms.impl.LocalCacheManagerImpl;
@@ -25,16 +37,27 @@ import com.salesmanager.core.model.merchant.MerchantStore;
 
 /**
  * Manager for storing and deleting image files from the CMS which is a web server
- * 
+ *
  * Manages - Product images
- * 
+ *
+ * Images are stored under root/products/&lt;store code&gt;/&lt;shard&gt;/&lt;sku&gt;/&lt;SMALL|LARGE&gt;/&lt;image&gt;
+ * where shard is one of 256 directories derived from the sku, so that a store
+ * with a large catalog does not end up with one directory per product under a
+ * single parent. Images written before config.cms.local.sharded was enabled are
+ * still read from root/products/&lt;store code&gt;/&lt;sku&gt;/...
+ *
+ * Files are written to a temporary file then moved in place, a reader never
+ * sees a partial image. Images up to config.cms.local.cache.maxFileSize bytes
+ * are kept in a size bounded LRU, larger images are returned with their path and
+ * streamed from disk by the caller.
+ *
  * @author Carl Samson
  */
 public class CmsImageFileManagerImpl
     implements ProductAssetsManager {
 
   /**
-   * 
+   *
    */
   private static final long serialVersionUID = 1L;
 
@@ -49,16 +72,43 @@ public class CmsImageFileManagerImpl
 
   private static final String ROOT_CONTAINER = "products";
 
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  /**
+   * bytes counted for a cached image on top of its content
+   */
+  private static final int CACHE_ENTRY_OVERHEAD = 128;
+
   private String rootName = ROOT_NAME;
 
   private LocalCacheManagerImpl cacheManager;
 
+  @Value("${config.cms.local.sharded:true}")
+  private boolean sharded = true;
+
+  @Value("${config.cms.local.cache.size:64}")
+  private long cacheSize = 64;
+
+  @Value("${config.cms.local.cache.maxFileSize:65536}")
+  private long maxCachedFileSize = 65536;
+
+  @Value("${config.cms.local.cache.ttl:300}")
+  private long cacheTtl = 300;
+
+  private transient Cache<Path, CachedImage> images;
+
   @PostConstruct
   void init() {
 
     this.rootName = ((CMSManager) cacheManager).getRootName();
     LOGGER.info("init " + getClass().getName() + " setting root" + this.rootName);
 
+    this.images = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize * 1024 * 1024)
+        .weigher((Path path, CachedImage image) -> image.content.length + CACHE_ENTRY_OVERHEAD)
+        .expireAfterWrite(cacheTtl, TimeUnit.SECONDS)
+        .build();
+
   }
 
   public static CmsImageFileManagerImpl getInstance() {
@@ -76,8 +126,12 @@ public class CmsImageFileManagerImpl
   }
 
   /**
-   * root/products/<merchant id>/<product id>/1.jpg
+   * Shard directory of a product, two hexadecimal digits derived from its sku
    */
+  public static String shard(String sku) {
+    String shard = Integer.toHexString(sku.hashCode() & 0xff);
+    return shard.length() == 1 ? "0" + shard : shard;
+  }
 
   @Override
   public void addProductImage(ProductImage productImage, ImageContentFile contentImage)
@@ -86,42 +140,19 @@ public class CmsImageFileManagerImpl
 
     try {
 
-      // base path
-      String rootPath = this.buildRootPath();
-      Path confDir = Paths.get(rootPath);
-      this.createDirectoryIfNorExist(confDir);
-
-      // node path
-      StringBuilder nodePath = new StringBuilder();
-      nodePath.append(rootPath).append(productImage.getProduct().getMerchantStore().getCode());
-      Path merchantPath = Paths.get(nodePath.toString());
-      this.createDirectoryIfNorExist(merchantPath);
-
-      // product path
-      nodePath.append(Constants.SLASH).append(productImage.getProduct().getSku())
-          .append(Constants.SLASH);
-      Path dirPath = Paths.get(nodePath.toString());
-      this.createDirectoryIfNorExist(dirPath);
-
-      // small large
-      if (contentImage.getFileContentType().name().equals(FileContentType.PRODUCT.name())) {
-        nodePath.append(SMALL);
-      } else if (contentImage.getFileContentType().name()
+      String size = SMALL;
+      if (contentImage.getFileContentType().name()
           .equals(FileContentType.PRODUCTLG.name())) {
-        nodePath.append(LARGE);
+        size = LARGE;
       }
-      Path sizePath = Paths.get(nodePath.toString());
-      this.createDirectoryIfNorExist(sizePath);
-
 
-      // file creation
-      nodePath.append(Constants.SLASH).append(contentImage.getFileName());
+      Path directory = productPath(productImage.getProduct().getMerchantStore().getCode(),
+          productImage.getProduct().getSku()).resolve(size);
+      Files.createDirectories(directory);
 
-
-      Path path = Paths.get(nodePath.toString());
-      InputStream isFile = contentImage.getFile();
-
-      Files.copy(isFile, path, StandardCopyOption.REPLACE_EXISTING);
+      Path path = resolve(directory, contentImage.getFileName());
+      write(contentImage.getFile(), path);
+      images.invalidate(path);
 
 
     } catch (Exception e) {
@@ -135,8 +166,8 @@ public class CmsImageFileManagerImpl
   @Override
   public OutputContentFile getProductImage(ProductImage productImage) throws ServiceException {
 
-    // the web server takes care of the images
-    return null;
+    return getProductImage(productImage.getProduct().getMerchantStore().getCode(),
+        productImage.getProduct().getSku(), productImage.getProductImage());
 
   }
 
@@ -144,18 +175,39 @@ public class CmsImageFileManagerImpl
   public List<OutputContentFile> getImages(MerchantStore store, FileContentType imageContentType)
       throws ServiceException {
 
-    // the web server takes care of the images
-
-    return null;
+    return getImages(store.getCode(), imageContentType);
 
   }
 
+  /**
+   * Small and large images of a product, the files are not read
+   */
   @Override
   public List<OutputContentFile> getImages(Product product) throws ServiceException {
 
-    // the web server takes care of the images
+    List<OutputContentFile> files = new ArrayList<OutputContentFile>();
+    try {
+
+      for (Path productPath : productPaths(product.getMerchantStore().getCode(), product.getSku())) {
+        for (String size : new String[] {SMALL, LARGE}) {
+          Path directory = productPath.resolve(size);
+          if (!Files.isDirectory(directory)) {
+            continue;
+          }
+          try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+              if (Files.isRegularFile(path) && !isTemporary(path)) {
+                files.add(outputFile(path, size));
+              }
+            }
+          }
+        }
+      }
 
-    return null;
+    } catch (Exception e) {
+      throw new ServiceException(e);
+    }
+    return files;
   }
 
 
@@ -165,14 +217,9 @@ public class CmsImageFileManagerImpl
 
     try {
 
-
-      StringBuilder merchantPath = new StringBuilder();
-      merchantPath.append(buildRootPath()).append(Constants.SLASH).append(merchantStoreCode);
-
-      Path path = Paths.get(merchantPath.toString());
-
-      Files.deleteIfExists(path);
-
+      Path path = storePath(merchantStoreCode);
+      delete(path);
+      invalidate(path);
 
     } catch (Exception e) {
       throw new ServiceException(e);
@@ -188,31 +235,14 @@ public class CmsImageFileManagerImpl
 
     try {
 
-
-      StringBuilder nodePath = new StringBuilder();
-      nodePath.append(buildRootPath()).append(Constants.SLASH)
-          .append(productImage.getProduct().getMerchantStore().getCode()).append(Constants.SLASH)
-          .append(productImage.getProduct().getSku());
-
-      // delete small
-      StringBuilder smallPath = new StringBuilder(nodePath);
-      smallPath.append(Constants.SLASH).append(SMALL).append(Constants.SLASH)
-          .append(productImage.getProductImage());
-
-
-      Path path = Paths.get(smallPath.toString());
-
-      Files.deleteIfExists(path);
-
-      // delete large
-      StringBuilder largePath = new StringBuilder(nodePath);
-      largePath.append(Constants.SLASH).append(LARGE).append(Constants.SLASH)
-          .append(productImage.getProductImage());
-
-
-      path = Paths.get(largePath.toString());
-
-      Files.deleteIfExists(path);
+      for (Path productPath : productPaths(productImage.getProduct().getMerchantStore().getCode(),
+          productImage.getProduct().getSku())) {
+        for (String size : new String[] {SMALL, LARGE}) {
+          Path path = resolve(productPath.resolve(size), productImage.getProductImage());
+          Files.deleteIfExists(path);
+          images.invalidate(path);
+        }
+      }
 
     } catch (Exception e) {
       throw new ServiceException(e);
@@ -226,16 +256,10 @@ public class CmsImageFileManagerImpl
 
     try {
 
-
-      StringBuilder nodePath = new StringBuilder();
-      nodePath.append(buildRootPath()).append(Constants.SLASH)
-          .append(product.getMerchantStore().getCode()).append(Constants.SLASH)
-          .append(product.getSku());
-
-
-      Path path = Paths.get(nodePath.toString());
-
-      Files.deleteIfExists(path);
+      for (Path path : productPaths(product.getMerchantStore().getCode(), product.getSku())) {
+        delete(path);
+        invalidate(path);
+      }
 
     } catch (Exception e) {
       throw new ServiceException(e);
@@ -244,13 +268,28 @@ public class CmsImageFileManagerImpl
   }
 
 
+  /**
+   * Every image of a store, the files are not read
+   */
   @Override
   public List<OutputContentFile> getImages(final String merchantStoreCode,
       FileContentType imageContentType) throws ServiceException {
 
-    // the web server taks care of the images
+    String wanted = FileContentType.PRODUCTLG.equals(imageContentType) ? LARGE : SMALL;
+    List<OutputContentFile> files = new ArrayList<OutputContentFile>();
+    Path store = storePath(merchantStoreCode);
+    if (!Files.isDirectory(store)) {
+      return files;
+    }
 
-    return null;
+    try (Stream<Path> paths = Files.walk(store)) {
+      paths.filter(path -> Files.isRegularFile(path) && !isTemporary(path)
+          && wanted.equals(path.getParent().getFileName().toString()))
+          .forEach(path -> files.add(outputFile(path, wanted)));
+    } catch (Exception e) {
+      throw new ServiceException(e);
+    }
+    return files;
   }
 
   @Override
@@ -266,26 +305,154 @@ public class CmsImageFileManagerImpl
     return getProductImage(merchantStoreCode, productCode, imageName, size.name());
   }
 
+  /**
+   * Small images come from the image cache, other images hold their path
+   * so they can be streamed from disk
+   */
   private OutputContentFile getProductImage(String merchantStoreCode, String productCode,
       String imageName, String size) throws ServiceException {
 
-    return null;
+    try {
+
+      for (Path productPath : productPaths(merchantStoreCode, productCode)) {
+        Path path = resolve(productPath.resolve(size), imageName);
+
+        CachedImage cached = images.getIfPresent(path);
+        if (cached != null) {
+          return cached.outputFile(path, size);
+        }
+
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+
+        if (attributes.size() <= maxCachedFileSize) {
+          cached = new CachedImage(Files.readAllBytes(path), attributes.lastModifiedTime().toMillis(),
+              Files.probeContentType(path));
+          images.put(path, cached);
+          return cached.outputFile(path, size);
+        }
+
+        OutputContentFile contentFile = outputFile(path, size);
+        contentFile.setLastModified(attributes.lastModifiedTime().toMillis());
+        return contentFile;
+      }
+      return null;
+
+    } catch (ServiceException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ServiceException(e);
+    }
 
   }
 
 
-  private String buildRootPath() {
-    return new StringBuilder().append(getRootName()).append(Constants.SLASH).append(ROOT_CONTAINER)
-        .append(Constants.SLASH).toString();
+  private Path rootPath() {
+    return Paths.get(getRootName(), ROOT_CONTAINER).toAbsolutePath().normalize();
+  }
 
+  private Path storePath(String merchantStoreCode) throws ServiceException {
+    return resolve(rootPath(), merchantStoreCode);
   }
 
+  /**
+   * Directory where the images of a product are written
+   */
+  private Path productPath(String merchantStoreCode, String sku) throws ServiceException {
+    Path store = storePath(merchantStoreCode);
+    return sharded ? resolve(store.resolve(shard(sku)), sku) : resolve(store, sku);
+  }
 
-  private void createDirectoryIfNorExist(Path path) throws IOException {
+  /**
+   * Directories where the images of a product are read, the sharded one first
+   */
+  private List<Path> productPaths(String merchantStoreCode, String sku) throws ServiceException {
+    List<Path> paths = new ArrayList<Path>(2);
+    Path store = storePath(merchantStoreCode);
+    paths.add(resolve(store.resolve(shard(sku)), sku));
+    paths.add(resolve(store, sku));
+    if (!sharded) {
+      // legacy layout first
+      paths.add(paths.remove(0));
+    }
+    return paths;
+  }
 
-    if (Files.notExists(path)) {
-      Files.createDirectory(path);
+  /**
+   * Child path, names coming from requests cannot escape the parent directory
+   */
+  private Path resolve(Path parent, String name) throws ServiceException {
+    Path path = parent.resolve(name).normalize();
+    if (!path.startsWith(parent) || path.equals(parent)) {
+      throw new ServiceException("Invalid file name [" + name + "]");
     }
+    return path;
+  }
+
+  /**
+   * Copies to a temporary file of the target directory then moves it in place
+   */
+  private void write(InputStream content, Path path) throws IOException {
+    Path temp = Files.createTempFile(path.getParent(), "." + path.getFileName().toString(), TEMP_SUFFIX);
+    try {
+      Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void delete(Path directory) throws IOException {
+    if (!Files.exists(directory)) {
+      return;
+    }
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.deleteIfExists(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.deleteIfExists(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void invalidate(Path directory) {
+    images.asMap().keySet().removeIf(path -> path.startsWith(directory));
+  }
+
+  private boolean isTemporary(Path path) {
+    String name = path.getFileName().toString();
+    return name.startsWith(".") && name.endsWith(TEMP_SUFFIX);
+  }
+
+  private OutputContentFile outputFile(Path path, String size) {
+    OutputContentFile contentFile = new OutputContentFile();
+    contentFile.setFileName(path.getFileName().toString());
+    contentFile.setFileContentType(
+        LARGE.equals(size) ? FileContentType.PRODUCTLG : FileContentType.PRODUCT);
+    try {
+      contentFile.setMimeType(Files.probeContentType(path));
+    } catch (IOException e) {
+      LOGGER.debug("Cannot probe content type of " + path);
+    }
+    contentFile.setPath(path);
+    return contentFile;
   }
 
   public void setRootName(String rootName) {
@@ -304,6 +471,39 @@ public class CmsImageFileManagerImpl
     this.cacheManager = cacheManager;
   }
 
+  /**
+   * Content of a small image, shared by every request for that image
+   */
+  private static final class CachedImage {
 
+    private final byte[] content;
+    private final long lastModified;
+    private final String mimeType;
+
+    CachedImage(byte[] content, long lastModified, String mimeType) {
+      this.content = content;
+      this.lastModified = lastModified;
+      this.mimeType = mimeType;
+    }
+
+    /**
+     * The returned buffer wraps the cached content, it is not copied
+     */
+    OutputContentFile outputFile(Path path, String size) {
+      OutputContentFile contentFile = new OutputContentFile();
+      contentFile.setFileName(path.getFileName().toString());
+      contentFile.setFileContentType(
+          LARGE.equals(size) ? FileContentType.PRODUCTLG : FileContentType.PRODUCT);
+      contentFile.setMimeType(mimeType);
+      contentFile.setLastModified(lastModified);
+      contentFile.setFile(new ByteArrayOutputStream(0) {
+        {
+          buf = content;
+          count = content.length;
+        }
+      });
+      return contentFile;
+    }
+  }
 
 }
@@ -0,0 +1,516 @@
+package com.salesmanager.core.business.modules.common;
+
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Shared elasticsearch client and bounded event queue used by the index
+ * processors (cart, order...). Events are queued and sent through the
+ * _bulk api when the queue reaches elasticsearch.events.bulkSize
+ * or every elasticsearch.events.flushInterval milliseconds.
+ *
+ * When the queue is full producers wait up to elasticsearch.events.offerTimeout
+ * milliseconds, then the overflow policy applies (DROP_NEWEST, DROP_OLDEST or SPILL).
+ *
+ * Events of a bulk request that fails, or rejected by elasticsearch with a
+ * 429 or 5xx status, are put back at the head of the queue and sent again
+ * with the next flush. Events rejected for other reasons (mapping...) are
+ * counted as failed.
+ *
+ * SPILL appends events to a file in elasticsearch.events.spillDirectory, up to
+ * elasticsearch.events.spillMaxSize bytes. While the file holds events new
+ * events are appended after them to keep their order, the flusher moves them
+ * back to the queue as it drains. Events spilled before a restart are sent
+ * once the indexer starts again.
+ */
+@Component
+public class BulkEventIndexer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BulkEventIndexer.class);
+
+	private static final String METRIC_PREFIX = "shopizer.index.events";
+
+	public enum OverflowPolicy {
+		DROP_NEWEST, DROP_OLDEST, SPILL
+	}
+
+	private static final String SPILL_FILE = "events.spill";
+
+	private static final String DEFAULT_SPILL_DIRECTORY = "./files/events";
+
+	@Value("${elasticsearch.server.host}")
+	private List<String> hosts;
+
+	@Value("${elasticsearch.server.protocole}")
+	private String protocol;
+
+	@Value("${elasticsearch.server.port}")
+	private int port;
+
+	@Value("${elasticsearch.security.enabled}")
+	private Boolean securityEnabled;
+
+	@Value("${elasticsearch.security.user}")
+	private String user;
+
+	@Value("${elasticsearch.security.password}")
+	private String password;
+
+	@Value("${elasticsearch.events.queueCapacity:10000}")
+	private int queueCapacity;
+
+	@Value("${elasticsearch.events.bulkSize:500}")
+	private int bulkSize;
+
+	@Value("${elasticsearch.events.flushInterval:2000}")
+	private long flushInterval;
+
+	@Value("${elasticsearch.events.offerTimeout:50}")
+	private long offerTimeout;
+
+	@Value("${elasticsearch.events.overflowPolicy:DROP_NEWEST}")
+	private OverflowPolicy overflowPolicy;
+
+	@Value("${elasticsearch.events.spillDirectory:" + DEFAULT_SPILL_DIRECTORY + "}")
+	private String spillDirectory;
+
+	@Value("${elasticsearch.events.spillMaxSize:104857600}")
+	private long spillMaxSize;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	private volatile RestHighLevelClient client;
+
+	private BlockingDeque<IndexRequest> queue;
+
+	private ScheduledExecutorService flusher;
+
+	private final AtomicBoolean flushPending = new AtomicBoolean();
+
+	/**
+	 * stopped, events are not accepted anymore
+	 */
+	private volatile boolean closed;
+
+	private Path spillFile;
+
+	/**
+	 * spill file position of the first event not yet moved to the queue
+	 */
+	private long spillOffset;
+
+	/**
+	 * the spill file holds events, guarded by the spill file lock
+	 */
+	private volatile boolean spilling;
+
+	private final Object spillLock = new Object();
+
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong spilled = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+
+	private Timer flushTimer;
+
+	@PostConstruct
+	public void init() {
+		queue = new LinkedBlockingDeque<IndexRequest>(queueCapacity);
+		if (overflowPolicy == OverflowPolicy.SPILL) {
+			if (StringUtils.isBlank(spillDirectory)) {
+				LOGGER.warn("elasticsearch.events.spillDirectory is not set, using " + DEFAULT_SPILL_DIRECTORY);
+				spillDirectory = DEFAULT_SPILL_DIRECTORY;
+			}
+			spillFile = Paths.get(spillDirectory, SPILL_FILE);
+			// events left by a previous run
+			spilling = Files.exists(spillFile);
+		}
+		flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "bulk-event-indexer");
+			t.setDaemon(true);
+			return t;
+		});
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+		if (meterRegistry != null) {
+			Gauge.builder(METRIC_PREFIX + ".queue", queue, BlockingQueue::size)
+					.description("Events waiting to be indexed").register(meterRegistry);
+			flushTimer = Timer.builder(METRIC_PREFIX + ".flush")
+					.description("Bulk flush latency").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".indexed", indexed, AtomicLong::get).register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".failed", failed, AtomicLong::get).register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".dropped", dropped, AtomicLong::get).register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".spilled", spilled, AtomicLong::get).register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".retried", retried, AtomicLong::get).register(meterRegistry);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		closed = true;
+		if (flusher == null) {
+			// init failed
+			return;
+		}
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+			// events that cannot be sent are not queued again once closed
+			while (!queue.isEmpty()) {
+				flush();
+			}
+		} catch (Exception e) {
+			LOGGER.warn("Events left in queue at shutdown " + queue.size(), e);
+		} finally {
+			closeClient();
+		}
+	}
+
+	/**
+	 * Queue a json document for bulk indexing
+	 * @param indexName index
+	 * @param id document id
+	 * @param json document source
+	 * @return false if the event has been dropped
+	 */
+	public boolean index(String indexName, String id, String json) {
+		if (closed) {
+			dropped.incrementAndGet();
+			LOGGER.warn("Event indexer stopped, dropping document " + id + " for index " + indexName);
+			return false;
+		}
+		IndexRequest request = new IndexRequest(indexName).id(id).source(json, XContentType.JSON);
+
+		boolean queued = false;
+		if (overflowPolicy == OverflowPolicy.SPILL && spilling) {
+			// behind the events already spilled
+			queued = spill(request);
+		} else {
+			try {
+				queued = queue.offer(request, offerTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (!queued && overflowPolicy == OverflowPolicy.SPILL) {
+				queued = spill(request);
+			}
+		}
+
+		if (!queued && overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+			while (!queued) {
+				if (queue.poll() != null) {
+					dropped.incrementAndGet();
+				}
+				queued = queue.offer(request);
+			}
+		} else if (!queued) {
+			dropped.incrementAndGet();
+			LOGGER.warn("Event queue full, dropping document " + id + " for index " + indexName);
+		}
+
+		if (queue.size() >= bulkSize && flushPending.compareAndSet(false, true)) {
+			try {
+				flusher.execute(this::flushQuietly);
+			} catch (RejectedExecutionException e) {
+				// stopping, the queue is flushed by shutdown
+				flushPending.set(false);
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Shared client, created on first use
+	 */
+	public RestHighLevelClient client() {
+		RestHighLevelClient c = client;
+		if (c == null) {
+			synchronized (this) {
+				c = client;
+				if (c == null) {
+					c = client = createClient();
+				}
+			}
+		}
+		return c;
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public long getIndexed() {
+		return indexed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getSpilled() {
+		return spilled.get();
+	}
+
+	public long getRetried() {
+		return retried.get();
+	}
+
+	private void flushQuietly() {
+		flushPending.set(false);
+		try {
+			do {
+				while (flush() == bulkSize) {
+					// keep draining full batches
+				}
+			} while (unspill() > 0);
+		} catch (Exception e) {
+			LOGGER.error("Cannot flush events to elasticsearch", e);
+		}
+	}
+
+	/**
+	 * Puts events that could not be sent back at the head of the queue, in
+	 * their order. Events that do not fit anymore are spilled with the SPILL
+	 * policy, dropped otherwise.
+	 */
+	private void retry(List<IndexRequest> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		int lost = 0;
+		for (int i = batch.size() - 1; i >= 0; i--) {
+			IndexRequest request = batch.get(i);
+			if (!closed && queue.offerFirst(request)) {
+				retried.incrementAndGet();
+			} else if (overflowPolicy == OverflowPolicy.SPILL && spill(request)) {
+				// sent after the events already spilled
+			} else {
+				lost++;
+			}
+		}
+		if (lost > 0) {
+			dropped.addAndGet(lost);
+			LOGGER.warn("Event queue full, dropping " + lost + " events that could not be indexed");
+		}
+	}
+
+	/**
+	 * Appends an event to the spill file
+	 * @return false if the spill file is full or cannot be written
+	 */
+	private boolean spill(IndexRequest request) {
+		synchronized (spillLock) {
+			try {
+				if (Files.exists(spillFile) && Files.size(spillFile) >= spillMaxSize) {
+					return false;
+				}
+				Files.createDirectories(spillFile.getParent());
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+						spillFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+					write(out, request.index().getBytes(StandardCharsets.UTF_8));
+					write(out, request.id().getBytes(StandardCharsets.UTF_8));
+					write(out, BytesReference.toBytes(request.source()));
+				}
+				spilling = true;
+				spilled.incrementAndGet();
+				return true;
+			} catch (IOException e) {
+				LOGGER.error("Cannot spill event to " + spillFile, e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Moves spilled events to the queue while it has room
+	 * @return number of events moved
+	 */
+	private int unspill() throws IOException {
+		if (!spilling) {
+			return 0;
+		}
+		int moved = 0;
+		synchronized (spillLock) {
+			boolean end = false;
+			try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+				channel.position(spillOffset);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+				while (queue.remainingCapacity() > 0) {
+					byte[] index;
+					byte[] id;
+					byte[] source;
+					try {
+						index = read(in);
+						id = read(in);
+						source = read(in);
+					} catch (EOFException e) {
+						// end of file, or an event partially written when the process stopped
+						end = true;
+						break;
+					}
+					IndexRequest request = new IndexRequest(new String(index, StandardCharsets.UTF_8))
+							.id(new String(id, StandardCharsets.UTF_8)).source(source, XContentType.JSON);
+					if (!queue.offer(request)) {
+						break;
+					}
+					spillOffset += 12 + index.length + id.length + source.length;
+					moved++;
+				}
+			}
+			if (end) {
+				Files.deleteIfExists(spillFile);
+				spillOffset = 0;
+				spilling = false;
+			}
+		}
+		return moved;
+	}
+
+	private void write(DataOutputStream out, byte[] value) throws IOException {
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	private byte[] read(DataInputStream in) throws IOException {
+		byte[] value = new byte[in.readInt()];
+		in.readFully(value);
+		return value;
+	}
+
+	/**
+	 * Sends at most one bulk request
+	 * @return number of events sent
+	 */
+	int flush() throws Exception {
+		List<IndexRequest> batch = new ArrayList<IndexRequest>(bulkSize);
+		queue.drainTo(batch, bulkSize);
+		if (batch.isEmpty()) {
+			return 0;
+		}
+
+		BulkRequest bulk = new BulkRequest();
+		batch.forEach(bulk::add);
+
+		long start = System.nanoTime();
+		try {
+			BulkResponse response;
+			try {
+				response = client().bulk(bulk, RequestOptions.DEFAULT);
+			} catch (Exception e) {
+				retry(batch);
+				throw e;
+			}
+			int failures = 0;
+			List<IndexRequest> retries = new ArrayList<IndexRequest>();
+			if (response.hasFailures()) {
+				for (BulkItemResponse item : response.getItems()) {
+					if (!item.isFailed()) {
+						continue;
+					}
+					int status = item.status().getStatus();
+					if (status == 429 || status >= 500) {
+						retries.add(batch.get(item.getItemId()));
+					} else {
+						failures++;
+						LOGGER.error("Cannot index document " + item.getId() + " " + item.getFailureMessage());
+					}
+				}
+			}
+			failed.addAndGet(failures);
+			indexed.addAndGet(batch.size() - failures - retries.size());
+			retry(retries);
+		} finally {
+			if (flushTimer != null) {
+				flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			}
+		}
+		return batch.size();
+	}
+
+	private RestHighLevelClient createClient() {
+		List<HttpHost> nodes = hosts.stream().map(m -> new HttpHost(m, port, protocol)).collect(Collectors.toList());
+		RestClientBuilder builder = RestClient.builder(nodes.toArray(new HttpHost[nodes.size()]));
+
+		if (isTrue(securityEnabled)) {
+			final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+			credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(user, password));
+			builder.setHttpClientConfigCallback(
+					httpClientBuilder -> httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider));
+		}
+
+		return new RestHighLevelClient(builder);
+	}
+
+	private void closeClient() {
+		if (client != null) {
+			try {
+				client.close();
+			} catch (Exception e) {
+				LOGGER.warn("Cannot close elasticsearch client", e);
+			}
+			client = null;
+		}
+	}
+
+}
@@ -4,9 +4,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.inject.Inject;
 import javax.mail.BodyPart;
 import javax.mail.Message;
@@ -16,57 +18,116 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
-import org.springframework.mail.MailPreparationException;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessagePreparator;
 import org.springframework.stereotype.Component;
-import freemarker.template.Configuration;
-import freemarker.template.Template;
-import freemarker.template.TemplateException;
 
 @Component("defaultEmailSender")
 public class DefaultEmailSenderImpl implements EmailModule {
 
   @Inject
-  private Configuration freemarkerMailConfiguration;
+  private EmailTemplateRenderer emailTemplateRenderer;
   
   @Inject
   private JavaMailSender mailSender;
 
   private static final String CHARSET = "UTF-8";
-  private EmailConfig emailConfig;
 
-  private final static String TEMPLATE_PATH = "templates/email";
+  /**
+   * milliseconds to connect to and read from a store smtp server
+   */
+  private final static String SMTP_TIMEOUT = "10000";
+
+  /**
+   * senders by store email configuration, a configured JavaMailSenderImpl
+   * is thread safe and is shared by all emails sent with that configuration
+   */
+  private final Map<String, JavaMailSenderImpl> senders = new ConcurrentHashMap<String, JavaMailSenderImpl>();
 
   @Override
   public void send(Email email) throws Exception {
+    mailSender.send(preparator(email));
+  }
+
+  /**
+   * Prepares all messages then sends them over a single connection to the
+   * smtp server of the store
+   */
+  @Override
+  public Map<Email, Exception> send(EmailConfig emailConfig, List<Email> emails) throws Exception {
+
+    JavaMailSender sender = emailConfig == null ? mailSender : sender(emailConfig);
+
+    Map<Email, Exception> failed = new LinkedHashMap<Email, Exception>();
+    Map<MimeMessage, Email> messages = new LinkedHashMap<MimeMessage, Email>();
+    for (Email email : emails) {
+      MimeMessage message = sender.createMimeMessage();
+      try {
+        preparator(email).prepare(message);
+        messages.put(message, email);
+      } catch (Exception e) {
+        failed.put(email, e);
+      }
+    }
+
+    if (messages.isEmpty()) {
+      return failed;
+    }
+
+    try {
+      sender.send(messages.keySet().toArray(new MimeMessage[messages.size()]));
+    } catch (MailSendException e) {
+      if (e.getFailedMessages().isEmpty()) {
+        for (Email email : messages.values()) {
+          failed.put(email, e);
+        }
+      }
+      for (Map.Entry<Object, Exception> message : e.getFailedMessages().entrySet()) {
+        failed.put(messages.get(message.getKey()), message.getValue());
+      }
+    }
+    return failed;
+  }
+
+  private JavaMailSenderImpl sender(EmailConfig emailConfig) {
+    String key = new StringBuilder().append(emailConfig.getProtocol()).append("://")
+        .append(emailConfig.getUsername()).append(":").append(emailConfig.getPassword()).append("@")
+        .append(emailConfig.getHost()).append(":").append(emailConfig.getPort())
+        .append("?auth=").append(emailConfig.isSmtpAuth()).append("&starttls=").append(emailConfig.isStarttls())
+        .toString();
+    return senders.computeIfAbsent(key, k -> {
+      JavaMailSenderImpl impl = new JavaMailSenderImpl();
+      impl.setProtocol(emailConfig.getProtocol());
+      impl.setHost(emailConfig.getHost());
+      impl.setPort(Integer.parseInt(emailConfig.getPort()));
+      impl.setUsername(emailConfig.getUsername());
+      impl.setPassword(emailConfig.getPassword());
+      impl.setDefaultEncoding(CHARSET);
+
+      String protocol = StringUtils.defaultIfBlank(emailConfig.getProtocol(), "smtp");
+      Properties prop = new Properties();
+      prop.put("mail.smtp.auth", String.valueOf(emailConfig.isSmtpAuth()));
+      prop.put("mail.smtp.starttls.enable", String.valueOf(emailConfig.isStarttls()));
+      prop.put("mail." + protocol + ".connectiontimeout", SMTP_TIMEOUT);
+      prop.put("mail." + protocol + ".timeout", SMTP_TIMEOUT);
+      impl.setJavaMailProperties(prop);
+      return impl;
+    });
+  }
+
+  private MimeMessagePreparator preparator(Email email) {
 
     final String eml = email.getFrom();
     final String from = email.getFromEmail();
     final String to = email.getTo();
     final String subject = email.getSubject();
-    final String tmpl = email.getTemplateName();
-    final Map<String, String> templateTokens = email.getTemplateTokens();
 
-    MimeMessagePreparator preparator = new MimeMessagePreparator() {
+    return new MimeMessagePreparator() {
       public void prepare(MimeMessage mimeMessage) throws MessagingException, IOException {
 
-        JavaMailSenderImpl impl = (JavaMailSenderImpl) mailSender;
-        // if email configuration is present in Database, use the same
-        if (emailConfig != null) {
-          impl.setProtocol(emailConfig.getProtocol());
-          impl.setHost(emailConfig.getHost());
-          impl.setPort(Integer.parseInt(emailConfig.getPort()));
-          impl.setUsername(emailConfig.getUsername());
-          impl.setPassword(emailConfig.getPassword());
-
-          Properties prop = new Properties();
-          prop.put("mail.smtp.auth", emailConfig.isSmtpAuth());
-          prop.put("mail.smtp.starttls.enable", emailConfig.isStarttls());
-          impl.setJavaMailProperties(prop);
-        }
-
         mimeMessage.setRecipient(Message.RecipientType.TO, new InternetAddress(to));
 
         InternetAddress inetAddress = new InternetAddress();
@@ -79,22 +140,14 @@ public class DefaultEmailSenderImpl implements EmailModule {
 
         Multipart mp = new MimeMultipart("alternative");
 
+        // the same rendered template is used for the text and the html part
+        final byte[] content = emailTemplateRenderer.render(email).getBytes(CHARSET);
+
         // Create a "text" Multipart message
         BodyPart textPart = new MimeBodyPart();
-        freemarkerMailConfiguration.setClassForTemplateLoading(DefaultEmailSenderImpl.class, "/");
-        Template textTemplate = freemarkerMailConfiguration.getTemplate(
-            new StringBuilder(TEMPLATE_PATH).append("/").append(tmpl).toString());
-        final StringWriter textWriter = new StringWriter();
-        try {
-          textTemplate.process(templateTokens, textWriter);
-        } catch (TemplateException e) {
-          throw new MailPreparationException("Can't generate text mail", e);
-        }
         textPart.setDataHandler(new javax.activation.DataHandler(new javax.activation.DataSource() {
           public InputStream getInputStream() throws IOException {
-            // return new StringBufferInputStream(textWriter
-            // .toString());
-            return new ByteArrayInputStream(textWriter.toString().getBytes(CHARSET));
+            return new ByteArrayInputStream(content);
           }
 
           public OutputStream getOutputStream() throws IOException {
@@ -114,20 +167,9 @@ public class DefaultEmailSenderImpl implements EmailModule {
         // Create a "HTML" Multipart message
         Multipart htmlContent = new MimeMultipart("related");
         BodyPart htmlPage = new MimeBodyPart();
-        freemarkerMailConfiguration.setClassForTemplateLoading(DefaultEmailSenderImpl.class, "/");
-        Template htmlTemplate = freemarkerMailConfiguration.getTemplate(
-            new StringBuilder(TEMPLATE_PATH).append("/").append(tmpl).toString());
-        final StringWriter htmlWriter = new StringWriter();
-        try {
-          htmlTemplate.process(templateTokens, htmlWriter);
-        } catch (TemplateException e) {
-          throw new MailPreparationException("Can't generate HTML mail", e);
-        }
         htmlPage.setDataHandler(new javax.activation.DataHandler(new javax.activation.DataSource() {
           public InputStream getInputStream() throws IOException {
-            // return new StringBufferInputStream(htmlWriter
-            // .toString());
-            return new ByteArrayInputStream(textWriter.toString().getBytes(CHARSET));
+            return new ByteArrayInputStream(content);
           }
 
           public OutputStream getOutputStream() throws IOException {
@@ -157,16 +199,14 @@ public class DefaultEmailSenderImpl implements EmailModule {
 
       }
     };
-
-    mailSender.send(preparator);
   }
 
-  public Configuration getFreemarkerMailConfiguration() {
-    return freemarkerMailConfiguration;
+  public EmailTemplateRenderer getEmailTemplateRenderer() {
+    return emailTemplateRenderer;
   }
 
-  public void setFreemarkerMailConfiguration(Configuration freemarkerMailConfiguration) {
-    this.freemarkerMailConfiguration = freemarkerMailConfiguration;
+  public void setEmailTemplateRenderer(EmailTemplateRenderer emailTemplateRenderer) {
+    this.emailTemplateRenderer = emailTemplateRenderer;
   }
 
   public JavaMailSender getMailSender() {
@@ -177,12 +217,4 @@ public class DefaultEmailSenderImpl implements EmailModule {
     this.mailSender = mailSender;
   }
 
-  public EmailConfig getEmailConfig() {
-    return emailConfig;
-  }
-
-  public void setEmailConfig(EmailConfig emailConfig) {
-    this.emailConfig = emailConfig;
-  }
-
 }
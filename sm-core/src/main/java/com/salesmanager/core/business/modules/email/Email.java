@@ -16,6 +16,8 @@ public class Email implements Serializable {
 	private String to;
 	private String subject;
 	private String templateName;
+	/** language tag of the recipient, selects a localized template when one exists **/
+	private String locale;
 	
 	private Map<String,String> templateTokens = new HashMap<String,String>();
 
@@ -67,4 +69,12 @@ public class Email implements Serializable {
 		return fromEmail;
 	}
 
+	public String getLocale() {
+		return locale;
+	}
+
+	public void setLocale(String locale) {
+		this.locale = locale;
+	}
+
 }
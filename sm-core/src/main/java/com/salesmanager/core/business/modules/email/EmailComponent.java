@@ -1,5 +1,7 @@
 package com.salesmanager.core.business.modules.email;
 
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -18,34 +20,24 @@ public class EmailComponent implements HtmlEmailSender {
 
   @Override
   public void send(Email email) throws Exception {
-    switch(emailSender) 
-    { 
-        case "default": 
-          defaultEmailSender.send(email);
-            break; 
-        case "ses": 
-          sesEmailSender.send(email);
-            break; 
-        default: 
-            throw new Exception("No email implementation for " + emailSender); 
-    }
-    
+    module().send(email);
   }
 
   @Override
-  public void setEmailConfig(EmailConfig emailConfig) {
+  public Map<Email, Exception> send(EmailConfig emailConfig, List<Email> emails) throws Exception {
+    return module().send(emailConfig, emails);
+  }
+
+  private EmailModule module() throws Exception {
     switch(emailSender) 
     { 
         case "default": 
-          defaultEmailSender.setEmailConfig(emailConfig);
-            break; 
+            return defaultEmailSender;
         case "ses": 
-          sesEmailSender.setEmailConfig(emailConfig);
-            break; 
+            return sesEmailSender;
         default: 
- 
+            throw new Exception("No email implementation for " + emailSender); 
     }
-    
   }
 
 
@@ -1,9 +1,20 @@
 package com.salesmanager.core.business.modules.email;
 
+import java.util.List;
+import java.util.Map;
+
 public interface EmailModule {
   
   void send(final Email email) throws Exception;
 
-  void setEmailConfig(EmailConfig emailConfig);
+  /**
+   * Sends emails of a store with its configuration, over a single
+   * connection when the implementation allows it
+   * @param emailConfig configuration of the store, null for the system configuration
+   * @param emails
+   * @return emails that were not sent with their failure, empty when all were sent
+   * @throws Exception when no email could be sent
+   */
+  Map<Email, Exception> send(EmailConfig emailConfig, List<Email> emails) throws Exception;
 
 }
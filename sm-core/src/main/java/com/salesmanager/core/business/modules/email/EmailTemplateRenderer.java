@@ -0,0 +1,124 @@
+package com.salesmanager.core.business.modules.email;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.stereotype.Component;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultMapAdapter;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+/**
+ * Renders email templates for the email senders.
+ *
+ * A template is parsed once per name and locale and kept until its source
+ * changes, the source is checked at most every
+ * config.email.template.updateDelay seconds. Template tokens are adapted,
+ * not copied, for FreeMarker and each thread renders into its own reused
+ * buffer.
+ */
+@Component
+public class EmailTemplateRenderer {
+
+  private final static String TEMPLATE_PATH = "templates/email";
+
+  /**
+   * a thread buffer grown over this size by a large email is not kept
+   */
+  private final static int MAX_BUFFER_SIZE = 256 * 1024;
+
+  @Inject
+  private Configuration freemarkerMailConfiguration;
+
+  @Value("${config.email.template.updateDelay:60}")
+  private long updateDelay = 60;
+
+  private final Map<String, CachedTemplate> templates = new ConcurrentHashMap<String, CachedTemplate>();
+
+  private final ThreadLocal<StringWriter> buffers = ThreadLocal.withInitial(() -> new StringWriter(8 * 1024));
+
+  private DefaultObjectWrapper objectWrapper;
+
+  @PostConstruct
+  public void init() {
+    freemarkerMailConfiguration.setClassForTemplateLoading(EmailTemplateRenderer.class, "/");
+    freemarkerMailConfiguration.setTemplateUpdateDelayMilliseconds(TimeUnit.SECONDS.toMillis(updateDelay));
+    objectWrapper = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_31).build();
+  }
+
+  /**
+   * Renders the template of an email with its tokens
+   * @param email
+   * @return rendered email
+   * @throws MailPreparationException when the template cannot be rendered
+   */
+  public String render(Email email) throws IOException {
+    return render(email.getTemplateName(), locale(email), email.getTemplateTokens());
+  }
+
+  public String render(String templateName, Locale locale, Map<String, String> tokens) throws IOException {
+    Template template = template(templateName, locale);
+
+    StringWriter writer = buffers.get();
+    writer.getBuffer().setLength(0);
+    try {
+      template.process(DefaultMapAdapter.adapt(tokens, objectWrapper), writer);
+      return writer.toString();
+    } catch (TemplateException e) {
+      throw new MailPreparationException("Can't generate mail from " + templateName, e);
+    } finally {
+      if (writer.getBuffer().capacity() > MAX_BUFFER_SIZE) {
+        buffers.remove();
+      }
+    }
+  }
+
+  /**
+   * Parsed template, FreeMarker checks if the source changed only once
+   * the update delay of the cached template has passed
+   */
+  Template template(String templateName, Locale locale) throws IOException {
+    String key = locale == null ? templateName : templateName + "_" + locale;
+    long now = System.currentTimeMillis();
+    CachedTemplate cached = templates.get(key);
+    if (cached == null || cached.checked + TimeUnit.SECONDS.toMillis(updateDelay) < now) {
+      String path = new StringBuilder(TEMPLATE_PATH).append("/").append(templateName).toString();
+      Template template = locale == null ? freemarkerMailConfiguration.getTemplate(path)
+          : freemarkerMailConfiguration.getTemplate(path, locale);
+      cached = new CachedTemplate(template, now);
+      templates.put(key, cached);
+    }
+    return cached.template;
+  }
+
+  private Locale locale(Email email) {
+    return StringUtils.isBlank(email.getLocale()) ? null : Locale.forLanguageTag(email.getLocale());
+  }
+
+  public void setFreemarkerMailConfiguration(Configuration freemarkerMailConfiguration) {
+    this.freemarkerMailConfiguration = freemarkerMailConfiguration;
+  }
+
+  private static class CachedTemplate {
+
+    private final Template template;
+    private final long checked;
+
+    CachedTemplate(Template template, long checked) {
+      this.template = template;
+      this.checked = checked;
+    }
+  }
+
+}
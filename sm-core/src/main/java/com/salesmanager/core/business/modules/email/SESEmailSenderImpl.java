@@ -1,10 +1,11 @@
 package com.salesmanager.core.business.modules.email;
 
-import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.jsoup.helper.Validate;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.MailPreparationException;
 import org.springframework.stereotype.Component;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
@@ -14,9 +15,6 @@ import com.amazonaws.services.simpleemail.model.Content;
 import com.amazonaws.services.simpleemail.model.Destination;
 import com.amazonaws.services.simpleemail.model.Message;
 import com.amazonaws.services.simpleemail.model.SendEmailRequest;
-import freemarker.template.Configuration;
-import freemarker.template.Template;
-import freemarker.template.TemplateException;
 
 /**
  * AWS HTML email sender
@@ -28,13 +26,11 @@ import freemarker.template.TemplateException;
 public class SESEmailSenderImpl implements EmailModule {
 
   @Inject
-  private Configuration freemarkerMailConfiguration;
+  private EmailTemplateRenderer emailTemplateRenderer;
   
   @Value("${config.emailSender.region}")
   private String region;
 
-  private final static String TEMPLATE_PATH = "templates/email";
-
   // The configuration set to use for this email. If you do not want to use a
   // configuration set, comment the following variable and the
   // .withConfigurationSetName(CONFIGSET); argument below.
@@ -48,20 +44,46 @@ public class SESEmailSenderImpl implements EmailModule {
   @Override
   public void send(Email email) throws Exception {
 
+      send(client(), email);
+
+  }
+
+  /**
+   * SES has no per store configuration, all emails go through the same
+   * client
+   */
+  @Override
+  public Map<Email, Exception> send(EmailConfig emailConfig, List<Email> emails) throws Exception {
+
+      AmazonSimpleEmailService client = client();
+      Map<Email, Exception> failed = new LinkedHashMap<Email, Exception>();
+      for (Email email : emails) {
+        try {
+          send(client, email);
+        } catch (Exception e) {
+          failed.put(email, e);
+        }
+      }
+      return failed;
 
+  }
 
-      //String eml = email.getFrom();
+  private AmazonSimpleEmailService client() {
 
       Validate.notNull(region,"AWS region is null");
 
-      AmazonSimpleEmailService client = AmazonSimpleEmailServiceClientBuilder.standard()
+      return AmazonSimpleEmailServiceClientBuilder.standard()
           // Replace US_WEST_2 with the AWS Region you're using for
           // Amazon SES.
           .withRegion(Regions.valueOf(region.toUpperCase())).build();
+  }
+
+  private void send(AmazonSimpleEmailService client, Email email) throws Exception {
+
       SendEmailRequest request = new SendEmailRequest()
           .withDestination(new Destination().withToAddresses(email.getTo()))
           .withMessage(new Message()
-              .withBody(new Body().withHtml(new Content().withCharset("UTF-8").withData(prepareHtml(email)))
+              .withBody(new Body().withHtml(new Content().withCharset("UTF-8").withData(emailTemplateRenderer.render(email)))
                   .withText(new Content().withCharset("UTF-8").withData(TEXTBODY)))
               .withSubject(new Content().withCharset("UTF-8").withData(email.getSubject())))
           .withSource(email.getFromEmail());
@@ -70,30 +92,6 @@ public class SESEmailSenderImpl implements EmailModule {
           //.withConfigurationSetName(CONFIGSET);
       client.sendEmail(request);
 
-
-  }
-
-  private String prepareHtml(Email email) throws Exception {
-
-
-    freemarkerMailConfiguration.setClassForTemplateLoading(DefaultEmailSenderImpl.class, "/");
-    Template htmlTemplate = freemarkerMailConfiguration.getTemplate(new StringBuilder(TEMPLATE_PATH)
-            .append("/").append(email.getTemplateName()).toString());
-    final StringWriter htmlWriter = new StringWriter();
-    try {
-      htmlTemplate.process(email.getTemplateTokens(), htmlWriter);
-    } catch (TemplateException e) {
-      throw new MailPreparationException("Can't generate HTML mail", e);
-    }
-
-    return htmlWriter.toString();
-
-  }
-
-  @Override
-  public void setEmailConfig(EmailConfig emailConfig) {
-    // TODO Auto-generated method stub
-
   }
 
 }
@@ -9,9 +9,8 @@ import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.salesmanager.core.business.exception.ServiceException;
-import com.salesmanager.core.business.services.system.MerchantConfigurationService;
+import com.salesmanager.core.business.services.system.MerchantConfigurationRegistry;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.business.utils.ProductPriceUtils;
 import com.salesmanager.core.model.common.Delivery;
 import com.salesmanager.core.model.merchant.MerchantStore;
@@ -24,7 +23,6 @@ import com.salesmanager.core.model.shipping.ShippingQuote;
 import com.salesmanager.core.model.system.CustomIntegrationConfiguration;
 import com.salesmanager.core.model.system.IntegrationConfiguration;
 import com.salesmanager.core.model.system.IntegrationModule;
-import com.salesmanager.core.model.system.MerchantConfiguration;
 import com.salesmanager.core.modules.integration.IntegrationException;
 import com.salesmanager.core.modules.integration.shipping.model.CustomShippingQuoteWeightItem;
 import com.salesmanager.core.modules.integration.shipping.model.CustomShippingQuotesConfiguration;
@@ -38,7 +36,7 @@ public class CustomWeightBasedShippingQuote implements ShippingQuoteModule {
 	private final static String CUSTOM_WEIGHT = "CUSTOM_WEIGHT";
 	
 	@Inject
-	private MerchantConfigurationService merchantConfigurationService;
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
 	
 	@Inject
 	private ProductPriceUtils productPriceUtils;
@@ -61,17 +59,11 @@ public class CustomWeightBasedShippingQuote implements ShippingQuoteModule {
 
 		try {
 
-			MerchantConfiguration configuration = merchantConfigurationService.getMerchantConfiguration(MODULE_CODE, store);
+			CustomShippingQuotesConfiguration configuration = merchantConfigurationRegistry.get(store, MODULE_CODE,
+					value -> JsonUtils.readValue(value, CustomShippingQuotesConfiguration.class));
 	
 			if(configuration!=null) {
-				String value = configuration.getValue();
-				ObjectMapper mapper = new ObjectMapper();
-				try {
-					return mapper.readValue(value, CustomShippingQuotesConfiguration.class);
-				} catch(Exception e) {
-					throw new ServiceException("Cannot parse json string " + value);
-				}
-	
+				return configuration;
 			} else {
 				CustomShippingQuotesConfiguration custom = new CustomShippingQuotesConfiguration();
 				custom.setModuleCode(MODULE_CODE);
@@ -118,7 +110,7 @@ public class CustomWeightBasedShippingQuote implements ShippingQuoteModule {
 						//determine shipping weight
 						double weight = 0;
 						for(PackageDetails packageDetail : packages) {
-							weight = weight + packageDetail.getShippingWeight();
+							weight = weight + packageDetail.getShippingWeight() * Math.max(1, packageDetail.getShippingQuantity());
 						}
 						
 						//see the price associated with the width
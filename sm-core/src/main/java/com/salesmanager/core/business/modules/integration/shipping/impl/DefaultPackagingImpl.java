@@ -7,20 +7,29 @@ import java.util.Set;
 
 import javax.inject.Inject;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.shipping.ShippingService;
 import com.salesmanager.core.business.services.system.MerchantLogService;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.attribute.ProductAttribute;
 import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.shipping.Package;
 import com.salesmanager.core.model.shipping.PackageDetails;
 import com.salesmanager.core.model.shipping.ShippingConfiguration;
+import com.salesmanager.core.model.shipping.ShippingPackageType;
 import com.salesmanager.core.model.shipping.ShippingProduct;
 import com.salesmanager.core.model.system.MerchantLog;
 import com.salesmanager.core.modules.integration.shipping.model.Packaging;
 
 public class DefaultPackagingImpl implements Packaging {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(DefaultPackagingImpl.class);
+
+	private static final String DEFAULT_BOX = "DEFAULT";
+
 	
 	@Inject
 	private ShippingService shippingService;
@@ -28,6 +37,8 @@ public class DefaultPackagingImpl implements Packaging {
 	@Inject
 	private MerchantLogService merchantLogService;
 	
+	private final PackingEngine packingEngine = new PackingEngine();
+
 	/** default dimensions **/
 	private final static Double defaultWeight = 1D;
 	private final static Double defaultHeight = 4D;
@@ -44,271 +55,64 @@ public class DefaultPackagingImpl implements Packaging {
 			throw new ServiceException("Product list cannot be null !!");
 		}
 
-		double width = 0;
-		double length = 0;
-		double height = 0;
-		double weight = 0;
-		double maxweight = 0;
-
-		//int treshold = 0;
-		
-		
 		ShippingConfiguration shippingConfiguration = shippingService.getShippingConfiguration(store);
 		if(shippingConfiguration==null) {
 			throw new ServiceException("ShippingConfiguration not found for merchant " + store.getCode());
 		}
-		
-		width = (double) shippingConfiguration.getBoxWidth();
-		length = (double) shippingConfiguration.getBoxLength();
-		height = (double) shippingConfiguration.getBoxHeight();
-		weight = shippingConfiguration.getBoxWeight();
-		maxweight = shippingConfiguration.getMaxWeight();
-		
-
-
-		List<PackageDetails> boxes = new ArrayList<PackageDetails>();
-
-		// maximum number of boxes
-		int maxBox = 100;
-		int iterCount = 0;
-
-		List<Product> individualProducts = new ArrayList<Product>();
-
-		// need to put items individually
-		for(ShippingProduct shippingProduct : products){
-
-			Product product = shippingProduct.getProduct();
-			if (product.isProductVirtual()) {
-				continue;
-			}
-
-			int qty = shippingProduct.getQuantity();
-
-			Set<ProductAttribute> attrs = shippingProduct.getProduct().getAttributes();
-
-			// set attributes values
-			BigDecimal w = product.getProductWeight();
-			BigDecimal h = product.getProductHeight();
-			BigDecimal l = product.getProductLength();
-			BigDecimal wd = product.getProductWidth();
-			if(w==null) {
-				w = new BigDecimal(defaultWeight);
-			}
-			if(h==null) {
-				h = new BigDecimal(defaultHeight);
-			}
-			if(l==null) {
-				l = new BigDecimal(defaultLength);
-			}
-			if(wd==null) {
-				wd = new BigDecimal(defaultWidth);
-			}
-			if (attrs != null && attrs.size() > 0) {
-				for(ProductAttribute attribute : attrs) {
-					if(attribute.getProductAttributeWeight()!=null) {
-						w = w.add(attribute.getProductAttributeWeight());
-					}
-				}
-			}
-			
-
-
-			if (qty > 1) {
-
-				for (int i = 1; i <= qty; i++) {
-					Product temp = new Product();
-					temp.setProductHeight(h);
-					temp.setProductLength(l);
-					temp.setProductWidth(wd);
-					temp.setProductWeight(w);
-					temp.setAttributes(product.getAttributes());
-					temp.setDescriptions(product.getDescriptions());
-					individualProducts.add(temp);
-				}
-			} else {
-				Product temp = new Product();
-				temp.setProductHeight(h);
-				temp.setProductLength(l);
-				temp.setProductWidth(wd);
-				temp.setProductWeight(w);
-				temp.setAttributes(product.getAttributes());
-				temp.setDescriptions(product.getDescriptions());
-				individualProducts.add(temp);
-			}
-			iterCount++;
-		}
-
-		if (iterCount == 0) {
-			return null;
-		}
-
-		int productCount = individualProducts.size();
 
-		List<PackingBox> boxesList = new ArrayList<PackingBox>();
-
-		//start the creation of boxes
-		PackingBox box = new PackingBox();
-		// set box max volume
-		double maxVolume = width * length * height;
-
-		if (maxVolume == 0 || maxweight == 0) {
+		List<PackingEngine.Box> boxes = boxes(shippingConfiguration);
+		if (boxes.isEmpty()) {
 			
 			merchantLogService.save(new MerchantLog(store,"shipping","Check shipping box configuration, it has a volume of "
-							+ maxVolume + " and a maximum weight of "
-							+ maxweight
+							+ ((double) shippingConfiguration.getBoxWidth() * shippingConfiguration.getBoxLength() * shippingConfiguration.getBoxHeight())
+							+ " and a maximum weight of "
+							+ shippingConfiguration.getMaxWeight()
 							+ ". Those values must be greater than 0."));
 			
 			throw new ServiceException("Product configuration exceeds box configuraton");
-			
 
 		}
-		
-		
-		box.setVolumeLeft(maxVolume);
-		box.setWeightLeft(maxweight);
-
-		boxesList.add(box);//assign first box
-
-		//int boxCount = 1;
-		List<Product> assignedProducts = new ArrayList<Product>();
-
-		// calculate the volume for the next object
-		if (assignedProducts.size() > 0) {
-			individualProducts.removeAll(assignedProducts);
-			assignedProducts = new ArrayList<Product>();
-		}
-
-		boolean productAssigned = false;
-
-		for(Product p : individualProducts) {
-
-			//Set<ProductAttribute> attributes = p.getAttributes();
-			productAssigned = false;
 
-			double productWeight = p.getProductWeight().doubleValue();
-
-
-			// validate if product fits in the box
-			if (p.getProductWidth().doubleValue() > width
-					|| p.getProductHeight().doubleValue() > height
-					|| p.getProductLength().doubleValue() > length) {
-				// log message to customer
-				merchantLogService.save(new MerchantLog(store,"shipping","Product "
-						+ p.getSku()
-						+ " has a demension larger than the box size specified. Will use per item calculation."));
-				throw new ServiceException("Product configuration exceeds box configuraton");
-
-			}
-
-			if (productWeight > maxweight) {
-				merchantLogService.save(new MerchantLog(store,"shipping","Product "
-						+ p.getSku()
-						+ " has a weight larger than the box maximum weight specified. Will use per item calculation."));
-				
-				throw new ServiceException("Product configuration exceeds box configuraton");
+		List<PackingEngine.Item> items = new ArrayList<PackingEngine.Item>();
+		for(ShippingProduct shippingProduct : products){
 
+			Product product = shippingProduct.getProduct();
+			if (product.isProductVirtual() || shippingProduct.getQuantity() <= 0) {
+				continue;
 			}
 
-			double productVolume = (p.getProductWidth().doubleValue()
-					* p.getProductHeight().doubleValue() * p
-					.getProductLength().doubleValue());
-
-			if (productVolume == 0) {
+			PackingEngine.Item item = item(shippingProduct, false);
+			if (item.getVolume() == 0) {
 				
 				merchantLogService.save(new MerchantLog(store,"shipping","Product "
-						+ p.getSku()
+						+ product.getSku()
 						+ " has one of the dimension set to 0 and therefore cannot calculate the volume"));
 				
 				throw new ServiceException("Product configuration exceeds box configuraton");
 				
-
-			}
-			
-			if (productVolume > maxVolume) {
-				
-				throw new ServiceException("Product configuration exceeds box configuraton");
-				
-			}
-
-			//List boxesList = boxesList;
-
-			// try each box
-			//Iterator boxIter = boxesList.iterator();
-			for (PackingBox pbox : boxesList) {
-				double volumeLeft = pbox.getVolumeLeft();
-				double weightLeft = pbox.getWeightLeft();
-
-				if ((volumeLeft * .75) >= productVolume
-						&& pbox.getWeightLeft() >= productWeight) {// fit the item
-																	// in this
-																	// box
-					// fit in the current box
-					volumeLeft = volumeLeft - productVolume;
-					pbox.setVolumeLeft(volumeLeft);
-					weightLeft = weightLeft - productWeight;
-					pbox.setWeightLeft(weightLeft);
-
-					assignedProducts.add(p);
-					productCount--;
-
-					double w = pbox.getWeight();
-					w = w + productWeight;
-					pbox.setWeight(w);
-					productAssigned = true;
-					maxBox--;
-					break;
-
-				}
-
-			}
-
-			if (!productAssigned) {// create a new box
-
-				box = new PackingBox();
-				// set box max volume
-				box.setVolumeLeft(maxVolume);
-				box.setWeightLeft(maxweight);
-
-				boxesList.add(box);
-
-				double volumeLeft = box.getVolumeLeft() - productVolume;
-				box.setVolumeLeft(volumeLeft);
-				double weightLeft = box.getWeightLeft() - productWeight;
-				box.setWeightLeft(weightLeft);
-				assignedProducts.add(p);
-				productCount--;
-				double w = box.getWeight();
-				w = w + productWeight;
-				box.setWeight(w);
-				maxBox--;
 			}
-
+			items.add(item);
 		}
 
-		// now prepare the shipping info
-
-		// number of boxes
-
-		//Iterator ubIt = usedBoxesList.iterator();
-
-		System.out.println("###################################");
-		System.out.println("Number of boxes " + boxesList.size());
-		System.out.println("###################################");
-
-		for(PackingBox pb : boxesList) {
-			PackageDetails details = new PackageDetails();
-			details.setShippingHeight(height);
-			details.setShippingLength(length);
-			details.setShippingWeight(weight + box.getWeight());
-			details.setShippingWidth(width);
-			details.setItemName(store.getCode());
-			boxes.add(details);
+		if (items.isEmpty()) {
+			return null;
 		}
 
-		return boxes;
+		try {
+			List<PackageDetails> packages = packingEngine.pack(items, boxes);
+			LOGGER.debug("Number of boxes " + packages.stream().mapToInt(PackageDetails::getShippingQuantity).sum());
+			return packages;
+		} catch (ServiceException e) {
+			merchantLogService.save(new MerchantLog(store,"shipping", e.getMessage()
+					+ ", one of its dimensions or its weight is larger than the box size specified."));
+			throw e;
+		}
 
 	}
 
+	/**
+	 * One package per product, shipping quantity is the number of units
+	 */
 	@Override
 	public List<PackageDetails> getItemPackagesDetails(
 			List<ShippingProduct> products, MerchantStore store)
@@ -319,118 +123,92 @@ public class DefaultPackagingImpl implements Packaging {
 		for(ShippingProduct shippingProduct : products) {
 			Product product = shippingProduct.getProduct();
 
-			if (product.isProductVirtual()) {
+			if (product.isProductVirtual() || shippingProduct.getQuantity() <= 0) {
 				continue;
 			}
 
-			//BigDecimal weight = product.getProductWeight();
-			Set<ProductAttribute> attributes = product.getAttributes();
-			// set attributes values
-			BigDecimal w = product.getProductWeight();
-			BigDecimal h = product.getProductHeight();
-			BigDecimal l = product.getProductLength();
-			BigDecimal wd = product.getProductWidth();
-			if(w==null) {
-				w = new BigDecimal(defaultWeight);
-			}
-			if(h==null) {
-				h = new BigDecimal(defaultHeight);
-			}
-			if(l==null) {
-				l = new BigDecimal(defaultLength);
-			}
-			if(wd==null) {
-				wd = new BigDecimal(defaultWidth);
-			}
-			if (attributes != null && attributes.size() > 0) {
-				for(ProductAttribute attribute : attributes) {
-					if(attribute.getAttributeAdditionalWeight()!=null && attribute.getProductAttributeWeight() !=null) {
-						w = w.add(attribute.getProductAttributeWeight());
-					}
-				}
-			}
-			
-			
-
-			if (shippingProduct.getQuantity() == 1) {
-				PackageDetails detail = new PackageDetails();
+			PackingEngine.Item item = item(shippingProduct, true);
 
+			PackageDetails detail = new PackageDetails();
+			detail.setType(ShippingPackageType.ITEM.name());
+			detail.setShippingHeight(item.getHeight());
+			detail.setShippingLength(item.getLength());
+			detail.setShippingWeight(item.getWeight());
+			detail.setShippingWidth(item.getWidth());
+			detail.setShippingQuantity(shippingProduct.getQuantity());
+			detail.setItemName(item.getName());
 	
-				detail.setShippingHeight(h
-						.doubleValue());
-				detail.setShippingLength(l
-						.doubleValue());
-				detail.setShippingWeight(w.doubleValue());
-				detail.setShippingWidth(wd.doubleValue());
-				detail.setShippingQuantity(shippingProduct.getQuantity());
-				String description = "item";
-				if(product.getDescriptions().size()>0) {
-					description = product.getDescriptions().iterator().next().getName();
-				}
-				detail.setItemName(description);
-	
-				packages.add(detail);
-			} else if (shippingProduct.getQuantity() > 1) {
-				for (int i = 0; i < shippingProduct.getQuantity(); i++) {
-					PackageDetails detail = new PackageDetails();
-					detail.setShippingHeight(h
-							.doubleValue());
-					detail.setShippingLength(l
-							.doubleValue());
-					detail.setShippingWeight(w.doubleValue());
-					detail.setShippingWidth(wd
-							.doubleValue());
-					detail.setShippingQuantity(1);//issue seperate shipping
-					String description = "item";
-					if(product.getDescriptions().size()>0) {
-						description = product.getDescriptions().iterator().next().getName();
-					}
-					detail.setItemName(description);
-					
-					packages.add(detail);
-				}
-			}
+			packages.add(detail);
 		}
 		
 		return packages;
 		
-		
-		
-	}
-
-
-}
-
-
-class PackingBox {
-
-	private double volumeLeft;
-	private double weightLeft;
-	private double weight;
-
-	public double getVolumeLeft() {
-		return volumeLeft;
-	}
-
-	public void setVolumeLeft(double volumeLeft) {
-		this.volumeLeft = volumeLeft;
-	}
-
-	public double getWeight() {
-		return weight;
 	}
 
-	public void setWeight(double weight) {
-		this.weight = weight;
+	/**
+	 * Boxes of type BOX configured for the store, or the single box
+	 * of the shipping configuration
+	 */
+	private List<PackingEngine.Box> boxes(ShippingConfiguration shippingConfiguration) {
+		List<PackingEngine.Box> boxes = new ArrayList<PackingEngine.Box>();
+		if (shippingConfiguration.getPackages() != null) {
+			for (Package p : shippingConfiguration.getPackages()) {
+				if (p.getShipPackageType() == ShippingPackageType.BOX && p.getBoxWidth() * p.getBoxLength() * p.getBoxHeight() > 0
+						&& p.getMaxWeight() > 0) {
+					boxes.add(new PackingEngine.Box(p.getCode(), p.getBoxLength(), p.getBoxWidth(), p.getBoxHeight(),
+							p.getBoxWeight(), p.getMaxWeight()));
+				}
+			}
+		}
+		if (boxes.isEmpty()) {
+			double volume = (double) shippingConfiguration.getBoxWidth() * shippingConfiguration.getBoxLength() * shippingConfiguration.getBoxHeight();
+			if (volume > 0 && shippingConfiguration.getMaxWeight() > 0) {
+				boxes.add(new PackingEngine.Box(DEFAULT_BOX, shippingConfiguration.getBoxLength(), shippingConfiguration.getBoxWidth(),
+						shippingConfiguration.getBoxHeight(), shippingConfiguration.getBoxWeight(), shippingConfiguration.getMaxWeight()));
+			}
+		}
+		return boxes;
 	}
 
-	public double getWeightLeft() {
-		return weightLeft;
+	/**
+	 * Product dimensions and unit weight including attributes weight
+	 * @param additionalWeightOnly only count attributes flagged as additional weight
+	 */
+	private PackingEngine.Item item(ShippingProduct shippingProduct, boolean additionalWeightOnly) {
+		Product product = shippingProduct.getProduct();
+		Set<ProductAttribute> attributes = product.getAttributes();
+		// set attributes values
+		BigDecimal w = product.getProductWeight();
+		BigDecimal h = product.getProductHeight();
+		BigDecimal l = product.getProductLength();
+		BigDecimal wd = product.getProductWidth();
+		if(w==null) {
+			w = new BigDecimal(defaultWeight);
+		}
+		if(h==null) {
+			h = new BigDecimal(defaultHeight);
+		}
+		if(l==null) {
+			l = new BigDecimal(defaultLength);
+		}
+		if(wd==null) {
+			wd = new BigDecimal(defaultWidth);
+		}
+		if (attributes != null && attributes.size() > 0) {
+			for(ProductAttribute attribute : attributes) {
+				if(attribute.getProductAttributeWeight()!=null
+						&& (!additionalWeightOnly || attribute.getAttributeAdditionalWeight()!=null)) {
+					w = w.add(attribute.getProductAttributeWeight());
+				}
+			}
+		}
+		String description = "item";
+		if(product.getDescriptions()!=null && product.getDescriptions().size()>0) {
+			description = product.getDescriptions().iterator().next().getName();
+		}
+		return new PackingEngine.Item(description, l.doubleValue(), wd.doubleValue(), h.doubleValue(), w.doubleValue(),
+				shippingProduct.getQuantity());
 	}
 
-	public void setWeightLeft(double weightLeft) {
-		this.weightLeft = weightLeft;
-	}
 
 }
-
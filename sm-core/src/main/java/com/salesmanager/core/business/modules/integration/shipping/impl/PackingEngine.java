@@ -0,0 +1,274 @@
+package com.salesmanager.core.business.modules.integration.shipping.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.model.shipping.PackageDetails;
+import com.salesmanager.core.model.shipping.ShippingPackageType;
+
+/**
+ * First fit decreasing packing of (item, quantity) aggregates into a catalog of boxes.
+ *
+ * Items are sorted by volume then weight, largest first. Units of an item first go
+ * into boxes already opened, then into new boxes. When the remaining units need
+ * several boxes, the box holding the most units is used for all full boxes at once
+ * and the rest goes to the smallest box able to hold it. Work depends on the number
+ * of distinct items and boxes, not on quantities.
+ *
+ * Identical full boxes are returned as a single PackageDetails with a shipping quantity.
+ */
+public class PackingEngine {
+
+	/**
+	 * share of a box volume that can be filled, a unit larger than that
+	 * still gets a box of its own
+	 */
+	public static final double FILL_RATIO = 0.75;
+
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * Packs items in boxes
+	 * @param items items with quantity, dimensions and unit weight
+	 * @param boxes box catalog
+	 * @return packages, quantity set to the number of identical boxes
+	 * @throws ServiceException when an item does not fit in any box
+	 */
+	public List<PackageDetails> pack(List<Item> items, List<Box> boxes) throws ServiceException {
+
+		List<Item> sorted = new ArrayList<Item>(items);
+		sorted.sort(Comparator.comparingDouble(Item::getVolume).thenComparingDouble(Item::getWeight).reversed());
+
+		List<PackageDetails> packages = new ArrayList<PackageDetails>();
+		List<OpenBox> open = new ArrayList<OpenBox>();
+
+		for (Item item : sorted) {
+			long remaining = item.getQuantity();
+
+			for (OpenBox box : open) {
+				if (remaining == 0) {
+					break;
+				}
+				// a box holding a unit larger than its usable volume is full
+				if (box.volumeLeft <= EPSILON || box.weightLeft <= EPSILON || !box.box.fits(item)) {
+					continue;
+				}
+				long n = Math.max(0, Math.min(remaining, Math.min(units(box.volumeLeft, item.getVolume()), units(box.weightLeft, item.getWeight()))));
+				if (n == 0) {
+					continue;
+				}
+				box.add(item, n);
+				remaining -= n;
+			}
+
+			if (remaining == 0) {
+				continue;
+			}
+
+			Box largest = null;
+			for (Box box : boxes) {
+				if (box.fits(item) && (largest == null || capacity(box, item) > capacity(largest, item)
+						|| (capacity(box, item) == capacity(largest, item) && box.getVolume() < largest.getVolume()))) {
+					largest = box;
+				}
+			}
+			if (largest == null) {
+				throw new ServiceException("Product configuration exceeds box configuraton " + item.getName());
+			}
+
+			long perBox = capacity(largest, item);
+			if (remaining > perBox) {
+				long full = remaining / perBox;
+				packages.add(details(largest, perBox * item.getWeight(), full));
+				remaining = remaining % perBox;
+			}
+
+			if (remaining > 0) {
+				Box smallest = largest;
+				for (Box box : boxes) {
+					if (box.fits(item) && capacity(box, item) >= remaining && box.getVolume() < smallest.getVolume()) {
+						smallest = box;
+					}
+				}
+				OpenBox box = new OpenBox(smallest);
+				box.add(item, remaining);
+				open.add(box);
+			}
+		}
+
+		for (OpenBox box : open) {
+			packages.add(details(box.box, box.weight, 1));
+		}
+
+		return packages;
+	}
+
+	/**
+	 * units of an item an empty box can hold
+	 */
+	private long capacity(Box box, Item item) {
+		return Math.max(1, Math.min(units(box.getVolume() * FILL_RATIO, item.getVolume()), units(box.getMaxWeight(), item.getWeight())));
+	}
+
+	private long units(double left, double unit) {
+		if (unit <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return (long) Math.floor(left / unit + EPSILON);
+	}
+
+	private PackageDetails details(Box box, double contentWeight, long quantity) {
+		PackageDetails details = new PackageDetails();
+		details.setCode(box.getCode());
+		details.setType(ShippingPackageType.BOX.name());
+		details.setShippingLength(box.getLength());
+		details.setShippingWidth(box.getWidth());
+		details.setShippingHeight(box.getHeight());
+		details.setShippingMaxWeight(box.getMaxWeight());
+		details.setShippingWeight(box.getWeight() + contentWeight);
+		details.setShippingQuantity((int) Math.min(Integer.MAX_VALUE, quantity));
+		details.setItemName(box.getCode());
+		return details;
+	}
+
+	private static double[] sortedDimensions(double length, double width, double height) {
+		double[] dimensions = new double[] {length, width, height};
+		Arrays.sort(dimensions);
+		return dimensions;
+	}
+
+	private static final class OpenBox {
+
+		private final Box box;
+		private double volumeLeft;
+		private double weightLeft;
+		private double weight;
+
+		OpenBox(Box box) {
+			this.box = box;
+			this.volumeLeft = box.getVolume() * FILL_RATIO;
+			this.weightLeft = box.getMaxWeight();
+		}
+
+		void add(Item item, long quantity) {
+			volumeLeft -= item.getVolume() * quantity;
+			weightLeft -= item.getWeight() * quantity;
+			weight += item.getWeight() * quantity;
+		}
+	}
+
+	public static final class Item {
+
+		private final String name;
+		private final double length;
+		private final double width;
+		private final double height;
+		private final double weight;
+		private final long quantity;
+
+		public Item(String name, double length, double width, double height, double weight, long quantity) {
+			this.name = name;
+			this.length = length;
+			this.width = width;
+			this.height = height;
+			this.weight = weight;
+			this.quantity = quantity;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getLength() {
+			return length;
+		}
+
+		public double getWidth() {
+			return width;
+		}
+
+		public double getHeight() {
+			return height;
+		}
+
+		public double getVolume() {
+			return length * width * height;
+		}
+
+		/**
+		 * unit weight
+		 */
+		public double getWeight() {
+			return weight;
+		}
+
+		public long getQuantity() {
+			return quantity;
+		}
+	}
+
+	public static final class Box {
+
+		private final String code;
+		private final double length;
+		private final double width;
+		private final double height;
+		private final double weight;
+		private final double maxWeight;
+
+		/**
+		 * @param weight empty box weight
+		 * @param maxWeight maximum weight of the content
+		 */
+		public Box(String code, double length, double width, double height, double weight, double maxWeight) {
+			this.code = code;
+			this.length = length;
+			this.width = width;
+			this.height = height;
+			this.weight = weight;
+			this.maxWeight = maxWeight;
+		}
+
+		/**
+		 * a unit fits when its dimensions, in any orientation, and its weight fit
+		 */
+		boolean fits(Item item) {
+			double[] box = sortedDimensions(length, width, height);
+			double[] unit = sortedDimensions(item.length, item.width, item.height);
+			return unit[0] <= box[0] && unit[1] <= box[1] && unit[2] <= box[2]
+					&& item.getVolume() <= getVolume() && item.getWeight() <= maxWeight;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		public double getLength() {
+			return length;
+		}
+
+		public double getWidth() {
+			return width;
+		}
+
+		public double getHeight() {
+			return height;
+		}
+
+		public double getWeight() {
+			return weight;
+		}
+
+		public double getMaxWeight() {
+			return maxWeight;
+		}
+
+		public double getVolume() {
+			return length * width * height;
+		}
+	}
+
+}
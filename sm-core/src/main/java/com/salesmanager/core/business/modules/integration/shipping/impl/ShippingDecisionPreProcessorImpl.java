@@ -10,8 +10,7 @@ import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
-import org.kie.api.runtime.KieSession;
-import org.kie.internal.io.ResourceFactory;
+import org.kie.api.runtime.StatelessKieSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,7 +88,8 @@ public class ShippingDecisionPreProcessorImpl implements ShippingQuotePrePostPro
 		Double size = null;
 		//calculate weight, volume and largest size
 		for(PackageDetails pack : packages) {
-			weight = weight + pack.getShippingWeight();
+			// identical packages are grouped with a quantity
+			weight = weight + pack.getShippingWeight() * Math.max(1, pack.getShippingQuantity());
 			Double tmpVolume = pack.getShippingHeight() * pack.getShippingLength() * pack.getShippingWidth();
 			if(volume == null || tmpVolume > volume) { //take the largest volume
 				volume = tmpVolume;
@@ -140,13 +140,12 @@ public class ShippingDecisionPreProcessorImpl implements ShippingQuotePrePostPro
 		 * New code
 		 */
 		
-		KieSession kieSession=droolsBeanFactory.getKieSession(ResourceFactory.newClassPathResource("com/salesmanager/drools/rules/ShippingDecision.drl"));
+		StatelessKieSession kieSession=droolsBeanFactory.getStatelessKieSession(DroolsBeanFactory.SHIPPING_DECISION_RULE);
 		
 		DecisionResponse resp = new DecisionResponse();
 		
-        kieSession.insert(inputParameters);
         kieSession.setGlobal("decision",resp);
-        kieSession.fireAllRules();
+        kieSession.execute(inputParameters);
         //System.out.println(resp.getModuleName());
         inputParameters.setModuleName(resp.getModuleName());
 
@@ -3,6 +3,10 @@ package com.salesmanager.core.business.modules.integration.shipping.impl;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -19,10 +23,12 @@ import com.google.maps.model.DistanceMatrix;
 import com.google.maps.model.DistanceMatrixRow;
 import com.google.maps.model.GeocodingResult;
 import com.google.maps.model.LatLng;
+import com.salesmanager.core.business.services.shipping.ShippingGeoCache;
 import com.salesmanager.core.model.common.Delivery;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.shipping.PackageDetails;
 import com.salesmanager.core.model.shipping.ShippingConfiguration;
+import com.salesmanager.core.model.shipping.ShippingGeoCode;
 import com.salesmanager.core.model.shipping.ShippingOrigin;
 import com.salesmanager.core.model.shipping.ShippingQuote;
 import com.salesmanager.core.model.system.IntegrationConfiguration;
@@ -38,6 +44,11 @@ import com.salesmanager.core.modules.integration.shipping.model.ShippingQuotePre
  * 
  * The module can be configured to use miles by changing distance.inMeters
  * 
+ * Geocoded addresses and distances are cached (ShippingGeoCache) and
+ * a single api context is shared. When the distance matrix api does not
+ * answer within config.shippingDistancePreProcessor.timeout milliseconds
+ * the straight line (haversine) distance is used.
+ * 
  * To use this pre-processor you will need a google api-key
  * 
  * Access google developers console
@@ -66,9 +77,27 @@ public class ShippingDistancePreProcessorImpl implements ShippingQuotePrePostPro
 	
 	private final static String MODULE_CODE = "shippingDistanceModule";
 
+	private final static double EARTH_RADIUS_KM = 6371.0088;
+
 	@Value("${config.shippingDistancePreProcessor.apiKey}")
 	private String apiKey;
 
+	@Value("${config.shippingDistancePreProcessor.timeout:2000}")
+	private long timeout;
+
+	@Inject
+	private ShippingGeoCache geoCache;
+
+	private GeoApiContext context;
+
+	@PostConstruct
+	public void init() {
+		context = new GeoApiContext().setApiKey(apiKey)
+				.setConnectTimeout(timeout, TimeUnit.MILLISECONDS)
+				.setReadTimeout(timeout, TimeUnit.MILLISECONDS)
+				.setRetryTimeout(timeout, TimeUnit.MILLISECONDS);
+	}
+
 	@Value("#{'${config.shippingDistancePreProcessor.acceptedZones}'.split(',')}") 
 	private List<String> allowedZonesCodes = null;
 
@@ -126,8 +155,6 @@ public class ShippingDistancePreProcessorImpl implements ShippingQuotePrePostPro
 		
 		Validate.notNull(apiKey, "Requires the configuration of google apiKey");
 		
-		GeoApiContext context = new GeoApiContext().setApiKey(apiKey);
-		
 		//build origin address
 		StringBuilder originAddress = new StringBuilder();
 		
@@ -163,36 +190,28 @@ public class ShippingDistancePreProcessorImpl implements ShippingQuotePrePostPro
 		
 		
 		try {
-			GeocodingResult[] originAdressResult =  GeocodingApi.geocode(context,
-					originAddress.toString()).await();
+			ShippingGeoCode originGeoCode = geoCode(originAddress.toString());
+			ShippingGeoCode destinationGeoCode = geoCode(destinationAddress.toString());
 
-			GeocodingResult[] destinationAdressResult =  GeocodingApi.geocode(context,
-					destinationAddress.toString()).await();
-
-			if(originAdressResult.length>0 && destinationAdressResult.length>0) {
-				LatLng originLatLng = originAdressResult[0].geometry.location;
-				LatLng destinationLatLng = destinationAdressResult[0].geometry.location;
+			if(originGeoCode!=null && destinationGeoCode!=null) {
 				
-				delivery.setLatitude(String.valueOf(destinationLatLng.lat));
-				delivery.setLongitude(String.valueOf(destinationLatLng.lng));
+				delivery.setLatitude(String.valueOf(destinationGeoCode.getLatitude()));
+				delivery.setLongitude(String.valueOf(destinationGeoCode.getLongitude()));
 				
 				//keep latlng for further usage in order to display the map
-	
-				
-				DistanceMatrix  distanceRequest = DistanceMatrixApi.newRequest(context)
-		 		.origins(new LatLng(originLatLng.lat, originLatLng.lng))
-		 		
-		 		.destinations(new LatLng(destinationLatLng.lat, destinationLatLng.lng))
-		 				.awaitIgnoreError();
 				
-				
-				if(distanceRequest!=null) {
-					DistanceMatrixRow distanceMax = distanceRequest.rows[0];
-					Distance distance = distanceMax.elements[0].distance;
-					quote.getQuoteInformations().put(Constants.DISTANCE_KEY, 0.001 * distance.inMeters);
-				} else {
-				  LOGGER.error("Expected distance inner google api to return DistanceMatrix, it returned null. API key might not be working for this request");
+				Double distance = geoCache.getDistance(originGeoCode, destinationGeoCode);
+				if(distance == null) {
+					distance = drivingDistance(originGeoCode, destinationGeoCode);
+					if(distance != null) {
+						geoCache.saveDistance(originGeoCode, destinationGeoCode, distance);
+					} else {
+						distance = haversine(originGeoCode.getLatitude(), originGeoCode.getLongitude(),
+								destinationGeoCode.getLatitude(), destinationGeoCode.getLongitude());
+						LOGGER.warn("No distance from google api, using straight line distance " + distance + " km");
+					}
 				}
+				quote.getQuoteInformations().put(Constants.DISTANCE_KEY, distance);
 
 			}
 		
@@ -202,10 +221,57 @@ public class ShippingDistancePreProcessorImpl implements ShippingQuotePrePostPro
 
 	}
 
+	/**
+	 * Cached coordinates of an address or geocoded with google api
+	 */
+	private ShippingGeoCode geoCode(String address) throws Exception {
+		ShippingGeoCode geoCode = geoCache.getGeoCode(address);
+		if(geoCode != null) {
+			return geoCode;
+		}
+		GeocodingResult[] result = GeocodingApi.geocode(context, address).await();
+		if(result.length == 0) {
+			return null;
+		}
+		LatLng location = result[0].geometry.location;
+		return geoCache.saveGeoCode(address, location.lat, location.lng);
+	}
 
+	/**
+	 * Driving distance in km from google api, null when it cannot be obtained
+	 */
+	private Double drivingDistance(ShippingGeoCode origin, ShippingGeoCode destination) {
+		try {
+			DistanceMatrix distanceRequest = DistanceMatrixApi.newRequest(context)
+					.origins(new LatLng(origin.getLatitude(), origin.getLongitude()))
+					.destinations(new LatLng(destination.getLatitude(), destination.getLongitude()))
+					.awaitIgnoreError();
+
+			if(distanceRequest == null || distanceRequest.rows.length == 0) {
+				LOGGER.error("Expected distance inner google api to return DistanceMatrix, it returned null. API key might not be working for this request");
+				return null;
+			}
+			DistanceMatrixRow distanceMax = distanceRequest.rows[0];
+			Distance distance = distanceMax.elements[0].distance;
+			return distance != null ? 0.001 * distance.inMeters : null;
+		} catch (Exception e) {
+			LOGGER.warn("Cannot get distance from google api : " + e.getMessage());
+			return null;
+		}
+	}
 
+	/**
+	 * Great circle distance in km between two coordinates
+	 */
+	public static double haversine(double lat1, double lng1, double lat2, double lng2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLng = Math.toRadians(lng2 - lng1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+				* Math.sin(dLng / 2) * Math.sin(dLng / 2);
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+	}
 
-	
 	public String getModuleCode() {
 		return MODULE_CODE;
 	}
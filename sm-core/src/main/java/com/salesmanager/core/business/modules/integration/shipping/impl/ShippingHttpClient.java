@@ -0,0 +1,75 @@
+package com.salesmanager.core.business.modules.integration.shipping.impl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * HTTP client shared by the carrier quote modules. Connections to a carrier
+ * are pooled and kept alive between quotes instead of opening a new client
+ * and TLS session for every request. Requests fail after
+ * config.shipping.quote.timeout milliseconds.
+ */
+@Component
+public class ShippingHttpClient {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShippingHttpClient.class);
+
+	@Value("${config.shipping.quote.timeout:5000}")
+	private int timeout;
+
+	@Value("${config.shipping.http.maxConnections:50}")
+	private int maxConnections;
+
+	@Value("${config.shipping.http.maxConnectionsPerCarrier:10}")
+	private int maxConnectionsPerRoute;
+
+	private CloseableHttpClient client;
+
+	@PostConstruct
+	public void init() {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(timeout)
+				.setConnectionRequestTimeout(timeout)
+				.setSocketTimeout(timeout)
+				.build();
+
+		client = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictIdleConnections(60, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Shared client, must not be closed by callers
+	 */
+	public CloseableHttpClient getClient() {
+		return client;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		try {
+			client.close();
+		} catch (IOException e) {
+			LOGGER.warn("Cannot close shipping http client", e);
+		}
+	}
+
+}
@@ -10,6 +10,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import javax.inject.Inject;
+
+import org.apache.commons.digester.CallMethodRule;
 import org.apache.commons.digester.Digester;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -20,7 +23,6 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +53,9 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(UPSShippingQuote.class);
 
+	@Inject
+	private ShippingHttpClient shippingHttpClient;
+
 
 	@Override
 	public void validateModuleConfiguration(
@@ -323,6 +328,7 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 
 			for(PackageDetails packageDetail : packages){
 
+				// identical packages grouped with a quantity are sent once, see groupedPrice
 				xmldatabuffer.append("<Package>");
 				xmldatabuffer.append("<PackagingType>");
 				xmldatabuffer.append("<Code>");
@@ -378,7 +384,7 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 			LOGGER.debug("UPS QUOTE REQUEST " + xmlbuffer.toString());
 
 
-			try(CloseableHttpClient httpclient = HttpClients.createDefault()) {
+			CloseableHttpClient httpclient = shippingHttpClient.getClient();
 			//HttpClient client = new HttpClient();
 			httppost = new HttpPost(protocol + "://" + host + ":" + port
 					+ url);
@@ -458,6 +464,10 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 					.addCallMethod(
 							"RatingServiceSelectionResponse/RatedShipment/GuaranteedDaysToDelivery",
 							"setEstimatedNumberOfDays", 0);
+			// charge of each package, called on the parsed elements below the option
+			digester.addRule(
+					"RatingServiceSelectionResponse/RatedShipment/RatedPackage/TotalCharges/MonetaryValue",
+					new CallMethodRule(1, "addPackageCharge", 0));
 			digester.addSetNext("RatingServiceSelectionResponse/RatedShipment",
 					"addOption");
 
@@ -525,7 +535,8 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 			List<ShippingOption> shippingOptions = parsed.getOptions();
 			if(shippingOptions!=null) {
 				Map<String,String> details = module.getDetails();
-				for(ShippingOption option : shippingOptions) {
+				for(int i = 0; i < shippingOptions.size(); i++) {
+					ShippingOption option = shippingOptions.get(i);
 					String name = details.get(option.getOptionCode());
 					option.setOptionName(name);
 					if(option.getOptionPrice()==null) {
@@ -540,6 +551,7 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 							throw new IntegrationException("Can't convert to numeric price " + priceText);
 						}
 					}
+					option.setOptionPrice(groupedPrice(option.getOptionPrice(), parsed.getPackageCharges().get(i), packages));
 				}
 			}
 /*			if (options != null) {
@@ -614,7 +626,7 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 
 
 			return shippingOptions;
-	}
+
 		} catch (Exception e1) {
 			LOGGER.error("UPS quote error",e1);
 			throw new IntegrationException(e1);
@@ -633,6 +645,37 @@ public class UPSShippingQuote implements ShippingQuoteModule {
 }
 
 
+	/**
+	 * Price of a shipment where each package with a quantity was rated once,
+	 * the charge of each package is added for the identical packages not sent.
+	 * When UPS does not return package charges the shipment price is scaled
+	 * by weight.
+	 */
+	private BigDecimal groupedPrice(BigDecimal shipmentPrice, List<String> packageCharges, List<PackageDetails> packages) {
+		BigDecimal price = shipmentPrice;
+		boolean charged = packageCharges.size() == packages.size();
+		double sentWeight = 0;
+		double totalWeight = 0;
+		for(int i = 0; i < packages.size(); i++) {
+			PackageDetails packageDetail = packages.get(i);
+			int others = packageDetail.getShippingQuantity() - 1;
+			sentWeight += packageDetail.getShippingWeight();
+			totalWeight += packageDetail.getShippingWeight() * Math.max(1, packageDetail.getShippingQuantity());
+			if(charged && others > 0) {
+				try {
+					price = price.add(new BigDecimal(packageCharges.get(i).trim()).multiply(new BigDecimal(others)));
+				} catch(NumberFormatException e) {
+					charged = false;
+				}
+			}
+		}
+		if(!charged && sentWeight > 0 && totalWeight > sentWeight) {
+			price = shipmentPrice.multiply(BigDecimal.valueOf(totalWeight / sentWeight)).setScale(2, BigDecimal.ROUND_HALF_UP);
+		}
+		return price;
+	}
+
+
 	@Override
 	public CustomIntegrationConfiguration getCustomModuleConfiguration(
 			MerchantStore store) throws IntegrationException {
@@ -648,9 +691,24 @@ class UPSParsedElements  {
 	private String error = "";
 	private String errorCode = "";
 	private List<ShippingOption> options = new ArrayList<ShippingOption>();
+	private List<List<String>> packageCharges = new ArrayList<List<String>>();
+	private List<String> charges = new ArrayList<String>();
 
 	public void addOption(ShippingOption option) {
 		options.add(option);
+		packageCharges.add(charges);
+		charges = new ArrayList<String>();
+	}
+
+	public void addPackageCharge(String charge) {
+		charges.add(charge);
+	}
+
+	/**
+	 * package charges of each option, in the order of the packages
+	 */
+	public List<List<String>> getPackageCharges() {
+		return packageCharges;
 	}
 
 	public List<ShippingOption> getOptions() {
@@ -22,7 +22,6 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,6 +63,9 @@ public class USPSShippingQuote implements ShippingQuoteModule {
 	
 	@Inject
 	private CountryService countryService;
+
+	@Inject
+	private ShippingHttpClient shippingHttpClient;
 	
 
 	@Override
@@ -235,6 +237,8 @@ public class USPSShippingQuote implements ShippingQuoteModule {
 
 			for (PackageDetails detail : packages) {
 
+				// identical packages are grouped with a quantity
+				int quantity = Math.max(1, detail.getShippingQuantity());
 
 				// need size in inch
 				double w = DataUtils.getMeasure(detail.getShippingWidth(),
@@ -244,19 +248,19 @@ public class USPSShippingQuote implements ShippingQuoteModule {
 				double l = DataUtils.getMeasure(detail.getShippingLength(),
 						store, MeasureUnit.IN.name());
 	
-				totalW = totalW + w;
-				totalH = totalH + h;
-				totalL = totalL + l;
+				totalW = totalW + w * quantity;
+				totalH = totalH + h * quantity;
+				totalL = totalL + l * quantity;
 	
 				// Girth = Length + (Width x 2) + (Height x 2)
 				double girth = l + (w * 2) + (h * 2);
 		
-				totalG = totalG + girth;
+				totalG = totalG + girth * quantity;
 	
 				// need weight in pounds
 				double p = DataUtils.getWeight(detail.getShippingWeight(), store, MeasureUnit.LB.name());
 	
-				totalP = totalP + p;
+				totalP = totalP + p * quantity;
 
 			}
 
@@ -425,7 +429,7 @@ public class USPSShippingQuote implements ShippingQuoteModule {
 
 			LOGGER.debug("USPS QUOTE REQUEST " + xmlbuffer.toString());
 			//HttpClient client = new HttpClient();
-			try(CloseableHttpClient httpclient = HttpClients.createDefault()) {
+			CloseableHttpClient httpclient = shippingHttpClient.getClient();
 			@SuppressWarnings("deprecation")
 			String encoded = java.net.URLEncoder.encode(xmlbuffer.toString());
 
@@ -661,7 +665,6 @@ public class USPSShippingQuote implements ShippingQuoteModule {
 			}*/
 
 			return shippingOptions;
-			}
 
 		} catch (Exception e1) {
 			LOGGER.error("Error in USPS shipping quote ",e1);
@@ -1,6 +1,7 @@
 package com.salesmanager.core.business.modules.order;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.order.Order;
@@ -11,4 +12,14 @@ public interface InvoiceModule {
 	
 	ByteArrayOutputStream createInvoice(MerchantStore store, Order order, Language language) throws Exception;
 
+	/**
+	 * Writes the invoice to the stream, the stream is not closed
+	 */
+	void createInvoice(MerchantStore store, Order order, Language language, OutputStream out) throws Exception;
+
+	/**
+	 * Extension of generated invoice files (without the dot)
+	 */
+	String getFileExtension();
+
 }
@@ -1,387 +1,312 @@
 package com.salesmanager.core.business.modules.order;
 
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.salesmanager.core.business.constants.Constants;
 import com.salesmanager.core.business.services.reference.country.CountryService;
 import com.salesmanager.core.business.services.reference.zone.ZoneService;
 import com.salesmanager.core.business.utils.ProductPriceUtils;
+import com.salesmanager.core.business.utils.ProductUtils;
+import com.salesmanager.core.model.common.Billing;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.order.Order;
+import com.salesmanager.core.model.order.OrderTotal;
+import com.salesmanager.core.model.order.orderproduct.OrderProduct;
+import com.salesmanager.core.model.reference.country.Country;
 import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.reference.zone.Zone;
 
-
-
-
-
+/**
+ * Invoice filled in an OpenDocument spreadsheet template.
+ *
+ * Templates are looked up in templates/invoice as
+ * [STORE CODE]/Invoice_[language].ods, [STORE CODE]/Invoice.ods,
+ * Invoice_[language].ods then Invoice.ods. A template is read and parsed
+ * once and kept in memory, invoices are written directly to the output
+ * stream without temporary files.
+ */
 public class ODSInvoiceModule implements InvoiceModule {
-	
-	private final static String INVOICE_TEMPLATE = "templates/invoice/Invoice";
+
+	private final static String INVOICE_TEMPLATE_PATH = "templates/invoice/";
+	private final static String INVOICE_TEMPLATE = "Invoice";
 	private final static String INVOICE_TEMPLATE_EXTENSION = ".ods";
-	private final static String TEMP_INVOICE_SUFFIX_NAME = "_invoice.ods";
 	private final static int ADDRESS_ROW_START = 2;
 	private final static int ADDRESS_ROW_END = 5;
-	
+
 	private final static int BILLTO_ROW_START = 8;
 	private final static int BILLTO_ROW_END = 13;
-	
+
 	private final static int PRODUCT_ROW_START = 16;
-	
+
 	private static final Logger LOGGER = LoggerFactory.getLogger( ODSInvoiceModule.class );
-	
+
 	@Inject
 	private ZoneService zoneService;
-	
+
 	@Inject
 	private CountryService countryService;
-	
+
 	@Inject
 	private ProductPriceUtils priceUtil;
 
-	@Deprecated
+	/** parsed templates by resource path **/
+	private final Map<String, OdsTemplate> templates = new ConcurrentHashMap<String, OdsTemplate>();
+
+	/** resource path by store and language **/
+	private final Map<String, String> templatePaths = new ConcurrentHashMap<String, String>();
+
 	@Override
 	public ByteArrayOutputStream createInvoice(MerchantStore store, Order order, Language language) throws Exception {
-		// TODO Auto-generated method stub
-		throw new Exception("Not implemented");
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		createInvoice(store, order, language, outputStream);
+		return outputStream;
 	}
-	
 
-/*	@Override
-	public ByteArrayOutputStream createInvoice(MerchantStore store, Order order, Language language) throws Exception {
-		
-		
-
-			
-			List<Zone> zones = zoneService.getZones(store.getCountry(), language);
-			Map<String,Country> countries = countryService.getCountriesMap(language);
-			
-			//get default template
-			String template = new StringBuilder().append(INVOICE_TEMPLATE).append("_").append(language.getCode().toLowerCase()).append(INVOICE_TEMPLATE_EXTENSION).toString();
-			
-			//try by language
-			InputStream is = null;
-			try {
-				is = getClass().getClassLoader().getResourceAsStream(template);
-			} catch (Exception e) {
-				LOGGER.warn("Cannot open template " + template);
-				throw new Exception("Cannot open " + template);
-			}
-			
-			if(is==null) {
-				try {
-					is = getClass().getClassLoader().getResourceAsStream(new StringBuilder().append(INVOICE_TEMPLATE).append(INVOICE_TEMPLATE_EXTENSION).toString());
-				} catch (Exception e) {
-					LOGGER.warn("Cannot open template " + template);
-					throw new Exception("Cannot open " + new StringBuilder().append(INVOICE_TEMPLATE).append(INVOICE_TEMPLATE_EXTENSION).toString());
-				}
-			}
-			
-			if(is==null) {
-				LOGGER.warn("Cannot open template " + template);
-				throw new Exception("Cannot open " + new StringBuilder().append(INVOICE_TEMPLATE).append(INVOICE_TEMPLATE_EXTENSION).toString());
-			}
-			
-			File file = new File(order.getId() + "_working");
-			OutputStream os = new FileOutputStream(file);
-			IOUtils.copy(is, os);
-			os.close();
-			//File file = new File(resource.toURI().toURL());
-		
-			Sheet sheet = SpreadSheet.createFromFile(file).getSheet(0);
-			
-			
-			//Store name 
-			sheet.setValueAt(store.getStorename(), 0, 0);
-			
-			
-			
-			//Address
-			//count store address cell
-			int storeAddressCell = ADDRESS_ROW_START;
-			
-			Map<String,Zone> zns = zoneService.getZones(language);
-
-			
-			//3
-			StringBuilder storeAddress = null;
-			if(!StringUtils.isBlank(store.getStoreaddress())) {
-				storeAddress = new StringBuilder();
-				storeAddress.append(store.getStoreaddress());
-			}
-			if(!StringUtils.isBlank(store.getStorecity())) {
-				if(storeAddress==null) {
-					storeAddress = new StringBuilder();
-				} else {
-					storeAddress.append(", ");
-				}
-				storeAddress.append(store.getStorecity());
-			}
-			if(storeAddress!=null) {
-				sheet.setValueAt(storeAddress.toString(), 0, storeAddressCell);
-				storeAddressCell ++;
-			}
-			
-			//4
-			StringBuilder storeProvince = null;
-			if(store.getZone()!=null) {
-				storeProvince = new StringBuilder();
-				
-				for(Zone z : zones) {
-					if(z.getCode().equals(store.getZone().getCode())) {
-						storeProvince.append(z.getName());
-						break;
-					}
-				}
-				
-			} else {
-				if(!StringUtils.isBlank(store.getStorestateprovince())) {
-					storeProvince = new StringBuilder();
-					storeProvince.append(store.getStorestateprovince());
-				}
-			}
-			if(store.getCountry()!=null) {
-				if(storeProvince==null) {
-					storeProvince = new StringBuilder();
-				} else {
-					storeProvince.append(", ");
-				}
-				
-				Country c = countries.get(store.getCountry().getIsoCode());
-				if(c!=null) {
-					storeProvince.append(c.getName());
-				} else {
-					storeProvince.append(store.getCountry().getIsoCode());
-				}
-				
-			}
-			if(storeProvince!=null) {
-				sheet.setValueAt(storeProvince.toString(), 0, storeAddressCell);
-				storeAddressCell ++;
-			}
-			
-			//5
-			if(!StringUtils.isBlank(store.getStorepostalcode())) {
-				sheet.setValueAt(store.getStorepostalcode(), 0, storeAddressCell);
-				storeAddressCell ++;
-			}
-			
-			//6
-			if(!StringUtils.isBlank(store.getStorephone())) {
-				sheet.setValueAt(store.getStorephone(), 0, storeAddressCell);
-			}
-			
-			//delete address blank lines
-			for(int i = storeAddressCell; i<ADDRESS_ROW_END; i++) {
-				sheet.setValueAt("", 0, i);
-			}
+	@Override
+	public void createInvoice(MerchantStore store, Order order, Language language, OutputStream out) throws Exception {
 
-			//invoice date
-			SimpleDateFormat format = new SimpleDateFormat(Constants.DEFAULT_DATE_FORMAT);
-			sheet.setValueAt(format.format(order.getDatePurchased()), 3, 2);
-			
-			//invoice number
-			sheet.setValueAt(order.getId(), 3, 3);
-			
-			//bill to
-			//count bill to address cell
-			int billToCell = BILLTO_ROW_START;
-			if(!StringUtils.isBlank(order.getBilling().getFirstName())) {
-				StringBuilder nm = new StringBuilder();
-				nm.append(order.getBilling().getFirstName()).append(" ").append(order.getBilling().getLastName());
-				sheet.setValueAt(nm.toString(), 0, billToCell);
-				billToCell ++;
-			}
-			
-			//9
-			if(!StringUtils.isBlank(order.getBilling().getCompany())) {
-				sheet.setValueAt(order.getBilling().getCompany(), 0, billToCell);
-				billToCell ++;
-			}
-			
-			//10
-			StringBuilder billToAddress = null;
-			if(!StringUtils.isBlank(order.getBilling().getAddress())) {
-				billToAddress = new StringBuilder();
-				billToAddress.append(order.getBilling().getAddress());
-			}
-			if(!StringUtils.isBlank(order.getBilling().getCity())) {
-				if(billToAddress==null) {
-					billToAddress = new StringBuilder();
-				} else {
-					billToAddress.append(", ");
-				}
-				billToAddress.append(order.getBilling().getCity());
-			}
-			if(billToAddress!=null) {
-				sheet.setValueAt(billToAddress.toString(), 0, billToCell);
-				billToCell ++;
-			}
-			
-			//11
-			StringBuilder billToProvince = null;
-			if(order.getBilling().getZone()!=null) {
-				billToProvince = new StringBuilder();
-				
-				Zone billingZone = zns.get(order.getBilling().getZone().getCode());
-				if(billingZone!=null) {
-						billToProvince.append(billingZone.getName());
-				}
-				
-			} else {
-				if(!StringUtils.isBlank(order.getBilling().getState())) {
-					billToProvince = new StringBuilder();
-					billToProvince.append(order.getBilling().getState());
-				}
-			}
-			if(order.getBilling().getCountry()!=null) {
-				if(billToProvince==null) {
-					billToProvince = new StringBuilder();
-				} else {
-					billToProvince.append(", ");
-				}
-				Country c = countries.get(order.getBilling().getCountry().getIsoCode());
-				if(c!=null) {
-					billToProvince.append(c.getName());
-				} else {
-					billToProvince.append(order.getBilling().getCountry().getIsoCode());
+		OdsTemplate template = getTemplate(store, language);
+		OdsTemplate.Sheet sheet = template.newSheet();
+
+		List<Zone> zones = zoneService.getZones(store.getCountry(), language);
+		Map<String,Zone> zns = zoneService.getZones(language);
+		Map<String,Country> countries = countryService.getCountriesMap(language);
+
+		//Store name
+		sheet.setValueAt(store.getStorename(), 0, 0);
+
+		//Address
+		//count store address cell
+		int storeAddressCell = ADDRESS_ROW_START;
+
+		//3
+		String storeAddress = join(store.getStoreaddress(), store.getStorecity());
+		if(storeAddress!=null) {
+			sheet.setValueAt(storeAddress, 0, storeAddressCell);
+			storeAddressCell ++;
+		}
+
+		//4
+		String storeZone = null;
+		if(store.getZone()!=null) {
+			for(Zone z : zones) {
+				if(z.getCode().equals(store.getZone().getCode())) {
+					storeZone = z.getName();
+					break;
 				}
-				
-			}
-			if(billToProvince!=null) {
-				sheet.setValueAt(billToProvince.toString(), 0, billToCell);
-				billToCell ++;
 			}
-			
-			//12
-			if(!StringUtils.isBlank(order.getBilling().getPostalCode())) {
-				billToCell ++;
-				sheet.setValueAt(order.getBilling().getPostalCode(), 0, billToCell);
-				billToCell ++;
+		} else {
+			storeZone = store.getStorestateprovince();
+		}
+		String storeProvince = join(storeZone, countryName(store.getCountry(), countries));
+		if(storeProvince!=null) {
+			sheet.setValueAt(storeProvince, 0, storeAddressCell);
+			storeAddressCell ++;
+		}
+
+		//5
+		if(!StringUtils.isBlank(store.getStorepostalcode())) {
+			sheet.setValueAt(store.getStorepostalcode(), 0, storeAddressCell);
+			storeAddressCell ++;
+		}
+
+		//6
+		if(!StringUtils.isBlank(store.getStorephone())) {
+			sheet.setValueAt(store.getStorephone(), 0, storeAddressCell);
+			storeAddressCell ++;
+		}
+
+		//delete address blank lines
+		for(int i = storeAddressCell; i<=ADDRESS_ROW_END; i++) {
+			sheet.setValueAt("", 0, i);
+		}
+
+		//invoice date
+		SimpleDateFormat format = new SimpleDateFormat(Constants.DEFAULT_DATE_FORMAT);
+		sheet.setValueAt(format.format(order.getDatePurchased()), 3, 2);
+
+		//invoice number
+		sheet.setValueAt(order.getId(), 3, 3);
+
+		//bill to
+		//count bill to address cell
+		Billing billing = order.getBilling();
+		int billToCell = BILLTO_ROW_START;
+		if(!StringUtils.isBlank(billing.getFirstName())) {
+			sheet.setValueAt(join(" ", billing.getFirstName(), billing.getLastName()), 0, billToCell);
+			billToCell ++;
+		}
+
+		//9
+		if(!StringUtils.isBlank(billing.getCompany())) {
+			sheet.setValueAt(billing.getCompany(), 0, billToCell);
+			billToCell ++;
+		}
+
+		//10
+		String billToAddress = join(billing.getAddress(), billing.getCity());
+		if(billToAddress!=null) {
+			sheet.setValueAt(billToAddress, 0, billToCell);
+			billToCell ++;
+		}
+
+		//11
+		String billToZone = null;
+		if(billing.getZone()!=null) {
+			Zone billingZone = zns.get(billing.getZone().getCode());
+			if(billingZone!=null) {
+				billToZone = billingZone.getName();
 			}
-			
-			//13
-			if(!StringUtils.isBlank(order.getBilling().getTelephone())) {
-				sheet.setValueAt(order.getBilling().getTelephone(), 0, billToCell);
+		} else {
+			billToZone = billing.getState();
+		}
+		String billToProvince = join(billToZone, countryName(billing.getCountry(), countries));
+		if(billToProvince!=null) {
+			sheet.setValueAt(billToProvince, 0, billToCell);
+			billToCell ++;
+		}
+
+		//12
+		if(!StringUtils.isBlank(billing.getPostalCode())) {
+			sheet.setValueAt(billing.getPostalCode(), 0, billToCell);
+			billToCell ++;
+		}
+
+		//13
+		if(!StringUtils.isBlank(billing.getTelephone())) {
+			sheet.setValueAt(billing.getTelephone(), 0, billToCell);
+			billToCell ++;
+		}
+
+		//delete address blank lines
+		for(int i = billToCell; i<=BILLTO_ROW_END; i++) {
+			sheet.setValueAt("", 0, i);
+		}
+
+		//products
+		Set<OrderProduct> orderProducts = order.getOrderProducts();
+		int productCell = PRODUCT_ROW_START;
+		for(OrderProduct orderProduct : orderProducts) {
+
+			String orderProductName = ProductUtils.buildOrderProductDisplayName(orderProduct);
+			sheet.setValueAt(orderProductName, 0, productCell);
+
+			int quantity = orderProduct.getProductQuantity();
+			sheet.setValueAt(quantity, 1, productCell);
+			String amount = priceUtil.getStoreFormatedAmountWithCurrency(store, orderProduct.getOneTimeCharge());
+			sheet.setValueAt(amount, 2, productCell);
+			String t = priceUtil.getStoreFormatedAmountWithCurrency(store, priceUtil.getOrderProductTotalPrice(store, orderProduct));
+			sheet.setValueAt(t, 3, productCell);
+
+			productCell++;
+
+		}
+
+		//print totals
+		productCell++;
+		Set<OrderTotal> totals = order.getOrderTotal();
+		for(OrderTotal orderTotal : totals) {
+
+			String totalName = orderTotal.getText();
+			if(totalName == null || totalName.contains(".")) {
+				totalName = orderTotal.getTitle();
 			}
-			
-			//delete address blank lines
-			for(int i = billToCell; i<BILLTO_ROW_END; i++) {
-				sheet.setValueAt("", 0, i);
+			String totalValue = priceUtil.getStoreFormatedAmountWithCurrency(store,orderTotal.getValue());
+			sheet.setValueAt(totalName, 2, productCell);
+			sheet.setValueAt(totalValue, 3, productCell);
+			productCell++;
+		}
+
+		template.write(sheet, out);
+
+	}
+
+	@Override
+	public String getFileExtension() {
+		return INVOICE_TEMPLATE_EXTENSION.substring(1);
+	}
+
+	/**
+	 * Drops parsed templates, they are read again on next invoice
+	 */
+	public void clearTemplates() {
+		templatePaths.clear();
+		templates.clear();
+	}
+
+	private OdsTemplate getTemplate(MerchantStore store, Language language) throws Exception {
+
+		String key = store.getCode() + "_" + language.getCode();
+		String path = templatePaths.get(key);
+		if(path == null) {
+			path = resolveTemplate(store, language);
+			templatePaths.put(key, path);
+		}
+
+		OdsTemplate template = templates.get(path);
+		if(template == null) {
+			LOGGER.debug("Loading invoice template " + path);
+			try(InputStream is = getClass().getClassLoader().getResourceAsStream(path)) {
+				template = OdsTemplate.read(is);
 			}
-			
-			//products
-			Set<OrderProduct> orderProducts = order.getOrderProducts();
-			int productCell = PRODUCT_ROW_START;
-			for(OrderProduct orderProduct : orderProducts) {
-				
-
-				String orderProductName = ProductUtils.buildOrderProductDisplayName(orderProduct);
-				
-				sheet.setValueAt(orderProductName.toString(), 0, productCell);
-				
-				int quantity = orderProduct.getProductQuantity();
-				sheet.setValueAt(quantity, 1, productCell);
-				String amount = priceUtil.getStoreFormatedAmountWithCurrency(store, orderProduct.getOneTimeCharge());
-				sheet.setValueAt(amount, 2, productCell);
-				String t = priceUtil.getStoreFormatedAmountWithCurrency(store, priceUtil.getOrderProductTotalPrice(store, orderProduct));
-				sheet.setValueAt(t, 3, productCell);
-
-				productCell++;
-				
+			OdsTemplate existing = templates.putIfAbsent(path, template);
+			if(existing != null) {
+				template = existing;
 			}
-			
-			//print totals
-			productCell++;
-			Set<OrderTotal> totals = order.getOrderTotal();
-			for(OrderTotal orderTotal : totals) {
-				
-				String totalName = orderTotal.getText();
-				if(totalName.contains(".")) {
-					totalName = orderTotal.getTitle();
-				}
-				String totalValue = priceUtil.getStoreFormatedAmountWithCurrency(store,orderTotal.getValue());
-				sheet.setValueAt(totalName, 2, productCell);
-				sheet.setValueAt(totalValue, 3, productCell);
-				productCell++;
+		}
+		return template;
+	}
+
+	private String resolveTemplate(MerchantStore store, Language language) throws Exception {
+
+		String lang = "_" + language.getCode().toLowerCase();
+		String[] candidates = {
+				INVOICE_TEMPLATE_PATH + store.getCode() + "/" + INVOICE_TEMPLATE + lang + INVOICE_TEMPLATE_EXTENSION,
+				INVOICE_TEMPLATE_PATH + store.getCode() + "/" + INVOICE_TEMPLATE + INVOICE_TEMPLATE_EXTENSION,
+				INVOICE_TEMPLATE_PATH + INVOICE_TEMPLATE + lang + INVOICE_TEMPLATE_EXTENSION,
+				INVOICE_TEMPLATE_PATH + INVOICE_TEMPLATE + INVOICE_TEMPLATE_EXTENSION
+		};
+		for(String candidate : candidates) {
+			if(getClass().getClassLoader().getResource(candidate) != null) {
+				return candidate;
 			}
-			
-			//sheet.getCellAt(0, 0).setImage(arg0)
-			//sheet.getCellAt(0, 0).setStyleName(arg0)
-			//sheet.getCellAt(0, 0).getStyle().
-			
-			
-			//generate invoice file
-			StringBuilder tempInvoiceName = new StringBuilder();
-			tempInvoiceName.append(order.getId()).append(TEMP_INVOICE_SUFFIX_NAME);
-			File outputFile = new File(tempInvoiceName.toString());
-			OOUtils.open(sheet.getSpreadSheet().saveAs(outputFile));
-			
-			
-			
-			final OpenDocument doc = new OpenDocument();
-			doc.loadFrom(tempInvoiceName.toString());
-
-			 // Open the PDF document
-			 Document document = new Document(PageSize.A4);
-			 
-			 
-			 //File outFile = new File("invoice.pdf");
-
-			 PdfDocument pdf = new PdfDocument();
-
-			 document.addDocListener(pdf);
-
-			 //FileOutputStream fileOutputStream = new FileOutputStream(outFile);
-			 ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-			 
-			 PdfWriter writer = PdfWriter.getInstance(pdf, outputStream);
-			 pdf.addWriter(writer);
-
-			 document.open();
-
-			 // Create a template and a Graphics2D object 
-			 Rectangle pageSize = document.getPageSize();
-			 int w = (int) (pageSize.getWidth() * 0.9);
-			 int h = (int) (pageSize.getHeight() * 0.95);
-			 PdfContentByte cb = writer.getDirectContent();
-			 PdfTemplate tp = cb.createTemplate(w, h);
-
-			 Graphics2D g2 = tp.createPrinterGraphics(w, h, null);
-			 // If you want to prevent copy/paste, you can use
-			 // g2 = tp.createGraphicsShapes(w, h, true, 0.9f);
-			            
-			 tp.setWidth(w);
-			 tp.setHeight(h);
-
-			 // Configure the renderer
-			 ODTRenderer renderer = new ODTRenderer(doc);
-			 renderer.setIgnoreMargins(true);
-			 renderer.setPaintMaxResolution(true);
-			            
-			 // Scale the renderer to fit width
-			 renderer.setResizeFactor(renderer.getPrintWidth() / w);
-			 // Render
-			 renderer.paintComponent(g2);
-			 g2.dispose();
-
-			 // Add our spreadsheet in the middle of the page
-			 float offsetX = (float) ((pageSize.getWidth() - w) / 2);
-			 float offsetY = (float) ((pageSize.getHeight() - h) / 2);
-			 cb.addTemplate(tp, offsetX, offsetY);
-			 // Close the PDF document
-			 document.close();
-			 outputFile.delete();//remove temp file
-			 file.delete();//remove spreadsheet file
-			 is.close();
-			 return outputStream;
-		
-		
+		}
+		LOGGER.warn("Cannot open invoice template for store " + store.getCode());
+		throw new Exception("Cannot open " + candidates[candidates.length - 1]);
+	}
 
+	private String countryName(Country country, Map<String,Country> countries) {
+		if(country == null) {
+			return null;
+		}
+		Country c = countries.get(country.getIsoCode());
+		return c != null ? c.getName() : country.getIsoCode();
 	}
-*/
+
+	private String join(String first, String second) {
+		return join(", ", first, second);
+	}
+
+	private String join(String separator, String first, String second) {
+		boolean hasFirst = !StringUtils.isBlank(first);
+		boolean hasSecond = !StringUtils.isBlank(second);
+		if(hasFirst && hasSecond) {
+			return first + separator + second;
+		}
+		return hasFirst ? first : hasSecond ? second : null;
+	}
+
 }
@@ -0,0 +1,243 @@
+package com.salesmanager.core.business.modules.order;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.io.IOUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * OpenDocument spreadsheet template read once. The archive entries are kept
+ * as bytes and content.xml as a parsed document, each rendering works on a
+ * copy of the document and writes a new archive to the output stream.
+ */
+final class OdsTemplate {
+
+	static final String TABLE_NS = "urn:oasis:names:tc:opendocument:xmlns:table:1.0";
+	static final String OFFICE_NS = "urn:oasis:names:tc:opendocument:xmlns:office:1.0";
+	static final String TEXT_NS = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+	static final String CALCEXT_NS = "urn:org:documentfoundation:names:experimental:calc:xmlns:calcext:1.0";
+
+	private static final String MIMETYPE = "mimetype";
+	private static final String CONTENT = "content.xml";
+
+	private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+
+	private final Map<String, byte[]> entries;
+	private final Document content;
+
+	private OdsTemplate(Map<String, byte[]> entries, Document content) {
+		this.entries = entries;
+		this.content = content;
+	}
+
+	static OdsTemplate read(InputStream ods) throws Exception {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		try (ZipInputStream zip = new ZipInputStream(ods)) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				entries.put(entry.getName(), entry.isDirectory() ? null : IOUtils.toByteArray(zip));
+			}
+		}
+		byte[] content = entries.get(CONTENT);
+		if (content == null) {
+			throw new IOException("Template does not contain " + CONTENT);
+		}
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(content));
+		return new OdsTemplate(entries, document);
+	}
+
+	/**
+	 * Copy of the template first sheet
+	 */
+	Sheet newSheet() {
+		Document copy;
+		synchronized (content) {
+			copy = (Document) content.cloneNode(true);
+		}
+		Element table = (Element) copy.getElementsByTagNameNS(TABLE_NS, "table").item(0);
+		return new Sheet(copy, table);
+	}
+
+	/**
+	 * Writes the filled sheet as an ods archive, the stream is not closed
+	 */
+	void write(Sheet sheet, OutputStream out) throws Exception {
+		ZipOutputStream zip = new ZipOutputStream(out);
+
+		// mimetype is the first entry and is not compressed
+		byte[] mimetype = entries.get(MIMETYPE);
+		if (mimetype != null) {
+			ZipEntry entry = new ZipEntry(MIMETYPE);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(mimetype.length);
+			CRC32 crc = new CRC32();
+			crc.update(mimetype);
+			entry.setCrc(crc.getValue());
+			zip.putNextEntry(entry);
+			zip.write(mimetype);
+			zip.closeEntry();
+		}
+
+		for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+			String name = entry.getKey();
+			if (MIMETYPE.equals(name)) {
+				continue;
+			}
+			zip.putNextEntry(new ZipEntry(name));
+			if (CONTENT.equals(name)) {
+				Transformer transformer;
+				synchronized (TRANSFORMER_FACTORY) {
+					transformer = TRANSFORMER_FACTORY.newTransformer();
+				}
+				transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+				transformer.transform(new DOMSource(sheet.document), new StreamResult(zip));
+			} else if (entry.getValue() != null) {
+				zip.write(entry.getValue());
+			}
+			zip.closeEntry();
+		}
+		zip.finish();
+	}
+
+	/**
+	 * Cells addressed by column and row from 0, rows and cells repeated by the
+	 * template are split when one of them is written.
+	 */
+	static final class Sheet {
+
+		private final Document document;
+		private final Element table;
+
+		private Sheet(Document document, Element table) {
+			this.document = document;
+			this.table = table;
+		}
+
+		/**
+		 * @param value String or Number, blank clears the cell
+		 */
+		void setValueAt(Object value, int column, int row) {
+			Element cell = cell(row(row), column);
+
+			while (cell.getFirstChild() != null) {
+				cell.removeChild(cell.getFirstChild());
+			}
+			cell.removeAttributeNS(OFFICE_NS, "value");
+			cell.removeAttributeNS(OFFICE_NS, "date-value");
+			cell.removeAttributeNS(OFFICE_NS, "value-type");
+			cell.removeAttributeNS(TABLE_NS, "formula");
+			cell.removeAttributeNS(CALCEXT_NS, "value-type");
+
+			String text = value == null ? "" : value.toString();
+			if (text.isEmpty()) {
+				return;
+			}
+			if (value instanceof Number) {
+				cell.setAttributeNS(OFFICE_NS, "office:value-type", "float");
+				cell.setAttributeNS(OFFICE_NS, "office:value", text);
+			} else {
+				cell.setAttributeNS(OFFICE_NS, "office:value-type", "string");
+			}
+			Element p = document.createElementNS(TEXT_NS, "text:p");
+			p.setTextContent(text);
+			cell.appendChild(p);
+		}
+
+		private Element row(int index) {
+			NodeList rows = table.getElementsByTagNameNS(TABLE_NS, "table-row");
+			List<Element> list = new ArrayList<Element>(rows.getLength());
+			for (int i = 0; i < rows.getLength(); i++) {
+				list.add((Element) rows.item(i));
+			}
+			Element row = single(list, index, "number-rows-repeated");
+			if (row == null) {
+				throw new IllegalArgumentException("Row " + index + " is not in the template");
+			}
+			return row;
+		}
+
+		private Element cell(Element row, int index) {
+			List<Element> cells = new ArrayList<Element>();
+			for (Node n = row.getFirstChild(); n != null; n = n.getNextSibling()) {
+				if (n instanceof Element && TABLE_NS.equals(n.getNamespaceURI())
+						&& ("table-cell".equals(n.getLocalName()) || "covered-table-cell".equals(n.getLocalName()))) {
+					cells.add((Element) n);
+				}
+			}
+			Element cell = single(cells, index, "number-columns-repeated");
+			if (cell == null) {
+				throw new IllegalArgumentException("Column " + index + " is not in the template");
+			}
+			return cell;
+		}
+
+		/**
+		 * Element at a logical index, a repeated element holding the index is
+		 * split in up to three elements so that the returned one is not repeated
+		 */
+		private Element single(List<Element> elements, int index, String repeatAttribute) {
+			int position = 0;
+			for (Element element : elements) {
+				int repeated = repeated(element, repeatAttribute);
+				if (index < position + repeated) {
+					int before = index - position;
+					int after = repeated - before - 1;
+					if (before > 0) {
+						Element head = (Element) element.cloneNode(true);
+						repeat(head, repeatAttribute, before);
+						element.getParentNode().insertBefore(head, element);
+					}
+					if (after > 0) {
+						Element tail = (Element) element.cloneNode(true);
+						repeat(tail, repeatAttribute, after);
+						element.getParentNode().insertBefore(tail, element.getNextSibling());
+					}
+					repeat(element, repeatAttribute, 1);
+					return element;
+				}
+				position += repeated;
+			}
+			return null;
+		}
+
+		private int repeated(Element element, String attribute) {
+			String value = element.getAttributeNS(TABLE_NS, attribute);
+			return value == null || value.isEmpty() ? 1 : Integer.parseInt(value);
+		}
+
+		private void repeat(Element element, String attribute, int count) {
+			if (count > 1) {
+				element.setAttributeNS(TABLE_NS, "table:" + attribute, String.valueOf(count));
+			} else {
+				element.removeAttributeNS(TABLE_NS, attribute);
+			}
+		}
+	}
+
+}
@@ -1,62 +1,261 @@
 package com.salesmanager.core.business.modules.utils;
 
+import java.io.File;
+import java.io.InputStream;
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.InetAddresses;
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader.FileMode;
+import com.maxmind.geoip2.DatabaseProvider;
 import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.model.CityResponse;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.model.common.Address;
 import com.salesmanager.core.modules.utils.GeoLocation;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
 /**
  * Using Geolite2 City database
  * http://dev.maxmind.com/geoip/geoip2/geolite2/#Databases
+ *
+ * The database is opened once at startup in memory mapped mode, from
+ * config.geoip.database when set or from reference/GeoLite2-City.mmdb
+ * copied out of the classpath. Results are cached per network prefix
+ * (/24 for IPv4, /48 for IPv6). When no database is available addresses
+ * resolve to null.
  * @author c.samson
  *
  */
 public class GeoLocationImpl implements GeoLocation {
-	
-	private DatabaseReader reader = null;
+
 	private static final Logger LOGGER = LoggerFactory.getLogger( GeoLocationImpl.class );
 
+	private static final String DATABASE_RESOURCE = "reference/GeoLite2-City.mmdb";
+
+	@Value("${config.geoip.database:}")
+	private String databaseFile;
+
+	@Value("${config.geoip.cache.size:50000}")
+	private long cacheSize;
+
+	@Value("${config.geoip.cache.ttl:3600}")
+	private long cacheTtl;
+
+	@Value("${config.geoip.threads:2}")
+	private int threads;
+
+	@Value("${config.geoip.queue:1000}")
+	private int queueCapacity;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	private DatabaseProvider reader;
+
+	private Path extracted;
+
+	private Cache<String, Optional<Address>> addresses;
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	public void init() {
+		addresses = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheTtl, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), r -> {
+					Thread t = new Thread(r, "geoip-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, addresses, "shopizer.geoip.cache");
+		}
+
+		try {
+			File database = database();
+			if (database == null) {
+				LOGGER.warn("IP database " + DATABASE_RESOURCE + " not found, geo location is disabled");
+				return;
+			}
+			reader = new DatabaseReader.Builder(database)
+					.fileMode(FileMode.MEMORY_MAPPED)
+					.withCache(new CHMCache())
+					.build();
+		} catch (Exception e) {
+			LOGGER.error("Cannot instantiate IP database", e);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		executor.shutdownNow();
+		try {
+			if (reader instanceof DatabaseReader) {
+				((DatabaseReader) reader).close();
+			}
+			if (extracted != null) {
+				Files.deleteIfExists(extracted);
+			}
+		} catch (Exception e) {
+			LOGGER.debug("Cannot close IP database", e);
+		}
+	}
+
+	/**
+	 * Configured database file or a copy of the classpath database,
+	 * a mapped file must exist on disk
+	 */
+	private File database() throws Exception {
+		if (!StringUtils.isBlank(databaseFile)) {
+			return new File(databaseFile);
+		}
+		try (InputStream inputFile = GeoLocationImpl.class.getClassLoader().getResourceAsStream(DATABASE_RESOURCE)) {
+			if (inputFile == null) {
+				return null;
+			}
+			extracted = Files.createTempFile("GeoLite2-City", ".mmdb");
+			Files.copy(inputFile, extracted, StandardCopyOption.REPLACE_EXISTING);
+			return extracted.toFile();
+		}
+	}
+
+	/**
+	 * Client address from a single ip or from a X-Forwarded-For list, where the
+	 * first hop is the client. Null when it is not a valid ip address.
+	 */
+	private InetAddress inetAddress(String ipAddress) {
+		if (StringUtils.isBlank(ipAddress)) {
+			return null;
+		}
+		String client = StringUtils.substringBefore(ipAddress, ",").trim();
+		if (!InetAddresses.isInetAddress(client)) {
+			return null;
+		}
+		return InetAddresses.forString(client);
+	}
 
 	@Override
 	public Address getAddress(String ipAddress) throws Exception {
-		
-			if(reader==null) {
-					try {
-						java.io.InputStream inputFile = GeoLocationImpl.class.getClassLoader().getResourceAsStream("reference/GeoLite2-City.mmdb");
-						reader = new DatabaseReader.Builder(inputFile).build();
-					} catch(Exception e) {
-						LOGGER.error("Cannot instantiate IP database",e);
-					}
-			}
-		
-			Address address = new Address();
 
-			try {
-			
-			CityResponse response = reader.city(InetAddress.getByName(ipAddress));
+		InetAddress inetAddress = inetAddress(ipAddress);
+		if (reader == null || inetAddress == null) {
+			return null;
+		}
+
+		String prefix = prefix(inetAddress);
+		Optional<Address> address = addresses.getIfPresent(prefix);
+		if (address == null) {
+			address = Optional.ofNullable(lookup(inetAddress));
+			addresses.put(prefix, address);
+		}
+		return address.map(this::copy).orElse(null);
+	}
+
+	/**
+	 * Cached results are returned right away, other lookups run on the
+	 * geoip threads. The future completes with null when the queue is full.
+	 */
+	@Override
+	public CompletableFuture<Address> getAddressAsync(String ipAddress) {
+
+		InetAddress inetAddress = inetAddress(ipAddress);
+		if (reader == null || inetAddress == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		Optional<Address> cached = addresses.getIfPresent(prefix(inetAddress));
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached.map(this::copy).orElse(null));
+		}
+
+		CompletableFuture<Address> future = new CompletableFuture<Address>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(getAddress(ipAddress));
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.complete(null);
+		}
+		return future;
+	}
+
+	private Address lookup(InetAddress inetAddress) throws ServiceException {
+
+		Address address = new Address();
+		try {
+
+			CityResponse response = reader.city(inetAddress);
 
 			address.setCountry(response.getCountry().getIsoCode());
 			address.setPostalCode(response.getPostal().getCode());
 			address.setZone(response.getMostSpecificSubdivision().getIsoCode());
 			address.setCity(response.getCity().getName());
-			
-			} catch(com.maxmind.geoip2.exception.AddressNotFoundException ne) {
-				LOGGER.debug("Address not fount in DB " + ne.getMessage());
-			} catch(Exception e) {
-				throw new ServiceException(e);
-			}
 
-		
-			return address;
-		
-		
+		} catch (AddressNotFoundException ne) {
+			LOGGER.debug("Address not fount in DB " + ne.getMessage());
+		} catch (Exception e) {
+			throw new ServiceException(e);
+		}
+		return address;
 	}
 
+	/**
+	 * Network of an address, addresses of a same network resolve to the same location
+	 */
+	static String prefix(InetAddress address) {
+		byte[] bytes = address.getAddress();
+		int length = address instanceof Inet4Address ? 3 : 6;
+		StringBuilder prefix = new StringBuilder(length * 4);
+		for (int i = 0; i < length; i++) {
+			prefix.append(bytes[i] & 0xff).append('.');
+		}
+		return prefix.toString();
+	}
+
+	private Address copy(Address address) {
+		Address copy = new Address();
+		copy.setCountry(address.getCountry());
+		copy.setPostalCode(address.getPostalCode());
+		copy.setZone(address.getZone());
+		copy.setCity(address.getCity());
+		return copy;
+	}
 
 }
@@ -57,6 +57,15 @@ public interface CategoryRepository extends JpaRepository<Category, Long>, Categ
 	@Query("select distinct c from Category c left join fetch c.descriptions cd join fetch cd.language cdl join fetch c.merchantStore cm where cm.code= ?1 and c.lineage like %?2% order by c.lineage, c.sortOrder asc")
 	List<Category> findByLineage(String storeCode, String linenage);
 	
+	@Query("select distinct c from Category c left join fetch c.descriptions cd join fetch cd.language cdl join fetch c.merchantStore cm where cm.id=?1 and c.id in (?2) order by c.lineage, c.sortOrder asc")
+	List<Category> findByIds(Integer merchantId, List<Long> ids);
+	
+	/**
+	 * Category id and parent id (null for roots) of every category of a store
+	 */
+	@Query("select c.id, cp.id from Category c left join c.parent cp where c.merchantStore.id=?1")
+	List<Object[]> findHierarchy(Integer merchantId);
+	
 	@Query("select distinct c from Category c left join fetch c.descriptions cd join fetch cd.language cdl join fetch c.merchantStore cm where cm.id=?1 and c.depth >= ?2 order by c.lineage, c.sortOrder asc")
 	List<Category> findByDepth(Integer merchantId, int depth);
 	
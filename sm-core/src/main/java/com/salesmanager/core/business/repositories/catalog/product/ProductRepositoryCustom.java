@@ -1,5 +1,6 @@
 package com.salesmanager.core.business.repositories.catalog.product;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
@@ -28,6 +29,12 @@ public interface ProductRepositoryCustom {
 
 		List<Product> getProductsListByIds(Set<Long> productIds);
 
+		/**
+		 * Products with availabilities, prices and attributes in a single query,
+		 * unavailable products are returned too
+		 */
+		List<Product> listByIds(Set<Long> productIds);
+
 		List<Product> listByTaxClass(TaxClass taxClass);
 
 		List<Product> listByStore(MerchantStore store);
@@ -35,6 +42,11 @@ public interface ProductRepositoryCustom {
 		Product getProductForLocale(long productId, Language language,
 				Locale locale);
 
+		/**
+		 * Available products of the given ids in one query, see getProductForLocale
+		 */
+		List<Product> listForLocale(Set<Long> productIds, Language language, Locale locale);
+
 		Product getById(Long productId);
 		Product getById(Long productId, MerchantStore merchant);
 
@@ -45,4 +57,22 @@ public interface ProductRepositoryCustom {
 		List<Product> getProductsForLocale(MerchantStore store,
 				Set<Long> categoryIds, Language language, Locale locale);
 
+		long countForIndex(MerchantStore store);
+
+		/**
+		 * Ids of the products of a store after an id, in id order
+		 * @param afterId null for the first ids
+		 */
+		List<Long> listIdsForIndex(MerchantStore store, Long afterId, int count);
+
+		List<Long> listIdsModifiedSince(MerchantStore store, Date since);
+
+		/**
+		 * Products with what the search index needs: descriptions, prices,
+		 * attributes, manufacturer and category codes. Products are read
+		 * in a stateless session, they are detached and only the codes of
+		 * the categories are set.
+		 */
+		List<Product> listForIndex(List<Long> productIds);
+
 }
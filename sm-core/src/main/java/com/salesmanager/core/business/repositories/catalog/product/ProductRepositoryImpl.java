@@ -2,8 +2,11 @@ package com.salesmanager.core.business.repositories.catalog.product;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -14,11 +17,15 @@ import javax.persistence.Query;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.salesmanager.core.business.constants.Constants;
+import com.salesmanager.core.business.utils.PageCursor;
 import com.salesmanager.core.business.utils.RepositoryHelper;
+import com.salesmanager.core.model.catalog.category.Category;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.ProductCriteria;
 import com.salesmanager.core.model.catalog.product.ProductList;
@@ -32,6 +39,25 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProductRepositoryImpl.class);
 
+	/**
+	 * Product details fetched when listing
+	 */
+	private static final String PRODUCT_FETCH = "join fetch p.merchantStore merch "
+			+ "join fetch p.availabilities pa "
+			+ "left join fetch pa.prices pap "
+			+ "join fetch p.descriptions pd "
+			+ "left join fetch p.categories categs "
+			+ "left join fetch categs.descriptions cd "
+			// images
+			+ "left join fetch p.images images "
+			// other lefts
+			+ "left join fetch p.manufacturer manuf "
+			+ "left join fetch manuf.descriptions manufd "
+			+ "left join fetch p.type type "
+			+ "left join fetch p.taxClass tx "
+			// RENTAL
+			+ "left join fetch p.owner owner ";
+
 	@PersistenceContext
 	private EntityManager em;
 
@@ -311,10 +337,62 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 	@Override
 	public Product getProductForLocale(long productId, Language language, Locale locale) {
 
-		List regionList = new ArrayList();
+		StringBuilder qs = new StringBuilder();
+		qs.append(productForLocaleQuery());
+		qs.append("where p.id=:pid and pa.region in (:lid) ");
+		qs.append("and pd.language.id=:lang and papd.language.id=:lang ");
+		qs.append("and p.available=true and p.dateAvailable<=:dt ");
+		// this cannot be done on child elements from left join
+		// qs.append("and pod.languageId=:lang and povd.languageId=:lang");
+
+		String hql = qs.toString();
+		Query q = this.em.createQuery(hql);
+
+		q.setParameter("pid", productId);
+		q.setParameter("lid", regions(locale));
+		q.setParameter("dt", new Date());
+		q.setParameter("lang", language.getId());
+
+		@SuppressWarnings("unchecked")
+		List<Product> results = q.getResultList();
+		if (results.isEmpty())
+			return null;
+		else if (results.size() == 1)
+			return results.get(0);
+		throw new NonUniqueResultException();
+
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Product> listForLocale(Set<Long> productIds, Language language, Locale locale) {
+
+		StringBuilder qs = new StringBuilder();
+		qs.append(productForLocaleQuery());
+		qs.append("where p.id in (:pid) and pa.region in (:lid) ");
+		qs.append("and pd.language.id=:lang and papd.language.id=:lang ");
+		qs.append("and p.available=true and p.dateAvailable<=:dt ");
+
+		String hql = qs.toString();
+		Query q = this.em.createQuery(hql);
+
+		q.setParameter("pid", productIds);
+		q.setParameter("lid", regions(locale));
+		q.setParameter("dt", new Date());
+		q.setParameter("lang", language.getId());
+
+		return q.getResultList();
+
+	}
+
+	private List<String> regions(Locale locale) {
+		List<String> regionList = new ArrayList<String>();
 		regionList.add("*");
 		regionList.add(locale.getCountry());
+		return regionList;
+	}
 
+	private String productForLocaleQuery() {
 		StringBuilder qs = new StringBuilder();
 		qs.append("select distinct p from Product as p ");
 		qs.append("join fetch p.availabilities pa ");
@@ -340,29 +418,7 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 
 		// RENTAL
 		qs.append("left join fetch p.owner owner ");
-
-		qs.append("where p.id=:pid and pa.region in (:lid) ");
-		qs.append("and pd.language.id=:lang and papd.language.id=:lang ");
-		qs.append("and p.available=true and p.dateAvailable<=:dt ");
-		// this cannot be done on child elements from left join
-		// qs.append("and pod.languageId=:lang and povd.languageId=:lang");
-
-		String hql = qs.toString();
-		Query q = this.em.createQuery(hql);
-
-		q.setParameter("pid", productId);
-		q.setParameter("lid", regionList);
-		q.setParameter("dt", new Date());
-		q.setParameter("lang", language.getId());
-
-		@SuppressWarnings("unchecked")
-		List<Product> results = q.getResultList();
-		if (results.isEmpty())
-			return null;
-		else if (results.size() == 1)
-			return results.get(0);
-		throw new NonUniqueResultException();
-
+		return qs.toString();
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -502,6 +558,20 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 		return q.getResultList();
 	}
 
+	@Override
+	public List<Product> listByIds(Set<Long> productIds) {
+		StringBuilder qs = new StringBuilder();
+		qs.append(productQuery());
+		qs.append("where p.id in (:pid)");
+
+		String hql = qs.toString();
+		Query q = this.em.createQuery(hql);
+
+		q.setParameter("pid", productIds);
+
+		return q.getResultList();
+	}
+
 	/**
 	 * This query is used for category listings. All collections are not fully
 	 * loaded, only the required objects so the listing page can display
@@ -609,7 +679,7 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 		ProductList productList = new ProductList();
 
 		StringBuilder countBuilderSelect = new StringBuilder();
-		countBuilderSelect.append("select count(distinct p) from Product as p");
+		countBuilderSelect.append("from Product as p");
 
 		StringBuilder countBuilderWhere = new StringBuilder();
 		countBuilderWhere.append(" where p.merchantStore.id=:mId");
@@ -688,61 +758,11 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 			}
 		}
 
-		Query countQ = this.em.createQuery(countBuilderSelect.toString() + countBuilderWhere.toString());
+		Query countQ = this.em.createQuery("select count(distinct p) " + countBuilderSelect.toString() + countBuilderWhere.toString());
+		setFilterParameters(countQ, store, language, criteria);
 
-		countQ.setParameter("mId", store.getId());
-
-		if (!CollectionUtils.isEmpty(criteria.getCategoryIds())) {
-			countQ.setParameter("cid", criteria.getCategoryIds());
-		}
-		
-		if(CollectionUtils.isNotEmpty(criteria.getOptionValueIds())) {
-			countQ.setParameter("povid", criteria.getOptionValueIds());
-		}
-
-		if (criteria.getAvailable() != null) {
-			countQ.setParameter("dt", new Date());
-		}
-
-		if (!StringUtils.isBlank(criteria.getCode())) {
-			countQ.setParameter("sku",
-					new StringBuilder().append("%").append(criteria.getCode().toLowerCase()).append("%").toString());
-		}
-
-		if (criteria.getManufacturerId() != null) {
-			countQ.setParameter("manufid", criteria.getManufacturerId());
-		}
-
-		if (!CollectionUtils.isEmpty(criteria.getAttributeCriteria())) {
-			int count = 0;
-			for (AttributeCriteria attributeCriteria : criteria.getAttributeCriteria()) {
-				countQ.setParameter(attributeCriteria.getAttributeCode(), attributeCriteria.getAttributeCode());
-				countQ.setParameter("val" + count + attributeCriteria.getAttributeCode(),
-						"%" + attributeCriteria.getAttributeValue() + "%");
-				count++;
-			}
-		}
-
-		if (criteria.getLanguage() != null && !criteria.getLanguage().equals("_all")) {
-			countQ.setParameter("lang", language.getCode());
-		}
-
-		if (!StringUtils.isBlank(criteria.getProductName())) {
-			countQ.setParameter("nm", new StringBuilder().append("%").append(criteria.getProductName().toLowerCase())
-					.append("%").toString());
-		}
-
-		if (!CollectionUtils.isEmpty(criteria.getProductIds())) {
-			countQ.setParameter("pId", criteria.getProductIds());
-		}
-
-		// RENTAL
-		if (!StringUtils.isBlank(criteria.getStatus())) {
-			countQ.setParameter("status", criteria.getStatus());
-		}
-
-		if (criteria.getOwnerId() != null) {
-			countQ.setParameter("ownerid", criteria.getOwnerId());
+		if (criteria.isCursorPagination()) {
+			return listByCursor(store, language, criteria, countBuilderSelect.toString(), countBuilderWhere.toString(), countQ);
 		}
 
 		Number count = (Number) countQ.getSingleResult();
@@ -752,159 +772,147 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 		if (count.intValue() == 0)
 			return productList;
 
-		StringBuilder qs = new StringBuilder();
-		qs.append("select distinct p from Product as p ");
-		qs.append("join fetch p.merchantStore merch ");
-		qs.append("join fetch p.availabilities pa ");
-		qs.append("left join fetch pa.prices pap ");
+		// a page of ids is selected then only those products are fetched,
+		// limiting a fetch join of collections would load every matching
+		// product before paginating in memory
+		Query idQ = this.em.createQuery(listingIdQuery(countBuilderSelect.toString(), countBuilderWhere.toString(), null));
+		setFilterParameters(idQ, store, language, criteria);
 
-		qs.append("join fetch p.descriptions pd ");
-		qs.append("left join fetch p.categories categs ");
-		qs.append("left join fetch categs.descriptions cd ");
+	    @SuppressWarnings("rawtypes")
+	    GenericEntityList entityList = new GenericEntityList();
+	    entityList.setTotalCount(count.intValue());
 
-		// images
-		qs.append("left join fetch p.images images ");
+		idQ = RepositoryHelper.paginateQuery(idQ, count, entityList, criteria);
+		productList.setTotalPages(entityList.getTotalPages());
 
-		// other lefts
-		qs.append("left join fetch p.manufacturer manuf ");
-		qs.append("left join fetch manuf.descriptions manufd ");
-		qs.append("left join fetch p.type type ");
-		qs.append("left join fetch p.taxClass tx ");
+		List<Long> ids = RepositoryHelper.ids(idQ.getResultList());
+		productList.setProducts(listForListing(ids, language, criteria));
 
-		// RENTAL
-		qs.append("left join fetch p.owner owner ");
+		return productList;
 
-		// attributes
-		if (!CollectionUtils.isEmpty(criteria.getAttributeCriteria())) {
-			qs.append(" inner join p.attributes pattr");
-			qs.append(" inner join pattr.productOption po");
-			qs.append(" inner join po.descriptions pod");
-			qs.append(" inner join pattr.productOptionValue pov ");
-			qs.append(" inner join pov.descriptions povd");
-		} else {
-			qs.append(" left join fetch p.attributes pattr");
-			qs.append(" left join fetch pattr.productOption po");
-			qs.append(" left join fetch po.descriptions pod");
-			qs.append(" left join fetch pattr.productOptionValue pov");
-			qs.append(" left join fetch pov.descriptions povd");
-		}
+	}
 
-		qs.append(" left join fetch p.relationships pr");
+	/**
+	 * Keyset pagination on sort order and id. A page of ids past the cursor
+	 * is selected with the listing filters, then only those products are
+	 * fetched with their details.
+	 */
+	private ProductList listByCursor(MerchantStore store, Language language, ProductCriteria criteria, String from,
+			String where, Query countQ) {
 
-		qs.append(" where merch.id=:mId");
-		if (criteria.getLanguage() != null && !criteria.getLanguage().equals("_all")) {
-			qs.append(" and pd.language.code=:lang");
-		}
+		ProductList productList = new ProductList();
+		PageCursor cursor = PageCursor.decode(criteria.getCursor());
 
-		if (!CollectionUtils.isEmpty(criteria.getProductIds())) {
-			qs.append(" and p.id in (:pId)");
+		if (criteria.isCountTotal()) {
+			Number count = (Number) countQ.getSingleResult();
+			productList.setTotalCount(count.longValue());
+			productList.setTotalPages((int) Math.ceil(count.doubleValue() / RepositoryHelper.pageSize(criteria)));
 		}
 
-		if (!CollectionUtils.isEmpty(criteria.getCategoryIds())) {
-			qs.append(" and categs.id in (:cid)");
+		Query idQ = this.em.createQuery(listingIdQuery(from, where, cursor));
+		setFilterParameters(idQ, store, language, criteria);
+		if (cursor != null) {
+			idQ.setParameter("cursorSort", (int) cursor.getSortKey());
+			idQ.setParameter("cursorId", cursor.getId());
 		}
 
+		List<Long> ids = RepositoryHelper.keysetPage(idQ, criteria, productList);
+		productList.setProducts(listForListing(ids, language, criteria));
+		return productList;
+	}
 
-		if (criteria.getManufacturerId() != null) {
-			qs.append(" and manuf.id = :manufid");
+	/**
+	 * Sort order and id of the products matching the listing filters, past
+	 * the cursor when there is one, ordered by sort order then id
+	 */
+	private String listingIdQuery(String from, String where, PageCursor cursor) {
+		// filters can contain or
+		StringBuilder idQuery = new StringBuilder("select distinct coalesce(p.sortOrder, 0), p.id ").append(from)
+				.append(" where (").append(where.substring(" where ".length())).append(")");
+		if (cursor != null) {
+			idQuery.append(" and (coalesce(p.sortOrder, 0) > :cursorSort")
+					.append(" or (coalesce(p.sortOrder, 0) = :cursorSort and p.id > :cursorId))");
 		}
+		idQuery.append(" order by coalesce(p.sortOrder, 0) asc, p.id asc");
+		return idQuery.toString();
+	}
 
-		if (criteria.getAvailable() != null) {
-			if (criteria.getAvailable()) {
-				qs.append(" and p.available=true and p.dateAvailable<=:dt");
-			} else {
-				qs.append(" and p.available=false and p.dateAvailable>:dt");
-			}
-		}
+	/**
+	 * Products of a listing page with their details, in the order of the ids
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Product> listForListing(List<Long> ids, Language language, ProductCriteria criteria) {
 
-		if (!StringUtils.isBlank(criteria.getProductName())) {
-			qs.append(" and lower(pd.name) like :nm");
+		if (ids.isEmpty()) {
+			return new ArrayList<Product>();
 		}
 
-		if (!StringUtils.isBlank(criteria.getCode())) {
-			qs.append(" and lower(p.sku) like :sku");
-		}
+		boolean byLanguage = criteria.getLanguage() != null && !criteria.getLanguage().equals("_all");
 
-		// RENTAL
-		if (!StringUtils.isBlank(criteria.getStatus())) {
-			qs.append(" and p.rentalStatus = :status");
+		StringBuilder qs = new StringBuilder();
+		qs.append("select distinct p from Product as p ");
+		qs.append(PRODUCT_FETCH);
+		qs.append(" left join fetch p.attributes pattr");
+		qs.append(" left join fetch pattr.productOption po");
+		qs.append(" left join fetch po.descriptions pod");
+		qs.append(" left join fetch pattr.productOptionValue pov");
+		qs.append(" left join fetch pov.descriptions povd");
+		qs.append(" left join fetch p.relationships pr");
+		qs.append(" where p.id in (:ids)");
+		if (byLanguage) {
+			qs.append(" and pd.language.code=:lang");
 		}
 
-		if (criteria.getOwnerId() != null) {
-			qs.append(" and owner.id = :ownerid");
+		Query q = this.em.createQuery(qs.toString());
+		q.setParameter("ids", ids);
+		if (byLanguage) {
+			q.setParameter("lang", language.getCode());
 		}
 
-		if (!CollectionUtils.isEmpty(criteria.getAttributeCriteria())) {
-			int cnt = 0;
-			for (AttributeCriteria attributeCriteria : criteria.getAttributeCriteria()) {
-				qs.append(" and po.code =:").append(attributeCriteria.getAttributeCode());
-				qs.append(" and povd.description like :").append("val").append(cnt)
-						.append(attributeCriteria.getAttributeCode());
-				cnt++;
-			}
-			if (criteria.getLanguage() != null && !criteria.getLanguage().equals("_all")) {
-				qs.append(" and povd.language.code=:lang");
-			}
+		return RepositoryHelper.inIdOrder(q.getResultList(), ids);
+	}
 
-		}
-		
-		
-		if(CollectionUtils.isNotEmpty(criteria.getOptionValueIds())) {
-			qs.append(" and pov.id in (:povid)");
-		}
-		
-		qs.append(" order by p.sortOrder asc");
+	/**
+	 * Parameters of the listing filters
+	 */
+	private void setFilterParameters(Query q, MerchantStore store, Language language, ProductCriteria criteria) {
 
-		String hql = qs.toString();
-		Query q = this.em.createQuery(hql);
 
-		if (criteria.getLanguage() != null && !criteria.getLanguage().equals("_all")) {
-			q.setParameter("lang", language.getCode());
-		}
 		q.setParameter("mId", store.getId());
 
 		if (!CollectionUtils.isEmpty(criteria.getCategoryIds())) {
 			q.setParameter("cid", criteria.getCategoryIds());
 		}
 		
-		if (CollectionUtils.isNotEmpty(criteria.getOptionValueIds())) {
+		if(CollectionUtils.isNotEmpty(criteria.getOptionValueIds())) {
 			q.setParameter("povid", criteria.getOptionValueIds());
 		}
 
-		if (!CollectionUtils.isEmpty(criteria.getProductIds())) {
-			q.setParameter("pId", criteria.getProductIds());
-		}
-
 		if (criteria.getAvailable() != null) {
 			q.setParameter("dt", new Date());
 		}
 
-		if (criteria.getManufacturerId() != null) {
-			q.setParameter("manufid", criteria.getManufacturerId());
-		}
-
 		if (!StringUtils.isBlank(criteria.getCode())) {
 			q.setParameter("sku",
 					new StringBuilder().append("%").append(criteria.getCode().toLowerCase()).append("%").toString());
 		}
 
+		if (criteria.getManufacturerId() != null) {
+			q.setParameter("manufid", criteria.getManufacturerId());
+		}
+
 		if (!CollectionUtils.isEmpty(criteria.getAttributeCriteria())) {
-			int cnt = 0;
+			int count = 0;
 			for (AttributeCriteria attributeCriteria : criteria.getAttributeCriteria()) {
 				q.setParameter(attributeCriteria.getAttributeCode(), attributeCriteria.getAttributeCode());
-				q.setParameter("val" + cnt + attributeCriteria.getAttributeCode(),
+				q.setParameter("val" + count + attributeCriteria.getAttributeCode(),
 						"%" + attributeCriteria.getAttributeValue() + "%");
-				cnt++;
+				count++;
 			}
 		}
 
-		// RENTAL
-		if (!StringUtils.isBlank(criteria.getStatus())) {
-			q.setParameter("status", criteria.getStatus());
-		}
-
-		if (criteria.getOwnerId() != null) {
-			q.setParameter("ownerid", criteria.getOwnerId());
+		if (criteria.getLanguage() != null && !criteria.getLanguage().equals("_all")) {
+			q.setParameter("lang", language.getCode());
 		}
 
 		if (!StringUtils.isBlank(criteria.getProductName())) {
@@ -912,19 +920,18 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 					.append("%").toString());
 		}
 
-	    @SuppressWarnings("rawtypes")
-	    GenericEntityList entityList = new GenericEntityList();
-	    entityList.setTotalCount(count.intValue());
-
-		q = RepositoryHelper.paginateQuery(q, count, entityList, criteria);
-
-
-		@SuppressWarnings("unchecked")
-		List<Product> products = q.getResultList();
-		productList.setProducts(products);
+		if (!CollectionUtils.isEmpty(criteria.getProductIds())) {
+			q.setParameter("pId", criteria.getProductIds());
+		}
 
-		return productList;
+		// RENTAL
+		if (!StringUtils.isBlank(criteria.getStatus())) {
+			q.setParameter("status", criteria.getStatus());
+		}
 
+		if (criteria.getOwnerId() != null) {
+			q.setParameter("ownerid", criteria.getOwnerId());
+		}
 	}
 
 	@Override
@@ -1073,4 +1080,90 @@ public class ProductRepositoryImpl implements ProductRepositoryCustom {
 		return qs.toString();
 	}
 
+
+	@Override
+	public long countForIndex(MerchantStore store) {
+		try (StatelessSession session = openStatelessSession()) {
+			return session.createQuery("select count(p.id) from Product p where p.merchantStore.id=:mid", Long.class)
+					.setParameter("mid", store.getId())
+					.getSingleResult();
+		}
+	}
+
+	@Override
+	public List<Long> listIdsForIndex(MerchantStore store, Long afterId, int count) {
+		StringBuilder qs = new StringBuilder();
+		qs.append("select p.id from Product p where p.merchantStore.id=:mid ");
+		if (afterId != null) {
+			qs.append("and p.id > :after ");
+		}
+		qs.append("order by p.id");
+
+		try (StatelessSession session = openStatelessSession()) {
+			org.hibernate.query.Query<Long> q = session.createQuery(qs.toString(), Long.class);
+			q.setParameter("mid", store.getId());
+			if (afterId != null) {
+				q.setParameter("after", afterId);
+			}
+			q.setMaxResults(count);
+			return q.getResultList();
+		}
+	}
+
+	@Override
+	public List<Long> listIdsModifiedSince(MerchantStore store, Date since) {
+		try (StatelessSession session = openStatelessSession()) {
+			return session.createQuery("select p.id from Product p where p.merchantStore.id=:mid "
+					+ "and p.auditSection.dateModified >= :since order by p.id", Long.class)
+					.setParameter("mid", store.getId())
+					.setParameter("since", since)
+					.getResultList();
+		}
+	}
+
+	@Override
+	public List<Product> listForIndex(List<Long> productIds) {
+		if (productIds.isEmpty()) {
+			return new ArrayList<Product>();
+		}
+
+		// categories are read as codes, a fetch join would multiply the rows
+		// and load the parents of each category
+		StringBuilder qs = new StringBuilder();
+		qs.append("select distinct p from Product p ");
+		qs.append("join fetch p.descriptions pd ");
+		qs.append("join fetch pd.language pdl ");
+		qs.append("left join fetch p.availabilities pa ");
+		qs.append("left join fetch pa.prices pap ");
+		qs.append("left join fetch p.attributes pattr ");
+		qs.append("left join fetch p.manufacturer manuf ");
+		qs.append("where p.id in (:pid)");
+
+		try (StatelessSession session = openStatelessSession()) {
+			List<Product> products = session.createQuery(qs.toString(), Product.class)
+					.setParameter("pid", productIds)
+					.getResultList();
+
+			List<Object[]> codes = session.createQuery("select p.id, c.code from Product p join p.categories c "
+					+ "where p.id in (:pid)", Object[].class)
+					.setParameter("pid", productIds)
+					.getResultList();
+
+			Map<Long, Set<Category>> categories = new HashMap<Long, Set<Category>>();
+			for (Object[] code : codes) {
+				Category category = new Category();
+				category.setCode((String) code[1]);
+				categories.computeIfAbsent((Long) code[0], id -> new HashSet<Category>()).add(category);
+			}
+			for (Product product : products) {
+				product.setCategories(categories.getOrDefault(product.getId(), new HashSet<Category>()));
+			}
+			return products;
+		}
+	}
+
+	private StatelessSession openStatelessSession() {
+		return em.getEntityManagerFactory().unwrap(SessionFactory.class).openStatelessSession();
+	}
+
 }
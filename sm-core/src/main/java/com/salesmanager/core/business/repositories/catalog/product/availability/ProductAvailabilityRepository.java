@@ -1,6 +1,8 @@
 package com.salesmanager.core.business.repositories.catalog.product.availability;
 
+import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
 
@@ -9,6 +11,26 @@ public interface ProductAvailabilityRepository extends JpaRepository<ProductAvai
   @Query("select count(distinct p) from ProductAvailability as p where p.product.id=?1")
   int count(Long productId);
   
+  /**
+   * Availabilities of a product, the all regions availabilities first
+   */
+  @Query("select p.id from ProductAvailability as p where p.product.id=?1 "
+      + "order by case when p.region = '*' then 0 else 1 end, p.id")
+  List<Long> inventoryIds(Long productId);
+  
+  @Query("select p.productQuantity from ProductAvailability as p where p.id=?1")
+  Integer quantity(Long availabilityId);
+  
+  /**
+   * Conditional decrement, the availability is updated only when it has
+   * quantity + reserved quantity left
+   * @return number of availabilities updated
+   */
+  @Modifying
+  @Query("update ProductAvailability p set p.productQuantity = p.productQuantity - ?2 "
+      + "where p.id = ?1 and p.productQuantity >= ?2 + ?3")
+  int decrementQuantity(Long availabilityId, int quantity, int reserved);
+  
   @Query(value = "select distinct p from ProductAvailability p "
       + "left join fetch p.merchantStore pm "
       + "left join fetch p.prices pp "
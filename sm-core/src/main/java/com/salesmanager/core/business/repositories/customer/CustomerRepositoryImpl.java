@@ -1,11 +1,19 @@
 package com.salesmanager.core.business.repositories.customer;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.salesmanager.core.business.utils.PageCursor;
+import com.salesmanager.core.business.utils.RepositoryHelper;
+import com.salesmanager.core.model.common.CriteriaOrderBy;
+import com.salesmanager.core.model.customer.Customer;
 import com.salesmanager.core.model.customer.CustomerCriteria;
 import com.salesmanager.core.model.customer.CustomerList;
 import com.salesmanager.core.model.merchant.MerchantStore;
@@ -14,6 +22,9 @@ import com.salesmanager.core.model.merchant.MerchantStore;
 public class CustomerRepositoryImpl implements CustomerRepositoryCustom {
 
 	
+	private static final String CUSTOMER_QUERY = "select c from Customer as c  left join fetch c.delivery.country left join fetch c.delivery.zone left join fetch c.billing.country left join fetch c.billing.zone";
+	private static final String CUSTOMER_FETCH = " left join fetch c.attributes ca left join fetch ca.customerOption cao left join fetch ca.customerOptionValue cav left join fetch cao.descriptions caod left join fetch cav.descriptions  left join fetch c.groups";
+
     @PersistenceContext
     private EntityManager em;
     
@@ -27,9 +38,8 @@ public class CustomerRepositoryImpl implements CustomerRepositoryCustom {
 		StringBuilder objectBuilderSelect = new StringBuilder();
 		
 		String baseCountQuery = "select count(c) from Customer as c";
-		String baseQuery = "select c from Customer as c  left join fetch c.delivery.country left join fetch c.delivery.zone left join fetch c.billing.country left join fetch c.billing.zone";
 		countBuilderSelect.append(baseCountQuery);
-		objectBuilderSelect.append(baseQuery);
+		objectBuilderSelect.append(CUSTOMER_QUERY);
 		
 		StringBuilder countBuilderWhere = new StringBuilder();
 		StringBuilder objectBuilderWhere = new StringBuilder();
@@ -67,7 +77,7 @@ public class CustomerRepositoryImpl implements CustomerRepositoryCustom {
 			objectBuilderWhere.append(countryQuery);
 		}
 		
-		objectBuilderSelect.append(" left join fetch c.attributes ca left join fetch ca.customerOption cao left join fetch ca.customerOptionValue cav left join fetch cao.descriptions caod left join fetch cav.descriptions  left join fetch c.groups");
+		objectBuilderSelect.append(CUSTOMER_FETCH);
 
 		//count query
 		Query countQ = em.createQuery(
@@ -77,42 +87,12 @@ public class CustomerRepositoryImpl implements CustomerRepositoryCustom {
 		Query objectQ = em.createQuery(
 				objectBuilderSelect.toString() + objectBuilderWhere.toString());
 
-		countQ.setParameter("mId", store.getId());
-		objectQ.setParameter("mId", store.getId());
-		
+		setParameters(countQ, store, criteria);
+		setParameters(objectQ, store, criteria);
 
-		if(!StringUtils.isBlank(criteria.getName())) {
-			String nameParam = new StringBuilder().append("%").append(criteria.getName()).append("%").toString();
-			countQ.setParameter("nm",nameParam);
-			objectQ.setParameter("nm",nameParam);
-		}
-		
-		if(!StringUtils.isBlank(criteria.getFirstName())) {
-			String nameParam = new StringBuilder().append("%").append(criteria.getFirstName()).append("%").toString();
-			countQ.setParameter("fn",nameParam);
-			objectQ.setParameter("fn",nameParam);
-		}
-		
-		if(!StringUtils.isBlank(criteria.getLastName())) {
-			String nameParam = new StringBuilder().append("%").append(criteria.getLastName()).append("%").toString();
-			countQ.setParameter("ln",nameParam);
-			objectQ.setParameter("ln",nameParam);
-		}
-		
-		if(!StringUtils.isBlank(criteria.getEmail())) {
-			String email = new StringBuilder().append("%").append(criteria.getEmail()).append("%").toString();
-			countQ.setParameter("email",email);
-			objectQ.setParameter("email",email);
-		}
-		
-		if(!StringUtils.isBlank(criteria.getCountry())) {
-			String country = new StringBuilder().append("%").append(criteria.getCountry()).append("%").toString();
-			countQ.setParameter("country",country);
-			objectQ.setParameter("country",country);
+		if(criteria.isCursorPagination()) {
+			return listByCursor(store, criteria, countBuilderWhere.toString(), countQ);
 		}
-		
-		
-
 
 		Number count = (Number) countQ.getSingleResult();
 
@@ -142,6 +122,78 @@ public class CustomerRepositoryImpl implements CustomerRepositoryCustom {
 		
 	}
 
-    
+	/**
+	 * Keyset pagination on customer id, a page of ids past the cursor is
+	 * selected then only those customers are fetched with their details
+	 */
+	@SuppressWarnings("unchecked")
+	private CustomerList listByCursor(MerchantStore store, CustomerCriteria criteria, String where, Query countQ) {
+
+		CustomerList customerList = new CustomerList();
+		PageCursor cursor = PageCursor.decode(criteria.getCursor());
+		boolean asc = CriteriaOrderBy.ASC.equals(criteria.getOrderBy());
+
+		if(criteria.isCountTotal()) {
+			Number count = (Number) countQ.getSingleResult();
+			customerList.setTotalCount(count.longValue());
+			customerList.setTotalPages((int) Math.ceil(count.doubleValue() / RepositoryHelper.pageSize(criteria)));
+		}
+
+		//filters can contain or
+		StringBuilder idQuery = new StringBuilder("select c.id from Customer as c where (")
+				.append(where.substring(" where ".length())).append(")");
+		if(cursor != null) {
+			idQuery.append(asc ? " and c.id > :cursorId" : " and c.id < :cursorId");
+		}
+		idQuery.append(asc ? " order by c.id asc" : " order by c.id desc");
+
+		Query idQ = em.createQuery(idQuery.toString());
+		setParameters(idQ, store, criteria);
+		if(cursor != null) {
+			idQ.setParameter("cursorId", cursor.getId());
+		}
+
+		List<Long> ids = RepositoryHelper.keysetPage(idQ, criteria, customerList);
+		if(ids.isEmpty()) {
+			customerList.setCustomers(new ArrayList<Customer>());
+			return customerList;
+		}
+
+		Query objectQ = em.createQuery(CUSTOMER_QUERY + CUSTOMER_FETCH + " where c.id in (:ids)");
+		objectQ.setParameter("ids", ids);
+		customerList.setCustomers(RepositoryHelper.inIdOrder(new LinkedHashSet<Customer>(objectQ.getResultList()), ids));
+
+		return customerList;
+	}
+
+	private void setParameters(Query q, MerchantStore store, CustomerCriteria criteria) {
+
+		q.setParameter("mId", store.getId());
+
+		if(!StringUtils.isBlank(criteria.getName())) {
+			String nameParam = new StringBuilder().append("%").append(criteria.getName()).append("%").toString();
+			q.setParameter("nm",nameParam);
+		}
+		
+		if(!StringUtils.isBlank(criteria.getFirstName())) {
+			String nameParam = new StringBuilder().append("%").append(criteria.getFirstName()).append("%").toString();
+			q.setParameter("fn",nameParam);
+		}
+		
+		if(!StringUtils.isBlank(criteria.getLastName())) {
+			String nameParam = new StringBuilder().append("%").append(criteria.getLastName()).append("%").toString();
+			q.setParameter("ln",nameParam);
+		}
+		
+		if(!StringUtils.isBlank(criteria.getEmail())) {
+			String email = new StringBuilder().append("%").append(criteria.getEmail()).append("%").toString();
+			q.setParameter("email",email);
+		}
+		
+		if(!StringUtils.isBlank(criteria.getCountry())) {
+			String country = new StringBuilder().append("%").append(criteria.getCountry()).append("%").toString();
+			q.setParameter("country",country);
+		}
+	}
 
 }
@@ -22,6 +22,12 @@ public interface MerchantRepository extends JpaRepository<MerchantStore, Integer
 	@Query("select m from MerchantStore m left join fetch m.parent mp left join fetch m.country mc left join fetch m.currency mc left join fetch m.zone mz left join fetch m.defaultLanguage md left join fetch m.languages mls where m.id = ?1")
 	MerchantStore getById(int id);
 	
+	/**
+	 * Store code and parent store code (null for top level stores) of every store
+	 */
+	@Query("select m.code, mp.code from MerchantStore m left join m.parent mp")
+	List<Object[]> findHierarchy();
+	
 
 	@Query("select distinct m from MerchantStore m left join fetch m.parent mp left join fetch m.country mc left join fetch m.currency mc left join fetch m.zone mz left join fetch m.defaultLanguage md left join fetch m.languages mls where mp.code = ?1")
 	List<MerchantStore> getByParent(String code);
@@ -1,15 +1,21 @@
 package com.salesmanager.core.business.repositories.order;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.salesmanager.core.business.utils.PageCursor;
 import com.salesmanager.core.business.utils.RepositoryHelper;
 import com.salesmanager.core.model.common.CriteriaOrderBy;
 import com.salesmanager.core.model.common.GenericEntityList;
 import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.order.Order;
 import com.salesmanager.core.model.order.OrderCriteria;
 import com.salesmanager.core.model.order.OrderList;
 import com.salesmanager.core.model.order.orderstatus.OrderStatus;
@@ -18,6 +24,8 @@ import com.salesmanager.core.model.order.orderstatus.OrderStatus;
 public class OrderRepositoryImpl implements OrderRepositoryCustom {
 
 	
+	private static final String ORDER_FETCH_QUERY = "select o from Order as o left join fetch o.delivery.country left join fetch o.delivery.zone left join fetch o.billing.country left join fetch o.billing.zone left join fetch o.orderTotal ot left join fetch o.orderProducts op left join fetch o.orderAttributes oa left join fetch op.orderAttributes opo left join fetch op.prices opp";
+
     @PersistenceContext
     private EntityManager em;
     
@@ -149,11 +157,10 @@ public class OrderRepositoryImpl implements OrderRepositoryCustom {
 		}
 
 		
-		String baseQuery = "select o from Order as o left join fetch o.delivery.country left join fetch o.delivery.zone left join fetch o.billing.country left join fetch o.billing.zone left join fetch o.orderTotal ot left join fetch o.orderProducts op left join fetch o.orderAttributes oa left join fetch op.orderAttributes opo left join fetch op.prices opp";
 		String countBaseQuery = "select count(o) from Order as o";
 		
 		countBuilderSelect.append(countBaseQuery);
-		objectBuilderSelect.append(baseQuery);
+		objectBuilderSelect.append(ORDER_FETCH_QUERY);
 
 		StringBuilder objectBuilderWhere = new StringBuilder();
 
@@ -162,7 +169,7 @@ public class OrderRepositoryImpl implements OrderRepositoryCustom {
 		countBuilderSelect.append(storeQuery);
 		
 		if(!StringUtils.isEmpty(criteria.getCustomerName())) {
-			String nameQuery =  " and o.billing.firstName like:name or o.billing.lastName like:name";
+			String nameQuery =  " and (o.billing.firstName like:name or o.billing.lastName like:name)";
 			objectBuilderWhere.append(nameQuery);
 			countBuilderSelect.append(nameQuery);
 		}
@@ -182,7 +189,7 @@ public class OrderRepositoryImpl implements OrderRepositoryCustom {
 		
 		//phone
 		if(!StringUtils.isEmpty(criteria.getCustomerPhone())) {
-			String nameQuery =  " and o.billing.telephone like:phone or o.delivery.telephone like:phone";
+			String nameQuery =  " and (o.billing.telephone like:phone or o.delivery.telephone like:phone)";
 			objectBuilderWhere.append(nameQuery);
 			countBuilderSelect.append(nameQuery);
 		}
@@ -193,50 +200,22 @@ public class OrderRepositoryImpl implements OrderRepositoryCustom {
 			objectBuilderWhere.append(nameQuery);
 			countBuilderSelect.append(nameQuery);
 		}
-	
-		objectBuilderWhere.append(orderByCriteria);
 
 		//count query
 		Query countQ = em.createQuery(
 				countBuilderSelect.toString());
+		setParameters(countQ, store, criteria);
+
+		if(criteria.isCursorPagination()) {
+			return listOrdersByCursor(store, criteria, objectBuilderWhere.toString(), countQ);
+		}
+	
+		objectBuilderWhere.append(orderByCriteria);
 
 		//object query
 		Query objectQ = em.createQuery(
 				objectBuilderSelect.toString() + objectBuilderWhere.toString());
-		
-		//customer name
-		if(!StringUtils.isEmpty(criteria.getCustomerName())) {
-			countQ.setParameter("name", like(criteria.getCustomerName()));
-			objectQ.setParameter("name", like(criteria.getCustomerName()));
-		}
-		
-		//email
-		if(!StringUtils.isEmpty(criteria.getEmail())) {
-			countQ.setParameter("email", like(criteria.getEmail()));
-			objectQ.setParameter("email", like(criteria.getEmail()));			
-		}
-		
-		//id
-		if(criteria.getId() != null) {
-			countQ.setParameter("id", like(String.valueOf(criteria.getId())));
-			objectQ.setParameter("id", like(String.valueOf(criteria.getId())));
-		}
-		
-		//phone
-		if(!StringUtils.isEmpty(criteria.getCustomerPhone())) {
-			countQ.setParameter("phone", like(criteria.getCustomerPhone()));
-			objectQ.setParameter("phone", like(criteria.getCustomerPhone()));
-		}
-		
-		//status
-		if(!StringUtils.isEmpty(criteria.getStatus())) {
-			countQ.setParameter("status", OrderStatus.valueOf(criteria.getStatus().toUpperCase()));
-			objectQ.setParameter("status", OrderStatus.valueOf(criteria.getStatus().toUpperCase()));
-		}
-		
-
-		countQ.setParameter("mCode", store.getCode());
-		objectQ.setParameter("mCode", store.getCode());
+		setParameters(objectQ, store, criteria);
 
 
 		Number count = (Number) countQ.getSingleResult();
@@ -259,6 +238,78 @@ public class OrderRepositoryImpl implements OrderRepositoryCustom {
 
 		return orderList;
 	}
+
+	/**
+	 * Keyset pagination on order id, a page of ids past the cursor is
+	 * selected then only those orders are fetched with their details
+	 */
+	@SuppressWarnings("unchecked")
+	private OrderList listOrdersByCursor(MerchantStore store, OrderCriteria criteria, String where, Query countQ) {
+
+		OrderList orderList = new OrderList();
+		PageCursor cursor = PageCursor.decode(criteria.getCursor());
+		boolean asc = CriteriaOrderBy.ASC.equals(criteria.getOrderBy());
+
+		if(criteria.isCountTotal()) {
+			Number count = (Number) countQ.getSingleResult();
+			orderList.setTotalCount(count.longValue());
+			orderList.setTotalPages((int) Math.ceil(count.doubleValue() / RepositoryHelper.pageSize(criteria)));
+		}
+
+		StringBuilder idQuery = new StringBuilder("select o.id from Order as o").append(where);
+		if(cursor != null) {
+			idQuery.append(asc ? " and o.id > :cursorId" : " and o.id < :cursorId");
+		}
+		idQuery.append(asc ? " order by o.id asc" : " order by o.id desc");
+
+		Query idQ = em.createQuery(idQuery.toString());
+		setParameters(idQ, store, criteria);
+		if(cursor != null) {
+			idQ.setParameter("cursorId", cursor.getId());
+		}
+
+		List<Long> ids = RepositoryHelper.keysetPage(idQ, criteria, orderList);
+		if(ids.isEmpty()) {
+			orderList.setOrders(new ArrayList<Order>());
+			return orderList;
+		}
+
+		Query objectQ = em.createQuery(ORDER_FETCH_QUERY + " where o.id in (:ids)");
+		objectQ.setParameter("ids", ids);
+		orderList.setOrders(RepositoryHelper.inIdOrder(new LinkedHashSet<Order>(objectQ.getResultList()), ids));
+
+		return orderList;
+	}
+
+	private void setParameters(Query q, MerchantStore store, OrderCriteria criteria) {
+
+		//customer name
+		if(!StringUtils.isEmpty(criteria.getCustomerName())) {
+			q.setParameter("name", like(criteria.getCustomerName()));
+		}
+		
+		//email
+		if(!StringUtils.isEmpty(criteria.getEmail())) {
+			q.setParameter("email", like(criteria.getEmail()));
+		}
+		
+		//id
+		if(criteria.getId() != null) {
+			q.setParameter("id", like(String.valueOf(criteria.getId())));
+		}
+		
+		//phone
+		if(!StringUtils.isEmpty(criteria.getCustomerPhone())) {
+			q.setParameter("phone", like(criteria.getCustomerPhone()));
+		}
+		
+		//status
+		if(!StringUtils.isEmpty(criteria.getStatus())) {
+			q.setParameter("status", OrderStatus.valueOf(criteria.getStatus().toUpperCase()));
+		}
+
+		q.setParameter("mCode", store.getCode());
+	}
 	
 	private String like(String q) {
 		return '%' + q + '%';
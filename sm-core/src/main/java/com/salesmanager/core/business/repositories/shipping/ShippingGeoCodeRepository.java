@@ -0,0 +1,9 @@
+package com.salesmanager.core.business.repositories.shipping;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.salesmanager.core.model.shipping.ShippingGeoCode;
+
+public interface ShippingGeoCodeRepository extends JpaRepository<ShippingGeoCode, String> {
+
+}
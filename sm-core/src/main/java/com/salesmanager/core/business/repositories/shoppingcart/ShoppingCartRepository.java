@@ -20,6 +20,9 @@ public interface ShoppingCartRepository extends JpaRepository<ShoppingCart, Long
 	@Query("select c from ShoppingCart c left join fetch c.lineItems cl left join fetch cl.attributes cla join fetch c.merchantStore cm where cm.id = ?1 and c.shoppingCartCode = ?2")
 	ShoppingCart findByCode(Integer merchantId, String code);
 	
+	@Query("select c.customerId, c.orderId, c.promoCode, max(cl.auditSection.dateModified), count(cl), sum(cl.quantity) from ShoppingCart c left join c.lineItems cl join c.merchantStore cm where cm.id = ?1 and c.shoppingCartCode = ?2 group by c.id, c.customerId, c.orderId, c.promoCode")
+	List<Object[]> findVersionByCode(Integer merchantId, String code);
+	
 	@Query("select c from ShoppingCart c left join fetch c.lineItems cl left join fetch cl.attributes cla join fetch c.merchantStore cm where c.customerId = ?1")
 	List<ShoppingCart> findByCustomer(Long customerId);
 	
@@ -0,0 +1,39 @@
+package com.salesmanager.core.business.repositories.system;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.salesmanager.core.model.system.EmailOutbox;
+
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+	/**
+	 * Pending emails and emails whose sender did not report back, due
+	 * before the given date, oldest first
+	 */
+	@Query("select e.id from EmailOutbox e where e.status in ('PENDING', 'SENDING') and e.nextAttempt <= ?1 order by e.nextAttempt")
+	List<Long> findDue(Date date, Pageable page);
+
+	/**
+	 * Reserves a due email until the given date, only one dispatcher
+	 * succeeds when several nodes poll the outbox
+	 * @return 1 when the email was claimed
+	 */
+	@Transactional
+	@Modifying
+	@Query("update EmailOutbox e set e.status = 'SENDING', e.nextAttempt = ?3 "
+			+ "where e.id = ?1 and e.status in ('PENDING', 'SENDING') and e.nextAttempt <= ?2")
+	int claim(Long id, Date date, Date until);
+
+	@Transactional
+	@Modifying
+	@Query("delete from EmailOutbox e where e.status = 'SENT' and e.dateSent < ?1")
+	int deleteSentBefore(Date date);
+
+}
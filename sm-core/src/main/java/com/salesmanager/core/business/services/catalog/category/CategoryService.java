@@ -12,6 +12,14 @@ import com.salesmanager.core.model.reference.language.Language;
 public interface CategoryService extends SalesManagerEntityService<Long, Category> {
 
 	List<Category> getListByLineage(MerchantStore store, String lineage) throws ServiceException;
+
+	/**
+	 * Ids of a category and all its sub categories, resolved from the in memory category tree
+	 * @param store
+	 * @param categoryId
+	 * @return empty list if the category does not exist for this store
+	 */
+	List<Long> getSubCategoryIds(MerchantStore store, Long categoryId);
 	
 	List<Category> listBySeUrl(MerchantStore store, String seUrl) throws ServiceException;
 	
@@ -2,6 +2,7 @@ package com.salesmanager.core.business.services.catalog.category;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -9,6 +10,7 @@ import java.util.Set;
 
 import javax.inject.Inject;
 
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -21,6 +23,7 @@ import com.salesmanager.core.business.repositories.catalog.category.CategoryDesc
 import com.salesmanager.core.business.repositories.catalog.category.CategoryRepository;
 import com.salesmanager.core.business.repositories.catalog.category.PageableCategoryRepository;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.model.catalog.category.Category;
 import com.salesmanager.core.model.catalog.category.CategoryDescription;
@@ -31,6 +34,8 @@ import com.salesmanager.core.model.reference.language.Language;
 @Service("categoryService")
 public class CategoryServiceImpl extends SalesManagerEntityServiceImpl<Long, Category> implements CategoryService {
 
+  private static final int IN_CLAUSE_SIZE = 1000;
+
 
   private CategoryRepository categoryRepository;
 
@@ -43,6 +48,9 @@ public class CategoryServiceImpl extends SalesManagerEntityServiceImpl<Long, Cat
   @Inject
   private CategoryDescriptionRepository categoryDescriptionRepository;
 
+  @Inject
+  private CategoryTreeIndex categoryTreeIndex;
+
 
 
   @Inject
@@ -115,13 +123,62 @@ public class CategoryServiceImpl extends SalesManagerEntityServiceImpl<Long, Cat
 	@Override
 	public List<Category> getListByLineage(MerchantStore store, String lineage) throws ServiceException {
 		try {
-			return categoryRepository.findByLineage(store.getId(), lineage);
+			List<Long> path = parseLineage(lineage);
+			if (path == null) {
+				return categoryRepository.findByLineage(store.getId(), lineage);
+			}
+			// categories having lineage in their own lineage are the sub tree
+			// of the last category when the lineage is its ancestor path
+			Long categoryId = path.get(path.size() - 1);
+			List<Long> ancestry = new ArrayList<Long>(categoryTreeIndex.ancestors(store.getId(), categoryId));
+			ancestry.add(categoryId);
+			if (!categoryTreeIndex.contains(store.getId(), categoryId)
+					|| !ancestry.subList(ancestry.size() - Math.min(path.size(), ancestry.size()), ancestry.size()).equals(path)) {
+				return new ArrayList<Category>();
+			}
+			return listByIds(store, categoryTreeIndex.subtree(store.getId(), categoryId));
 		} catch (Exception e) {
 			throw new ServiceException(e);
 		}
 
 	}
 
+	@Override
+	public List<Long> getSubCategoryIds(MerchantStore store, Long categoryId) {
+		return categoryTreeIndex.subtree(store.getId(), categoryId);
+	}
+
+	private List<Category> listByIds(MerchantStore store, List<Long> ids) {
+		List<Category> categories = new ArrayList<Category>(ids.size());
+		for (int i = 0; i < ids.size(); i += IN_CLAUSE_SIZE) {
+			categories.addAll(categoryRepository.findByIds(store.getId(), ids.subList(i, Math.min(i + IN_CLAUSE_SIZE, ids.size()))));
+		}
+		if (ids.size() > IN_CLAUSE_SIZE) {
+			categories.sort(Comparator.comparing(Category::getLineage, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+					.thenComparing(Category::getSortOrder, Comparator.nullsFirst(Comparator.<Integer>naturalOrder())));
+		}
+		return categories;
+	}
+
+	/**
+	 * Category ids of a lineage such as /1/5/8/
+	 * @return null if the lineage is not a well formed path
+	 */
+	private List<Long> parseLineage(String lineage) {
+		if (lineage == null || !lineage.startsWith(Constants.SLASH) || !lineage.endsWith(Constants.SLASH)
+				|| lineage.length() < 3) {
+			return null;
+		}
+		List<Long> ids = new ArrayList<Long>();
+		for (String id : lineage.substring(1, lineage.length() - 1).split(Constants.SLASH, -1)) {
+			if (id.isEmpty() || !StringUtils.isNumeric(id)) {
+				return null;
+			}
+			ids.add(Long.valueOf(id));
+		}
+		return ids;
+	}
+
 	@Override
 	public List<Category> getListByLineage(String storeCode, String lineage) throws ServiceException {
 		try {
@@ -236,10 +293,9 @@ public class CategoryServiceImpl extends SalesManagerEntityServiceImpl<Long, Cat
 	// @Override
 	public void delete(Category category) throws ServiceException {
 
-		// get category with lineage (subcategories)
-		StringBuilder lineage = new StringBuilder();
-		lineage.append(category.getLineage()).append(category.getId()).append(Constants.SLASH);
-		List<Category> categories = this.getListByLineage(category.getMerchantStore(), lineage.toString());
+		// get sub categories
+		List<Category> categories = listByIds(category.getMerchantStore(),
+				categoryTreeIndex.descendants(category.getMerchantStore().getId(), category.getId()));
 
 		Category dbCategory = getById(category.getId(), category.getMerchantStore().getId());
 
@@ -285,6 +341,7 @@ public class CategoryServiceImpl extends SalesManagerEntityServiceImpl<Long, Cat
 
 			Category categ = getById(category.getId(), category.getMerchantStore().getId());
 			categoryRepository.delete(categ);
+			publishChange(categ, ChangeType.DELETE);
 
 		}
 
@@ -328,24 +385,19 @@ public class CategoryServiceImpl extends SalesManagerEntityServiceImpl<Long, Cat
 
 				child.setParent(p);
 				child.setDepth(depth + 1);
-				child.setLineage(new StringBuilder().append(lineage).append(Constants.SLASH).append(child.getId())
+				child.setLineage(new StringBuilder().append(lineage).append(child.getId())
 						.append(Constants.SLASH).toString());
 
 			}
 
 			update(child);
-			StringBuilder childLineage = new StringBuilder();
-			childLineage.append(child.getLineage()).append(child.getId()).append("/");
-			List<Category> subCategories = getListByLineage(child.getMerchantStore(), childLineage.toString());
 
 			// ajust all sub categories lineages
-			if (subCategories != null && subCategories.size() > 0) {
-				for (Category subCategory : subCategories) {
-					if (!child.getId().equals(subCategory.getId())) {
-						addChild(child, subCategory);
-					}
+			for (Long subCategoryId : categoryTreeIndex.children(child.getMerchantStore().getId(), child.getId())) {
+				Category subCategory = getById(subCategoryId, child.getMerchantStore().getId());
+				if (subCategory != null) {
+					addChild(child, subCategory);
 				}
-
 			}
 		} catch (Exception e) {
 			throw new ServiceException(e);
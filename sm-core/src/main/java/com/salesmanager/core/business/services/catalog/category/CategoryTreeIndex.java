@@ -0,0 +1,187 @@
+package com.salesmanager.core.business.services.catalog.category;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.salesmanager.core.business.repositories.catalog.category.CategoryRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.model.catalog.category.Category;
+
+/**
+ * In memory category hierarchy of each store built from (id, parent id) pairs.
+ * Replaces lineage like '%/id/%' scans for subtree, ancestor and depth lookups.
+ *
+ * A store tree is immutable, it is dropped when a category of the store
+ * changes and rebuilt on next access. Trees are also rebuilt after
+ * config.category.index.ttl seconds to pick up changes made by other instances.
+ */
+@Component
+public class CategoryTreeIndex {
+
+	@Inject
+	private CategoryRepository categoryRepository;
+
+	@Value("${config.category.index.ttl:300}")
+	private long ttl;
+
+	private final Map<Integer, Tree> trees = new ConcurrentHashMap<Integer, Tree>();
+
+	/**
+	 * incremented on every invalidation, a tree read while an invalidation
+	 * happened is used once but not kept
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Category and all its descendants, parents before children
+	 * @return empty list when the category does not exist in the store
+	 */
+	public List<Long> subtree(Integer storeId, Long categoryId) {
+		return tree(storeId).subtree(categoryId, true);
+	}
+
+	/**
+	 * All descendants of a category, category excluded
+	 */
+	public List<Long> descendants(Integer storeId, Long categoryId) {
+		return tree(storeId).subtree(categoryId, false);
+	}
+
+	/**
+	 * Direct children of a category
+	 */
+	public List<Long> children(Integer storeId, Long categoryId) {
+		return tree(storeId).children(categoryId);
+	}
+
+	/**
+	 * Ancestors of a category from root to direct parent
+	 */
+	public List<Long> ancestors(Integer storeId, Long categoryId) {
+		return tree(storeId).ancestors(categoryId);
+	}
+
+	/**
+	 * Depth of a category, root categories are at depth 0
+	 * @return -1 when the category does not exist in the store
+	 */
+	public int depth(Integer storeId, Long categoryId) {
+		Tree tree = tree(storeId);
+		return tree.contains(categoryId) ? tree.ancestors(categoryId).size() : -1;
+	}
+
+	public boolean contains(Integer storeId, Long categoryId) {
+		return tree(storeId).contains(categoryId);
+	}
+
+	public void invalidate(Integer storeId) {
+		generation.incrementAndGet();
+		trees.remove(storeId);
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(Category.class)) {
+			Category category = (Category) event.getEntity();
+			if (category.getMerchantStore() != null && category.getMerchantStore().getId() != null) {
+				invalidate(category.getMerchantStore().getId());
+			} else {
+				generation.incrementAndGet();
+				trees.clear();
+			}
+		}
+	}
+
+	private Tree tree(Integer storeId) {
+		Tree tree = trees.get(storeId);
+		if (tree == null || tree.expires < System.currentTimeMillis()) {
+			long readGeneration = generation.get();
+			tree = new Tree(categoryRepository.findHierarchy(storeId), System.currentTimeMillis() + ttl * 1000);
+			if (readGeneration == generation.get()) {
+				trees.put(storeId, tree);
+			}
+		}
+		return tree;
+	}
+
+	static final class Tree {
+
+		private static final Long ROOT = 0L;
+
+		private final Map<Long, Long> parents;
+		private final Map<Long, List<Long>> children;
+		private final long expires;
+
+		/**
+		 * @param hierarchy rows of (category id, parent id or null)
+		 */
+		Tree(List<Object[]> hierarchy, long expires) {
+			this.expires = expires;
+			parents = new HashMap<Long, Long>(hierarchy.size() * 2);
+			children = new HashMap<Long, List<Long>>();
+			for (Object[] row : hierarchy) {
+				Long id = ((Number) row[0]).longValue();
+				Long parent = row[1] == null ? ROOT : ((Number) row[1]).longValue();
+				parents.put(id, parent);
+				children.computeIfAbsent(parent, k -> new ArrayList<Long>()).add(id);
+			}
+		}
+
+		boolean contains(Long id) {
+			return parents.containsKey(id);
+		}
+
+		List<Long> children(Long id) {
+			List<Long> c = children.get(id);
+			return c == null || !contains(id) ? Collections.<Long>emptyList() : Collections.unmodifiableList(c);
+		}
+
+		List<Long> subtree(Long id, boolean includeSelf) {
+			if (!contains(id)) {
+				return Collections.emptyList();
+			}
+			List<Long> result = new ArrayList<Long>();
+			Deque<Long> queue = new ArrayDeque<Long>();
+			queue.add(id);
+			//bounded by the number of categories in case of a corrupted cycle
+			int visited = 0;
+			while (!queue.isEmpty() && visited++ <= parents.size()) {
+				Long current = queue.poll();
+				if (includeSelf || !current.equals(id)) {
+					result.add(current);
+				}
+				List<Long> c = children.get(current);
+				if (c != null) {
+					queue.addAll(c);
+				}
+			}
+			return result;
+		}
+
+		List<Long> ancestors(Long id) {
+			List<Long> result = new ArrayList<Long>();
+			Long parent = parents.get(id);
+			//bounded by the number of categories in case of a corrupted cycle
+			while (parent != null && !ROOT.equals(parent) && result.size() < parents.size()) {
+				result.add(parent);
+				parent = parents.get(parent);
+			}
+			Collections.reverse(result);
+			return result;
+		}
+	}
+
+}
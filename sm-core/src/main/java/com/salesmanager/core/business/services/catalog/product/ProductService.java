@@ -3,6 +3,7 @@ package com.salesmanager.core.business.services.catalog.product;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 
 import org.springframework.data.domain.Page;
 
@@ -30,12 +31,25 @@ public interface ProductService extends SalesManagerEntityService<Long, Product>
 
 	Product getProductForLocale(long productId, Language language, Locale locale) throws ServiceException;
 
+	/**
+	 * Available products of the given ids for a language and locale, loaded in one query
+	 */
+	List<Product> getProductsForLocale(Set<Long> productIds, Language language, Locale locale) throws ServiceException;
+
 	List<Product> getProductsForLocale(Category category, Language language, Locale locale) throws ServiceException;
 
 	List<Product> getProducts(List<Long> categoryIds) throws ServiceException;
 
 	List<Product> getProductsByIds(List<Long> productIds) throws ServiceException;
 
+	/**
+	 * Products of the given ids loaded with their availabilities, prices and
+	 * attributes in one query, whether they are available or not
+	 * @param productIds
+	 * @return
+	 */
+	List<Product> listByIds(Set<Long> productIds);
+
 	/**
 	 * Get a product with only MerchantStore object
 	 * @param productId
@@ -128,6 +128,14 @@ public class ProductServiceImpl extends SalesManagerEntityServiceImpl<Long, Prod
 		return productRepository.getProductsListByIds(idSet);
 	}
 
+	@Override
+	public List<Product> listByIds(Set<Long> productIds) {
+		if (productIds.isEmpty()) {
+			return new ArrayList<Product>();
+		}
+		return productRepository.listByIds(productIds);
+	}
+
 	@Override
 	public Product getProductWithOnlyMerchantStoreById(Long productId) {
 		return productRepository.getProductWithOnlyMerchantStoreById(productId);
@@ -169,6 +177,20 @@ public class ProductServiceImpl extends SalesManagerEntityServiceImpl<Long, Prod
 		return product;
 	}
 
+	@Override
+	public List<Product> getProductsForLocale(Set<Long> productIds, Language language, Locale locale)
+			throws ServiceException {
+		if (productIds.isEmpty()) {
+			return new ArrayList<Product>();
+		}
+		List<Product> products = productRepository.listForLocale(productIds, language, locale);
+		for (Product product : products) {
+			CatalogServiceHelper.setToAvailability(product, locale);
+			CatalogServiceHelper.setToLanguage(product, language.getId());
+		}
+		return products;
+	}
+
 	@Override
 	public List<Product> getProductsForLocale(Category category, Language language, Locale locale)
 			throws ServiceException {
@@ -178,14 +200,8 @@ public class ProductServiceImpl extends SalesManagerEntityServiceImpl<Long, Prod
 		}
 
 		// Get the category list
-		StringBuilder lineage = new StringBuilder().append(category.getLineage()).append(category.getId()).append("/");
-		List<Category> categories = categoryService.getListByLineage(category.getMerchantStore(), lineage.toString());
-		Set<Long> categoryIds = new HashSet<Long>();
-		for (Category c : categories) {
-
-			categoryIds.add(c.getId());
-
-		}
+		Set<Long> categoryIds = new HashSet<Long>(
+				categoryService.getSubCategoryIds(category.getMerchantStore(), category.getId()));
 
 		categoryIds.add(category.getId());
 
@@ -351,7 +367,7 @@ public class ProductServiceImpl extends SalesManagerEntityServiceImpl<Long, Prod
 	public Page<Product> listByStore(MerchantStore store, Language language, ProductCriteria criteria, int page,
 			int count) {
 
-		criteria.setPageSize(page);
+		criteria.setStartPage(page);
 		criteria.setPageSize(count);
 		criteria.setLegacyPagination(false);
 		
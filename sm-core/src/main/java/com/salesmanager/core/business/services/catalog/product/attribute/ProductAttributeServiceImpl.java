@@ -8,6 +8,7 @@ import org.springframework.stereotype.Service;
 
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.repositories.catalog.product.attribute.ProductAttributeRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.attribute.ProductAttribute;
@@ -73,6 +74,7 @@ public class ProductAttributeServiceImpl extends
 	public void saveOrUpdate(ProductAttribute productAttribute)
 			throws ServiceException {
 			productAttributeRepository.save(productAttribute);
+			publishChange(productAttribute, ChangeType.SAVE);
 
 	}
 	
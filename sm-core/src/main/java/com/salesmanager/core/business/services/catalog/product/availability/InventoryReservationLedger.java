@@ -0,0 +1,94 @@
+package com.salesmanager.core.business.services.catalog.product.availability;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Short lived in memory reservations of product quantities held by shopping carts
+ * during checkout. A reservation expires after config.inventory.reservationTtl seconds
+ * or when the cart is released (order processed).
+ */
+@Component
+public class InventoryReservationLedger {
+
+	@Value("${config.inventory.reservationTtl:600}")
+	private long reservationTtl;
+
+	/**
+	 * product id -> (cart code -> reservation)
+	 */
+	private final Map<Long, Map<String, Reservation>> reservations = new ConcurrentHashMap<Long, Map<String, Reservation>>();
+
+	/**
+	 * Reserves a quantity for a cart if the available quantity minus what other carts
+	 * reserved allows it. Replaces any previous reservation of that cart for the product.
+	 * @param cartCode shopping cart code
+	 * @param productId product
+	 * @param quantity quantity wanted
+	 * @param available quantity in stock
+	 * @return true if reserved
+	 */
+	public boolean reserve(String cartCode, Long productId, int quantity, int available) {
+		Map<String, Reservation> byCart = reservations.computeIfAbsent(productId, k -> new ConcurrentHashMap<String, Reservation>());
+		synchronized (byCart) {
+			if (available - reserved(byCart, cartCode) < quantity) {
+				return false;
+			}
+			byCart.put(cartCode, new Reservation(quantity, System.currentTimeMillis() + reservationTtl * 1000));
+			return true;
+		}
+	}
+
+	/**
+	 * Quantity of a product currently reserved by carts other than the given one
+	 */
+	public int reservedByOthers(Long productId, String cartCode) {
+		Map<String, Reservation> byCart = reservations.get(productId);
+		if (byCart == null) {
+			return 0;
+		}
+		synchronized (byCart) {
+			return reserved(byCart, cartCode);
+		}
+	}
+
+	/**
+	 * Drops every reservation held by a cart
+	 */
+	public void release(String cartCode) {
+		if (cartCode == null) {
+			return;
+		}
+		reservations.forEach((productId, byCart) -> {
+			synchronized (byCart) {
+				byCart.remove(cartCode);
+			}
+		});
+	}
+
+	private int reserved(Map<String, Reservation> byCart, String cartCode) {
+		long now = System.currentTimeMillis();
+		byCart.values().removeIf(r -> r.expires < now);
+		int total = 0;
+		for (Map.Entry<String, Reservation> entry : byCart.entrySet()) {
+			if (!entry.getKey().equals(cartCode)) {
+				total += entry.getValue().quantity;
+			}
+		}
+		return total;
+	}
+
+	private static class Reservation {
+		private final int quantity;
+		private final long expires;
+
+		Reservation(int quantity, long expires) {
+			this.quantity = quantity;
+			this.expires = expires;
+		}
+	}
+
+}
@@ -7,6 +7,7 @@ import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
 import com.salesmanager.core.model.merchant.MerchantStore;
 
+import java.util.Map;
 import java.util.Optional;
 
 public interface ProductAvailabilityService extends
@@ -25,5 +26,22 @@ public interface ProductAvailabilityService extends
 	ProductAvailability getByOwner(Product product, String owner) throws ServiceException;
 	
 	int count(Product product);
+	
+	/**
+	 * Reserves product quantities for a cart entering checkout
+	 * @param cartCode shopping cart code
+	 * @param quantities product id -> quantity
+	 * @return true if every product could be reserved
+	 */
+	boolean reserve(String cartCode, Map<Long, Integer> quantities);
+	
+	/**
+	 * Atomically decrements inventory of an order, one conditional update per product.
+	 * Reservations held by the cart are released.
+	 * @param cartCode shopping cart code, can be null
+	 * @param quantities product id -> quantity
+	 * @throws ServiceException EXCEPTION_INVENTORY_MISMATCH when a product does not have enough quantity
+	 */
+	void decrementInventory(String cartCode, Map<Long, Integer> quantities) throws ServiceException;
 
 }
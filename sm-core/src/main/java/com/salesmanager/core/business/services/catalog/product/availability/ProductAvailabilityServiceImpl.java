@@ -3,6 +3,7 @@ package com.salesmanager.core.business.services.catalog.product.availability;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.repositories.catalog.product.availability.PageableProductAvailabilityRepository;
 import com.salesmanager.core.business.repositories.catalog.product.availability.ProductAvailabilityRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
@@ -14,8 +15,11 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeMap;
 
 @Service("productAvailabilityService")
 public class ProductAvailabilityServiceImpl extends
@@ -27,6 +31,9 @@ public class ProductAvailabilityServiceImpl extends
   @Inject
   private PageableProductAvailabilityRepository pageableProductAvailabilityRepository;
 
+  @Inject
+  private InventoryReservationLedger inventoryReservationLedger;
+
   @Inject
   public ProductAvailabilityServiceImpl(
       ProductAvailabilityRepository productAvailabilityRepository) {
@@ -100,4 +107,51 @@ public class ProductAvailabilityServiceImpl extends
 
 
 
+  @Override
+  public boolean reserve(String cartCode, Map<Long, Integer> quantities) {
+    Validate.notNull(cartCode, "Cart code cannot be null");
+    boolean reserved = true;
+    for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+      Long availabilityId = inventoryAvailability(entry.getKey());
+      Integer available = availabilityId == null ? null : productAvailabilityRepository.quantity(availabilityId);
+      if (available == null) {
+        continue;//no inventory managed
+      }
+      reserved = inventoryReservationLedger.reserve(cartCode, entry.getKey(), entry.getValue(), available) && reserved;
+    }
+    return reserved;
+  }
+
+
+  @Override
+  public void decrementInventory(String cartCode, Map<Long, Integer> quantities) throws ServiceException {
+    //always in the same order so concurrent orders lock rows in the same sequence
+    for (Map.Entry<Long, Integer> entry : new TreeMap<Long, Integer>(quantities).entrySet()) {
+      Long productId = entry.getKey();
+      Long availabilityId = inventoryAvailability(productId);
+      if (availabilityId == null) {
+        continue;//no inventory managed
+      }
+      int reservedByOthers = inventoryReservationLedger.reservedByOthers(productId, cartCode);
+      int updated = productAvailabilityRepository.decrementQuantity(availabilityId, entry.getValue(), reservedByOthers);
+      if (updated != 1) {
+        throw new ServiceException(ServiceException.EXCEPTION_INVENTORY_MISMATCH,
+            "Not enough quantity for product " + productId);
+      }
+      Product product = new Product();
+      product.setId(productId);
+      publishChange(product, ChangeType.SAVE);
+    }
+    inventoryReservationLedger.release(cartCode);
+  }
+
+  /**
+   * Inventory is taken from the all regions availability, the one used
+   * for the product price
+   */
+  private Long inventoryAvailability(Long productId) {
+    List<Long> ids = productAvailabilityRepository.inventoryIds(productId);
+    return ids.isEmpty() ? null : ids.get(0);
+  }
+
 }
@@ -71,6 +71,19 @@ public interface ProductImageService extends SalesManagerEntityService<Long, Pro
 	OutputContentFile getProductImage(String storeCode, String productCode,
 			String fileName, final ProductImageSize size) throws ServiceException;
 
+	/**
+	 * Returns the generated image variant closest to the requested width,
+	 * or the regular image when no variant is available
+	 * @param storeCode
+	 * @param productCode
+	 * @param fileName
+	 * @param width display width in pixels
+	 * @return
+	 * @throws ServiceException
+	 */
+	OutputContentFile getProductImage(String storeCode, String productCode,
+			String fileName, int width) throws ServiceException;
+
 	void addProductImages(Product product, List<ProductImage> productImages)
 			throws ServiceException;
 	
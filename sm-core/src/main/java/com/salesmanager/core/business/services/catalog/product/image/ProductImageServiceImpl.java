@@ -15,6 +15,7 @@ import org.springframework.util.Assert;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.modules.cms.product.ProductFileManager;
 import com.salesmanager.core.business.repositories.catalog.product.image.ProductImageRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.file.ProductImageSize;
@@ -162,6 +163,11 @@ public class ProductImageServiceImpl extends SalesManagerEntityServiceImpl<Long,
 
 	}
 
+	@Override
+	public OutputContentFile getProductImage(final String storeCode, final String productCode, final String fileName, final int width) throws ServiceException {
+		return productFileManager.getProductImage(storeCode, productCode, fileName, width);
+	}
+
 	@Override
 	public List<OutputContentFile> getProductImages(Product product) throws ServiceException {
 		return productFileManager.getImages(product);
@@ -200,6 +206,7 @@ public class ProductImageServiceImpl extends SalesManagerEntityServiceImpl<Long,
 		Validate.notNull(productImage,"ProductImage cannot be null");
 		productImage.setProduct(product);
 		productImageRepository.save(productImage);
+		publishChange(productImage, ChangeType.SAVE);
 		
 	}
 }
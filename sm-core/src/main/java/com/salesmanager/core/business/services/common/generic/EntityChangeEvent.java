@@ -0,0 +1,44 @@
+package com.salesmanager.core.business.services.common.generic;
+
+import org.springframework.context.ApplicationEvent;
+
+import com.salesmanager.core.model.generic.SalesManagerEntity;
+
+/**
+ * Published by {@link SalesManagerEntityServiceImpl} after an entity
+ * has been saved or deleted. Allows in-memory caches to drop
+ * stale copies of an entity without coupling services to them.
+ */
+public class EntityChangeEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum ChangeType {
+		SAVE, DELETE
+	}
+
+	private final SalesManagerEntity<?, ?> entity;
+	private final ChangeType changeType;
+
+	public EntityChangeEvent(Object source, SalesManagerEntity<?, ?> entity, ChangeType changeType) {
+		super(source);
+		this.entity = entity;
+		this.changeType = changeType;
+	}
+
+	public SalesManagerEntity<?, ?> getEntity() {
+		return entity;
+	}
+
+	public ChangeType getChangeType() {
+		return changeType;
+	}
+
+	/**
+	 * True if the changed entity is an instance of the given class
+	 */
+	public boolean isOfType(Class<?> type) {
+		return type.isInstance(entity);
+	}
+
+}
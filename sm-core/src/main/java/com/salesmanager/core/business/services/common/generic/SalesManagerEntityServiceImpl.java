@@ -4,9 +4,12 @@ import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.model.generic.SalesManagerEntity;
 
 /**
@@ -23,6 +26,9 @@ public abstract class SalesManagerEntityServiceImpl<K extends Serializable & Com
 
     private JpaRepository<E, K> repository;
 
+    @Autowired(required = false)
+    private ApplicationEventPublisher eventPublisher;
+
 	@SuppressWarnings("unchecked")
 	public SalesManagerEntityServiceImpl(JpaRepository<E, K> repository) {
 		ParameterizedType genericSuperclass = (ParameterizedType) getClass().getGenericSuperclass();
@@ -42,10 +48,14 @@ public abstract class SalesManagerEntityServiceImpl<K extends Serializable & Com
 	
 	public void save(E entity) throws ServiceException {
 		repository.saveAndFlush(entity);
+		publishChange(entity, ChangeType.SAVE);
 	}
 	
 	public void saveAll(Iterable<E> entities) throws ServiceException {
 		repository.saveAll(entities);
+		for(E entity : entities) {
+			publishChange(entity, ChangeType.SAVE);
+		}
 	}
 	
 	
@@ -62,6 +72,7 @@ public abstract class SalesManagerEntityServiceImpl<K extends Serializable & Com
 
 	public void delete(E entity) throws ServiceException {
 		repository.delete(entity);
+		publishChange(entity, ChangeType.DELETE);
 	}
 	
 	
@@ -81,7 +92,19 @@ public abstract class SalesManagerEntityServiceImpl<K extends Serializable & Com
 	}
 	
 	protected E saveAndFlush(E entity) {
-		return repository.saveAndFlush(entity);
+		E saved = repository.saveAndFlush(entity);
+		publishChange(saved, ChangeType.SAVE);
+		return saved;
+	}
+	
+	/**
+	 * Notifies listeners (caches) that an entity has changed. Services
+	 * writing through their repository directly must call this method.
+	 */
+	protected void publishChange(SalesManagerEntity<?, ?> entity, ChangeType changeType) {
+		if(eventPublisher != null && entity != null) {
+			eventPublisher.publishEvent(new EntityChangeEvent(this, entity, changeType));
+		}
 	}
 
 }
\ No newline at end of file
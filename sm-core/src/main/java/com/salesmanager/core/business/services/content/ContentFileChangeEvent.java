@@ -0,0 +1,26 @@
+package com.salesmanager.core.business.services.content;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by {@link ContentServiceImpl} after files of a store have
+ * been added, replaced, renamed or removed. Content files are not
+ * entities, caches of file validators listen to this event instead of
+ * {@link com.salesmanager.core.business.services.common.generic.EntityChangeEvent}.
+ */
+public class ContentFileChangeEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String merchantStoreCode;
+
+	public ContentFileChangeEvent(Object source, String merchantStoreCode) {
+		super(source);
+		this.merchantStoreCode = merchantStoreCode;
+	}
+
+	public String getMerchantStoreCode() {
+		return merchantStoreCode;
+	}
+
+}
@@ -14,6 +14,7 @@ import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -48,6 +49,9 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 	@Inject
 	StaticContentFileManager contentFileManager;
 
+	@Autowired(required = false)
+	private ApplicationEventPublisher eventPublisher;
+
 	@Inject
 	public ContentServiceImpl(ContentRepository contentRepository) {
 		super(contentRepository);
@@ -197,6 +201,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 			String p = null;
 			Optional<String> path = Optional.ofNullable(p);
 			contentFileManager.addFile(merchantStoreCode, path, contentImage);
+			publishFileChange(merchantStoreCode);
 
 		} catch (Exception e) {
 			LOG.error("Error while trying to convert input stream to buffered image", e);
@@ -226,6 +231,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 			Optional<String> path = Optional.ofNullable(p);
 
 			contentFileManager.addFile(merchantStoreCode, path, contentImage);
+			publishFileChange(merchantStoreCode);
 
 		} catch (Exception e) {
 			LOG.error("Error while trying to convert input stream to buffered image", e);
@@ -268,6 +274,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 
 		LOG.info("Adding content images for merchant....");
 		contentFileManager.addFiles(merchantStoreCode, path, contentFilesList);
+		publishFileChange(merchantStoreCode);
 		// staticContentFileManager.addFiles(merchantStoreCode,
 		// contentFilesList);
 
@@ -304,6 +311,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 		Optional<String> path = Optional.ofNullable(p);
 
 		contentFileManager.removeFile(merchantStoreCode, fileContentType, fileName, path);
+		publishFileChange(merchantStoreCode);
 
 	}
 
@@ -320,6 +328,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 		Optional<String> path = Optional.ofNullable(p);
 
 		contentFileManager.removeFile(storeCode, FileContentType.valueOf(fileType), fileName, path);
+		publishFileChange(storeCode);
 
 	}
 
@@ -339,6 +348,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 		Optional<String> path = Optional.ofNullable(p);
 
 		contentFileManager.removeFiles(merchantStoreCode, path);
+		publishFileChange(merchantStoreCode);
 	}
 
 	/**
@@ -487,6 +497,15 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 
 	}
 	
+	/**
+	 * Notifies listeners (validator caches) that files of a store changed
+	 */
+	private void publishFileChange(String merchantStoreCode) {
+		if(eventPublisher != null) {
+			eventPublisher.publishEvent(new ContentFileChangeEvent(this, merchantStoreCode));
+		}
+	}
+	
 	public boolean isValidLinuxDirectory(String path) {
 	    Pattern linuxDirectoryPattern = Pattern.compile("^/|(/[a-zA-Z0-9_-]+)+$");
 	     return path != null && !path.trim().isEmpty() && linuxDirectoryPattern.matcher( path ).matches();
@@ -516,6 +535,7 @@ public class ContentServiceImpl extends SalesManagerEntityServiceImpl<Long, Cont
 		inputFile.setFile(is);
 		
 		contentFileManager.addFile(merchantStoreCode, path, inputFile);
+		publishFileChange(merchantStoreCode);
 	
 	}
 
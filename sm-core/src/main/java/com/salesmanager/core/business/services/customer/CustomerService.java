@@ -2,6 +2,7 @@ package com.salesmanager.core.business.services.customer;
 
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityService;
@@ -46,5 +47,13 @@ public interface CustomerService  extends SalesManagerEntityService<Long, Custom
 	Address getCustomerAddress(MerchantStore store, String ipAddress)
 			throws ServiceException;
 
+	/**
+	 * Same as getCustomerAddress without waiting for the GeoLocation module
+	 * @param store
+	 * @param ipAddress
+	 * @return future completed with the address or null
+	 */
+	CompletableFuture<Address> getCustomerAddressAsync(MerchantStore store, String ipAddress);
+
 
 }
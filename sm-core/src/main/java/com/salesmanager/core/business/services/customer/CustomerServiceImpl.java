@@ -1,6 +1,7 @@
 package com.salesmanager.core.business.services.customer;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Inject;
 
@@ -10,6 +11,7 @@ import org.springframework.stereotype.Service;
 
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.repositories.customer.CustomerRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.business.services.customer.attribute.CustomerAttributeService;
 import com.salesmanager.core.model.common.Address;
@@ -83,6 +85,11 @@ public class CustomerServiceImpl extends SalesManagerEntityServiceImpl<Long, Cus
 		
 	}
 
+	@Override
+	public CompletableFuture<Address> getCustomerAddressAsync(MerchantStore store, String ipAddress) {
+		return geoLocation.getAddressAsync(ipAddress);
+	}
+
 	@Override	
 	public void saveOrUpdate(Customer customer) throws ServiceException {
 
@@ -108,6 +115,7 @@ public class CustomerServiceImpl extends SalesManagerEntityServiceImpl<Long, Cus
 			}
 		}
 		customerRepository.delete(customer);
+		publishChange(customer, ChangeType.DELETE);
 
 	}
 
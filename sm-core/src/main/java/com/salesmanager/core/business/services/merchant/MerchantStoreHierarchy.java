@@ -0,0 +1,111 @@
+package com.salesmanager.core.business.services.merchant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.salesmanager.core.business.repositories.merchant.MerchantRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.model.merchant.MerchantStore;
+
+/**
+ * In memory graph of parent and child (retailer) stores built from
+ * (code, parent code) pairs.
+ *
+ * The graph is immutable, it is dropped when a store is saved or deleted
+ * and rebuilt on next access. It is also rebuilt after
+ * config.store.hierarchy.ttl seconds to pick up changes made by other instances.
+ */
+@Component
+public class MerchantStoreHierarchy {
+
+	@Inject
+	private MerchantRepository merchantRepository;
+
+	@Value("${config.store.hierarchy.ttl:300}")
+	private long ttl;
+
+	private volatile Graph graph;
+
+	/**
+	 * incremented on every invalidation, a graph read while an invalidation
+	 * happened is used once but not kept
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	public boolean exists(String code) {
+		return graph().parents.containsKey(code);
+	}
+
+	/**
+	 * Parent store code, null for a top level or unknown store
+	 */
+	public String parent(String code) {
+		return graph().parents.get(code);
+	}
+
+	/**
+	 * Codes of the direct children of a store
+	 */
+	public List<String> children(String code) {
+		return graph().children.getOrDefault(code, Collections.emptyList());
+	}
+
+	public void invalidate() {
+		generation.incrementAndGet();
+		graph = null;
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(MerchantStore.class)) {
+			invalidate();
+		}
+	}
+
+	private Graph graph() {
+		Graph current = graph;
+		if (current == null || current.expires < System.currentTimeMillis()) {
+			long readGeneration = generation.get();
+			current = new Graph(merchantRepository.findHierarchy(), System.currentTimeMillis() + ttl * 1000);
+			if (readGeneration == generation.get()) {
+				graph = current;
+			}
+		}
+		return current;
+	}
+
+	static final class Graph {
+
+		private final Map<String, String> parents;
+		private final Map<String, List<String>> children;
+		private final long expires;
+
+		/**
+		 * @param hierarchy rows of (store code, parent code or null)
+		 */
+		Graph(List<Object[]> hierarchy, long expires) {
+			this.expires = expires;
+			parents = new HashMap<String, String>(hierarchy.size() * 2);
+			children = new HashMap<String, List<String>>();
+			for (Object[] row : hierarchy) {
+				String code = (String) row[0];
+				String parent = (String) row[1];
+				parents.put(code, parent);
+				if (parent != null) {
+					children.computeIfAbsent(parent, k -> new ArrayList<String>()).add(code);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package com.salesmanager.core.business.services.order;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.modules.order.InvoiceModule;
+import com.salesmanager.core.business.repositories.order.OrderRepository;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.order.Order;
+import com.salesmanager.core.model.reference.language.Language;
+
+/**
+ * Writes the invoices of many orders in a single zip archive.
+ *
+ * Orders are loaded and rendered on a bounded worker pool, at most
+ * config.invoice.export.inFlight invoices are kept in memory and only the
+ * calling thread writes to the archive, so an export of any size needs a
+ * constant amount of heap. An order that cannot be rendered is logged,
+ * counted as failed and left out of the archive.
+ */
+@Component
+public class InvoiceExporter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InvoiceExporter.class);
+
+	@Inject
+	private OrderRepository orderRepository;
+
+	@Inject
+	private InvoiceModule invoiceModule;
+
+	@Value("${config.invoice.export.threads:4}")
+	private int threads;
+
+	@Value("${config.invoice.export.inFlight:16}")
+	private int inFlight;
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Called by the exporting thread after each order
+	 */
+	@FunctionalInterface
+	public interface Progress {
+		void progress(int exported, int failed, int total);
+	}
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(inFlight, 1)), r -> {
+			Thread t = new Thread(r, "invoice-export-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param store
+	 * @param orderIds orders of the store, entries are written as invoices complete
+	 * @param language
+	 * @param out receives the zip archive, it is not closed
+	 * @param progress can be null
+	 * @return number of invoices in the archive
+	 * @throws ServiceException when the archive cannot be written
+	 */
+	public int export(MerchantStore store, List<Long> orderIds, Language language, OutputStream out, Progress progress)
+			throws ServiceException {
+
+		Validate.notNull(store, "MerchantStore cannot be null");
+		Validate.notNull(orderIds, "Order ids cannot be null");
+
+		CompletionService<Rendered> completion = new ExecutorCompletionService<Rendered>(executor);
+		ZipOutputStream zip = new ZipOutputStream(out);
+		Counts counts = new Counts(orderIds.size());
+		int max = Math.max(inFlight, 1);
+		int pending = 0;
+
+		try {
+			for (Long orderId : orderIds) {
+				if (pending == max) {
+					write(completion, zip, counts, progress);
+					pending--;
+				}
+				completion.submit(() -> render(store, orderId, language));
+				pending++;
+			}
+			while (pending > 0) {
+				write(completion, zip, counts, progress);
+				pending--;
+			}
+			zip.finish();
+		} catch (IOException e) {
+			throw new ServiceException("Cannot write invoice archive", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Invoice export interrupted", e);
+		}
+
+		LOGGER.info("Exported " + counts.exported + " invoices of store " + store.getCode() + ", " + counts.failed + " failed");
+		return counts.exported;
+	}
+
+	private Rendered render(MerchantStore store, Long orderId, Language language) {
+		try {
+			Order order = orderRepository.findOne(orderId, store.getId());
+			if (order == null) {
+				return new Rendered(orderId, null, new ServiceException("Order " + orderId + " not found"));
+			}
+			ByteArrayOutputStream invoice = new ByteArrayOutputStream();
+			invoiceModule.createInvoice(store, order, language, invoice);
+			return new Rendered(orderId, invoice.toByteArray(), null);
+		} catch (Exception e) {
+			return new Rendered(orderId, null, e);
+		}
+	}
+
+	private void write(CompletionService<Rendered> completion, ZipOutputStream zip, Counts counts, Progress progress)
+			throws InterruptedException, IOException {
+
+		Rendered rendered;
+		try {
+			rendered = completion.take().get();
+		} catch (ExecutionException e) {
+			// render catches everything
+			throw new IllegalStateException(e.getCause());
+		}
+
+		if (rendered.error != null) {
+			LOGGER.error("Cannot generate invoice of order " + rendered.orderId, rendered.error);
+			counts.failed++;
+		} else {
+			zip.putNextEntry(new ZipEntry("invoice-" + rendered.orderId + "." + invoiceModule.getFileExtension()));
+			zip.write(rendered.content);
+			zip.closeEntry();
+			counts.exported++;
+		}
+
+		if (progress != null) {
+			progress.progress(counts.exported, counts.failed, counts.total);
+		}
+	}
+
+	private static final class Rendered {
+
+		private final Long orderId;
+		private final byte[] content;
+		private final Exception error;
+
+		Rendered(Long orderId, byte[] content, Exception error) {
+			this.orderId = orderId;
+			this.content = content;
+			this.error = error;
+		}
+	}
+
+	private static final class Counts {
+
+		private final int total;
+		private int exported;
+		private int failed;
+
+		Counts(int total) {
+			this.total = total;
+		}
+	}
+
+}
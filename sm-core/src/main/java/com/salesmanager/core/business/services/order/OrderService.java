@@ -1,6 +1,7 @@
 package com.salesmanager.core.business.services.order;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 
@@ -76,6 +77,19 @@ public interface OrderService extends SalesManagerEntityService<Long, Order> {
     ByteArrayOutputStream generateInvoice(MerchantStore store, Order order,
                                           Language language) throws ServiceException;
 
+    /**
+     * Writes the invoices of the given orders in a zip archive
+     * @param store
+     * @param orderIds
+     * @param language
+     * @param out receives the archive, it is not closed
+     * @param progress notified after each order, can be null
+     * @return number of invoices in the archive
+     * @throws ServiceException
+     */
+    int exportInvoices(MerchantStore store, List<Long> orderIds, Language language,
+                       OutputStream out, InvoiceExporter.Progress progress) throws ServiceException;
+
     Order getOrder(Long id, MerchantStore store);
 
     
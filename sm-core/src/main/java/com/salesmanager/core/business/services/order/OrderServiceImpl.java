@@ -1,6 +1,7 @@
 package com.salesmanager.core.business.services.order;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Instant;
@@ -30,6 +31,7 @@ import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.modules.order.InvoiceModule;
 import com.salesmanager.core.business.repositories.order.OrderRepository;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
+import com.salesmanager.core.business.services.catalog.product.availability.ProductAvailabilityService;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.business.services.customer.CustomerService;
 import com.salesmanager.core.business.services.order.ordertotal.OrderTotalService;
@@ -39,7 +41,6 @@ import com.salesmanager.core.business.services.shipping.ShippingService;
 import com.salesmanager.core.business.services.shoppingcart.ShoppingCartService;
 import com.salesmanager.core.business.services.tax.TaxService;
 import com.salesmanager.core.model.catalog.product.Product;
-import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
 import com.salesmanager.core.model.catalog.product.price.FinalPrice;
 import com.salesmanager.core.model.common.UserContext;
 import com.salesmanager.core.model.customer.Customer;
@@ -74,6 +75,9 @@ public class OrderServiceImpl  extends SalesManagerEntityServiceImpl<Long, Order
     @Inject
     private InvoiceModule invoiceModule;
 
+    @Inject
+    private InvoiceExporter invoiceExporter;
+
     @Inject
     private ShippingService shippingService;
 
@@ -83,6 +87,9 @@ public class OrderServiceImpl  extends SalesManagerEntityServiceImpl<Long, Order
     @Inject
     private ProductService productService;
 
+    @Inject
+    private ProductAvailabilityService productAvailabilityService;
+
     @Inject
     private TaxService taxService;
 
@@ -144,7 +151,21 @@ public class OrderServiceImpl  extends SalesManagerEntityServiceImpl<Long, Order
     	}
 
 
-    	//first process payment
+        /**
+         * decrement inventory before payment, rolled back if anything fails
+         */
+    	LOGGER.debug( "Update inventory" );
+    	Map<Long, Integer> quantities = new HashMap<Long, Integer>();
+    	String cartCode = null;
+        for(ShoppingCartItem item : items) {
+        	quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        	if(cartCode == null && item.getShoppingCart() != null) {
+        		cartCode = item.getShoppingCart().getShoppingCartCode();
+        	}
+        }
+        productAvailabilityService.decrementInventory(cartCode, quantities);
+
+    	//process payment
     	Transaction processTransaction = paymentService.processPayment(customer, store, payment, items, order);
 
     	if(order.getOrderHistory()==null || order.getOrderHistory().size()==0 || order.getStatus()==null) {
@@ -188,27 +209,6 @@ public class OrderServiceImpl  extends SalesManagerEntityServiceImpl<Long, Order
     		}
     	}
 
-        /**
-         * decrement inventory
-         */
-    	LOGGER.debug( "Update inventory" );
-        Set<OrderProduct> products = order.getOrderProducts();
-        for(OrderProduct orderProduct : products) {
-            orderProduct.getProductQuantity();
-            Product p = productService.getById(orderProduct.getId());
-            if(p == null)
-                throw new ServiceException(ServiceException.EXCEPTION_INVENTORY_MISMATCH);
-            for(ProductAvailability availability : p.getAvailabilities()) {
-                int qty = availability.getProductQuantity();
-                if(qty < orderProduct.getProductQuantity()) {
-                    //throw new ServiceException(ServiceException.EXCEPTION_INVENTORY_MISMATCH);
-                	LOGGER.error("APP-BACKEND [" + ServiceException.EXCEPTION_INVENTORY_MISMATCH + "]");
-                }
-                qty = qty - orderProduct.getProductQuantity();
-                availability.setProductQuantity(qty);
-            }
-            productService.update(p);
-        }
 
 
 
@@ -545,6 +545,12 @@ public class OrderServiceImpl  extends SalesManagerEntityServiceImpl<Long, Order
 
     }
 
+    @Override
+    public int exportInvoices(final MerchantStore store, final List<Long> orderIds, final Language language,
+                              final OutputStream out, final InvoiceExporter.Progress progress) throws ServiceException {
+        return invoiceExporter.export(store, orderIds, language, out, progress);
+    }
+
     @Override
     public Order getOrder(final Long orderId, MerchantStore store ) {
     	Validate.notNull(orderId, "Order id cannot be null");
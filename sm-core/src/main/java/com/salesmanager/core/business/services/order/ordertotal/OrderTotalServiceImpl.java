@@ -1,7 +1,11 @@
 package com.salesmanager.core.business.services.order.ordertotal;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.annotation.Resource;
 import javax.inject.Inject;
 
@@ -43,14 +47,24 @@ public class OrderTotalServiceImpl implements OrderTotalService {
 		List<OrderTotal> totals = null;
 		
 		if(orderTotalPostProcessors != null) {
+
+			//products of all items in one query
+			List<ShoppingCartItem> items = summary.getProducts();
+			Set<Long> productIds = new HashSet<Long>();
+			for(ShoppingCartItem item : items) {
+				productIds.add(item.getProductId());
+			}
+			Map<Long, Product> products = new HashMap<Long, Product>();
+			for(Product product : productService.getProductsForLocale(productIds, language, languageService.toLocale(language, store))) {
+				products.put(product.getId(), product);
+			}
+
 			for(OrderTotalPostProcessorModule module : orderTotalPostProcessors) {
 				//TODO check if the module is enabled from the Admin
 				
-				List<ShoppingCartItem> items = summary.getProducts();
 				for(ShoppingCartItem item : items) {
 					
-					Long productId = item.getProductId();
-					Product product = productService.getProductForLocale(productId, language, languageService.toLocale(language, store));
+					Product product = products.get(item.getProductId());
 					
 					OrderTotal orderTotal = module.caculateProductPiceVariation(summary, item, product, customer, store);
 					if(orderTotal==null) {
@@ -23,6 +23,7 @@ import com.salesmanager.core.business.constants.Constants;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.order.OrderService;
 import com.salesmanager.core.business.services.reference.loader.ConfigurationModulesLoader;
+import com.salesmanager.core.business.services.system.MerchantConfigurationRegistry;
 import com.salesmanager.core.business.services.system.MerchantConfigurationService;
 import com.salesmanager.core.business.services.system.ModuleConfigurationService;
 import com.salesmanager.core.business.utils.CoreConfiguration;
@@ -59,6 +60,9 @@ public class PaymentServiceImpl implements PaymentService {
 	@Inject
 	private MerchantConfigurationService merchantConfigurationService;
 	
+	@Inject
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
+	
 	@Inject
 	private ModuleConfigurationService moduleConfigurationService;
 	
@@ -184,25 +188,9 @@ public class PaymentServiceImpl implements PaymentService {
 	@Override
 	public Map<String,IntegrationConfiguration> getPaymentModulesConfigured(MerchantStore store) throws ServiceException {
 		
-		try {
-		
-			Map<String,IntegrationConfiguration> modules = new HashMap<String,IntegrationConfiguration>();
-			MerchantConfiguration merchantConfiguration = merchantConfigurationService.getMerchantConfiguration(Constants.PAYMENT_MODULES, store);
-			if(merchantConfiguration!=null) {
-				
-				if(!StringUtils.isBlank(merchantConfiguration.getValue())) {
-					
-					String decrypted = encryption.decrypt(merchantConfiguration.getValue());
-					modules = ConfigurationModulesLoader.loadIntegrationConfigurations(decrypted);
-					
-					
-				}
-			}
-			return modules;
-		
-		} catch (Exception e) {
-			throw new ServiceException(e);
-		}
+		Map<String,IntegrationConfiguration> modules = merchantConfigurationRegistry.get(store, Constants.PAYMENT_MODULES,
+				value -> ConfigurationModulesLoader.loadIntegrationConfigurations(encryption.decrypt(value)));
+		return ConfigurationModulesLoader.copy(modules);
 	}
 	
 	@Override
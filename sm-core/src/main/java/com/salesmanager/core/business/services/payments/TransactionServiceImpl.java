@@ -1,9 +1,9 @@
 package com.salesmanager.core.business.services.payments;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.repositories.payments.TransactionRepository;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.order.Order;
 import com.salesmanager.core.model.payments.Transaction;
@@ -52,12 +52,11 @@ public class TransactionServiceImpl  extends SalesManagerEntityServiceImpl<Long,
 	public List<Transaction> listTransactions(Order order) throws ServiceException {
 		
 		List<Transaction> transactions = transactionRepository.findByOrder(order.getId());
-		ObjectMapper mapper = new ObjectMapper();
 		for(Transaction transaction : transactions) {
 				if(!StringUtils.isBlank(transaction.getDetails())) {
 					try {
 						@SuppressWarnings("unchecked")
-						Map<String,String> objects = mapper.readValue(transaction.getDetails(), Map.class);
+						Map<String,String> objects = JsonUtils.MAPPER.readValue(transaction.getDetails(), Map.class);
 						transaction.setTransactionDetails(objects);
 					} catch (Exception e) {
 						throw new ServiceException(e);
@@ -119,14 +118,13 @@ public class TransactionServiceImpl  extends SalesManagerEntityServiceImpl<Long,
 	public Transaction getCapturableTransaction(Order order)
 			throws ServiceException {
 		List<Transaction> transactions = transactionRepository.findByOrder(order.getId());
-		ObjectMapper mapper = new ObjectMapper();
 		Transaction capturable = null;
 		for(Transaction transaction : transactions) {
 			if(transaction.getTransactionType().name().equals(TransactionType.AUTHORIZE.name())) {
 				if(!StringUtils.isBlank(transaction.getDetails())) {
 					try {
 						@SuppressWarnings("unchecked")
-						Map<String,String> objects = mapper.readValue(transaction.getDetails(), Map.class);
+						Map<String,String> objects = JsonUtils.MAPPER.readValue(transaction.getDetails(), Map.class);
 						transaction.setTransactionDetails(objects);
 						capturable = transaction;
 					} catch (Exception e) {
@@ -187,9 +185,8 @@ public class TransactionServiceImpl  extends SalesManagerEntityServiceImpl<Long,
 
 		if(finalTransaction!=null && !StringUtils.isBlank(finalTransaction.getDetails())) {
 			try {
-				ObjectMapper mapper = new ObjectMapper();
-				@SuppressWarnings("unchecked")
-				Map<String,String> objects = mapper.readValue(finalTransaction.getDetails(), Map.class);
+						@SuppressWarnings("unchecked")
+				Map<String,String> objects = JsonUtils.MAPPER.readValue(finalTransaction.getDetails(), Map.class);
 				finalTransaction.setTransactionDetails(objects);
 			} catch (Exception e) {
 				throw new ServiceException(e);
@@ -7,8 +7,8 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.system.IntegrationConfiguration;
 
 /**
@@ -47,18 +47,46 @@ public class ConfigurationModulesLoader {
 		
 	}
 	
+	/**
+	 * Copy of configurations that can be modified without changing the source
+	 * @param configurations may be null
+	 * @return never null
+	 */
+	public static Map<String,IntegrationConfiguration> copy(Map<String,IntegrationConfiguration> configurations) {
+		
+		Map<String,IntegrationConfiguration> copy = new HashMap<String,IntegrationConfiguration>();
+		if(configurations==null) {
+			return copy;
+		}
+		for(Map.Entry<String,IntegrationConfiguration> entry : configurations.entrySet()) {
+			IntegrationConfiguration source = entry.getValue();
+			IntegrationConfiguration configuration = new IntegrationConfiguration();
+			configuration.setModuleCode(source.getModuleCode());
+			configuration.setActive(source.isActive());
+			configuration.setDefaultSelected(source.isDefaultSelected());
+			configuration.setEnvironment(source.getEnvironment());
+			if(source.getIntegrationKeys()!=null) {
+				configuration.setIntegrationKeys(new HashMap<String,String>(source.getIntegrationKeys()));
+			}
+			if(source.getIntegrationOptions()!=null) {
+				configuration.setIntegrationOptions(new HashMap<String,List<String>>(source.getIntegrationOptions()));
+			}
+			copy.put(entry.getKey(), configuration);
+		}
+		return copy;
+		
+	}
+	
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public static Map<String,IntegrationConfiguration> loadIntegrationConfigurations(String value) throws Exception {
 		
 		
 		Map<String,IntegrationConfiguration> modules = new HashMap<String,IntegrationConfiguration>();
 		
-		ObjectMapper mapper = new ObjectMapper();
-		
 		try {
 			
 
-            Map[] objects = mapper.readValue(value, Map[].class);
+            Map[] objects = JsonUtils.MAPPER.readValue(value, Map[].class);
 
 			for (Map object : objects) {
 
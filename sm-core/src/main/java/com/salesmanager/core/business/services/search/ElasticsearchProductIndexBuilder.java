@@ -0,0 +1,200 @@
+package com.salesmanager.core.business.services.search;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.modules.common.BulkEventIndexer;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.search.IndexProduct;
+
+/**
+ * New elasticsearch indexes are created with refresh disabled and filled
+ * with bulk requests, then the product_<lang>_<store> aliases of all
+ * languages are moved to them in one request so searches never see a
+ * partial index.
+ */
+@Component("elasticsearchProductIndexBuilder")
+public class ElasticsearchProductIndexBuilder implements ProductIndexBuilder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchProductIndexBuilder.class);
+
+	private static final String REFRESH_INTERVAL = "index.refresh_interval";
+
+	@Inject
+	private BulkEventIndexer bulkEventIndexer;
+
+	@Override
+	public void create(MerchantStore store, String language, String index) throws ServiceException {
+		try {
+			if (client().indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT)) {
+				return;
+			}
+			Settings settings = Settings.builder()
+					.loadFromSource(resource("search/settings_product", language), XContentType.JSON)
+					.put(REFRESH_INTERVAL, "-1")
+					.build();
+			CreateIndexRequest request = new CreateIndexRequest(index)
+					.settings(settings)
+					.mapping(resource("search/product", language), XContentType.JSON);
+			client().indices().create(request, RequestOptions.DEFAULT);
+		} catch (Exception e) {
+			throw new ServiceException("Cannot create product index " + index, e);
+		}
+	}
+
+	@Override
+	public int write(MerchantStore store, Map<String, List<IndexProduct>> documents) throws ServiceException {
+		BulkRequest bulk = new BulkRequest();
+		for (Map.Entry<String, List<IndexProduct>> entry : documents.entrySet()) {
+			for (IndexProduct document : entry.getValue()) {
+				bulk.add(new IndexRequest(entry.getKey()).id(document.getId())
+						.source(document.toJSONString(), XContentType.JSON));
+			}
+		}
+		if (bulk.numberOfActions() == 0) {
+			return 0;
+		}
+
+		BulkResponse response;
+		try {
+			response = client().bulk(bulk, RequestOptions.DEFAULT);
+		} catch (Exception e) {
+			throw new ServiceException("Cannot write " + bulk.numberOfActions() + " product documents", e);
+		}
+		int failures = 0;
+		if (response.hasFailures()) {
+			for (BulkItemResponse item : response.getItems()) {
+				if (item.isFailed()) {
+					failures++;
+					LOGGER.error("Cannot index product id [" + item.getId() + "] " + item.getFailureMessage());
+				}
+			}
+		}
+		return failures;
+	}
+
+	@Override
+	public void delete(MerchantStore store, Map<String, String> indexes, Collection<Long> productIds) throws ServiceException {
+		BulkRequest bulk = new BulkRequest();
+		for (String index : indexes.values()) {
+			for (Long id : productIds) {
+				bulk.add(new DeleteRequest(index, String.valueOf(id)));
+			}
+		}
+		if (bulk.numberOfActions() == 0) {
+			return;
+		}
+
+		BulkResponse response;
+		try {
+			response = client().bulk(bulk, RequestOptions.DEFAULT);
+		} catch (Exception e) {
+			throw new ServiceException("Cannot delete " + productIds.size() + " products from " + indexes.values(), e);
+		}
+		if (response.hasFailures()) {
+			throw new ServiceException("Cannot delete products from " + indexes.values() + " " + response.buildFailureMessage());
+		}
+	}
+
+	/**
+	 * Restores the refresh of the new indexes and moves the aliases in one
+	 * request. A product_<lang>_<store> index created before the rebuilds is
+	 * replaced by the alias, indexes the aliases pointed to are deleted.
+	 */
+	@Override
+	public void publish(MerchantStore store, Map<String, String> indexes) throws ServiceException {
+		RestHighLevelClient client = client();
+		IndicesAliasesRequest request = new IndicesAliasesRequest();
+		Set<String> previous = new HashSet<String>();
+
+		try {
+			for (Map.Entry<String, String> entry : indexes.entrySet()) {
+				String alias = SearchServiceImpl.indexName(entry.getKey(), store);
+				String index = entry.getValue();
+
+				client.indices().putSettings(new UpdateSettingsRequest(index)
+						.settings(Settings.builder().putNull(REFRESH_INTERVAL)), RequestOptions.DEFAULT);
+				client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+
+				request.addAliasAction(AliasActions.add().index(index).alias(alias));
+				Set<String> aliased = client.indices().getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT)
+						.getAliases().keySet();
+				if (!aliased.isEmpty()) {
+					for (String old : aliased) {
+						if (!old.equals(index)) {
+							request.addAliasAction(AliasActions.remove().index(old).alias(alias));
+							previous.add(old);
+						}
+					}
+				} else if (client.indices().exists(new GetIndexRequest(alias), RequestOptions.DEFAULT)) {
+					request.addAliasAction(AliasActions.removeIndex().index(alias));
+				}
+			}
+
+			if (request.getAliasActions().isEmpty()) {
+				return;
+			}
+			client.indices().updateAliases(request, RequestOptions.DEFAULT);
+		} catch (Exception e) {
+			throw new ServiceException("Cannot publish product indexes " + indexes.values(), e);
+		}
+
+		if (!previous.isEmpty()) {
+			try {
+				client.indices().delete(new DeleteIndexRequest(previous.toArray(new String[previous.size()])),
+						RequestOptions.DEFAULT);
+			} catch (Exception e) {
+				LOGGER.warn("Cannot delete previous product indexes " + previous, e);
+			}
+		}
+	}
+
+	/**
+	 * search/<name>_<lang>.json, or search/<name>.json when the language
+	 * has no file
+	 */
+	private String resource(String name, String language) throws Exception {
+		InputStream in = getClass().getClassLoader().getResourceAsStream(name + "_" + language + ".json");
+		if (in == null) {
+			in = getClass().getClassLoader().getResourceAsStream(name + ".json");
+		}
+		try (InputStream stream = in) {
+			return IOUtils.toString(stream, StandardCharsets.UTF_8);
+		}
+	}
+
+	private RestHighLevelClient client() {
+		return bulkEventIndexer.client();
+	}
+
+}
@@ -0,0 +1,378 @@
+package com.salesmanager.core.business.services.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.es.SpanishAnalyzer;
+import org.apache.lucene.analysis.fr.FrenchAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.MMapDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Embedded Lucene indexes, one per store language, kept open by the nodes
+ * using the lucene search engine.
+ *
+ * An index is stored in a memory mapped directory under
+ * config.search.lucene.directory. Changes are searched near real time after
+ * config.search.lucene.refreshInterval and committed to disk every
+ * config.search.lucene.commitInterval and when the application stops.
+ *
+ * product_<lang>_<store>.current holds the directory of the index searched
+ * for product_<lang>_<store>, a rebuilt index replaces it by updating the
+ * file. Changes written while an index is rebuilt are also applied to the
+ * rebuilt index, and wait while it is published, so that none is lost when
+ * it replaces the index.
+ */
+@Component
+public class LuceneIndexes {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LuceneIndexes.class);
+
+	private static final String CURRENT = ".current";
+
+	/** edge n-grams of the words of names and tags, searched by autocomplete */
+	static final String SUGGEST = "suggest";
+
+	@Value("${config.search.lucene.directory:./files/search}")
+	private String directory;
+
+	@Value("${config.search.lucene.refreshInterval:1000}")
+	private long refreshInterval;
+
+	@Value("${config.search.lucene.commitInterval:30000}")
+	private long commitInterval;
+
+	private final Map<String, LuceneIndex> indexes = new ConcurrentHashMap<String, LuceneIndex>();
+
+	/** index being rebuilt for a product_<lang>_<store> index */
+	private final Map<String, String> rebuilding = new ConcurrentHashMap<String, String>();
+
+	/** changes hold the read lock, publishing an index the write lock */
+	private final ReadWriteLock publishing = new ReentrantReadWriteLock();
+
+	private ScheduledExecutorService scheduler;
+
+	private long lastCommit = System.currentTimeMillis();
+
+	/**
+	 * Index opened for writing, created when it does not exist
+	 * @param name index or product_<lang>_<store>
+	 * @param language language code of the documents
+	 */
+	public LuceneIndex open(String name, String language) throws IOException {
+		LuceneIndex index = indexes.get(name);
+		if (index != null) {
+			return index;
+		}
+		synchronized (this) {
+			index = indexes.get(name);
+			if (index == null) {
+				index = new LuceneIndex(path(current(name)), language);
+				indexes.put(name, index);
+				schedule();
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Index opened for searching
+	 * @return null when the index was never written
+	 */
+	public LuceneIndex get(String name, String language) throws IOException {
+		LuceneIndex index = indexes.get(name);
+		if (index != null) {
+			return index;
+		}
+		if (!Files.isDirectory(path(current(name)))) {
+			return null;
+		}
+		return open(name, language);
+	}
+
+	/**
+	 * Writes a change to the index searched for a name and to the index
+	 * rebuilt for it. A change made while a rebuilt index is published
+	 * waits for it and is written to the published index.
+	 * @param name product_<lang>_<store>
+	 * @param language language code of the documents
+	 * @param create false when nothing is written to an index that does not
+	 * exist, as a deletion
+	 * @param change
+	 */
+	public void write(String name, String language, boolean create, Change change) throws IOException {
+		publishing.readLock().lock();
+		try {
+			for (int attempt = 0;; attempt++) {
+				try {
+					LuceneIndex index = create ? open(name, language) : get(name, language);
+					if (index != null) {
+						change.apply(index.writer);
+					}
+					String rebuilt = rebuilding.get(name);
+					if (rebuilt != null) {
+						change.apply(open(rebuilt, language).writer);
+					}
+					return;
+				} catch (AlreadyClosedException e) {
+					// index fetched before it was closed, written again to the open one
+					if (attempt > 0) {
+						throw e;
+					}
+				}
+			}
+		} finally {
+			publishing.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Changes written to an index from now on are also written to the
+	 * rebuilt index until it is published
+	 * @param name product_<lang>_<store>
+	 * @param rebuilt index written by a rebuild
+	 */
+	public void rebuilding(String name, String rebuilt) {
+		rebuilding.put(name, rebuilt);
+	}
+
+	/**
+	 * Makes the changes of an index searched now
+	 */
+	public void refresh(String name) throws IOException {
+		LuceneIndex index = indexes.get(name);
+		if (index != null) {
+			index.searcherManager.maybeRefreshBlocking();
+		}
+	}
+
+	/**
+	 * Replaces the index searched as product_<lang>_<store> by a rebuilt
+	 * index, the previous index is closed and deleted
+	 * @param name product_<lang>_<store>
+	 * @param rebuilt index written by a rebuild
+	 */
+	public void publish(String name, String rebuilt) throws IOException {
+		// changes wait, taken before the lock of open
+		publishing.writeLock().lock();
+		try {
+			synchronized (this) {
+				LuceneIndex index = indexes.get(rebuilt);
+				if (index == null) {
+					throw new IOException("Index " + rebuilt + " is not open");
+				}
+				index.writer.commit();
+				index.searcherManager.maybeRefreshBlocking();
+
+				String previous = current(name);
+				Path pointer = path(name + CURRENT);
+				Path tmp = path(name + CURRENT + ".tmp");
+				Files.write(tmp, rebuilt.getBytes(StandardCharsets.UTF_8));
+				Files.move(tmp, pointer, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+				LuceneIndex old = indexes.put(name, index);
+				indexes.remove(rebuilt);
+				rebuilding.remove(name, rebuilt);
+				if (old != null) {
+					old.close();
+				}
+				if (!previous.equals(rebuilt)) {
+					try {
+						FileUtils.deleteDirectory(path(previous).toFile());
+					} catch (IOException e) {
+						LOGGER.warn("Cannot delete previous product index " + previous, e);
+					}
+				}
+			}
+		} finally {
+			publishing.writeLock().unlock();
+		}
+	}
+
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		for (LuceneIndex index : indexes.values()) {
+			try {
+				index.close();
+			} catch (Exception e) {
+				LOGGER.error("Cannot close product index " + index.path, e);
+			}
+		}
+		indexes.clear();
+	}
+
+	/**
+	 * Refreshes and commits on a single thread started with the first index
+	 */
+	private void schedule() {
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "search-lucene");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::maintain, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	private void maintain() {
+		boolean commit = System.currentTimeMillis() - lastCommit >= commitInterval;
+		for (LuceneIndex index : indexes.values()) {
+			try {
+				index.searcherManager.maybeRefresh();
+				if (commit && index.writer.hasUncommittedChanges()) {
+					index.writer.commit();
+				}
+			} catch (Exception e) {
+				LOGGER.error("Cannot refresh product index " + index.path, e);
+			}
+		}
+		if (commit) {
+			lastCommit = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Directory of the index searched for a name
+	 */
+	private String current(String name) throws IOException {
+		Path pointer = path(name + CURRENT);
+		if (Files.isRegularFile(pointer)) {
+			return new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim();
+		}
+		return name;
+	}
+
+	private Path path(String name) {
+		return Paths.get(directory).resolve(name);
+	}
+
+	/**
+	 * Language analyzer of names, descriptions and tags
+	 */
+	static Analyzer analyzer(String language) {
+		Analyzer analyzer;
+		switch (language) {
+		case "en":
+			analyzer = new EnglishAnalyzer();
+			break;
+		case "fr":
+			analyzer = new FrenchAnalyzer();
+			break;
+		case "es":
+			analyzer = new SpanishAnalyzer();
+			break;
+		default:
+			analyzer = new StandardAnalyzer();
+		}
+		Map<String, Analyzer> fields = new HashMap<String, Analyzer>();
+		fields.put(SUGGEST, suggestAnalyzer(true));
+		return new PerFieldAnalyzerWrapper(analyzer, fields);
+	}
+
+	/**
+	 * Lower case words without accents, prefixes of the words when indexed
+	 */
+	static Analyzer suggestAnalyzer(boolean prefixes) {
+		return new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName) {
+				Tokenizer source = new StandardTokenizer();
+				TokenStream filter = new ASCIIFoldingFilter(new LowerCaseFilter(source));
+				if (prefixes) {
+					filter = new EdgeNGramTokenFilter(filter, 1, 20, true);
+				}
+				return new TokenStreamComponents(source, filter);
+			}
+		};
+	}
+
+	/**
+	 * Change written to an index
+	 */
+	public interface Change {
+		void apply(IndexWriter writer) throws IOException;
+	}
+
+	/**
+	 * Writer and near real time searchers of an index
+	 */
+	public static class LuceneIndex {
+
+		private final Path path;
+		private final Analyzer analyzer;
+		private final MMapDirectory directory;
+		private final IndexWriter writer;
+		private final SearcherManager searcherManager;
+
+		LuceneIndex(Path path, String language) throws IOException {
+			this.path = path;
+			this.analyzer = analyzer(language);
+			Files.createDirectories(path);
+			this.directory = new MMapDirectory(path);
+			this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setOpenMode(OpenMode.CREATE_OR_APPEND));
+			this.searcherManager = new SearcherManager(writer, null);
+		}
+
+		public Analyzer getAnalyzer() {
+			return analyzer;
+		}
+
+		public IndexWriter getWriter() {
+			return writer;
+		}
+
+		public SearcherManager getSearcherManager() {
+			return searcherManager;
+		}
+
+		/**
+		 * Closing the writer commits the changes
+		 */
+		void close() throws IOException {
+			searcherManager.close();
+			writer.close();
+			directory.close();
+			analyzer.close();
+		}
+	}
+
+}
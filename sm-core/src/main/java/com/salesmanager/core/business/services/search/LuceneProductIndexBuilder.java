@@ -0,0 +1,95 @@
+package com.salesmanager.core.business.services.search;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.search.IndexProduct;
+
+/**
+ * New Lucene indexes are written in their own directories, each
+ * product_<lang>_<store> index is then switched to its new index once it is
+ * committed. Products changed while an index is rebuilt are written to both
+ * indexes.
+ */
+@Component("luceneProductIndexBuilder")
+public class LuceneProductIndexBuilder implements ProductIndexBuilder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LuceneProductIndexBuilder.class);
+
+	@Inject
+	private LuceneIndexes luceneIndexes;
+
+	@Override
+	public void create(MerchantStore store, String language, String index) throws ServiceException {
+		try {
+			luceneIndexes.open(index, language);
+			luceneIndexes.rebuilding(SearchServiceImpl.indexName(language, store), index);
+		} catch (Exception e) {
+			throw new ServiceException("Cannot create product index " + index, e);
+		}
+	}
+
+	@Override
+	public int write(MerchantStore store, Map<String, List<IndexProduct>> documents) throws ServiceException {
+		int failures = 0;
+		for (Map.Entry<String, List<IndexProduct>> entry : documents.entrySet()) {
+			IndexWriter writer;
+			try {
+				// opened by create, or after a restart when the rebuild is resumed
+				String language = entry.getValue().get(0).getLang();
+				writer = luceneIndexes.open(entry.getKey(), language).getWriter();
+				luceneIndexes.rebuilding(SearchServiceImpl.indexName(language, store), entry.getKey());
+			} catch (Exception e) {
+				throw new ServiceException("Cannot open product index " + entry.getKey(), e);
+			}
+			for (IndexProduct document : entry.getValue()) {
+				try {
+					// a chunk written again when a rebuild resumes replaces its documents
+					writer.updateDocument(new Term(LuceneSearchServiceImpl.ID, document.getId()),
+							LuceneSearchServiceImpl.document(document));
+				} catch (IllegalArgumentException e) {
+					failures++;
+					LOGGER.error("Cannot index product id [" + document.getId() + "] " + e.getMessage());
+				} catch (Exception e) {
+					throw new ServiceException("Cannot write product documents in " + entry.getKey(), e);
+				}
+			}
+		}
+		return failures;
+	}
+
+	@Override
+	public void delete(MerchantStore store, Map<String, String> indexes, Collection<Long> productIds) throws ServiceException {
+		Term[] ids = productIds.stream().map(id -> new Term(LuceneSearchServiceImpl.ID, String.valueOf(id))).toArray(Term[]::new);
+		for (Map.Entry<String, String> entry : indexes.entrySet()) {
+			try {
+				luceneIndexes.open(entry.getValue(), entry.getKey()).getWriter().deleteDocuments(ids);
+			} catch (Exception e) {
+				throw new ServiceException("Cannot delete products from " + entry.getValue(), e);
+			}
+		}
+	}
+
+	@Override
+	public void publish(MerchantStore store, Map<String, String> indexes) throws ServiceException {
+		for (Map.Entry<String, String> entry : indexes.entrySet()) {
+			try {
+				luceneIndexes.publish(SearchServiceImpl.indexName(entry.getKey(), store), entry.getValue());
+			} catch (Exception e) {
+				throw new ServiceException("Cannot publish product index " + entry.getValue(), e);
+			}
+		}
+	}
+
+}
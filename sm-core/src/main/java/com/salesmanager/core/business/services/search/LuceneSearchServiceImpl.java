@@ -0,0 +1,467 @@
+package com.salesmanager.core.business.services.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.services.catalog.product.PricingService;
+import com.salesmanager.core.business.services.search.LuceneIndexes.LuceneIndex;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.description.ProductDescription;
+import com.salesmanager.core.model.catalog.product.price.FinalPrice;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.search.IndexProduct;
+import com.salesmanager.core.model.search.SearchEntry;
+import com.salesmanager.core.model.search.SearchFacet;
+import com.salesmanager.core.model.search.SearchKeywords;
+import com.salesmanager.core.model.search.SearchResponse;
+
+/**
+ * Search engine embedded in the application, products are searched in the
+ * Lucene index of the store language kept by LuceneIndexes.
+ *
+ * Names, tags and descriptions are searched with the analyzer of the
+ * language, autocomplete matches the prefixes of the words of names and
+ * tags. Search responses count the products of each category, manufacturer
+ * and price range (config.search.lucene.priceRanges) from doc values.
+ */
+@Component("luceneSearchService")
+public class LuceneSearchServiceImpl implements SearchService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LuceneSearchServiceImpl.class);
+
+	static final String ID = "id";
+	static final String NAME = "name";
+	static final String DESCRIPTION = "description";
+	static final String HIGHLIGHT = "highlight";
+	static final String TAGS = "tags";
+	static final String CATEGORIES = "categories";
+	static final String MANUFACTURER = "manufacturer";
+	static final String PRICE = "price";
+	static final String AVAILABLE = "available";
+	static final String STORE = "store";
+	static final String LANG = "lang";
+
+	private static final String KEYWORD_INDEX_PREFIX = "keyword_";
+	private static final String PRODUCT_INDEX_PREFIX = "product_";
+
+	@Inject
+	private LuceneIndexes luceneIndexes;
+
+	@Inject
+	private PricingService pricingService;
+
+	@Value("${config.search.lucene.priceRanges:10,25,50,100,250,500}")
+	private String priceRanges;
+
+	private double[] priceBounds;
+
+	/** words typed in autocomplete, matched to the prefixes indexed */
+	private final Analyzer suggestAnalyzer = LuceneIndexes.suggestAnalyzer(false);
+
+	@PostConstruct
+	void init() {
+		String[] bounds = StringUtils.split(priceRanges, ',');
+		priceBounds = new double[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			priceBounds[i] = Double.parseDouble(bounds[i].trim());
+		}
+		Arrays.sort(priceBounds);
+	}
+
+	@Override
+	public void initService() {
+		// indexes are opened on first use
+	}
+
+	@Override
+	public void index(MerchantStore store, Product product) throws ServiceException {
+		FinalPrice price = pricingService.calculateProductPrice(product);
+
+		for (ProductDescription description : product.getDescriptions()) {
+			String language = description.getLanguage().getCode();
+			IndexProduct index = SearchServiceImpl.indexProduct(store, product, description, price);
+			try {
+				Document document = document(index);
+				luceneIndexes.write(SearchServiceImpl.indexName(language, store), language, true,
+						writer -> writer.updateDocument(new Term(ID, index.getId()), document));
+			} catch (Exception e) {
+				throw new ServiceException("Cannot index product id [" + product.getId() + "], " + e.getMessage(), e);
+			}
+		}
+	}
+
+	@Override
+	public void deleteIndex(MerchantStore store, Product product) throws ServiceException {
+		for (ProductDescription description : product.getDescriptions()) {
+			String language = description.getLanguage().getCode();
+			try {
+				luceneIndexes.write(SearchServiceImpl.indexName(language, store), language, false,
+						writer -> writer.deleteDocuments(new Term(ID, String.valueOf(product.getId()))));
+			} catch (Exception e) {
+				LOGGER.error("Cannot delete index for product id [" + product.getId() + "], ", e);
+			}
+		}
+	}
+
+	/**
+	 * @param collectionName keyword_<lang>_<store>
+	 */
+	@Override
+	public SearchKeywords searchForKeywords(String collectionName, String word, int entriesCount) throws ServiceException {
+		SearchKeywords keywords = new SearchKeywords();
+		keywords.setKeywords(new ArrayList<String>());
+		if (StringUtils.isBlank(word) || !collectionName.startsWith(KEYWORD_INDEX_PREFIX)) {
+			return keywords;
+		}
+
+		// keyword_<lang>_<store> is product_<lang>_<store>
+		String name = PRODUCT_INDEX_PREFIX + collectionName.substring(KEYWORD_INDEX_PREFIX.length());
+		String language = StringUtils.substringBefore(collectionName.substring(KEYWORD_INDEX_PREFIX.length()), "_");
+
+		try {
+			Query query = new QueryBuilder(suggestAnalyzer).createBooleanQuery(LuceneIndexes.SUGGEST, word, Occur.MUST);
+			if (query == null) {
+				return keywords;
+			}
+			Set<String> names = new LinkedHashSet<String>();
+			search(name, language, (searcher, indexAnalyzer) -> {
+				TopDocs top = searcher.search(query, entriesCount * 2);
+				for (ScoreDoc hit : top.scoreDocs) {
+					String keyword = searcher.doc(hit.doc).get(NAME);
+					if (keyword != null && names.size() < entriesCount) {
+						names.add(keyword);
+					}
+				}
+			});
+			keywords.setKeywords(new ArrayList<String>(names));
+			return keywords;
+		} catch (Exception e) {
+			LOGGER.error("Error while searching keywords " + word, e);
+			throw new ServiceException(e);
+		}
+	}
+
+	@Override
+	public SearchResponse search(MerchantStore store, String languageCode, String term, int entriesCount, int startIndex)
+			throws ServiceException {
+		SearchResponse response = new SearchResponse();
+		response.setTotalCount(0);
+		response.setEntryCount(entriesCount);
+
+		try {
+			search(SearchServiceImpl.indexName(languageCode, store), languageCode, (searcher, analyzer) -> {
+				Query query = query(analyzer, term);
+				if (query == null) {
+					return;
+				}
+				TopScoreDocCollector top = TopScoreDocCollector.create(Math.max(startIndex + entriesCount, 1), Integer.MAX_VALUE);
+				FacetCounts facets = new FacetCounts(priceBounds);
+				searcher.search(query, MultiCollector.wrap(top, facets));
+
+				List<SearchEntry> entries = new ArrayList<SearchEntry>();
+				for (ScoreDoc hit : top.topDocs(startIndex, entriesCount).scoreDocs) {
+					SearchEntry entry = new SearchEntry();
+					entry.setIndexProduct(indexProduct(searcher.doc(hit.doc)));
+					entries.add(entry);
+				}
+				response.setTotalCount(facets.total);
+				response.setEntries(entries);
+				response.setFacets(facets.facets());
+			});
+			return response;
+		} catch (Exception e) {
+			LOGGER.error("Error while searching keywords " + term, e);
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Name, tags and description of the language, all products when there is
+	 * no term
+	 * @return null when the term has only stop words
+	 */
+	private Query query(Analyzer analyzer, String term) {
+		if (StringUtils.isBlank(term)) {
+			return new MatchAllDocsQuery();
+		}
+		QueryBuilder builder = new QueryBuilder(analyzer);
+		BooleanQuery.Builder query = new BooleanQuery.Builder();
+		add(query, builder.createBooleanQuery(NAME, term), 3f);
+		add(query, builder.createBooleanQuery(TAGS, term), 2f);
+		add(query, builder.createBooleanQuery(DESCRIPTION, term), 1f);
+		BooleanQuery built = query.build();
+		return built.clauses().isEmpty() ? null : built;
+	}
+
+	private void add(BooleanQuery.Builder query, Query field, float boost) {
+		if (field != null) {
+			query.add(boost == 1f ? field : new BoostQuery(field, boost), Occur.SHOULD);
+		}
+	}
+
+	/**
+	 * Runs a search on the latest searcher of an index, nothing when the
+	 * index was never written. A search started while a rebuilt index is
+	 * published runs again on the new index.
+	 */
+	private void search(String name, String language, Search search) throws Exception {
+		for (int attempt = 0;; attempt++) {
+			LuceneIndex index = luceneIndexes.get(name, language);
+			if (index == null) {
+				return;
+			}
+			try {
+				SearcherManager manager = index.getSearcherManager();
+				IndexSearcher searcher = manager.acquire();
+				try {
+					search.run(searcher, index.getAnalyzer());
+					return;
+				} finally {
+					manager.release(searcher);
+				}
+			} catch (AlreadyClosedException e) {
+				if (attempt > 0) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private interface Search {
+		void run(IndexSearcher searcher, Analyzer analyzer) throws IOException;
+	}
+
+	/**
+	 * Lucene document of a product description
+	 */
+	static Document document(IndexProduct product) {
+		Document document = new Document();
+		document.add(new StringField(ID, product.getId(), Field.Store.YES));
+		document.add(new StringField(AVAILABLE, String.valueOf(product.isAvailable()), Field.Store.YES));
+		document.add(new StoredField(STORE, product.getStore()));
+		document.add(new StoredField(LANG, product.getLang()));
+
+		StringBuilder suggest = new StringBuilder();
+		if (product.getName() != null) {
+			document.add(new TextField(NAME, product.getName(), Field.Store.YES));
+			suggest.append(product.getName());
+		}
+		if (product.getDescription() != null) {
+			document.add(new TextField(DESCRIPTION, product.getDescription(), Field.Store.YES));
+		}
+		if (product.getHighlight() != null) {
+			document.add(new StoredField(HIGHLIGHT, product.getHighlight()));
+		}
+		if (product.getTags() != null) {
+			for (String tag : product.getTags()) {
+				document.add(new TextField(TAGS, tag, Field.Store.NO));
+				suggest.append(' ').append(tag);
+			}
+		}
+		document.add(new TextField(LuceneIndexes.SUGGEST, suggest.toString(), Field.Store.NO));
+
+		if (product.getCategories() != null) {
+			for (String category : product.getCategories()) {
+				document.add(new StringField(CATEGORIES, category, Field.Store.YES));
+				document.add(new SortedSetDocValuesField(CATEGORIES, new BytesRef(category)));
+			}
+		}
+		if (product.getManufacturer() != null) {
+			document.add(new StringField(MANUFACTURER, product.getManufacturer(), Field.Store.YES));
+			document.add(new SortedSetDocValuesField(MANUFACTURER, new BytesRef(product.getManufacturer())));
+		}
+		if (product.getPrice() != null) {
+			document.add(new DoublePoint(PRICE, product.getPrice()));
+			document.add(new StoredField(PRICE, product.getPrice()));
+			document.add(new DoubleDocValuesField(PRICE, product.getPrice()));
+		}
+		return document;
+	}
+
+	private IndexProduct indexProduct(Document document) {
+		IndexProduct product = new IndexProduct();
+		product.setId(document.get(ID));
+		product.setName(document.get(NAME));
+		product.setDescription(document.get(DESCRIPTION));
+		product.setHighlight(document.get(HIGHLIGHT));
+		product.setManufacturer(document.get(MANUFACTURER));
+		product.setStore(document.get(STORE));
+		product.setLang(document.get(LANG));
+		product.setAvailable(Boolean.parseBoolean(document.get(AVAILABLE)));
+		IndexableField price = document.getField(PRICE);
+		if (price != null) {
+			product.setPrice(price.numericValue().doubleValue());
+		}
+		String[] categories = document.getValues(CATEGORIES);
+		if (categories.length > 0) {
+			product.setCategories(Arrays.asList(categories));
+		}
+		return product;
+	}
+
+	/**
+	 * Counts the matching products of each category, manufacturer and price
+	 * range. Ordinals are counted per segment then resolved to values once
+	 * per segment.
+	 */
+	private static class FacetCounts extends SimpleCollector {
+
+		private final double[] priceBounds;
+		private final long[] prices;
+		private final Map<String, Long> categories = new HashMap<String, Long>();
+		private final Map<String, Long> manufacturers = new HashMap<String, Long>();
+		private long total;
+
+		private SortedSetDocValues categoryValues;
+		private SortedSetDocValues manufacturerValues;
+		private NumericDocValues priceValues;
+		private long[] categoryCounts;
+		private long[] manufacturerCounts;
+
+		FacetCounts(double[] priceBounds) {
+			this.priceBounds = priceBounds;
+			this.prices = new long[priceBounds.length + 1];
+		}
+
+		@Override
+		protected void doSetNextReader(LeafReaderContext context) throws IOException {
+			flush();
+			categoryValues = DocValues.getSortedSet(context.reader(), CATEGORIES);
+			manufacturerValues = DocValues.getSortedSet(context.reader(), MANUFACTURER);
+			priceValues = DocValues.getNumeric(context.reader(), PRICE);
+			categoryCounts = new long[(int) categoryValues.getValueCount()];
+			manufacturerCounts = new long[(int) manufacturerValues.getValueCount()];
+		}
+
+		@Override
+		public void collect(int doc) throws IOException {
+			total++;
+			count(categoryValues, categoryCounts, doc);
+			count(manufacturerValues, manufacturerCounts, doc);
+			if (priceValues.advanceExact(doc)) {
+				double price = Double.longBitsToDouble(priceValues.longValue());
+				int range = Arrays.binarySearch(priceBounds, price);
+				prices[range >= 0 ? range + 1 : -range - 1]++;
+			}
+		}
+
+		private void count(SortedSetDocValues values, long[] counts, int doc) throws IOException {
+			if (values.advanceExact(doc)) {
+				for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+					counts[(int) ord]++;
+				}
+			}
+		}
+
+		@Override
+		public ScoreMode scoreMode() {
+			return ScoreMode.COMPLETE_NO_SCORES;
+		}
+
+		private void flush() throws IOException {
+			flush(categoryValues, categoryCounts, categories);
+			flush(manufacturerValues, manufacturerCounts, manufacturers);
+			categoryCounts = null;
+			manufacturerCounts = null;
+		}
+
+		private void flush(SortedSetDocValues values, long[] counts, Map<String, Long> facet) throws IOException {
+			if (counts == null) {
+				return;
+			}
+			for (int ord = 0; ord < counts.length; ord++) {
+				if (counts[ord] > 0) {
+					facet.merge(values.lookupOrd(ord).utf8ToString(), counts[ord], Long::sum);
+				}
+			}
+		}
+
+		Map<String, List<SearchFacet>> facets() throws IOException {
+			flush();
+			Map<String, List<SearchFacet>> facets = new LinkedHashMap<String, List<SearchFacet>>();
+			if (!categories.isEmpty()) {
+				facets.put(CATEGORIES, facets(categories));
+			}
+			if (!manufacturers.isEmpty()) {
+				facets.put(MANUFACTURER, facets(manufacturers));
+			}
+			Map<String, Long> ranges = new LinkedHashMap<String, Long>();
+			for (int i = 0; i < prices.length; i++) {
+				if (prices[i] > 0) {
+					String from = i == 0 ? "*" : bound(priceBounds[i - 1]);
+					String to = i == priceBounds.length ? "*" : bound(priceBounds[i]);
+					ranges.put(from + "-" + to, prices[i]);
+				}
+			}
+			if (!ranges.isEmpty()) {
+				facets.put(PRICE, facets(ranges));
+			}
+			return facets;
+		}
+
+		private List<SearchFacet> facets(Map<String, Long> counts) {
+			List<SearchFacet> facets = new ArrayList<SearchFacet>();
+			for (Map.Entry<String, Long> count : counts.entrySet()) {
+				SearchFacet facet = new SearchFacet();
+				facet.setKey(count.getKey());
+				facet.setName(count.getKey());
+				facet.setCount(count.getValue());
+				facets.add(facet);
+			}
+			return facets;
+		}
+
+		private String bound(double bound) {
+			return bound == Math.rint(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.salesmanager.core.business.services.search;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.search.IndexProduct;
+
+/**
+ * Writes the new product indexes of a rebuild in the search engine
+ * configured with config.search.engine, the bean is named
+ * <engine>ProductIndexBuilder.
+ *
+ * Documents written to the new indexes are not searched until the indexes
+ * are published.
+ */
+public interface ProductIndexBuilder {
+
+	/**
+	 * Creates the new index of a store language, an index already created
+	 * before a restart is kept
+	 * @param store
+	 * @param language
+	 * @param index name of the new index
+	 * @throws ServiceException
+	 */
+	void create(MerchantStore store, String language, String index) throws ServiceException;
+
+	/**
+	 * Writes documents in the new indexes
+	 * @param store
+	 * @param documents documents by new index name
+	 * @return documents that could not be written
+	 * @throws ServiceException when no document could be written
+	 */
+	int write(MerchantStore store, Map<String, List<IndexProduct>> documents) throws ServiceException;
+
+	/**
+	 * Removes products deleted while the new indexes were written
+	 * @param store
+	 * @param indexes new index by language code
+	 * @param productIds
+	 * @throws ServiceException
+	 */
+	void delete(MerchantStore store, Map<String, String> indexes, Collection<Long> productIds) throws ServiceException;
+
+	/**
+	 * Replaces the searched indexes of all languages by the new ones and
+	 * deletes the previous indexes
+	 * @param store
+	 * @param indexes new index by language code
+	 * @throws ServiceException
+	 */
+	void publish(MerchantStore store, Map<String, String> indexes) throws ServiceException;
+
+}
@@ -0,0 +1,420 @@
+package com.salesmanager.core.business.services.search;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.repositories.catalog.product.ProductRepository;
+import com.salesmanager.core.business.services.catalog.product.PricingService;
+import com.salesmanager.core.business.services.system.MerchantConfigurationService;
+import com.salesmanager.core.business.utils.CoreConfiguration;
+import com.salesmanager.core.business.utils.JsonUtils;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.description.ProductDescription;
+import com.salesmanager.core.model.catalog.product.price.FinalPrice;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.search.IndexProduct;
+import com.salesmanager.core.model.search.ReindexStatus;
+import com.salesmanager.core.model.search.ReindexStatus.State;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+
+/**
+ * Rebuilds the product search indexes of a store.
+ *
+ * Product ids are read in id order, config.search.reindex.chunkSize at a
+ * time. Each chunk is loaded in stateless sessions and turned into
+ * documents on config.search.reindex.threads workers while the previous
+ * chunk is written in one batch. Documents go to new indexes
+ * product_<lang>_<store>_<start date>, which replace the indexes searched
+ * once all products are written, see ProductIndexBuilder of the engine
+ * configured with config.search.engine. Products changed during the rebuild
+ * are written again and products deleted during the rebuild, or while a
+ * failed rebuild waits to be resumed, are removed before the new indexes
+ * are published.
+ *
+ * The progress is saved with the store configuration after each chunk, a
+ * rebuild that failed or was stopped by a restart resumes after the last
+ * product written.
+ */
+@Component
+public class ProductIndexRebuilder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductIndexRebuilder.class);
+
+	private static final String CHECKPOINT = "SEARCH_REINDEX";
+
+	@Inject
+	private ProductRepository productRepository;
+
+	@Inject
+	private PricingService pricingService;
+
+	@Inject
+	private ApplicationContext context;
+
+	@Inject
+	private MerchantConfigurationService merchantConfigurationService;
+
+	@Inject
+	private CoreConfiguration configuration;
+
+	@Value("${config.search.engine:elasticsearch}")
+	private String engine;
+
+	@Value("${config.search.reindex.chunkSize:500}")
+	private int chunkSize;
+
+	@Value("${config.search.reindex.threads:4}")
+	private int threads;
+
+	private final Map<String, ReindexStatus> running = new ConcurrentHashMap<String, ReindexStatus>();
+
+	/**
+	 * guards the checkpoints of rebuilds that are not running
+	 */
+	private final Object checkpoints = new Object();
+
+	private ProductIndexBuilder indexBuilder;
+
+	private ExecutorService rebuilds;
+
+	private ThreadPoolExecutor workers;
+
+	@PostConstruct
+	public void init() {
+		if (indexBuilder == null) {
+			indexBuilder = context.getBean(engine + "ProductIndexBuilder", ProductIndexBuilder.class);
+		}
+		AtomicInteger count = new AtomicInteger();
+		rebuilds = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "search-reindex");
+			t.setDaemon(true);
+			return t;
+		});
+		workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 2), r -> {
+			Thread t = new Thread(r, "search-reindex-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		rebuilds.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Starts a rebuild of the product indexes of a store in background
+	 * @param store
+	 * @return progress of the rebuild
+	 * @throws ServiceException when indexing is disabled or a rebuild of the store is running
+	 */
+	public ReindexStatus rebuild(MerchantStore store) throws ServiceException {
+		if (!SearchServiceImpl.indexProducts(configuration)) {
+			throw new ServiceException("Product indexing is disabled");
+		}
+
+		ReindexStatus status = new ReindexStatus();
+		status.setStore(store.getCode());
+		status.setState(State.RUNNING);
+		status.setStartDate(new Date());
+		status.setTotal(productRepository.countForIndex(store));
+		return start(store, status);
+	}
+
+	/**
+	 * Resumes a failed or interrupted rebuild after the last product written
+	 * @param store
+	 * @return progress of the rebuild
+	 * @throws ServiceException when there is no rebuild to resume
+	 */
+	public ReindexStatus resume(MerchantStore store) throws ServiceException {
+		synchronized (checkpoints) {
+			ReindexStatus status = status(store);
+			if (status == null || status.getState() == State.COMPLETED) {
+				throw new ServiceException("No product index rebuild to resume for store " + store.getCode());
+			}
+			if (status.getState() == State.RUNNING) {
+				return status;
+			}
+			status.setState(State.RUNNING);
+			status.setError(null);
+			status.setEndDate(null);
+			return start(store, status);
+		}
+	}
+
+	/**
+	 * @param store
+	 * @return progress of the running or last rebuild of a store, null if the
+	 * store was never rebuilt
+	 */
+	public ReindexStatus status(MerchantStore store) throws ServiceException {
+		ReindexStatus status = running.get(store.getCode());
+		if (status != null) {
+			return status;
+		}
+		MerchantConfiguration checkpoint = merchantConfigurationService.getMerchantConfiguration(CHECKPOINT, store);
+		if (checkpoint == null) {
+			return null;
+		}
+		try {
+			status = JsonUtils.readValue(checkpoint.getValue(), ReindexStatus.class);
+		} catch (Exception e) {
+			throw new ServiceException("Cannot read product index rebuild of store " + store.getCode(), e);
+		}
+		if (status.getState() == State.RUNNING) {
+			// not running on this node, stopped by a restart
+			status.setState(State.INTERRUPTED);
+		}
+		return status;
+	}
+
+	/**
+	 * Called when a product is deleted, a running rebuild of the store
+	 * removes it from the new indexes before publishing them. A deletion
+	 * happening while the new indexes are published waits for them to be
+	 * searched so that the product is deleted from the published indexes.
+	 * The deletion is saved with the checkpoint of a failed or interrupted
+	 * rebuild so that it is applied when the rebuild is resumed.
+	 * @param store
+	 * @param productId
+	 * @throws ServiceException when the checkpoint cannot be saved
+	 */
+	public void deleted(MerchantStore store, Long productId) throws ServiceException {
+		synchronized (checkpoints) {
+			ReindexStatus status = running.get(store.getCode());
+			if (status != null) {
+				synchronized (status) {
+					// saved by the checkpoint of a rebuild that just failed
+					if (status.getState() != State.COMPLETED) {
+						status.getDeleted().add(productId);
+					}
+				}
+				return;
+			}
+			status = status(store);
+			if (status == null || status.getState() == State.COMPLETED) {
+				return;
+			}
+			status.getDeleted().add(productId);
+			try {
+				checkpoint(store, status);
+			} catch (Exception e) {
+				throw new ServiceException("Cannot save product index rebuild of store " + store.getCode(), e);
+			}
+		}
+	}
+
+	private ReindexStatus start(MerchantStore store, ReindexStatus status) throws ServiceException {
+		if (running.putIfAbsent(store.getCode(), status) != null) {
+			throw new ServiceException("A rebuild of the product indexes of store " + store.getCode() + " is running");
+		}
+		try {
+			rebuilds.execute(() -> run(store, status));
+		} catch (RuntimeException e) {
+			running.remove(store.getCode());
+			throw new ServiceException("Cannot start the rebuild of the product indexes of store " + store.getCode(), e);
+		}
+		return status;
+	}
+
+	private void run(MerchantStore store, ReindexStatus status) {
+		long start = System.currentTimeMillis();
+		long written = 0;
+		CompletableFuture<Chunk> next = null;
+		try {
+			checkpoint(store, status);
+
+			next = build(store, productRepository.listIdsForIndex(store, status.getLastId(), chunkSize));
+			while (next != null) {
+				Chunk chunk = next.get();
+				// next chunk is loaded while this one is written
+				next = build(store, productRepository.listIdsForIndex(store, chunk.lastId, chunkSize));
+
+				write(store, status, chunk);
+				written += chunk.products;
+				status.setIndexed(status.getIndexed() + chunk.products);
+				status.setLastId(chunk.lastId);
+				status.setThroughput(written * 1000d / Math.max(System.currentTimeMillis() - start, 1));
+				checkpoint(store, status);
+			}
+
+			List<Long> changed = productRepository.listIdsModifiedSince(store, status.getStartDate());
+			for (List<Long> ids : Lists.partition(changed, chunkSize)) {
+				write(store, status, build(store, ids).get());
+			}
+
+			synchronized (status) {
+				if (!status.getDeleted().isEmpty()) {
+					indexBuilder.delete(store, status.getIndexes(), status.getDeleted());
+					status.getDeleted().clear();
+				}
+				indexBuilder.publish(store, status.getIndexes());
+				status.setState(State.COMPLETED);
+			}
+			LOGGER.info("Product indexes of store " + store.getCode() + " rebuilt, " + status.getIndexed() + " products, "
+					+ status.getDocuments() + " documents, " + status.getFailed() + " failed in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			status.setState(State.INTERRUPTED);
+		} catch (Exception e) {
+			LOGGER.error("Cannot rebuild product indexes of store " + store.getCode(), e);
+			status.setState(State.FAILED);
+			status.setError(e.getMessage());
+		} finally {
+			if (next != null) {
+				next.cancel(true);
+			}
+			status.setEndDate(new Date());
+			synchronized (checkpoints) {
+				try {
+					checkpoint(store, status);
+				} catch (Exception e) {
+					LOGGER.error("Cannot save product index rebuild of store " + store.getCode(), e);
+				}
+				running.remove(store.getCode());
+			}
+		}
+	}
+
+	/**
+	 * Loads and converts the products of a chunk on the workers
+	 * @return null when there are no ids
+	 */
+	private CompletableFuture<Chunk> build(MerchantStore store, List<Long> ids) {
+		if (ids.isEmpty()) {
+			return null;
+		}
+		List<CompletableFuture<Chunk>> slices = new ArrayList<CompletableFuture<Chunk>>();
+		for (List<Long> slice : Lists.partition(ids, Math.max(ids.size() / threads, 1))) {
+			slices.add(CompletableFuture.supplyAsync(() -> documents(store, slice), workers));
+		}
+		return CompletableFuture.allOf(slices.toArray(new CompletableFuture[slices.size()])).thenApply(v -> {
+			Chunk chunk = new Chunk(ids.get(ids.size() - 1));
+			for (CompletableFuture<Chunk> slice : slices) {
+				chunk.add(slice.join());
+			}
+			return chunk;
+		});
+	}
+
+	private Chunk documents(MerchantStore store, List<Long> ids) {
+		Chunk chunk = new Chunk(ids.get(ids.size() - 1));
+		for (Product product : productRepository.listForIndex(ids)) {
+			try {
+				FinalPrice price = pricingService.calculateProductPrice(product);
+				for (ProductDescription description : product.getDescriptions()) {
+					chunk.documents.add(new Document(description.getLanguage().getCode(),
+							SearchServiceImpl.indexProduct(store, product, description, price)));
+				}
+				chunk.products++;
+			} catch (Exception e) {
+				LOGGER.error("Cannot index product id [" + product.getId() + "]", e);
+				chunk.failed++;
+			}
+		}
+		return chunk;
+	}
+
+	private void write(MerchantStore store, ReindexStatus status, Chunk chunk) throws Exception {
+		status.setFailed(status.getFailed() + chunk.failed);
+		if (chunk.documents.isEmpty()) {
+			return;
+		}
+
+		Map<String, List<IndexProduct>> documents = new HashMap<String, List<IndexProduct>>();
+		for (Document document : chunk.documents) {
+			documents.computeIfAbsent(index(store, status, document.language), k -> new ArrayList<IndexProduct>())
+					.add(document.product);
+		}
+
+		int failures = indexBuilder.write(store, documents);
+		status.setFailed(status.getFailed() + failures);
+		status.setDocuments(status.getDocuments() + chunk.documents.size() - failures);
+	}
+
+	/**
+	 * New index of a language, created on the first document of the language
+	 */
+	private String index(MerchantStore store, ReindexStatus status, String language) throws ServiceException {
+		String index = status.getIndexes().get(language);
+		if (index != null) {
+			return index;
+		}
+
+		index = SearchServiceImpl.indexName(language, store) + "_"
+				+ new SimpleDateFormat("yyyyMMddHHmmssSSS").format(status.getStartDate());
+		// may have been created before a restart that happened before the checkpoint
+		indexBuilder.create(store, language, index);
+		status.getIndexes().put(language, index);
+		return index;
+	}
+
+	private void checkpoint(MerchantStore store, ReindexStatus status) throws Exception {
+		MerchantConfiguration checkpoint = merchantConfigurationService.getMerchantConfiguration(CHECKPOINT, store);
+		if (checkpoint == null) {
+			checkpoint = new MerchantConfiguration();
+			checkpoint.setMerchantStore(store);
+			checkpoint.setKey(CHECKPOINT);
+		}
+		checkpoint.setValue(JsonUtils.MAPPER.writeValueAsString(status));
+		merchantConfigurationService.saveOrUpdate(checkpoint);
+	}
+
+	private static class Chunk {
+
+		private final Long lastId;
+		private final List<Document> documents = new ArrayList<Document>();
+		private int products;
+		private int failed;
+
+		Chunk(Long lastId) {
+			this.lastId = lastId;
+		}
+
+		void add(Chunk slice) {
+			documents.addAll(slice.documents);
+			products += slice.products;
+			failed += slice.failed;
+		}
+	}
+
+	private static class Document {
+
+		private final String language;
+		private final IndexProduct product;
+
+		Document(String language, IndexProduct product) {
+			this.language = language;
+			this.product = product;
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.salesmanager.core.business.services.shipping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.salesmanager.core.business.repositories.shipping.ShippingDistanceRepository;
+import com.salesmanager.core.business.repositories.shipping.ShippingGeoCodeRepository;
+import com.salesmanager.core.model.shipping.ShippingDistance;
+import com.salesmanager.core.model.shipping.ShippingGeoCode;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Geocoded addresses and distances between them, kept in memory in front
+ * of the SHIPPING_GEOCODE and SHIPPING_DISTANCE tables so that they survive
+ * restarts and are shared by every node. Addresses are keyed by a hash of
+ * the normalized address, entries older than config.shipping.geo.ttl days
+ * are ignored and replaced on next lookup.
+ */
+@Component
+public class ShippingGeoCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShippingGeoCache.class);
+
+	private static final String METRIC_PREFIX = "shopizer.shipping.geo.cache";
+
+	@Inject
+	private ShippingGeoCodeRepository geoCodeRepository;
+
+	@Inject
+	private ShippingDistanceRepository distanceRepository;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Value("${config.shipping.geo.ttl:30}")
+	private long ttl;
+
+	@Value("${config.shipping.geo.cacheSize:10000}")
+	private long cacheSize;
+
+	private Cache<String, ShippingGeoCode> geoCodes;
+
+	private Cache<String, ShippingDistance> distances;
+
+	@PostConstruct
+	public void init() {
+		geoCodes = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(ttl, TimeUnit.DAYS)
+				.recordStats()
+				.build();
+		distances = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(ttl, TimeUnit.DAYS)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, geoCodes, METRIC_PREFIX + ".geocode");
+			GuavaCacheMetrics.monitor(meterRegistry, distances, METRIC_PREFIX + ".distance");
+		}
+	}
+
+	/**
+	 * @param address full address as sent to the geocoding api
+	 * @return coordinates or null when the address was not geocoded recently
+	 */
+	public ShippingGeoCode getGeoCode(String address) {
+		String key = addressKey(address);
+		ShippingGeoCode geoCode = geoCodes.getIfPresent(key);
+		if (geoCode != null) {
+			return geoCode;
+		}
+		geoCode = freshGeoCode(geoCodeRepository.findById(key));
+		if (geoCode != null) {
+			geoCodes.put(key, geoCode);
+		}
+		return geoCode;
+	}
+
+	public ShippingGeoCode saveGeoCode(String address, double latitude, double longitude) {
+		ShippingGeoCode geoCode = new ShippingGeoCode(addressKey(address), latitude, longitude);
+		geoCodes.put(geoCode.getId(), geoCode);
+		try {
+			geoCodeRepository.save(geoCode);
+		} catch (Exception e) {
+			//concurrent quote of the same address
+			LOGGER.debug("Cannot save geocode " + geoCode.getId(), e);
+		}
+		return geoCode;
+	}
+
+	/**
+	 * @return distance in km or null when not known
+	 */
+	public Double getDistance(ShippingGeoCode origin, ShippingGeoCode destination) {
+		String key = distanceKey(origin, destination);
+		ShippingDistance distance = distances.getIfPresent(key);
+		if (distance == null) {
+			distance = freshDistance(distanceRepository.findById(key));
+			if (distance == null) {
+				return null;
+			}
+			distances.put(key, distance);
+		}
+		return distance.getDistance();
+	}
+
+	public void saveDistance(ShippingGeoCode origin, ShippingGeoCode destination, double distanceInKm) {
+		ShippingDistance distance = new ShippingDistance(distanceKey(origin, destination), distanceInKm);
+		distances.put(distance.getId(), distance);
+		try {
+			distanceRepository.save(distance);
+		} catch (Exception e) {
+			LOGGER.debug("Cannot save distance " + distance.getId(), e);
+		}
+	}
+
+	/**
+	 * sha-256 of the lower case address with single spaces
+	 */
+	public static String addressKey(String address) {
+		String normalized = address.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+		return Hashing.sha256().hashString(normalized, StandardCharsets.UTF_8).toString();
+	}
+
+	private String distanceKey(ShippingGeoCode origin, ShippingGeoCode destination) {
+		return origin.getId() + "_" + destination.getId();
+	}
+
+	private ShippingGeoCode freshGeoCode(Optional<ShippingGeoCode> geoCode) {
+		return geoCode.filter(g -> isFresh(g.getDateCreated())).orElse(null);
+	}
+
+	private ShippingDistance freshDistance(Optional<ShippingDistance> distance) {
+		return distance.filter(d -> isFresh(d.getDateCreated())).orElse(null);
+	}
+
+	private boolean isFresh(Date created) {
+		return created != null && created.getTime() > System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ttl);
+	}
+
+}
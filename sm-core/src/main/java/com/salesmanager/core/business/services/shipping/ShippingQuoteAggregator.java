@@ -0,0 +1,281 @@
+package com.salesmanager.core.business.services.shipping;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.model.common.Delivery;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.shipping.PackageDetails;
+import com.salesmanager.core.model.shipping.ShippingConfiguration;
+import com.salesmanager.core.model.shipping.ShippingOption;
+import com.salesmanager.core.model.shipping.ShippingOrigin;
+import com.salesmanager.core.model.shipping.ShippingQuote;
+import com.salesmanager.core.model.system.IntegrationConfiguration;
+import com.salesmanager.core.model.system.IntegrationModule;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+import com.salesmanager.core.modules.constants.Constants;
+import com.salesmanager.core.modules.integration.shipping.model.ShippingQuoteModule;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Asks every active carrier for shipping options at the same time.
+ *
+ * Carriers run on a bounded worker pool, each on its own copy of the
+ * shipping quote. Options returned before config.shipping.quote.timeout
+ * milliseconds are kept, a carrier that fails or does not answer in time
+ * is logged and added to the quote warnings. A carrier is skipped the
+ * same way when the pool and its queue are full, it is never quoted on
+ * the request thread. Options are cached per
+ * carrier for config.shipping.quote.cacheTtl seconds by store, origin,
+ * destination, packages and order total so that the quotes repeated
+ * during a checkout do not call the carriers again.
+ */
+@Component
+public class ShippingQuoteAggregator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShippingQuoteAggregator.class);
+
+	private static final String METRIC_PREFIX = "shopizer.shipping.quote.cache";
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Value("${config.shipping.quote.threads:8}")
+	private int threads;
+
+	@Value("${config.shipping.quote.timeout:5000}")
+	private long timeout;
+
+	@Value("${config.shipping.quote.cacheTtl:120}")
+	private long cacheTtl;
+
+	@Value("${config.shipping.quote.cacheSize:5000}")
+	private long cacheSize;
+
+	private ThreadPoolExecutor executor;
+
+	private Cache<String, List<ShippingOption>> quotes;
+
+	/**
+	 * incremented when a shipping configuration changes, options quoted
+	 * meanwhile are not cached
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * A configured shipping module
+	 */
+	public static final class Carrier {
+
+		private final ShippingQuoteModule quoteModule;
+		private final IntegrationConfiguration configuration;
+		private final IntegrationModule module;
+
+		public Carrier(ShippingQuoteModule quoteModule, IntegrationConfiguration configuration,
+				IntegrationModule module) {
+			this.quoteModule = quoteModule;
+			this.configuration = configuration;
+			this.module = module;
+		}
+
+		public String getCode() {
+			return module.getCode();
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 16), r -> {
+			Thread t = new Thread(r, "shipping-quote-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		quotes = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheTtl, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, quotes, METRIC_PREFIX);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Quotes all carriers and returns their options in carrier order, each
+	 * option carries the code of the module that quoted it
+	 * @return options or null when no carrier returned any
+	 */
+	public List<ShippingOption> getShippingQuotes(List<Carrier> carriers, ShippingQuote shippingQuote,
+			List<PackageDetails> packages, BigDecimal orderTotal, Delivery delivery, ShippingOrigin origin,
+			MerchantStore store, ShippingConfiguration shippingConfiguration, Locale locale) {
+
+		long quoteGeneration = generation.get();
+		Map<Carrier, List<ShippingOption>> cached = new LinkedHashMap<Carrier, List<ShippingOption>>();
+		Map<Carrier, ShippingQuote> carrierQuotes = new HashMap<Carrier, ShippingQuote>();
+		Map<Carrier, Future<List<ShippingOption>>> pending = new LinkedHashMap<Carrier, Future<List<ShippingOption>>>();
+
+		for (Carrier carrier : carriers) {
+			List<ShippingOption> options = quotes.getIfPresent(key(carrier, shippingQuote, packages, orderTotal, delivery, origin, store, locale));
+			if (options != null) {
+				cached.put(carrier, options);
+				continue;
+			}
+			ShippingQuote carrierQuote = copy(shippingQuote);
+			carrierQuotes.put(carrier, carrierQuote);
+			try {
+				pending.put(carrier, executor.submit(() -> carrier.quoteModule.getShippingQuotes(carrierQuote, packages,
+						orderTotal, delivery, origin, store, carrier.configuration, carrier.module, shippingConfiguration,
+						locale)));
+			} catch (RejectedExecutionException e) {
+				LOGGER.warn("Shipping quote of " + carrier.getCode() + " skipped, all quote workers are busy");
+				shippingQuote.getWarnings().add("No shipping quote from " + carrier.getCode());
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		List<ShippingOption> shippingOptions = null;
+
+		for (Carrier carrier : carriers) {
+			List<ShippingOption> options = cached.get(carrier);
+			if (options == null) {
+				Future<List<ShippingOption>> future = pending.get(carrier);
+				if (future == null) {
+					// rejected
+					continue;
+				}
+				options = await(carrier, future, deadline, shippingQuote);
+				if (options == null) {
+					continue;
+				}
+				shippingQuote.getWarnings().addAll(carrierQuotes.get(carrier).getWarnings());
+				for (ShippingOption option : options) {
+					option.setShippingModuleCode(carrier.getCode());
+				}
+				if (quoteGeneration == generation.get()) {
+					quotes.put(key(carrier, shippingQuote, packages, orderTotal, delivery, origin, store, locale),
+							copy(options));
+				}
+			}
+			if (shippingOptions == null) {
+				shippingOptions = new ArrayList<ShippingOption>();
+			}
+			shippingOptions.addAll(copy(options));
+		}
+
+		return shippingOptions;
+	}
+
+	/**
+	 * Drops every cached option
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		quotes.invalidateAll();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(MerchantConfiguration.class)) {
+			clear();
+		}
+	}
+
+	private List<ShippingOption> await(Carrier carrier, Future<List<ShippingOption>> future, long deadline,
+			ShippingQuote shippingQuote) {
+		try {
+			return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			LOGGER.warn("Shipping quote of " + carrier.getCode() + " timed out after " + timeout + " ms");
+			shippingQuote.getWarnings().add("No shipping quote from " + carrier.getCode());
+		} catch (ExecutionException e) {
+			LOGGER.error("Error while calculating shipping with " + carrier.getCode() + " : "
+					+ e.getCause().getMessage(), e.getCause());
+			shippingQuote.getWarnings().add("No shipping quote from " + carrier.getCode());
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	private ShippingQuote copy(ShippingQuote shippingQuote) {
+		ShippingQuote copy = new ShippingQuote();
+		copy.setQuoteInformations(new HashMap<String, Object>(shippingQuote.getQuoteInformations()));
+		copy.setCurrentShippingModule(shippingQuote.getCurrentShippingModule());
+		copy.setDeliveryAddress(shippingQuote.getDeliveryAddress());
+		copy.setHandlingFees(shippingQuote.getHandlingFees());
+		copy.setApplyTaxOnShipping(shippingQuote.isApplyTaxOnShipping());
+		return copy;
+	}
+
+	private List<ShippingOption> copy(List<ShippingOption> options) {
+		List<ShippingOption> copy = new ArrayList<ShippingOption>(options.size());
+		for (ShippingOption option : options) {
+			ShippingOption o = new ShippingOption();
+			BeanUtils.copyProperties(option, o);
+			copy.add(o);
+		}
+		return copy;
+	}
+
+	private String key(Carrier carrier, ShippingQuote shippingQuote, List<PackageDetails> packages,
+			BigDecimal orderTotal, Delivery delivery, ShippingOrigin origin, MerchantStore store, Locale locale) {
+
+		StringBuilder key = new StringBuilder().append(store.getId()).append("_").append(carrier.getCode())
+				.append("_").append(locale)
+				.append("_").append(origin.getCountry() != null ? origin.getCountry().getIsoCode() : null)
+				.append("_").append(origin.getPostalCode())
+				.append("_").append(delivery.getCountry() != null ? delivery.getCountry().getIsoCode() : null)
+				.append("_").append(delivery.getZone() != null ? delivery.getZone().getCode() : delivery.getState())
+				.append("_").append(delivery.getPostalCode())
+				.append("_").append(orderTotal != null ? orderTotal.toPlainString() : null)
+				.append("_").append(shippingQuote.getQuoteInformations().get(Constants.DISTANCE_KEY));
+		for (PackageDetails p : packages) {
+			key.append("_").append(p.getShippingQuantity()).append("x").append(p.getShippingWeight())
+					.append("/").append(p.getShippingLength()).append("/").append(p.getShippingWidth())
+					.append("/").append(p.getShippingHeight());
+		}
+		return key.toString();
+	}
+
+}
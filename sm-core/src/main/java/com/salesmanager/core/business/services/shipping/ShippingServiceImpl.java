@@ -22,15 +22,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.constants.ShippingConstants;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.catalog.product.PricingService;
 import com.salesmanager.core.business.services.reference.country.CountryService;
 import com.salesmanager.core.business.services.reference.language.LanguageService;
 import com.salesmanager.core.business.services.reference.loader.ConfigurationModulesLoader;
+import com.salesmanager.core.business.services.system.MerchantConfigurationRegistry;
 import com.salesmanager.core.business.services.system.MerchantConfigurationService;
 import com.salesmanager.core.business.services.system.ModuleConfigurationService;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.common.Delivery;
 import com.salesmanager.core.model.common.UserContext;
@@ -77,6 +78,9 @@ public class ShippingServiceImpl implements ShippingService {
 	private MerchantConfigurationService merchantConfigurationService;
 	
 
+	@Inject
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
+
 	@Inject
 	private PricingService pricingService;
 	
@@ -101,6 +105,9 @@ public class ShippingServiceImpl implements ShippingService {
 	@Inject
 	private ShippingQuoteService shippingQuoteService;
 	
+	@Inject
+	private ShippingQuoteAggregator shippingQuoteAggregator;
+
 	@Inject
 	@Resource(name="shippingModules")
 	private Map<String,ShippingQuoteModule> shippingModules;
@@ -118,21 +125,8 @@ public class ShippingServiceImpl implements ShippingService {
 	@Override
 	public ShippingConfiguration getShippingConfiguration(MerchantStore store) throws ServiceException {
 
-		MerchantConfiguration configuration = merchantConfigurationService.getMerchantConfiguration(ShippingConstants.SHIPPING_CONFIGURATION, store);
-		
-		ShippingConfiguration shippingConfiguration = null;
-		
-		if(configuration!=null) {
-			String value = configuration.getValue();
-			
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				shippingConfiguration = mapper.readValue(value, ShippingConfiguration.class);
-			} catch(Exception e) {
-				throw new ServiceException("Cannot parse json string " + value);
-			}
-		}
-		return shippingConfiguration;
+		return merchantConfigurationRegistry.get(store, ShippingConstants.SHIPPING_CONFIGURATION,
+				value -> JsonUtils.readValue(value, ShippingConfiguration.class));
 		
 	}
 	
@@ -337,24 +331,9 @@ public class ShippingServiceImpl implements ShippingService {
 	
 	@Override
 	public Map<String,IntegrationConfiguration> getShippingModulesConfigured(MerchantStore store) throws ServiceException {
-		try {
-			
-
-			Map<String,IntegrationConfiguration> modules = new HashMap<String,IntegrationConfiguration>();
-			MerchantConfiguration merchantConfiguration = merchantConfigurationService.getMerchantConfiguration(SHIPPING_MODULES, store);
-			if(merchantConfiguration!=null) {
-				if(!StringUtils.isBlank(merchantConfiguration.getValue())) {
-					String decrypted = encryption.decrypt(merchantConfiguration.getValue());
-					modules = ConfigurationModulesLoader.loadIntegrationConfigurations(decrypted);
-					
-				}
-			}
-			return modules;
-		
-		
-		} catch (Exception e) {
-			throw new ServiceException(e);
-		}
+		Map<String,IntegrationConfiguration> modules = merchantConfigurationRegistry.get(store, SHIPPING_MODULES,
+				value -> ConfigurationModulesLoader.loadIntegrationConfigurations(encryption.decrypt(value)));
+		return ConfigurationModulesLoader.copy(modules);
 		
 	}
 	
@@ -457,18 +436,22 @@ public class ShippingServiceImpl implements ShippingService {
 			/** uses this module name **/
 			String moduleName = null;
 			IntegrationConfiguration configuration = null;
+			/** all active quote modules, quoted together **/
+			List<String> carrierCodes = new ArrayList<String>();
 			for(String module : modules.keySet()) {
-				moduleName = module;
-				configuration = modules.get(module);
-				//use the first active module
-				if(configuration.isActive()) {
-					shippingQuoteModule = shippingModules.get(module);
-					if(shippingQuoteModule instanceof ShippingQuotePrePostProcessModule) {
-						shippingQuoteModule = null;
+				IntegrationConfiguration moduleConfiguration = modules.get(module);
+				if(moduleConfiguration.isActive()) {
+					ShippingQuoteModule quoteModule = shippingModules.get(module);
+					if(quoteModule == null || quoteModule instanceof ShippingQuotePrePostProcessModule) {
 						continue;
-					} else {
-						break;
 					}
+					//the first active module is the default one
+					if(shippingQuoteModule == null) {
+						shippingQuoteModule = quoteModule;
+						moduleName = module;
+						configuration = moduleConfiguration;
+					}
+					carrierCodes.add(module);
 				}
 			}
 			
@@ -537,6 +520,7 @@ public class ShippingServiceImpl implements ShippingService {
 			//invoke pre processors
 			//the main pre-processor determines at runtime the shipping module
 			//also available distance calculation
+			boolean moduleSelected = false;
 			if(!CollectionUtils.isEmpty(shippingModulePreProcessors)) {
 				for(ShippingQuotePrePostProcessModule preProcessor : shippingModulePreProcessors) {
 					//System.out.println("Using pre-processor " + preProcessor.getModuleCode());
@@ -550,6 +534,7 @@ public class ShippingServiceImpl implements ShippingService {
 								moduleName = shippingModule.getCode();
 								shippingQuoteModule = this.shippingModules.get(shippingModule.getCode());
 								configuration = modules.get(shippingModule.getCode());
+								moduleSelected = true;
 							} //TODO use default
 						}
 						
@@ -557,22 +542,22 @@ public class ShippingServiceImpl implements ShippingService {
 				}
 			}
 
-			//invoke module
-			List<ShippingOption> shippingOptions = null;
-					
-			try {
-				shippingOptions = shippingQuoteModule.getShippingQuotes(shippingQuote, packages, orderTotal, delivery, shippingOrigin, store, configuration, shippingModule, shippingConfiguration, locale);
-			} catch(Exception e) {
-				LOGGER.error("Error while calculating shipping : " + e.getMessage(), e);
-/*				merchantLogService.save(
-						new MerchantLog(store,
-								"Can't process " + shippingModule.getModule()
-								+ " -> "
-								+ e.getMessage()));
-				shippingQuote.setQuoteError(e.getMessage());
-				shippingQuote.setShippingReturnCode(ShippingQuote.ERROR);
-				return shippingQuote;*/
+			//invoke modules, the module selected by a pre processor or every active module
+			List<ShippingQuoteAggregator.Carrier> carriers = new ArrayList<ShippingQuoteAggregator.Carrier>();
+			if(moduleSelected) {
+				carriers.add(new ShippingQuoteAggregator.Carrier(shippingQuoteModule, configuration, shippingModule));
+			} else {
+				for(String code : carrierCodes) {
+					for(IntegrationModule mod : shippingMethods) {
+						if(mod.getCode().equals(code)) {
+							carriers.add(new ShippingQuoteAggregator.Carrier(shippingModules.get(code), modules.get(code), mod));
+							break;
+						}
+					}
+				}
 			}
+
+			List<ShippingOption> shippingOptions = shippingQuoteAggregator.getShippingQuotes(carriers, shippingQuote, packages, orderTotal, delivery, shippingOrigin, store, shippingConfiguration, locale);
 			
 			if(shippingOptions==null && !StringUtils.isBlank(delivery.getPostalCode())) {
 				
@@ -596,7 +581,9 @@ public class ShippingServiceImpl implements ShippingService {
 					//set price text
 					String priceText = pricingService.getDisplayAmount(option.getOptionPrice(), store);
 					option.setOptionPriceText(priceText);
-					option.setShippingModuleCode(moduleName);
+					if(option.getShippingModuleCode() == null) {
+						option.setShippingModuleCode(moduleName);
+					}
 				
 					if(StringUtils.isBlank(option.getOptionName())) {
 						
@@ -648,6 +635,9 @@ public class ShippingServiceImpl implements ShippingService {
 				}
 				
 				shippingQuote.setSelectedShippingOption(selectedOption);
+				if(selectedOption!=null) {
+					shippingQuote.setShippingModuleCode(selectedOption.getShippingModuleCode());
+				}
 				
 				if(selectedOption!=null && !shippingOptionPriceType.name().equals(ShippingOptionPriceType.ALL.name())) {
 					shippingOptions = new ArrayList<ShippingOption>();
@@ -827,10 +817,8 @@ public class ShippingServiceImpl implements ShippingService {
 		
 		
 		//transform a list of string to json entry
-		ObjectMapper mapper = new ObjectMapper();
-		
 		try {
-			String value  = mapper.writeValueAsString(countryCodes);
+			String value  = JsonUtils.MAPPER.writeValueAsString(countryCodes);
 			
 			MerchantConfiguration configuration = merchantConfigurationService.getMerchantConfiguration(SUPPORTED_COUNTRIES, store);
 			
@@ -17,10 +17,32 @@ public interface ShoppingCartService extends SalesManagerEntityService<Long, Sho
 
 	void saveOrUpdate(ShoppingCart shoppingCart) throws ServiceException;
 
+	/**
+	 * Saves the cart and refreshes products and prices of its items on the
+	 * saved instance, products are loaded in one query and the cart is not
+	 * read again
+	 * 
+	 * @param shoppingCart
+	 * @return saved cart, null when it has no valid item left and was removed
+	 * @throws ServiceException
+	 */
+	ShoppingCart saveAndRefresh(ShoppingCart shoppingCart) throws ServiceException;
+
 	ShoppingCart getById(Long id, MerchantStore store) throws ServiceException;
 
 	ShoppingCart getByCode(String code, MerchantStore store) throws ServiceException;
 
+	/**
+	 * Version of a cart read in one query without loading it, it changes
+	 * when the cart or one of its items is saved and when an item is removed
+	 * 
+	 * @param code
+	 * @param store
+	 * @return version, null when the cart does not exist
+	 * @throws ServiceException
+	 */
+	String getVersion(String code, MerchantStore store) throws ServiceException;
+
 	//ShoppingCart getByCustomer(Customer customer) throws ServiceException;
 
 	/**
@@ -6,8 +6,8 @@ import com.salesmanager.core.business.repositories.shoppingcart.ShoppingCartItem
 import com.salesmanager.core.business.repositories.shoppingcart.ShoppingCartRepository;
 import com.salesmanager.core.business.services.catalog.product.PricingService;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
-import com.salesmanager.core.business.services.catalog.product.attribute.ProductAttributeService;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.attribute.ProductAttribute;
 import com.salesmanager.core.model.catalog.product.price.FinalPrice;
@@ -28,8 +28,12 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.inject.Inject;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -51,9 +55,6 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 	@Inject
 	private PricingService pricingService;
 
-	@Inject
-	private ProductAttributeService productAttributeService;
-
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ShoppingCartServiceImpl.class);
 
@@ -109,14 +110,7 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 		Validate.notNull(shoppingCart.getMerchantStore(), "ShoppingCart.merchantStore must not be null");
 
 
-		try {
-			UserContext userContext = UserContext.getCurrentInstance();
-			if(userContext!=null) {
-				shoppingCart.setIpAddress(userContext.getIpAddress());
-			}
-		} catch(Exception s) {
-			LOGGER.error("Cannot add ip address to shopping cart ", s);
-		}
+		setIpAddress(shoppingCart);
 
 
 		if (shoppingCart.getId() == null || shoppingCart.getId() == 0) {
@@ -129,6 +123,48 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 
 	}
 
+	/**
+	 * Save a {@link ShoppingCart} then refresh products and prices of its
+	 * items on the saved instance instead of reading the cart again. The
+	 * cart is removed and null is returned when no valid item is left.
+	 */
+	@Override
+	@Transactional
+	public ShoppingCart saveAndRefresh(ShoppingCart shoppingCart) throws ServiceException {
+
+		Validate.notNull(shoppingCart, "ShoppingCart must not be null");
+		Validate.notNull(shoppingCart.getMerchantStore(), "ShoppingCart.merchantStore must not be null");
+
+		setIpAddress(shoppingCart);
+
+		try {
+			ShoppingCart saved = saveAndFlush(shoppingCart);
+			getPopulatedShoppingCart(saved);
+
+			if (saved.isObsolete()) {
+				delete(saved);
+				return null;
+			}
+			return saved;
+		} catch (ServiceException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ServiceException(e);
+		}
+
+	}
+
+	private void setIpAddress(ShoppingCart shoppingCart) {
+		try {
+			UserContext userContext = UserContext.getCurrentInstance();
+			if(userContext!=null) {
+				shoppingCart.setIpAddress(userContext.getIpAddress());
+			}
+		} catch(Exception s) {
+			LOGGER.error("Cannot add ip address to shopping cart ", s);
+		}
+	}
+
 	/**
 	 * Get a {@link ShoppingCart} for a given id and MerchantStore. Will update
 	 * the shopping cart prices and items based on the actual inventory. This
@@ -259,11 +295,12 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 
 				}
 
-				// Set<ShoppingCartItem> shoppingCartItems = new
-				// HashSet<ShoppingCartItem>();
+				// products and their attributes of all items in one query
+				Map<Long, Product> products = loadProducts(items);
+
 				for (ShoppingCartItem item : items) {
 					LOGGER.debug("Populate item " + item.getId());
-					getPopulatedItem(item);
+					getPopulatedItem(item, products.get(item.getProductId()));
 					LOGGER.debug("Obsolete item ? " + item.isObsolete());
 					if (item.isObsolete()) {
 						cartIsObsolete = true;
@@ -307,13 +344,38 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 
 	}
 
-	@Transactional
-	private void getPopulatedItem(final ShoppingCartItem item) throws Exception {
+	/**
+	 * Products of the given items by id
+	 */
+	private Map<Long, Product> loadProducts(final Collection<ShoppingCartItem> items) {
+		Set<Long> productIds = new HashSet<Long>();
+		for (ShoppingCartItem item : items) {
+			if (item.getProductId() != null) {
+				productIds.add(item.getProductId());
+			}
+		}
+		Map<Long, Product> products = new HashMap<Long, Product>();
+		for (Product product : productService.listByIds(productIds)) {
+			products.put(product.getId(), product);
+		}
+		return products;
+	}
 
-		Product product = null;
+	/**
+	 * Attribute of a product loaded with its attributes
+	 */
+	private ProductAttribute getProductAttribute(final Product product, final Long attributeId) {
+		if (product.getAttributes() != null) {
+			for (ProductAttribute productAttribute : product.getAttributes()) {
+				if (productAttribute.getId().equals(attributeId)) {
+					return productAttribute;
+				}
+			}
+		}
+		return null;
+	}
 
-		Long productId = item.getProductId();
-		product = productService.getById(productId);
+	private void getPopulatedItem(final ShoppingCartItem item, final Product product) throws Exception {
 
 		if (product == null) {
 			item.setObsolete(true);
@@ -407,6 +469,7 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 	@Override
 	public void removeShoppingCart(final ShoppingCart cart) throws ServiceException {
 		shoppingCartRepository.delete(cart);
+		publishChange(cart, ChangeType.DELETE);
 	}
 
 	@Override
@@ -464,8 +527,9 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 		Set<ShoppingCartItem> shoppingCartItemsSet = null;
 		if (CollectionUtils.isNotEmpty(sessionCart.getLineItems())) {
 			shoppingCartItemsSet = new HashSet<ShoppingCartItem>();
+			Map<Long, Product> products = loadProducts(sessionCart.getLineItems());
 			for (ShoppingCartItem shoppingCartItem : sessionCart.getLineItems()) {
-				Product product = productService.getById(shoppingCartItem.getProductId());
+				Product product = products.get(shoppingCartItem.getProductId());
 				if (product == null) {
 					throw new Exception("Item with id " + shoppingCartItem.getProductId() + " does not exist");
 				}
@@ -484,10 +548,9 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 					cartAttributes.addAll(shoppingCartItem.getAttributes());
 					if (CollectionUtils.isNotEmpty(cartAttributes)) {
 						for (ShoppingCartAttributeItem shoppingCartAttributeItem : cartAttributes) {
-							ProductAttribute productAttribute = productAttributeService
-									.getById(shoppingCartAttributeItem.getId());
-							if (productAttribute != null
-									&& productAttribute.getProduct().getId().longValue() == product.getId().longValue()) {
+							ProductAttribute productAttribute = getProductAttribute(product,
+									shoppingCartAttributeItem.getId());
+							if (productAttribute != null) {
 	
 								ShoppingCartAttributeItem attributeItem = new ShoppingCartAttributeItem(item,
 										productAttribute);
@@ -508,6 +571,35 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 		return shoppingCartItemsSet;
 	}
 
+	@Override
+	public String getVersion(final String code, final MerchantStore store) throws ServiceException {
+
+		try {
+			List<Object[]> versions = shoppingCartRepository.findVersionByCode(store.getId(), code);
+			if (versions.isEmpty()) {
+				return null;
+			}
+			Object[] version = versions.get(0);
+			return version((Long) version[0], (Long) version[1], (String) version[2], (Date) version[3],
+					((Number) version[4]).longValue(), version[5] == null ? 0 : ((Number) version[5]).longValue());
+		} catch (Exception e) {
+			throw new ServiceException(e);
+		}
+
+	}
+
+	/**
+	 * Cart fields and last item modification, the modification date of the
+	 * cart itself is not used as reading the cart changes it. Item changes
+	 * made in the same second on databases not storing milliseconds are told
+	 * apart by the number of items and their quantities.
+	 */
+	private static String version(Long customerId, Long orderId, String promoCode, Date itemModified, long items,
+			long quantity) {
+		return customerId + "_" + orderId + "_" + promoCode + "_" + (itemModified == null ? 0 : itemModified.getTime())
+				+ "_" + items + "_" + quantity;
+	}
+
 	@Override
 	@Transactional
 	public void deleteShoppingCartItem(Long id) {
@@ -529,6 +621,13 @@ public class ShoppingCartServiceImpl extends SalesManagerEntityServiceImpl<Long,
 			//delete
 			shoppingCartItemRepository.deleteById(id);
 
+			//the cart content changed
+			ShoppingCart cart = item.getShoppingCart();
+			if(cart != null) {
+				cart.getShoppingCartCode(); //initialize before the session closes
+				publishChange(cart, ChangeType.SAVE);
+			}
+
 
 		}
 
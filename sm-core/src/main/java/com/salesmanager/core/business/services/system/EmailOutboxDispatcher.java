@@ -0,0 +1,289 @@
+package com.salesmanager.core.business.services.system;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.salesmanager.core.business.constants.Constants;
+import com.salesmanager.core.business.modules.email.Email;
+import com.salesmanager.core.business.modules.email.EmailConfig;
+import com.salesmanager.core.business.modules.email.HtmlEmailSender;
+import com.salesmanager.core.business.repositories.system.EmailOutboxRepository;
+import com.salesmanager.core.business.services.merchant.MerchantStoreService;
+import com.salesmanager.core.business.utils.JsonUtils;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.system.EmailOutbox;
+
+/**
+ * Sends the emails queued in the EMAIL_OUTBOX table.
+ *
+ * The outbox is polled every config.email.outbox.pollInterval seconds and
+ * right after a transaction that queued an email commits. Each due email
+ * is claimed before being sent so that several nodes can share the
+ * outbox, claimed emails are grouped by store and each group is sent over
+ * a single connection to the store mail server on a bounded worker pool.
+ * An email that fails is retried after config.email.outbox.retryDelay
+ * seconds, doubled on each attempt, and marked failed after
+ * config.email.outbox.maxAttempts attempts.
+ */
+@Component
+public class EmailOutboxDispatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EmailOutboxDispatcher.class);
+
+	private static final int MAX_ERROR_LENGTH = 1000;
+
+	@Inject
+	private EmailOutboxRepository outboxRepository;
+
+	@Inject
+	private MerchantStoreService merchantStoreService;
+
+	@Inject
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
+
+	@Inject
+	private HtmlEmailSender sender;
+
+	@Value("${config.email.outbox.enabled:true}")
+	private boolean enabled;
+
+	@Value("${config.email.outbox.threads:4}")
+	private int threads;
+
+	@Value("${config.email.outbox.batchSize:50}")
+	private int batchSize;
+
+	@Value("${config.email.outbox.pollInterval:10}")
+	private long pollInterval;
+
+	@Value("${config.email.outbox.lease:300}")
+	private long lease;
+
+	@Value("${config.email.outbox.maxAttempts:8}")
+	private int maxAttempts;
+
+	@Value("${config.email.outbox.retryDelay:30}")
+	private long retryDelay;
+
+	@Value("${config.email.outbox.retention:7}")
+	private long retention;
+
+	private ThreadPoolExecutor executor;
+
+	private ScheduledExecutorService poller;
+
+	/**
+	 * a drain is already waiting for the poller thread
+	 */
+	private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 4), r -> {
+			Thread t = new Thread(r, "email-outbox-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+
+		poller = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "email-outbox-poller");
+			t.setDaemon(true);
+			return t;
+		});
+
+		if (enabled) {
+			poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		poller.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Sends the due emails once the current transaction commits, or now
+	 * when there is no transaction
+	 */
+	public void wakeUpAfterCommit() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					wakeUp();
+				}
+			});
+		} else {
+			wakeUp();
+		}
+	}
+
+	public void wakeUp() {
+		if (enabled && wakeUpPending.compareAndSet(false, true)) {
+			poller.execute(() -> {
+				wakeUpPending.set(false);
+				drain();
+			});
+		}
+	}
+
+	private void poll() {
+		drain();
+		try {
+			outboxRepository.deleteSentBefore(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retention)));
+		} catch (Exception e) {
+			LOGGER.error("Cannot purge sent emails", e);
+		}
+	}
+
+	/**
+	 * Claims and sends due emails, batch after batch, until none is due
+	 * @return number of emails claimed
+	 */
+	public int drain() {
+		int processed = 0;
+		try {
+			while (true) {
+				Date now = new Date();
+				Date until = new Date(now.getTime() + TimeUnit.SECONDS.toMillis(lease));
+				List<Long> due = outboxRepository.findDue(now, PageRequest.of(0, batchSize));
+
+				List<Long> claimed = new ArrayList<Long>();
+				for (Long id : due) {
+					if (outboxRepository.claim(id, now, until) == 1) {
+						claimed.add(id);
+					}
+				}
+				if (!claimed.isEmpty()) {
+					deliver(outboxRepository.findAllById(claimed));
+					processed += claimed.size();
+				}
+
+				if (due.size() < batchSize) {
+					return processed;
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.error("Cannot send emails from the outbox", e);
+			return processed;
+		}
+	}
+
+	private void deliver(List<EmailOutbox> emails) throws Exception {
+		Map<Integer, List<EmailOutbox>> byStore = new LinkedHashMap<Integer, List<EmailOutbox>>();
+		for (EmailOutbox email : emails) {
+			byStore.computeIfAbsent(email.getStoreId(), k -> new ArrayList<EmailOutbox>()).add(email);
+		}
+
+		List<Future<?>> batches = new ArrayList<Future<?>>();
+		for (Map.Entry<Integer, List<EmailOutbox>> store : byStore.entrySet()) {
+			batches.add(executor.submit(() -> send(store.getKey(), store.getValue())));
+		}
+		for (Future<?> batch : batches) {
+			batch.get();
+		}
+	}
+
+	private void send(Integer storeId, List<EmailOutbox> rows) {
+		Map<Email, EmailOutbox> emails = new LinkedHashMap<Email, EmailOutbox>();
+		for (EmailOutbox row : rows) {
+			try {
+				emails.put(JsonUtils.readValue(row.getEmail(), Email.class), row);
+			} catch (Exception e) {
+				failed(row, e, true);
+			}
+		}
+
+		Map<Email, Exception> failures = new LinkedHashMap<Email, Exception>();
+		boolean permanent = false;
+		if (!emails.isEmpty()) {
+			try {
+				MerchantStore store = merchantStoreService.getById(storeId);
+				if (store == null) {
+					permanent = true;
+					throw new IllegalStateException("Store " + storeId + " does not exist");
+				}
+				EmailConfig emailConfig = merchantConfigurationRegistry.get(store, Constants.EMAIL_CONFIG,
+						value -> JsonUtils.readValue(value, EmailConfig.class));
+				failures = sender.send(emailConfig, new ArrayList<Email>(emails.keySet()));
+			} catch (Exception e) {
+				for (Email email : emails.keySet()) {
+					failures.put(email, e);
+				}
+			}
+		}
+
+		for (Map.Entry<Email, EmailOutbox> email : emails.entrySet()) {
+			Exception failure = failures.get(email.getKey());
+			if (failure == null) {
+				sent(email.getValue());
+			} else {
+				failed(email.getValue(), failure, permanent);
+			}
+		}
+
+		try {
+			outboxRepository.saveAll(rows);
+		} catch (Exception e) {
+			// claimed emails are sent again once their lease expires
+			LOGGER.error("Cannot update emails of store " + storeId + " in the outbox", e);
+		}
+	}
+
+	private void sent(EmailOutbox email) {
+		email.setStatus(EmailOutbox.Status.SENT);
+		email.setAttempts(email.getAttempts() + 1);
+		email.setDateSent(new Date());
+		email.setLastError(null);
+	}
+
+	private void failed(EmailOutbox email, Exception failure, boolean permanent) {
+		email.setAttempts(email.getAttempts() + 1);
+		email.setLastError(StringUtils.abbreviate(String.valueOf(failure), MAX_ERROR_LENGTH));
+		if (permanent || email.getAttempts() >= maxAttempts) {
+			email.setStatus(EmailOutbox.Status.FAILED);
+			LOGGER.error("Giving up email " + email.getId() + " after " + email.getAttempts() + " attempts", failure);
+			return;
+		}
+		email.setStatus(EmailOutbox.Status.PENDING);
+		email.setNextAttempt(new Date(System.currentTimeMillis() + retryDelay(email.getAttempts())));
+		LOGGER.warn("Cannot send email " + email.getId() + ", attempt " + email.getAttempts() + ": " + failure);
+	}
+
+	/**
+	 * @return milliseconds before the next attempt, retryDelay seconds
+	 *         doubled after each attempt, at most a day
+	 */
+	private long retryDelay(int attempts) {
+		long delay = TimeUnit.SECONDS.toMillis(retryDelay) << Math.min(attempts - 1, 20);
+		return Math.min(delay, TimeUnit.DAYS.toMillis(1));
+	}
+
+}
@@ -10,6 +10,13 @@ import com.salesmanager.core.model.merchant.MerchantStore;
 
 public interface EmailService {
 
+	/**
+	 * Queues the email in the outbox, within the current transaction when
+	 * there is one. It is sent by {@link EmailOutboxDispatcher} once the
+	 * transaction commits.
+	 * @param store sending store, its email configuration is used
+	 * @param email
+	 */
 	void sendHtmlEmail(MerchantStore store, Email email) throws ServiceException, Exception;
 	
 	EmailConfig getEmailConfiguration(MerchantStore store) throws ServiceException;
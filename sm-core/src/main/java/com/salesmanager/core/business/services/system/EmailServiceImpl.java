@@ -4,13 +4,14 @@ import javax.inject.Inject;
 
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.constants.Constants;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.modules.email.Email;
 import com.salesmanager.core.business.modules.email.EmailConfig;
-import com.salesmanager.core.business.modules.email.HtmlEmailSender;
+import com.salesmanager.core.business.repositories.system.EmailOutboxRepository;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.system.EmailOutbox;
 import com.salesmanager.core.model.system.MerchantConfiguration;
 
 @Service("emailService")
@@ -20,33 +21,26 @@ public class EmailServiceImpl implements EmailService {
 	private MerchantConfigurationService merchantConfigurationService;
 	
 	@Inject
-	private HtmlEmailSender sender;
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
+	
+	@Inject
+	private EmailOutboxRepository emailOutboxRepository;
+	
+	@Inject
+	private EmailOutboxDispatcher emailOutboxDispatcher;
 	
 	@Override
 	public void sendHtmlEmail(MerchantStore store, Email email) throws ServiceException, Exception {
 
-		EmailConfig emailConfig = getEmailConfiguration(store);
-		
-		sender.setEmailConfig(emailConfig);
-		sender.send(email);
+		emailOutboxRepository.save(new EmailOutbox(store.getId(), JsonUtils.MAPPER.writeValueAsString(email)));
+		emailOutboxDispatcher.wakeUpAfterCommit();
 	}
 
 	@Override
 	public EmailConfig getEmailConfiguration(MerchantStore store) throws ServiceException {
 		
-		MerchantConfiguration configuration = merchantConfigurationService.getMerchantConfiguration(Constants.EMAIL_CONFIG, store);
-		EmailConfig emailConfig = null;
-		if(configuration!=null) {
-			String value = configuration.getValue();
-			
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				emailConfig = mapper.readValue(value, EmailConfig.class);
-			} catch(Exception e) {
-				throw new ServiceException("Cannot parse json string " + value);
-			}
-		}
-		return emailConfig;
+		return merchantConfigurationRegistry.get(store, Constants.EMAIL_CONFIG,
+				value -> JsonUtils.readValue(value, EmailConfig.class));
 	}
 	
 	
@@ -0,0 +1,152 @@
+package com.salesmanager.core.business.services.system;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.repositories.system.MerchantConfigurationRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Parsed MerchantConfiguration values of each store (tax, shipping, payment
+ * modules, merchant config...). The row is read, decrypted and parsed once,
+ * following reads return the same object. A key is always parsed to the same type.
+ *
+ * Objects returned are shared between threads, callers must not modify them
+ * unless they save them right after. Entries are dropped when a
+ * MerchantConfiguration is saved or deleted and after
+ * config.merchantConfiguration.ttl seconds to pick up changes made by other instances.
+ */
+@Component
+public class MerchantConfigurationRegistry {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MerchantConfigurationRegistry.class);
+
+	@Inject
+	private MerchantConfigurationRepository merchantConfigurationRepository;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Value("${config.merchantConfiguration.ttl:300}")
+	private long ttl;
+
+	@Value("${config.merchantConfiguration.size:10000}")
+	private long size;
+
+	private Cache<String, Optional<Object>> configurations;
+
+	/**
+	 * incremented on every invalidation, a value parsed while an invalidation
+	 * happened is returned but not kept
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	@FunctionalInterface
+	public interface Parser<T> {
+
+		/**
+		 * @param value raw value of the configuration, never blank
+		 */
+		T parse(String value) throws Exception;
+	}
+
+	@PostConstruct
+	public void init() {
+		configurations = CacheBuilder.newBuilder()
+				.maximumSize(size)
+				.expireAfterWrite(ttl, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, configurations, "shopizer.merchant.configuration");
+		}
+	}
+
+	/**
+	 * Parsed configuration of a store
+	 * @param store merchant store
+	 * @param key MerchantConfiguration key
+	 * @param parser converts the raw value, called on cache miss only
+	 * @return parsed value or null when the configuration does not exist or is blank
+	 * @throws ServiceException when the value cannot be parsed
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(MerchantStore store, String key, Parser<T> parser) throws ServiceException {
+
+		String cacheKey = key(store.getId(), key);
+		Optional<Object> configuration = configurations.getIfPresent(cacheKey);
+		if (configuration != null) {
+			return (T) configuration.orElse(null);
+		}
+
+		long readGeneration = generation.get();
+		MerchantConfiguration row = merchantConfigurationRepository.findByMerchantStoreAndKey(store.getId(), key);
+		T value = null;
+		if (row != null && row.getValue() != null && !row.getValue().trim().isEmpty()) {
+			try {
+				value = parser.parse(row.getValue());
+			} catch (ServiceException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ServiceException("Cannot parse configuration " + key + " of store " + store.getCode(), e);
+			}
+		}
+
+		if (readGeneration == generation.get()) {
+			configurations.put(cacheKey, Optional.ofNullable(value));
+		}
+		return value;
+	}
+
+	public void invalidate(Integer storeId, String key) {
+		generation.incrementAndGet();
+		configurations.invalidate(key(storeId, key));
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		configurations.invalidateAll();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (!event.isOfType(MerchantConfiguration.class)) {
+			return;
+		}
+		try {
+			MerchantConfiguration configuration = (MerchantConfiguration) event.getEntity();
+			if (configuration.getMerchantStore() != null && configuration.getMerchantStore().getId() != null) {
+				invalidate(configuration.getMerchantStore().getId(), configuration.getKey());
+				return;
+			}
+		} catch (Exception e) {
+			LOGGER.debug("Cannot read changed merchant configuration, clearing all", e);
+		}
+		invalidateAll();
+	}
+
+	private String key(Integer storeId, String key) {
+		return storeId + "_" + key;
+	}
+
+}
@@ -3,10 +3,10 @@ package com.salesmanager.core.business.services.system;
 import java.util.List;
 import javax.inject.Inject;
 import org.springframework.stereotype.Service;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.repositories.system.MerchantConfigurationRepository;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.system.MerchantConfig;
 import com.salesmanager.core.model.system.MerchantConfiguration;
@@ -19,6 +19,9 @@ public class MerchantConfigurationServiceImpl extends
 
 	private MerchantConfigurationRepository merchantConfigurationRepository;
 	
+	@Inject
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
+	
 	@Inject
 	public MerchantConfigurationServiceImpl(
 			MerchantConfigurationRepository merchantConfigurationRepository) {
@@ -67,20 +70,8 @@ public class MerchantConfigurationServiceImpl extends
 	@Override
 	public MerchantConfig getMerchantConfig(MerchantStore store) throws ServiceException {
 
-		MerchantConfiguration configuration = merchantConfigurationRepository.findByMerchantStoreAndKey(store.getId(), MerchantConfigurationType.CONFIG.name());
-		
-		MerchantConfig config = null;
-		if(configuration!=null) {
-			String value = configuration.getValue();
-			
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				config = mapper.readValue(value, MerchantConfig.class);
-			} catch(Exception e) {
-				throw new ServiceException("Cannot parse json string " + value);
-			}
-		}
-		return config;
+		return merchantConfigurationRegistry.get(store, MerchantConfigurationType.CONFIG.name(),
+				value -> JsonUtils.readValue(value, MerchantConfig.class));
 		
 	}
 	
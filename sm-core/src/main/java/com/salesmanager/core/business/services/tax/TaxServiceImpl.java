@@ -14,9 +14,10 @@ import javax.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.services.system.MerchantConfigurationRegistry;
 import com.salesmanager.core.business.services.system.MerchantConfigurationService;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.common.Billing;
 import com.salesmanager.core.model.common.Delivery;
 import com.salesmanager.core.model.customer.Customer;
@@ -44,6 +45,9 @@ public class TaxServiceImpl
 	@Inject
 	private MerchantConfigurationService merchantConfigurationService;
 	
+	@Inject
+	private MerchantConfigurationRegistry merchantConfigurationRegistry;
+	
 	@Inject
 	private TaxRateService taxRateService;
 	
@@ -52,22 +56,8 @@ public class TaxServiceImpl
 	
 	@Override
 	public TaxConfiguration getTaxConfiguration(MerchantStore store) throws ServiceException {
-		
-		
-		
-		MerchantConfiguration configuration = merchantConfigurationService.getMerchantConfiguration(TAX_CONFIGURATION, store);
-		TaxConfiguration taxConfiguration = null;
-		if(configuration!=null) {
-			String value = configuration.getValue();
-			
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				taxConfiguration = mapper.readValue(value, TaxConfiguration.class);
-			} catch(Exception e) {
-				throw new ServiceException("Cannot parse json string " + value);
-			}
-		}
-		return taxConfiguration;
+		return merchantConfigurationRegistry.get(store, TAX_CONFIGURATION,
+				value -> JsonUtils.readValue(value, TaxConfiguration.class));
 	}
 	
 	
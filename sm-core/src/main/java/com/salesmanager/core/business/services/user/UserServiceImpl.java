@@ -13,6 +13,7 @@ import org.springframework.data.domain.Pageable;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.repositories.user.PageableUserRepository;
 import com.salesmanager.core.business.repositories.user.UserRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
 import com.salesmanager.core.business.services.common.generic.SalesManagerEntityServiceImpl;
 import com.salesmanager.core.business.services.merchant.MerchantStoreService;
 import com.salesmanager.core.model.common.Criteria;
@@ -71,6 +72,7 @@ public class UserServiceImpl extends SalesManagerEntityServiceImpl<Long, User> i
 	@Override
 	public void saveOrUpdate(User user) throws ServiceException {
 		userRepository.save(user);
+		publishChange(user, ChangeType.SAVE);
 	}
 
 	@Override
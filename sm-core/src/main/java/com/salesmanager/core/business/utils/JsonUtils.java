@@ -0,0 +1,26 @@
+package com.salesmanager.core.business.utils;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Shared Jackson mapper. An ObjectMapper is thread safe once configured
+ * and keeps its serializers and deserializers cached, creating one per
+ * call throws that cache away.
+ */
+public final class JsonUtils {
+
+	/**
+	 * Default configured mapper, must not be reconfigured
+	 */
+	public static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private JsonUtils() {
+	}
+
+	public static <T> T readValue(String value, Class<T> type) throws IOException {
+		return MAPPER.readValue(value, type);
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.salesmanager.core.business.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Position of the last row of a page when listing with keyset pagination,
+ * the sort value and id of that row. Clients receive it as an opaque url
+ * safe token and send it back to get the next page, the next page query
+ * seeks past that row instead of skipping all previous rows.
+ */
+public final class PageCursor {
+
+	private static final String VERSION = "1";
+	private static final String DELIMITER = ":";
+
+	private final long sortKey;
+	private final long id;
+
+	public PageCursor(long sortKey, long id) {
+		this.sortKey = sortKey;
+		this.id = id;
+	}
+
+	public long getSortKey() {
+		return sortKey;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String encode() {
+		String value = VERSION + DELIMITER + sortKey + DELIMITER + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * @param token as returned by {@link #encode()}
+	 * @return cursor or null for a blank token, which asks for the first page
+	 * @throws IllegalArgumentException when the token was not created by this class
+	 */
+	public static PageCursor decode(String token) {
+		if (StringUtils.isBlank(token)) {
+			return null;
+		}
+		try {
+			String[] value = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.US_ASCII)
+					.split(DELIMITER);
+			if (value.length != 3 || !VERSION.equals(value[0])) {
+				throw new IllegalArgumentException("Invalid page cursor [" + token + "]");
+			}
+			return new PageCursor(Long.parseLong(value[1]), Long.parseLong(value[2]));
+		} catch (IllegalArgumentException e) {
+			//also NumberFormatException
+			throw new IllegalArgumentException("Invalid page cursor [" + token + "]", e);
+		}
+	}
+
+	public static boolean isValid(String token) {
+		try {
+			decode(token);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+}
@@ -1,9 +1,17 @@
 package com.salesmanager.core.business.utils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.persistence.Query;
 
 import com.salesmanager.core.model.common.Criteria;
+import com.salesmanager.core.model.common.EntityList;
 import com.salesmanager.core.model.common.GenericEntityList;
+import com.salesmanager.core.model.generic.SalesManagerEntity;
 
 /**
  * Helper for Spring Data JPA
@@ -39,4 +47,71 @@ public class RepositoryHelper {
 
 	}
 
+	/**
+	 * Keyset pagination. The query selects ids, or sort value and id, past
+	 * the cursor in list order. One more row than the page size is read to
+	 * know if another page follows, the cursor of that page is set on the
+	 * entity list.
+	 * @return ids of the page in list order
+	 */
+	public static List<Long> keysetPage(Query idQuery, Criteria criteria, EntityList entityList) {
+
+		int pageSize = pageSize(criteria);
+		idQuery.setMaxResults(pageSize + 1);
+		List<?> rows = idQuery.getResultList();
+
+		List<?> page = rows.subList(0, Math.min(pageSize, rows.size()));
+		List<Long> ids = ids(page);
+
+		if (rows.size() > pageSize) {
+			Object last = page.get(page.size() - 1);
+			long sortKey = last instanceof Object[] ? ((Number) ((Object[]) last)[0]).longValue() : ids.get(ids.size() - 1);
+			entityList.setNext(new PageCursor(sortKey, ids.get(ids.size() - 1)).encode());
+		} else {
+			entityList.setNext(null);
+		}
+		return ids;
+	}
+
+	/**
+	 * @param rows ids, or rows ending with the id
+	 */
+	public static List<Long> ids(List<?> rows) {
+		List<Long> ids = new ArrayList<Long>(rows.size());
+		for (Object row : rows) {
+			if (row instanceof Object[]) {
+				Object[] values = (Object[]) row;
+				ids.add(((Number) values[values.length - 1]).longValue());
+			} else {
+				ids.add(((Number) row).longValue());
+			}
+		}
+		return ids;
+	}
+
+	public static int pageSize(Criteria criteria) {
+		if (criteria.isLegacyPagination() && criteria.getMaxCount() > 0) {
+			return criteria.getMaxCount();
+		}
+		return criteria.getPageSize();
+	}
+
+	/**
+	 * Entities loaded with an in clause put back in the order of the ids
+	 */
+	public static <T extends SalesManagerEntity<Long, ?>> List<T> inIdOrder(Collection<T> entities, List<Long> ids) {
+		Map<Long, T> byId = new HashMap<Long, T>();
+		for (T entity : entities) {
+			byId.put(entity.getId(), entity);
+		}
+		List<T> ordered = new ArrayList<T>(ids.size());
+		for (Long id : ids) {
+			T entity = byId.get(id);
+			if (entity != null) {
+				ordered.add(entity);
+			}
+		}
+		return ordered;
+	}
+
 }
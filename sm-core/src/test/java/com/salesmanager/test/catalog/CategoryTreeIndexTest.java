@@ -0,0 +1,96 @@
+package com.salesmanager.test.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.repositories.catalog.category.CategoryRepository;
+import com.salesmanager.core.business.services.catalog.category.CategoryTreeIndex;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.model.catalog.category.Category;
+import com.salesmanager.core.model.merchant.MerchantStore;
+
+/**
+ * Category hierarchy resolved from (id, parent id) pairs
+ */
+public class CategoryTreeIndexTest {
+
+	private static final Integer STORE = 1;
+
+	private CategoryRepository repository;
+	private CategoryTreeIndex index;
+
+	@BeforeEach
+	public void setUp() {
+		/**
+		 * 1
+		 * |-2
+		 * | |-4
+		 * | |-5
+		 * |   |-7
+		 * |-3
+		 * 6
+		 */
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[] {1L, null});
+		rows.add(new Object[] {2L, 1L});
+		rows.add(new Object[] {3L, 1L});
+		rows.add(new Object[] {4L, 2L});
+		rows.add(new Object[] {5L, 2L});
+		rows.add(new Object[] {6L, null});
+		rows.add(new Object[] {7L, 5L});
+
+		repository = mock(CategoryRepository.class);
+		when(repository.findHierarchy(STORE)).thenReturn(rows);
+
+		index = new CategoryTreeIndex();
+		ReflectionTestUtils.setField(index, "categoryRepository", repository);
+		ReflectionTestUtils.setField(index, "ttl", 300L);
+	}
+
+	@Test
+	public void subtreeAncestorsAndDepth() {
+		assertEquals(Arrays.asList(2L, 4L, 5L, 7L), index.subtree(STORE, 2L));
+		assertEquals(Arrays.asList(4L, 5L, 7L), index.descendants(STORE, 2L));
+		assertEquals(Arrays.asList(4L, 5L), index.children(STORE, 2L));
+		assertEquals(Arrays.asList(1L, 2L, 5L), index.ancestors(STORE, 7L));
+		assertEquals(Collections.emptyList(), index.ancestors(STORE, 6L));
+		assertEquals(3, index.depth(STORE, 7L));
+		assertEquals(0, index.depth(STORE, 1L));
+		assertEquals(-1, index.depth(STORE, 99L));
+		assertTrue(index.subtree(STORE, 99L).isEmpty());
+		assertFalse(index.contains(STORE, 99L));
+
+		// one query for all lookups
+		verify(repository, times(1)).findHierarchy(STORE);
+	}
+
+	@Test
+	public void categoryChangeReloadsStoreTree() {
+		index.subtree(STORE, 1L);
+
+		MerchantStore store = new MerchantStore();
+		store.setId(STORE);
+		Category category = new Category();
+		category.setMerchantStore(store);
+		index.onEntityChange(new EntityChangeEvent(this, category, ChangeType.SAVE));
+
+		index.subtree(STORE, 1L);
+		verify(repository, times(2)).findHierarchy(STORE);
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.salesmanager.test.catalog;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
+import com.salesmanager.core.model.catalog.product.description.ProductDescription;
+import com.salesmanager.core.model.catalog.product.type.ProductType;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+
+/**
+ * Concurrent orders against the H2 database never sell more than the
+ * inventory of the all regions availability
+ */
+public class InventoryDecrementTest extends com.salesmanager.test.common.AbstractSalesManagerCoreTestCase {
+
+	private static final int QUANTITY = 10;
+	private static final int ORDERS = 40;
+
+	@Test
+	public void concurrentOrdersDoNotOversell() throws Exception {
+
+		Language en = languageService.getByCode("en");
+		MerchantStore store = merchantService.getByCode(MerchantStore.DEFAULT_STORE);
+		ProductType generalType = productTypeService.getProductType(ProductType.GENERAL_TYPE);
+
+		Product product = new Product();
+		product.setProductWeight(new BigDecimal(1));
+		product.setSku("OVERSELL" + System.currentTimeMillis());
+		product.setType(generalType);
+		product.setMerchantStore(store);
+
+		ProductDescription description = new ProductDescription();
+		description.setName("Limited edition");
+		description.setLanguage(en);
+		description.setProduct(product);
+		product.getDescriptions().add(description);
+
+		ProductAvailability regional = availability(product, "CA", 1000);
+		ProductAvailability inventory = availability(product, "*", QUANTITY);
+
+		productService.create(product);
+		Long productId = product.getId();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> orders = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < ORDERS; i++) {
+			String cartCode = "oversell-" + i;
+			orders.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					start.await();
+					try {
+						productAvailabilityService.decrementInventory(cartCode, Collections.singletonMap(productId, 1));
+						return true;
+					} catch (ServiceException e) {
+						Assert.assertEquals(ServiceException.EXCEPTION_INVENTORY_MISMATCH, e.getExceptionType());
+						return false;
+					}
+				}
+			}));
+		}
+		start.countDown();
+
+		int sold = 0;
+		for (Future<Boolean> order : orders) {
+			if (order.get(60, TimeUnit.SECONDS)) {
+				sold++;
+			}
+		}
+		executor.shutdown();
+
+		Assert.assertEquals(QUANTITY, sold);
+		Assert.assertEquals(0, productAvailabilityService.getById(inventory.getId(), store).get().getProductQuantity().intValue());
+		//other availabilities are not decremented
+		Assert.assertEquals(1000, productAvailabilityService.getById(regional.getId(), store).get().getProductQuantity().intValue());
+	}
+
+	private ProductAvailability availability(Product product, String region, int quantity) {
+		ProductAvailability availability = new ProductAvailability();
+		availability.setProductQuantity(quantity);
+		availability.setRegion(region);
+		availability.setProduct(product);
+		product.getAvailabilities().add(availability);
+		return availability;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.salesmanager.test.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.catalog.product.availability.InventoryReservationLedger;
+
+/**
+ * Concurrent carts reserving the same product
+ */
+public class InventoryReservationLedgerTest {
+
+	private InventoryReservationLedger ledger(long ttl) {
+		InventoryReservationLedger ledger = new InventoryReservationLedger();
+		ReflectionTestUtils.setField(ledger, "reservationTtl", ttl);
+		return ledger;
+	}
+
+	@Test
+	public void concurrentCartsNeverOversell() throws Exception {
+		InventoryReservationLedger ledger = ledger(600);
+		int stock = 50;
+		int carts = 200;
+
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < carts; i++) {
+			String cart = "cart-" + i;
+			results.add(executor.submit(() -> {
+				start.await();
+				return ledger.reserve(cart, 1L, 1, stock);
+			}));
+		}
+		start.countDown();
+
+		int reserved = 0;
+		for (Future<Boolean> result : results) {
+			if (result.get(10, TimeUnit.SECONDS)) {
+				reserved++;
+			}
+		}
+		executor.shutdown();
+
+		assertEquals(stock, reserved);
+		assertEquals(stock, ledger.reservedByOthers(1L, "none"));
+	}
+
+	@Test
+	public void releaseAndExpiration() throws Exception {
+		InventoryReservationLedger ledger = ledger(600);
+		assertTrue(ledger.reserve("a", 1L, 3, 5));
+		assertFalse(ledger.reserve("b", 1L, 3, 5));
+		//a cart replacing its own reservation is not counted twice
+		assertTrue(ledger.reserve("a", 1L, 4, 5));
+		assertEquals(4, ledger.reservedByOthers(1L, "b"));
+		assertEquals(0, ledger.reservedByOthers(1L, "a"));
+
+		ledger.release("a");
+		assertTrue(ledger.reserve("b", 1L, 5, 5));
+
+		InventoryReservationLedger expiring = ledger(0);
+		assertTrue(expiring.reserve("a", 2L, 5, 5));
+		Thread.sleep(5);
+		assertTrue(expiring.reserve("b", 2L, 5, 5));
+	}
+
+}
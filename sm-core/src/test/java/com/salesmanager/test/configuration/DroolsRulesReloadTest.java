@@ -0,0 +1,91 @@
+package com.salesmanager.test.configuration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.configuration.DroolsBeanFactory;
+
+/**
+ * Rule files modified on the file system are compiled again
+ */
+public class DroolsRulesReloadTest {
+
+	private static final String RULE = "ReloadTest.drl";
+
+	@TempDir
+	Path classpath;
+
+	private Path file;
+	private ClassLoader previous;
+	private DroolsBeanFactory factory;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		file = classpath.resolve("com/salesmanager/drools/rules/" + RULE);
+		Files.createDirectories(file.getParent());
+		write("first", 0);
+
+		previous = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(
+				new URLClassLoader(new URL[] { classpath.toUri().toURL() }, previous));
+
+		factory = new DroolsBeanFactory();
+		ReflectionTestUtils.setField(factory, "reloadInterval", 1L);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		Thread.currentThread().setContextClassLoader(previous);
+	}
+
+	@Test
+	public void modifiedRuleFileIsRecompiled() throws Exception {
+		assertEquals("first", fire());
+
+		write("second", 5000);
+		//not checked before the reload interval
+		assertEquals("first", fire());
+
+		Thread.sleep(1100);
+		assertEquals("second", fire());
+		assertEquals("second", fire());
+	}
+
+	@Test
+	public void unmodifiedRuleFileIsKept() throws Exception {
+		assertEquals("first", fire());
+		Thread.sleep(1100);
+		assertEquals("first", fire());
+	}
+
+	private String fire() {
+		StringBuilder fired = new StringBuilder();
+		factory.getStatelessKieSession(RULE).execute(fired);
+		return fired.toString();
+	}
+
+	private void write(String value, long offset) throws Exception {
+		String drl = "package com.salesmanager.drools.rules;\n"
+				+ "rule \"reload\"\n"
+				+ "when\n"
+				+ "  $fired : java.lang.StringBuilder()\n"
+				+ "then\n"
+				+ "  $fired.append(\"" + value + "\");\n"
+				+ "end\n";
+		Files.write(file, drl.getBytes(StandardCharsets.UTF_8));
+		//file systems with a coarse modification time would not see the change
+		file.toFile().setLastModified(System.currentTimeMillis() + offset);
+	}
+
+}
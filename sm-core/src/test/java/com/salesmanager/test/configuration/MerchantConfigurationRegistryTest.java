@@ -0,0 +1,107 @@
+package com.salesmanager.test.configuration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.repositories.system.MerchantConfigurationRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.business.services.system.MerchantConfigurationRegistry;
+import com.salesmanager.core.business.utils.JsonUtils;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+import com.salesmanager.core.model.tax.TaxBasisCalculation;
+import com.salesmanager.core.model.tax.TaxConfiguration;
+
+/**
+ * Parsed merchant configurations kept until the configuration changes
+ */
+public class MerchantConfigurationRegistryTest {
+
+	private static final String TAX = "TAX_CONFIG";
+
+	private MerchantConfigurationRepository repository;
+	private MerchantConfigurationRegistry registry;
+	private MerchantStore store;
+	private MerchantConfiguration row;
+	private final AtomicInteger parsed = new AtomicInteger();
+
+	@BeforeEach
+	public void setUp() {
+		store = new MerchantStore();
+		store.setId(1);
+		store.setCode(MerchantStore.DEFAULT_STORE);
+
+		TaxConfiguration tax = new TaxConfiguration();
+		tax.setTaxBasisCalculation(TaxBasisCalculation.BILLINGADDRESS);
+		row = new MerchantConfiguration();
+		row.setKey(TAX);
+		row.setMerchantStore(store);
+		row.setValue(tax.toJSONString());
+
+		repository = mock(MerchantConfigurationRepository.class);
+		when(repository.findByMerchantStoreAndKey(1, TAX)).thenReturn(row);
+
+		registry = new MerchantConfigurationRegistry();
+		ReflectionTestUtils.setField(registry, "merchantConfigurationRepository", repository);
+		ReflectionTestUtils.setField(registry, "ttl", 300L);
+		ReflectionTestUtils.setField(registry, "size", 100L);
+		registry.init();
+	}
+
+	private TaxConfiguration tax() throws ServiceException {
+		return registry.get(store, TAX, value -> {
+			parsed.incrementAndGet();
+			return JsonUtils.readValue(value, TaxConfiguration.class);
+		});
+	}
+
+	@Test
+	public void parsedOnce() throws Exception {
+		TaxConfiguration first = tax();
+		assertEquals(TaxBasisCalculation.BILLINGADDRESS, first.getTaxBasisCalculation());
+		assertSame(first, tax());
+		assertEquals(1, parsed.get());
+		verify(repository, times(1)).findByMerchantStoreAndKey(1, TAX);
+	}
+
+	@Test
+	public void reloadedAfterSave() throws Exception {
+		tax();
+
+		TaxConfiguration changed = new TaxConfiguration();
+		changed.setTaxBasisCalculation(TaxBasisCalculation.SHIPPINGADDRESS);
+		row.setValue(changed.toJSONString());
+		registry.onEntityChange(new EntityChangeEvent(this, row, ChangeType.SAVE));
+
+		assertEquals(TaxBasisCalculation.SHIPPINGADDRESS, tax().getTaxBasisCalculation());
+		assertEquals(2, parsed.get());
+	}
+
+	@Test
+	public void missingConfigurationCached() throws Exception {
+		assertNull(registry.get(store, "NONE", value -> "parsed"));
+		assertNull(registry.get(store, "NONE", value -> "parsed"));
+		verify(repository, times(1)).findByMerchantStoreAndKey(1, "NONE");
+	}
+
+	@Test
+	public void invalidValue() {
+		row.setValue("{not json");
+		assertThrows(ServiceException.class, this::tax);
+	}
+
+}
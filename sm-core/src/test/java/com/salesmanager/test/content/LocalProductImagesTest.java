@@ -0,0 +1,208 @@
+package com.salesmanager.test.content;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.modules.cms.impl.LocalCacheManagerImpl;
+import com.salesmanager.core.business.modules.cms.impl.StoreCacheManagerImpl;
+import com.salesmanager.core.business.modules.cms.product.ProductAssetsManager;
+import com.salesmanager.core.business.modules.cms.product.local.CmsImageFileManagerImpl;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.file.ProductImageSize;
+import com.salesmanager.core.model.catalog.product.image.ProductImage;
+import com.salesmanager.core.model.content.FileContentType;
+import com.salesmanager.core.model.content.ImageContentFile;
+import com.salesmanager.core.model.content.OutputContentFile;
+import com.salesmanager.core.model.merchant.MerchantStore;
+
+/**
+ * Product images stored on the local file system.
+ *
+ * The benchmark stores small images in the local backend and in the
+ * Infinispan tree cache then reads random images and logs the time and the
+ * memory allocated per read, it runs with -Dbenchmark.images=1000000
+ */
+public class LocalProductImagesTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalProductImagesTest.class);
+
+	@TempDir
+	Path root;
+
+	private CmsImageFileManagerImpl manager;
+
+	private MerchantStore store;
+
+	@BeforeEach
+	public void setUp() {
+		manager = local(root, 1024);
+		store = new MerchantStore(1, MerchantStore.DEFAULT_STORE, "store");
+	}
+
+	@Test
+	public void smallImageServedFromCache() throws Exception {
+		byte[] content = bytes(512);
+		manager.addProductImage(image("SKU1", "small.jpg"), content("small.jpg", content, FileContentType.PRODUCT));
+
+		Path file = root.resolve("products").resolve(MerchantStore.DEFAULT_STORE)
+				.resolve(CmsImageFileManagerImpl.shard("SKU1")).resolve("SKU1").resolve("SMALL").resolve("small.jpg");
+		assertTrue(Files.isRegularFile(file));
+		try (Stream<Path> files = Files.list(file.getParent())) {
+			assertEquals(1, files.count(), "temporary file left");
+		}
+
+		OutputContentFile first = manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "small.jpg");
+		assertNull(first.getPath());
+		assertArrayEquals(content, first.getFile().toByteArray());
+
+		Files.write(file, bytes(10));
+		OutputContentFile second = manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "small.jpg");
+		assertArrayEquals(content, second.getFile().toByteArray(), "served from cache");
+
+		manager.addProductImage(image("SKU1", "small.jpg"), content("small.jpg", bytes(20), FileContentType.PRODUCT));
+		assertEquals(20, manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "small.jpg").getFile().size());
+	}
+
+	@Test
+	public void largeImageStreamedFromDisk() throws Exception {
+		manager.addProductImage(image("SKU1", "large.jpg"), content("large.jpg", bytes(4096), FileContentType.PRODUCTLG));
+
+		OutputContentFile file = manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "large.jpg",
+				ProductImageSize.LARGE);
+		assertNotNull(file.getPath());
+		assertNull(file.getFile());
+		assertEquals(FileContentType.PRODUCTLG, file.getFileContentType());
+		assertEquals(4096, Files.size(file.getPath()));
+	}
+
+	@Test
+	public void legacyLayoutRead() throws Exception {
+		Path legacy = root.resolve("products").resolve(MerchantStore.DEFAULT_STORE).resolve("SKU2").resolve("SMALL");
+		Files.createDirectories(legacy);
+		Files.write(legacy.resolve("old.jpg"), bytes(100));
+
+		OutputContentFile file = manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU2", "old.jpg");
+		assertEquals(100, file.getFile().size());
+		assertEquals(1, manager.getImages(product("SKU2")).size());
+	}
+
+	@Test
+	public void productImagesRemoved() throws Exception {
+		manager.addProductImage(image("SKU1", "a.jpg"), content("a.jpg", bytes(100), FileContentType.PRODUCT));
+		manager.addProductImage(image("SKU1", "b.jpg"), content("b.jpg", bytes(100), FileContentType.PRODUCTLG));
+		assertNotNull(manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "a.jpg"));
+		assertEquals(2, manager.getImages(product("SKU1")).size());
+
+		manager.removeProductImages(product("SKU1"));
+
+		assertNull(manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "a.jpg"));
+		assertTrue(manager.getImages(product("SKU1")).isEmpty());
+	}
+
+	@Test
+	public void pathOutsideOfStoreRejected() {
+		assertThrows(ServiceException.class,
+				() -> manager.getProductImage(MerchantStore.DEFAULT_STORE, "SKU1", "../../../secret.txt"));
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark.images", matches = "[0-9]+")
+	public void readsAgainstInfinispan(@TempDir Path infinispanRoot) throws Exception {
+		int images = Integer.parseInt(System.getProperty("benchmark.images"));
+
+		CmsImageFileManagerImpl local = local(root, 65536);
+		com.salesmanager.core.business.modules.cms.product.infinispan.CmsImageFileManagerImpl infinispan =
+				com.salesmanager.core.business.modules.cms.product.infinispan.CmsImageFileManagerImpl.getInstance();
+		infinispan.setCacheManager(new StoreCacheManagerImpl(infinispanRoot.toString(), "benchmark-merchant"));
+		ReflectionTestUtils.invokeMethod(infinispan, "init");
+
+		byte[] content = bytes(8 * 1024);
+		for (ProductAssetsManager backend : Arrays.<ProductAssetsManager>asList(local, infinispan)) {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < images; i++) {
+				backend.addProductImage(image("SKU" + i, "image.jpg"), content("image.jpg", content, FileContentType.PRODUCT));
+			}
+			LOGGER.info(backend.getClass().getName() + " stored " + images + " images in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		int reads = Math.min(images, 100000);
+		for (ProductAssetsManager backend : Arrays.<ProductAssetsManager>asList(local, infinispan)) {
+			// hot images, a tenth of the store read ten times
+			Random random = new Random(1);
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < reads; i++) {
+				OutputContentFile file = backend.getProductImage(MerchantStore.DEFAULT_STORE,
+						"SKU" + random.nextInt(Math.max(images / 10, 1)), "image.jpg");
+				assertNotNull(file);
+			}
+			long elapsed = System.nanoTime() - start;
+			allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+			LOGGER.info(backend.getClass().getName() + " read " + reads + " images: " + (elapsed / reads)
+					+ " ns and " + (allocated / reads) + " bytes allocated per read");
+		}
+	}
+
+	private CmsImageFileManagerImpl local(Path directory, long maxCachedFileSize) {
+		CmsImageFileManagerImpl local = CmsImageFileManagerImpl.getInstance();
+		local.setCacheManager(new LocalCacheManagerImpl(directory.toString()));
+		ReflectionTestUtils.setField(local, "maxCachedFileSize", maxCachedFileSize);
+		ReflectionTestUtils.invokeMethod(local, "init");
+		assertSame(local, CmsImageFileManagerImpl.getInstance());
+		return local;
+	}
+
+	private Product product(String sku) {
+		Product product = new Product();
+		product.setSku(sku);
+		product.setMerchantStore(store);
+		return product;
+	}
+
+	private ProductImage image(String sku, String name) {
+		ProductImage image = new ProductImage();
+		image.setProduct(product(sku));
+		image.setProductImage(name);
+		return image;
+	}
+
+	private ImageContentFile content(String name, byte[] bytes, FileContentType type) {
+		ImageContentFile content = new ImageContentFile();
+		content.setFileName(name);
+		content.setFileContentType(type);
+		content.setFile(new ByteArrayInputStream(bytes));
+		return content;
+	}
+
+	private byte[] bytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+}
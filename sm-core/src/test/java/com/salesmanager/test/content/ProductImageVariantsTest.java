@@ -0,0 +1,88 @@
+package com.salesmanager.test.content;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.modules.cms.product.ProductImagePut;
+import com.salesmanager.core.business.modules.cms.product.ProductImageVariants;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.image.ProductImage;
+import com.salesmanager.core.model.content.FileContentType;
+import com.salesmanager.core.model.merchant.MerchantStore;
+
+/**
+ * Resized variants generated in background and variant selection by width
+ */
+public class ProductImageVariantsTest {
+
+	private ProductImageVariants variants;
+
+	@BeforeEach
+	public void setUp() {
+		variants = new ProductImageVariants();
+		ReflectionTestUtils.setField(variants, "variantsConfiguration", "zoom:1200x1200, thumbnail:150x150,listing:400x400");
+		ReflectionTestUtils.setField(variants, "threads", 1);
+		ReflectionTestUtils.setField(variants, "queueCapacity", 1);
+		ReflectionTestUtils.setField(variants, "progressive", true);
+		variants.init();
+	}
+
+	@Test
+	public void closestVariant() {
+		assertEquals("thumbnail", variants.closest(100).getName());
+		assertEquals("listing", variants.closest(151).getName());
+		assertEquals("zoom", variants.closest(1200).getName());
+		assertNull(variants.closest(2000));
+		assertEquals("shirt-listing.jpg", ProductImageVariants.fileName("shirt.jpg", variants.closest(400)));
+	}
+
+	@Test
+	public void variantsStoredThroughBackend() throws Exception {
+		Map<String, BufferedImage> stored = new ConcurrentHashMap<String, BufferedImage>();
+		ProductImagePut backend = (productImage, content) -> {
+			assertEquals(FileContentType.PRODUCT, content.getFileContentType());
+			assertEquals("SKU1", productImage.getProduct().getSku());
+			try {
+				stored.put(content.getFileName(), ImageIO.read(content.getFile()));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		};
+
+		ByteArrayOutputStream original = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB), "jpeg", original);
+
+		MerchantStore store = new MerchantStore();
+		store.setCode(MerchantStore.DEFAULT_STORE);
+		Product product = new Product();
+		product.setSku("SKU1");
+		product.setMerchantStore(store);
+		ProductImage image = new ProductImage();
+		image.setProduct(product);
+		image.setProductImage("shirt.jpg");
+
+		variants.submit(image, original.toByteArray(), "jpeg", backend);
+		variants.shutdown();
+
+		// zoom is larger than the original
+		assertEquals(2, stored.size());
+		BufferedImage thumbnail = stored.get("shirt-thumbnail.jpg");
+		assertNotNull(thumbnail);
+		assertTrue(thumbnail.getWidth() <= 150 && thumbnail.getHeight() <= 150);
+		assertEquals(400, stored.get("shirt-listing.jpg").getWidth());
+	}
+
+}
@@ -0,0 +1,318 @@
+package com.salesmanager.test.events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.modules.common.BulkEventIndexer;
+import com.salesmanager.core.business.modules.common.BulkEventIndexer.OverflowPolicy;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Bulk event indexing against a local stub of the elasticsearch _bulk endpoint
+ */
+public class BulkEventIndexerTest {
+
+	private HttpServer server;
+	private final AtomicInteger bulkCalls = new AtomicInteger();
+	private final AtomicInteger documents = new AtomicInteger();
+	/** next bulk requests answered with a 500 */
+	private final AtomicInteger serverErrors = new AtomicInteger();
+	/** next bulk requests with their first item rejected with a 429 */
+	private final AtomicInteger rejections = new AtomicInteger();
+
+	@BeforeEach
+	public void startStub() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/_bulk", exchange -> {
+			int count = 0;
+			boolean reject = false;
+			StringBuilder items = new StringBuilder();
+			try (InputStream in = exchange.getRequestBody()) {
+				String body = IOUtils.toString(in, StandardCharsets.UTF_8);
+				if (serverErrors.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+					bulkCalls.incrementAndGet();
+					exchange.sendResponseHeaders(500, -1);
+					exchange.close();
+					return;
+				}
+				reject = rejections.getAndUpdate(n -> Math.max(n - 1, 0)) > 0;
+				for (String line : body.split("\n")) {
+					if (line.startsWith("{\"index\"")) {
+						if (count++ > 0) {
+							items.append(',');
+						}
+						if (reject && count == 1) {
+							items.append("{\"index\":{\"_index\":\"events\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":429,")
+									.append("\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}");
+							continue;
+						}
+						items.append("{\"index\":{\"_index\":\"events\",\"_type\":\"_doc\",\"_id\":\"").append(count)
+								.append("\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},")
+								.append("\"_seq_no\":").append(count).append(",\"_primary_term\":1,\"status\":201}}");
+					}
+				}
+			}
+			bulkCalls.incrementAndGet();
+			documents.addAndGet(reject ? count - 1 : count);
+			byte[] response = ("{\"took\":1,\"errors\":" + reject + ",\"items\":[" + items + "]}").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	public void stopStub() {
+		server.stop(0);
+	}
+
+	@TempDir
+	Path spillDirectory;
+
+	private BulkEventIndexer indexer(int capacity, int bulkSize, long flushInterval, OverflowPolicy policy) {
+		BulkEventIndexer indexer = new BulkEventIndexer();
+		ReflectionTestUtils.setField(indexer, "hosts", Collections.singletonList("localhost"));
+		ReflectionTestUtils.setField(indexer, "protocol", "http");
+		ReflectionTestUtils.setField(indexer, "port", server.getAddress().getPort());
+		ReflectionTestUtils.setField(indexer, "securityEnabled", Boolean.FALSE);
+		ReflectionTestUtils.setField(indexer, "queueCapacity", capacity);
+		ReflectionTestUtils.setField(indexer, "bulkSize", bulkSize);
+		ReflectionTestUtils.setField(indexer, "flushInterval", flushInterval);
+		ReflectionTestUtils.setField(indexer, "offerTimeout", 0L);
+		ReflectionTestUtils.setField(indexer, "overflowPolicy", policy);
+		ReflectionTestUtils.setField(indexer, "spillDirectory", spillDirectory.toString());
+		ReflectionTestUtils.setField(indexer, "spillMaxSize", 1024L);
+		indexer.init();
+		return indexer;
+	}
+
+	private void awaitDocuments(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (documents.get() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+	}
+
+	private void awaitIndexed(BulkEventIndexer indexer, int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (indexer.getIndexed() < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+	}
+
+	@Test
+	public void eventsAreSentInBulk() throws Exception {
+		BulkEventIndexer indexer = indexer(1000, 100, 200, OverflowPolicy.DROP_NEWEST);
+		try {
+			for (int i = 0; i < 250; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{\"event\":\"add\"}"));
+			}
+			long deadline = System.currentTimeMillis() + 10000;
+			while (indexer.getIndexed() < 250 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(250, indexer.getIndexed());
+			assertEquals(250, documents.get());
+			assertTrue(bulkCalls.get() <= 5, "expected batched requests, got " + bulkCalls.get());
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void fullQueueDropsEvents() throws Exception {
+		//flush interval and bulk size large enough so nothing is sent during the test
+		BulkEventIndexer indexer = indexer(10, 1000, 60000, OverflowPolicy.DROP_NEWEST);
+		try {
+			for (int i = 0; i < 10; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{}"));
+			}
+			assertFalse(indexer.index("events_default", "overflow", "{}"));
+			assertEquals(1, indexer.getDropped());
+			assertEquals(10, indexer.getQueueSize());
+		} finally {
+			indexer.shutdown();
+		}
+		//remaining events are flushed on shutdown
+		assertEquals(10, documents.get());
+	}
+
+	@Test
+	public void dropOldestKeepsNewEvents() throws Exception {
+		BulkEventIndexer indexer = indexer(10, 1000, 60000, OverflowPolicy.DROP_OLDEST);
+		try {
+			for (int i = 0; i < 15; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{}"));
+			}
+			assertEquals(5, indexer.getDropped());
+			assertEquals(10, indexer.getQueueSize());
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void spilledEventsAreSentOnceTheQueueDrains() throws Exception {
+		BulkEventIndexer indexer = indexer(10, 1000, 60000, OverflowPolicy.SPILL);
+		try {
+			for (int i = 0; i < 25; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{\"event\":\"add\"}"));
+			}
+			assertEquals(15, indexer.getSpilled());
+			assertEquals(0, indexer.getDropped());
+			assertTrue(Files.exists(spillDirectory.resolve("events.spill")));
+		} finally {
+			indexer.shutdown();
+		}
+		assertEquals(10, documents.get());
+
+		//spilled events are kept for the next start
+		indexer = indexer(10, 1000, 100, OverflowPolicy.SPILL);
+		try {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (documents.get() < 25 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(25, documents.get());
+			assertFalse(Files.exists(spillDirectory.resolve("events.spill")));
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void fullSpillFileDropsEvents() throws Exception {
+		BulkEventIndexer indexer = indexer(1, 1000, 60000, OverflowPolicy.SPILL);
+		try {
+			int accepted = 0;
+			for (int i = 0; i < 100; i++) {
+				if (indexer.index("events_default", String.valueOf(i), "{\"event\":\"add\"}")) {
+					accepted++;
+				}
+			}
+			assertTrue(accepted < 100);
+			assertEquals(100 - accepted, indexer.getDropped());
+			assertTrue(Files.size(spillDirectory.resolve("events.spill")) < 1024 + 64);
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void failedBulkRequestIsSentAgain() throws Exception {
+		serverErrors.set(1);
+		BulkEventIndexer indexer = indexer(1000, 1000, 100, OverflowPolicy.DROP_NEWEST);
+		try {
+			for (int i = 0; i < 20; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{\"event\":\"add\"}"));
+			}
+			awaitIndexed(indexer, 20);
+			assertEquals(20, documents.get());
+			assertEquals(20, indexer.getIndexed());
+			assertEquals(20, indexer.getRetried());
+			assertEquals(0, indexer.getDropped());
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void rejectedItemIsSentAgain() throws Exception {
+		rejections.set(1);
+		BulkEventIndexer indexer = indexer(1000, 1000, 100, OverflowPolicy.DROP_NEWEST);
+		try {
+			for (int i = 0; i < 5; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{\"event\":\"add\"}"));
+			}
+			awaitIndexed(indexer, 5);
+			assertEquals(5, documents.get());
+			assertEquals(5, indexer.getIndexed());
+			assertEquals(1, indexer.getRetried());
+			assertEquals(0, indexer.getFailed());
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void failedBatchIsNotLostWhenTheQueueIsFull() throws Exception {
+		serverErrors.set(1);
+		BulkEventIndexer indexer = indexer(5, 5, 60000, OverflowPolicy.SPILL);
+		try {
+			for (int i = 0; i < 5; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{}"));
+			}
+			//the failed batch may not fit back with the new events, it is spilled
+			long deadline = System.currentTimeMillis() + 10000;
+			while (bulkCalls.get() < 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			for (int i = 5; i < 10; i++) {
+				assertTrue(indexer.index("events_default", String.valueOf(i), "{}"));
+			}
+		} finally {
+			indexer.shutdown();
+		}
+		assertEquals(0, indexer.getDropped());
+		//not sent at shutdown, kept for the next start
+		indexer = indexer(10, 1000, 100, OverflowPolicy.SPILL);
+		try {
+			awaitDocuments(10);
+			assertEquals(10, documents.get());
+		} finally {
+			indexer.shutdown();
+		}
+	}
+
+	@Test
+	public void spillDirectoryIsOnlyNeededBySpill() throws Exception {
+		BulkEventIndexer indexer = new BulkEventIndexer();
+		ReflectionTestUtils.setField(indexer, "hosts", Collections.singletonList("localhost"));
+		ReflectionTestUtils.setField(indexer, "protocol", "http");
+		ReflectionTestUtils.setField(indexer, "port", server.getAddress().getPort());
+		ReflectionTestUtils.setField(indexer, "securityEnabled", Boolean.FALSE);
+		ReflectionTestUtils.setField(indexer, "queueCapacity", 10);
+		ReflectionTestUtils.setField(indexer, "bulkSize", 10);
+		ReflectionTestUtils.setField(indexer, "flushInterval", 60000L);
+		ReflectionTestUtils.setField(indexer, "overflowPolicy", OverflowPolicy.DROP_NEWEST);
+		indexer.init();
+		assertTrue(indexer.index("events_default", "1", "{}"));
+		indexer.shutdown();
+		assertEquals(1, documents.get());
+	}
+
+	@Test
+	public void eventsAreDroppedAfterShutdown() throws Exception {
+		BulkEventIndexer indexer = indexer(10, 1, 60000, OverflowPolicy.DROP_NEWEST);
+		indexer.shutdown();
+		assertFalse(indexer.index("events_default", "late", "{}"));
+		assertEquals(1, indexer.getDropped());
+		assertEquals(0, indexer.getQueueSize());
+	}
+
+	@Test
+	public void shutdownWithoutInit() {
+		new BulkEventIndexer().shutdown();
+	}
+
+}
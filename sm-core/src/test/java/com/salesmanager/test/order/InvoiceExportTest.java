@@ -0,0 +1,166 @@
+package com.salesmanager.test.order;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.modules.order.ODSInvoiceModule;
+import com.salesmanager.core.business.repositories.order.OrderRepository;
+import com.salesmanager.core.business.services.order.InvoiceExporter;
+import com.salesmanager.core.business.services.reference.country.CountryService;
+import com.salesmanager.core.business.services.reference.zone.ZoneService;
+import com.salesmanager.core.business.utils.ProductPriceUtils;
+import com.salesmanager.core.model.common.Billing;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.order.Order;
+import com.salesmanager.core.model.order.OrderTotal;
+import com.salesmanager.core.model.order.orderproduct.OrderProduct;
+import com.salesmanager.core.model.reference.language.Language;
+
+/**
+ * Invoices rendered from the cached ods template and exported in a zip archive
+ */
+public class InvoiceExportTest {
+
+	private ODSInvoiceModule invoiceModule;
+	private InvoiceExporter exporter;
+	private OrderRepository orderRepository;
+	private MerchantStore store;
+	private Language language;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		// zones and countries default to empty collections
+		ZoneService zoneService = mock(ZoneService.class);
+		CountryService countryService = mock(CountryService.class);
+		ProductPriceUtils priceUtil = mock(ProductPriceUtils.class);
+		when(priceUtil.getStoreFormatedAmountWithCurrency(any(), any())).thenReturn("$10.00");
+
+		invoiceModule = new ODSInvoiceModule();
+		ReflectionTestUtils.setField(invoiceModule, "zoneService", zoneService);
+		ReflectionTestUtils.setField(invoiceModule, "countryService", countryService);
+		ReflectionTestUtils.setField(invoiceModule, "priceUtil", priceUtil);
+
+		store = new MerchantStore();
+		store.setId(1);
+		store.setCode("DEFAULT");
+		store.setStorename("Corner Store");
+		store.setStorecity("Montreal");
+
+		language = new Language();
+		language.setCode("en");
+
+		orderRepository = mock(OrderRepository.class);
+		when(orderRepository.findOne(1L, 1)).thenReturn(order(1L));
+		when(orderRepository.findOne(2L, 1)).thenReturn(order(2L));
+
+		exporter = new InvoiceExporter();
+		ReflectionTestUtils.setField(exporter, "orderRepository", orderRepository);
+		ReflectionTestUtils.setField(exporter, "invoiceModule", invoiceModule);
+		ReflectionTestUtils.setField(exporter, "threads", 2);
+		ReflectionTestUtils.setField(exporter, "inFlight", 1);
+		exporter.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		exporter.shutdown();
+	}
+
+	private Order order(Long id) {
+		Billing billing = new Billing();
+		billing.setFirstName("Leon");
+		billing.setLastName("Tremblay");
+		billing.setAddress("12 rue Principale");
+
+		OrderProduct product = new OrderProduct();
+		product.setProductName("Garden chair");
+		product.setProductQuantity(2);
+		product.setOneTimeCharge(new BigDecimal("5.00"));
+
+		OrderTotal total = new OrderTotal();
+		total.setText("Total");
+		total.setValue(new BigDecimal("10.00"));
+
+		Order order = new Order();
+		order.setId(id);
+		order.setDatePurchased(new Date());
+		order.setBilling(billing);
+		order.setOrderProducts(new HashSet<>(Collections.singleton(product)));
+		order.setOrderTotal(new HashSet<>(Collections.singleton(total)));
+		return order;
+	}
+
+	private Map<String, byte[]> unzip(byte[] archive) throws Exception {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				entries.put(entry.getName(), IOUtils.toByteArray(zip));
+			}
+		}
+		return entries;
+	}
+
+	@Test
+	public void renderInvoice() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		invoiceModule.createInvoice(store, order(7L), language, out);
+
+		Map<String, byte[]> entries = unzip(out.toByteArray());
+		assertEquals("mimetype", entries.keySet().iterator().next());
+		assertEquals("application/vnd.oasis.opendocument.spreadsheet",
+				new String(entries.get("mimetype"), StandardCharsets.US_ASCII));
+
+		String content = new String(entries.get("content.xml"), StandardCharsets.UTF_8);
+		assertTrue(content.contains(">Corner Store<"));
+		assertTrue(content.contains(">Leon Tremblay<"));
+		assertTrue(content.contains(">Garden chair<"));
+		assertTrue(content.contains("office:value=\"7\""));
+		assertEquals("ods", invoiceModule.getFileExtension());
+	}
+
+	@Test
+	public void exportSkipsMissingOrders() throws Exception {
+		List<int[]> progress = new ArrayList<>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		int exported = exporter.export(store, Arrays.asList(1L, 2L, 3L), language, out,
+				(done, failed, total) -> progress.add(new int[] {done, failed, total}));
+
+		assertEquals(2, exported);
+		Map<String, byte[]> entries = unzip(out.toByteArray());
+		assertEquals(new HashSet<>(Arrays.asList("invoice-1.ods", "invoice-2.ods")), entries.keySet());
+		assertTrue(unzip(entries.get("invoice-1.ods")).containsKey("content.xml"));
+
+		assertEquals(3, progress.size());
+		int[] last = progress.get(2);
+		assertEquals(2, last[0]);
+		assertEquals(1, last[1]);
+		assertEquals(3, last[2]);
+	}
+
+}
@@ -0,0 +1,465 @@
+package com.salesmanager.test.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.catalog.product.PricingService;
+import com.salesmanager.core.business.services.search.LuceneIndexes;
+import com.salesmanager.core.business.services.search.LuceneProductIndexBuilder;
+import com.salesmanager.core.business.services.search.LuceneSearchServiceImpl;
+import com.salesmanager.core.model.catalog.category.Category;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.description.ProductDescription;
+import com.salesmanager.core.model.catalog.product.manufacturer.Manufacturer;
+import com.salesmanager.core.model.catalog.product.price.FinalPrice;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.search.IndexProduct;
+import com.salesmanager.core.model.search.SearchEntry;
+import com.salesmanager.core.model.search.SearchFacet;
+import com.salesmanager.core.model.search.SearchResponse;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded Lucene search engine.
+ *
+ * The benchmark indexes a catalogue then logs the latency percentiles and
+ * the memory allocated per search with facets, against the same searches
+ * sent with the high level client to a local stand-in answering a canned
+ * elasticsearch response. The stand-in does not search, its latency is a
+ * lower bound of a real cluster. It runs with -Dbenchmark.search=100000
+ */
+public class LuceneSearchServiceTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LuceneSearchServiceTest.class);
+
+	private static final Language ENGLISH = new Language("en");
+	private static final Language FRENCH = new Language("fr");
+
+	static {
+		// headers and body of the stand-in responses are separate writes, delayed
+		// acknowledgements would add 40 ms to each search
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	@TempDir
+	Path root;
+
+	private LuceneIndexes indexes;
+	private LuceneSearchServiceImpl searchService;
+	private MerchantStore store;
+	private final Map<Long, BigDecimal> prices = new HashMap<Long, BigDecimal>();
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		store = new MerchantStore(1, MerchantStore.DEFAULT_STORE, "store");
+		indexes = indexes();
+
+		PricingService pricingService = mock(PricingService.class);
+		when(pricingService.calculateProductPrice(any(Product.class))).thenAnswer(invocation -> {
+			Product product = invocation.getArgument(0);
+			FinalPrice price = new FinalPrice();
+			price.setFinalPrice(prices.getOrDefault(product.getId(), new BigDecimal("9.99")));
+			return price;
+		});
+
+		searchService = new LuceneSearchServiceImpl();
+		ReflectionTestUtils.setField(searchService, "luceneIndexes", indexes);
+		ReflectionTestUtils.setField(searchService, "pricingService", pricingService);
+		ReflectionTestUtils.setField(searchService, "priceRanges", "10,25,50");
+		ReflectionTestUtils.invokeMethod(searchService, "init");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		indexes.shutdown();
+	}
+
+	@Test
+	public void searchCountsFacets() throws Exception {
+		prices.put(2L, new BigDecimal("30"));
+		prices.put(3L, new BigDecimal("60"));
+		searchService.index(store, product(1L, "Blue watch", "Waterproof watch", "WATCHES", 1L));
+		searchService.index(store, product(2L, "Red watch", "Leather strap", "WATCHES", 2L));
+		searchService.index(store, product(3L, "Leather bag", "Bag for travels", "BAGS", 2L));
+		refresh();
+
+		SearchResponse response = searchService.search(store, "en", "watches", 10, 0);
+		assertEquals(2, response.getTotalCount());
+		assertEquals(new HashSet<String>(Arrays.asList("1", "2")), ids(response));
+		assertEquals(Collections.singletonMap("WATCHES", 2L), counts(response, "categories"));
+		Map<String, Long> manufacturers = new HashMap<String, Long>();
+		manufacturers.put("1", 1L);
+		manufacturers.put("2", 1L);
+		assertEquals(manufacturers, counts(response, "manufacturer"));
+		Map<String, Long> ranges = new HashMap<String, Long>();
+		ranges.put("*-10", 1L);
+		ranges.put("25-50", 1L);
+		assertEquals(ranges, counts(response, "price"));
+
+		IndexProduct product = response.getEntries().stream().map(SearchEntry::getIndexProduct)
+				.filter(p -> p.getId().equals("2")).findFirst().get();
+		assertEquals("Red watch", product.getName());
+		assertEquals(30, product.getPrice(), 0.001);
+		assertEquals(Collections.singletonList("WATCHES"), product.getCategories());
+		assertEquals("default", product.getStore());
+
+		// name weighs more than description
+		response = searchService.search(store, "en", "leather", 10, 0);
+		assertEquals("3", response.getEntries().get(0).getIndexProduct().getId());
+
+		response = searchService.search(store, "en", "", 2, 2);
+		assertEquals(3, response.getTotalCount());
+		assertEquals(1, response.getEntries().size());
+		assertEquals(Long.valueOf(1), counts(response, "price").get("50-*"));
+
+		assertEquals(1, searchService.search(store, "fr", "montre bleue", 10, 0).getTotalCount());
+		assertEquals(0, searchService.search(store, "en", "the", 10, 0).getTotalCount());
+		assertEquals(0, searchService.search(new MerchantStore(2, "other", "other"), "en", "watch", 10, 0).getTotalCount());
+	}
+
+	@Test
+	public void autocompleteMatchesPrefixes() throws Exception {
+		searchService.index(store, product(1L, "Blue watch", "Waterproof watch", "WATCHES", 1L));
+		searchService.index(store, product(2L, "Red watch", "Leather strap", "WATCHES", 2L));
+		searchService.index(store, product(3L, "Crème solaire", "Sun cream", "CARE", 2L));
+		refresh();
+
+		assertEquals(new HashSet<String>(Arrays.asList("Blue watch", "Red watch")),
+				new HashSet<String>(searchService.searchForKeywords("keyword_en_default", "wat", 10).getKeywords()));
+		assertEquals(Collections.singletonList("Blue watch"),
+				searchService.searchForKeywords("keyword_en_default", "wat BL", 10).getKeywords());
+		assertEquals(1, searchService.searchForKeywords("keyword_en_default", "wat", 1).getKeywords().size());
+		assertEquals(Collections.singletonList("Crème solaire"),
+				searchService.searchForKeywords("keyword_en_default", "crem", 10).getKeywords());
+		// tags
+		assertEquals(3, searchService.searchForKeywords("keyword_en_default", "gif", 10).getKeywords().size());
+		assertTrue(searchService.searchForKeywords("keyword_en_other", "wat", 10).getKeywords().isEmpty());
+	}
+
+	@Test
+	public void changesSearchedNearRealTime() throws Exception {
+		Product product = product(1L, "Blue watch", "Waterproof watch", "WATCHES", 1L);
+		searchService.index(store, product);
+		assertEquals(1, await("watch", 1));
+
+		searchService.deleteIndex(store, product);
+		assertEquals(0, await("watch", 0));
+	}
+
+	@Test
+	public void rebuiltIndexReplacesIndex() throws Exception {
+		searchService.index(store, product(1L, "Blue watch", "Waterproof watch", "WATCHES", 1L));
+		refresh();
+
+		LuceneProductIndexBuilder builder = new LuceneProductIndexBuilder();
+		ReflectionTestUtils.setField(builder, "luceneIndexes", indexes);
+		builder.create(store, "en", "product_en_default_1");
+		assertEquals(0, builder.write(store, Collections.singletonMap("product_en_default_1",
+				Arrays.asList(document("2", "Red watch"), document("3", "Gold watch")))));
+		assertEquals(1, searchService.search(store, "en", "watch", 10, 0).getTotalCount(), "rebuilt index searched before published");
+
+		builder.publish(store, Collections.singletonMap("en", "product_en_default_1"));
+		assertEquals(new HashSet<String>(Arrays.asList("2", "3")), ids(searchService.search(store, "en", "watch", 10, 0)));
+		assertFalse(Files.exists(root.resolve("product_en_default")), "previous index not deleted");
+		assertEquals("product_en_default_1",
+				new String(Files.readAllBytes(root.resolve("product_en_default.current")), StandardCharsets.UTF_8));
+
+		// reopened after a restart
+		indexes.shutdown();
+		indexes = indexes();
+		ReflectionTestUtils.setField(searchService, "luceneIndexes", indexes);
+		assertEquals(2, searchService.search(store, "en", "watch", 10, 0).getTotalCount());
+
+		searchService.index(store, product(4L, "Steel watch", "Steel", "WATCHES", 1L));
+		refresh();
+		assertEquals(3, searchService.search(store, "en", "watch", 10, 0).getTotalCount());
+		assertTrue(Files.exists(root.resolve("product_en_default_1")));
+	}
+
+	@Test
+	public void changesDuringRebuildArePublished() throws Exception {
+		Product deleted = product(1L, "Blue watch", "Waterproof watch", "WATCHES", 1L);
+		searchService.index(store, deleted);
+
+		LuceneProductIndexBuilder builder = new LuceneProductIndexBuilder();
+		ReflectionTestUtils.setField(builder, "luceneIndexes", indexes);
+		builder.create(store, "en", "product_en_default_1");
+		builder.write(store, Collections.singletonMap("product_en_default_1",
+				Arrays.asList(document("1", "Blue watch"), document("2", "Red watch"))));
+
+		// after the catch up of the rebuild, before it is published
+		searchService.index(store, product(3L, "Gold watch", "Gold", "WATCHES", 1L));
+		searchService.deleteIndex(store, deleted);
+
+		builder.publish(store, Collections.singletonMap("en", "product_en_default_1"));
+		assertEquals(new HashSet<String>(Arrays.asList("2", "3")), ids(searchService.search(store, "en", "watch", 10, 0)));
+
+		// not written twice once published
+		searchService.index(store, product(4L, "Steel watch", "Steel", "WATCHES", 1L));
+		refresh();
+		assertEquals(3, searchService.search(store, "en", "watch", 10, 0).getTotalCount());
+	}
+
+	@Test
+	public void changesWrittenWhilePublishing() throws Exception {
+		searchService.index(store, product(1L, "Blue watch", "Waterproof watch", "WATCHES", 1L));
+		LuceneProductIndexBuilder builder = new LuceneProductIndexBuilder();
+		ReflectionTestUtils.setField(builder, "luceneIndexes", indexes);
+
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread writer = new Thread(() -> {
+			long id = 100;
+			while (!stop.get()) {
+				try {
+					searchService.index(store, product(id++, "Steel watch", "Steel", "WATCHES", 1L));
+				} catch (Exception e) {
+					failure.set(e);
+					return;
+				}
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 1; i <= 5; i++) {
+				builder.create(store, "en", "product_en_default_" + i);
+				builder.write(store, Collections.singletonMap("product_en_default_" + i,
+						Collections.singletonList(document("1", "Blue watch"))));
+				builder.publish(store, Collections.singletonMap("en", "product_en_default_" + i));
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+		assertNull(failure.get());
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark.search", matches = "[0-9]+")
+	public void searchLatencyAgainstElasticsearch() throws Exception {
+		int products = Integer.parseInt(System.getProperty("benchmark.search"));
+		String[] words = new String[500];
+		Random random = new Random(1);
+		for (int i = 0; i < words.length; i++) {
+			words[i] = "word" + Integer.toString(i, 36);
+		}
+
+		long start = System.currentTimeMillis();
+		for (long id = 1; id <= products; id++) {
+			prices.put(id, BigDecimal.valueOf(random.nextInt(50000), 2));
+			searchService.index(store, product(id, words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+					sentence(words, random, 30), "CATEGORY-" + random.nextInt(50), (long) random.nextInt(20)));
+		}
+		refresh();
+		LOGGER.info("Indexed " + products + " products in " + (System.currentTimeMillis() - start) + " ms");
+
+		List<String> terms = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			terms.add(words[random.nextInt(words.length)]);
+		}
+
+		// canned response of a search for 10 products with the facets
+		SearchResponse sample = searchService.search(store, "en", terms.get(0), 10, 0);
+		HttpServer elasticsearch = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		byte[] canned = elasticsearchResponse(sample).getBytes(StandardCharsets.UTF_8);
+		elasticsearch.createContext("/", exchange -> {
+			exchange.getRequestBody().readAllBytes();
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, canned.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(canned);
+			}
+		});
+		elasticsearch.start();
+
+		try (RestHighLevelClient client = new RestHighLevelClient(
+				RestClient.builder(new HttpHost("localhost", elasticsearch.getAddress().getPort(), "http")))) {
+			measure("lucene", terms, term -> searchService.search(store, "en", term, 10, 0));
+			measure("elasticsearch stand-in", terms, term -> client.search(new SearchRequest("product_en_default").source(
+					new SearchSourceBuilder()
+							.query(QueryBuilders.multiMatchQuery(term, "name^3", "tags^2", "description"))
+							.from(0).size(10)
+							.aggregation(AggregationBuilders.terms("categories").field("categories"))
+							.aggregation(AggregationBuilders.terms("manufacturer").field("manufacturer"))
+							.aggregation(AggregationBuilders.range("price").field("price")
+									.addUnboundedTo(10).addRange(10, 25).addRange(25, 50).addUnboundedFrom(50))),
+					RequestOptions.DEFAULT));
+		} finally {
+			elasticsearch.stop(0);
+		}
+	}
+
+	private interface Search {
+		Object run(String term) throws Exception;
+	}
+
+	private void measure(String engine, List<String> terms, Search search) throws Exception {
+		for (String term : terms) {
+			search.run(term);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long[] latencies = new long[terms.size()];
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < terms.size(); i++) {
+			long start = System.nanoTime();
+			search.run(terms.get(i));
+			latencies[i] = System.nanoTime() - start;
+		}
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		Arrays.sort(latencies);
+		LOGGER.info(engine + " " + terms.size() + " searches: p50 " + (latencies[latencies.length / 2] / 1000) + " us, p99 "
+				+ (latencies[latencies.length * 99 / 100] / 1000) + " us, " + (allocated / terms.size())
+				+ " bytes allocated per search");
+	}
+
+	/**
+	 * Search response with typed aggregations as returned to the high level
+	 * client
+	 */
+	private String elasticsearchResponse(SearchResponse sample) {
+		StringBuilder json = new StringBuilder("{\"took\":2,\"timed_out\":false,")
+				.append("\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},")
+				.append("\"hits\":{\"total\":{\"value\":").append(sample.getTotalCount())
+				.append(",\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[");
+		for (int i = 0; i < sample.getEntries().size(); i++) {
+			IndexProduct product = sample.getEntries().get(i).getIndexProduct();
+			json.append(i > 0 ? "," : "").append("{\"_index\":\"product_en_default\",\"_type\":\"_doc\",\"_id\":\"")
+					.append(product.getId()).append("\",\"_score\":1.0,\"_source\":").append(product.toJSONString()).append('}');
+		}
+		json.append("]},\"aggregations\":{");
+		json.append(terms("sterms#categories", sample.getFacets().getOrDefault("categories", Collections.emptyList()))).append(',');
+		json.append(terms("sterms#manufacturer", sample.getFacets().getOrDefault("manufacturer", Collections.emptyList()))).append(',');
+		json.append("\"range#price\":{\"buckets\":[{\"key\":\"*-10.0\",\"to\":10.0,\"doc_count\":1},")
+				.append("{\"key\":\"10.0-25.0\",\"from\":10.0,\"to\":25.0,\"doc_count\":1},")
+				.append("{\"key\":\"25.0-50.0\",\"from\":25.0,\"to\":50.0,\"doc_count\":1},")
+				.append("{\"key\":\"50.0-*\",\"from\":50.0,\"doc_count\":1}]}}}");
+		return json.toString();
+	}
+
+	private String terms(String name, List<SearchFacet> facets) {
+		return "\"" + name + "\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":["
+				+ facets.stream().map(f -> "{\"key\":\"" + f.getKey() + "\",\"doc_count\":" + f.getCount() + "}")
+						.collect(Collectors.joining(","))
+				+ "]}";
+	}
+
+	private String sentence(String[] words, Random random, int length) {
+		StringBuilder sentence = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sentence.append(words[random.nextInt(words.length)]).append(' ');
+		}
+		return sentence.toString();
+	}
+
+	private LuceneIndexes indexes() {
+		LuceneIndexes indexes = new LuceneIndexes();
+		ReflectionTestUtils.setField(indexes, "directory", root.toString());
+		ReflectionTestUtils.setField(indexes, "refreshInterval", 20L);
+		ReflectionTestUtils.setField(indexes, "commitInterval", 60000L);
+		return indexes;
+	}
+
+	private void refresh() throws Exception {
+		indexes.refresh("product_en_default");
+		indexes.refresh("product_fr_default");
+	}
+
+	private long await(String term, long count) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		long total = searchService.search(store, "en", term, 10, 0).getTotalCount();
+		while (total != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			total = searchService.search(store, "en", term, 10, 0).getTotalCount();
+		}
+		return total;
+	}
+
+	private Set<String> ids(SearchResponse response) {
+		return response.getEntries().stream().map(e -> e.getIndexProduct().getId()).collect(Collectors.toSet());
+	}
+
+	private Map<String, Long> counts(SearchResponse response, String facet) {
+		return response.getFacets().get(facet).stream().collect(Collectors.toMap(SearchFacet::getKey, SearchFacet::getCount));
+	}
+
+	private IndexProduct document(String id, String name) {
+		IndexProduct document = new IndexProduct();
+		document.setId(id);
+		document.setName(name);
+		document.setStore("default");
+		document.setLang("en");
+		document.setPrice(20d);
+		return document;
+	}
+
+	private Product product(Long id, String name, String description, String category, Long manufacturer) {
+		Product product = new Product();
+		product.setId(id);
+		product.setAvailable(true);
+
+		Set<ProductDescription> descriptions = new HashSet<ProductDescription>();
+		for (Language language : new Language[] { ENGLISH, FRENCH }) {
+			ProductDescription productDescription = new ProductDescription();
+			productDescription.setLanguage(language);
+			productDescription.setName(language == FRENCH ? name.replace("Blue watch", "Montre bleue") : name);
+			productDescription.setDescription(description);
+			productDescription.setMetatagKeywords("gift,sale");
+			descriptions.add(productDescription);
+		}
+		product.setDescriptions(descriptions);
+
+		Category productCategory = new Category();
+		productCategory.setCode(category);
+		product.setCategories(new HashSet<Category>(Collections.singletonList(productCategory)));
+
+		Manufacturer productManufacturer = new Manufacturer();
+		productManufacturer.setId(manufacturer);
+		product.setManufacturer(productManufacturer);
+		return product;
+	}
+
+}
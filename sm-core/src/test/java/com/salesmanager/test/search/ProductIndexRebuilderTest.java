@@ -0,0 +1,541 @@
+package com.salesmanager.test.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.modules.common.BulkEventIndexer;
+import com.salesmanager.core.business.modules.common.BulkEventIndexer.OverflowPolicy;
+import com.salesmanager.core.business.repositories.catalog.product.ProductRepository;
+import com.salesmanager.core.business.services.catalog.product.PricingService;
+import com.salesmanager.core.business.services.search.ElasticsearchProductIndexBuilder;
+import com.salesmanager.core.business.services.search.ProductIndexRebuilder;
+import com.salesmanager.core.business.services.system.MerchantConfigurationService;
+import com.salesmanager.core.business.utils.CoreConfiguration;
+import com.salesmanager.core.model.catalog.category.Category;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.description.ProductDescription;
+import com.salesmanager.core.model.catalog.product.price.FinalPrice;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.search.ReindexStatus;
+import com.salesmanager.core.model.search.ReindexStatus.State;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Product index rebuild against a local stub of the elasticsearch index,
+ * bulk and alias endpoints.
+ *
+ * The benchmark rebuilds a large catalogue and logs the throughput and the
+ * heap used, then indexes the same catalogue one request per document as
+ * the former reindex did, it runs with -Dbenchmark.reindex=300000
+ */
+public class ProductIndexRebuilderTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductIndexRebuilderTest.class);
+
+	private static final Language ENGLISH = new Language("en");
+	private static final Language FRENCH = new Language("fr");
+
+	private ElasticsearchStub elasticsearch;
+	private BulkEventIndexer bulkEventIndexer;
+	private ProductRepository productRepository;
+	private PricingService pricingService;
+	private final AtomicReference<MerchantConfiguration> checkpoint = new AtomicReference<MerchantConfiguration>();
+	private MerchantStore store;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		elasticsearch = new ElasticsearchStub();
+		store = new MerchantStore(1, MerchantStore.DEFAULT_STORE, "store");
+
+		bulkEventIndexer = new BulkEventIndexer();
+		ReflectionTestUtils.setField(bulkEventIndexer, "hosts", Collections.singletonList("localhost"));
+		ReflectionTestUtils.setField(bulkEventIndexer, "protocol", "http");
+		ReflectionTestUtils.setField(bulkEventIndexer, "port", elasticsearch.port());
+		ReflectionTestUtils.setField(bulkEventIndexer, "securityEnabled", Boolean.FALSE);
+		ReflectionTestUtils.setField(bulkEventIndexer, "queueCapacity", 10);
+		ReflectionTestUtils.setField(bulkEventIndexer, "bulkSize", 10);
+		ReflectionTestUtils.setField(bulkEventIndexer, "flushInterval", 60000L);
+		ReflectionTestUtils.setField(bulkEventIndexer, "offerTimeout", 0L);
+		ReflectionTestUtils.setField(bulkEventIndexer, "overflowPolicy", OverflowPolicy.DROP_NEWEST);
+		bulkEventIndexer.init();
+
+		pricingService = mock(PricingService.class);
+		when(pricingService.calculateProductPrice(any(Product.class))).thenAnswer(invocation -> {
+			FinalPrice price = new FinalPrice();
+			price.setFinalPrice(new BigDecimal("9.99"));
+			return price;
+		});
+	}
+
+	@AfterEach
+	public void tearDown() {
+		bulkEventIndexer.shutdown();
+		elasticsearch.stop();
+	}
+
+	@Test
+	public void rebuildReplacesIndexWithAlias() throws Exception {
+		// index created by the per product indexing before the first rebuild
+		elasticsearch.indices.put("product_en_default", new ConcurrentHashMap<String, String>());
+		ProductIndexRebuilder rebuilder = rebuilder(catalogue(1200), 500);
+		when(productRepository.listIdsModifiedSince(eq(store), any(Date.class))).thenReturn(Collections.singletonList(3L));
+
+		ReindexStatus status = await(rebuilder, rebuilder.rebuild(store));
+
+		assertEquals(State.COMPLETED, status.getState());
+		assertEquals(1200, status.getTotal());
+		assertEquals(1200, status.getIndexed());
+		assertEquals(2 * 1200 + 2, status.getDocuments());
+		assertEquals(0, status.getFailed());
+		assertEquals(Long.valueOf(1200 * 3), status.getLastId());
+		assertTrue(status.getThroughput() > 0);
+
+		String english = status.getIndexes().get("en");
+		String french = status.getIndexes().get("fr");
+		assertEquals(1200, elasticsearch.indices.get(english).size());
+		assertEquals(1200, elasticsearch.indices.get(french).size());
+		assertFalse(elasticsearch.indices.containsKey("product_en_default"), "legacy index not replaced");
+		assertEquals(english, elasticsearch.aliases.get("product_en_default"));
+		assertEquals(french, elasticsearch.aliases.get("product_fr_default"));
+		assertEquals(1, elasticsearch.aliasRequests.get(), "aliases moved in one request");
+		assertTrue(elasticsearch.refreshEnabled.contains(english));
+
+		JsonNode document = new ObjectMapper().readTree(elasticsearch.indices.get(french).get("3"));
+		assertEquals("fr", document.get("lang").asText());
+		assertEquals("CATEGORY-3", document.get("categories").get(0).asText());
+		assertEquals(9.99, document.get("price").asDouble(), 0.001);
+
+		// price calculated once for both languages, catch up included
+		verify(pricingService, times(1201)).calculateProductPrice(any(Product.class));
+		assertEquals(State.COMPLETED, rebuilder.status(store).getState());
+	}
+
+	@Test
+	public void productDeletedDuringRebuildNotPublished() throws Exception {
+		ProductIndexRebuilder rebuilder = rebuilder(catalogue(100), 20);
+		// product 3 is in the first chunk written, deleted before the catch up
+		when(productRepository.listIdsModifiedSince(eq(store), any(Date.class))).thenAnswer(invocation -> {
+			rebuilder.deleted(store, 3L);
+			return Collections.emptyList();
+		});
+
+		ReindexStatus status = await(rebuilder, rebuilder.rebuild(store));
+
+		assertEquals(State.COMPLETED, status.getState());
+		assertTrue(status.getDeleted().isEmpty());
+		Map<String, String> english = elasticsearch.indices.get(elasticsearch.aliases.get("product_en_default"));
+		assertEquals(99, english.size());
+		assertFalse(english.containsKey("3"));
+		assertFalse(elasticsearch.indices.get(elasticsearch.aliases.get("product_fr_default")).containsKey("3"));
+
+		// not running anymore, deleted from the published index by the search service
+		rebuilder.deleted(store, 6L);
+		assertTrue(status.getDeleted().isEmpty());
+	}
+
+	@Test
+	public void secondRebuildDeletesPreviousIndex() throws Exception {
+		ProductIndexRebuilder rebuilder = rebuilder(catalogue(50), 20);
+
+		String first = await(rebuilder, rebuilder.rebuild(store)).getIndexes().get("en");
+		Thread.sleep(5);
+		String second = await(rebuilder, rebuilder.rebuild(store)).getIndexes().get("en");
+
+		assertFalse(first.equals(second));
+		assertEquals(second, elasticsearch.aliases.get("product_en_default"));
+		assertFalse(elasticsearch.indices.containsKey(first));
+		assertEquals(50, elasticsearch.indices.get(second).size());
+	}
+
+	@Test
+	public void failedRebuildResumes() throws Exception {
+		ProductIndexRebuilder rebuilder = rebuilder(catalogue(1000), 200);
+		elasticsearch.failBulk.set(3);
+
+		ReindexStatus failed = await(rebuilder, rebuilder.rebuild(store));
+		assertEquals(State.FAILED, failed.getState());
+		assertEquals(Long.valueOf(400 * 3), failed.getLastId());
+		assertEquals(400, failed.getIndexed());
+		assertTrue(elasticsearch.aliases.isEmpty(), "alias moved to a partial index");
+
+		// progress read back from the saved checkpoint
+		ReindexStatus saved = rebuilder.status(store);
+		assertEquals(State.FAILED, saved.getState());
+		assertEquals(Long.valueOf(1200), saved.getLastId());
+
+		ReindexStatus resumed = await(rebuilder, rebuilder.resume(store));
+		assertEquals(State.COMPLETED, resumed.getState());
+		assertEquals(1000, resumed.getIndexed());
+		assertEquals(failed.getIndexes(), resumed.getIndexes());
+		assertEquals(1000, elasticsearch.indices.get(resumed.getIndexes().get("en")).size());
+		// once while the failed chunk was written, once when resumed
+		verify(productRepository, times(2)).listIdsForIndex(eq(store), eq(1200L), anyInt());
+
+		assertThrows(ServiceException.class, () -> rebuilder.resume(store));
+	}
+
+	@Test
+	public void productDeletedBeforeResumeNotPublished() throws Exception {
+		ProductIndexRebuilder rebuilder = rebuilder(catalogue(1000), 200);
+		elasticsearch.failBulk.set(3);
+		ReindexStatus failed = await(rebuilder, rebuilder.rebuild(store));
+		assertEquals(State.FAILED, failed.getState());
+		assertTrue(elasticsearch.indices.get(failed.getIndexes().get("en")).containsKey("6"));
+
+		// written before the failure, deleted while the rebuild waits to be resumed
+		rebuilder.deleted(store, 6L);
+		assertEquals(Collections.singleton(6L), rebuilder.status(store).getDeleted());
+
+		ReindexStatus resumed = await(rebuilder, rebuilder.resume(store));
+		assertEquals(State.COMPLETED, resumed.getState());
+		Map<String, String> english = elasticsearch.indices.get(elasticsearch.aliases.get("product_en_default"));
+		assertEquals(999, english.size());
+		assertFalse(english.containsKey("6"));
+		assertTrue(rebuilder.status(store).getDeleted().isEmpty());
+	}
+
+	@Test
+	public void interruptedRebuildReported() throws Exception {
+		ProductIndexRebuilder rebuilder = rebuilder(catalogue(10), 20);
+		ReindexStatus status = await(rebuilder, rebuilder.rebuild(store));
+
+		// saved as running by a node that stopped
+		status.setState(State.RUNNING);
+		checkpoint.get().setValue(new ObjectMapper().writeValueAsString(status));
+
+		assertEquals(State.INTERRUPTED, rebuilder.status(store).getState());
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark.reindex", matches = "[0-9]+")
+	public void rebuildThroughput() throws Exception {
+		int products = Integer.parseInt(System.getProperty("benchmark.reindex"));
+		elasticsearch.keepDocuments = false;
+		List<Long> ids = catalogue(products);
+		ProductIndexRebuilder rebuilder = rebuilder(ids, 500);
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		long start = System.currentTimeMillis();
+		ReindexStatus status = rebuilder.rebuild(store);
+		long peak = 0;
+		while (status.getState() == State.RUNNING) {
+			peak = Math.max(peak, runtime.totalMemory() - runtime.freeMemory());
+			Thread.sleep(10);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertEquals(State.COMPLETED, status.getState());
+		LOGGER.info("Rebuilt " + products + " products in " + elapsed + " ms, " + (products * 1000L / Math.max(elapsed, 1))
+				+ " products/s, " + elasticsearch.bulkRequests.get() + " bulk requests, peak heap growth "
+				+ ((peak - before) / (1024 * 1024)) + " MB");
+
+		// former reindex, one request per document
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		start = System.currentTimeMillis();
+		for (List<Long> chunk : Lists.partition(ids, 500)) {
+			for (Product product : productRepository.listForIndex(chunk)) {
+				for (ProductDescription description : product.getDescriptions()) {
+					pricingService.calculateProductPrice(product);
+					bulkEventIndexer.client().index(new IndexRequest("product_" + description.getLanguage().getCode() + "_default")
+							.id(String.valueOf(product.getId())).source("{\"name\":\"" + description.getName() + "\"}", XContentType.JSON),
+							RequestOptions.DEFAULT);
+				}
+			}
+		}
+		elapsed = System.currentTimeMillis() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		LOGGER.info("Indexed " + products + " products one document at a time in " + elapsed + " ms, "
+				+ (products * 1000L / Math.max(elapsed, 1)) + " products/s, " + (allocated / products) + " bytes allocated per product");
+	}
+
+	private ProductIndexRebuilder rebuilder(List<Long> ids, int chunkSize) throws Exception {
+		productRepository = mock(ProductRepository.class);
+		when(productRepository.countForIndex(store)).thenReturn((long) ids.size());
+		when(productRepository.listIdsForIndex(eq(store), any(), anyInt())).thenAnswer(invocation -> {
+			Long after = invocation.getArgument(1);
+			int count = invocation.getArgument(2);
+			int from = 0;
+			if (after != null) {
+				int position = Collections.binarySearch(ids, after);
+				from = position >= 0 ? position + 1 : -position - 1;
+			}
+			return new ArrayList<Long>(ids.subList(from, Math.min(from + count, ids.size())));
+		});
+		when(productRepository.listIdsModifiedSince(eq(store), any(Date.class))).thenReturn(Collections.emptyList());
+		when(productRepository.listForIndex(anyList())).thenAnswer(invocation -> {
+			List<Long> chunk = invocation.getArgument(0);
+			List<Product> products = new ArrayList<Product>();
+			for (Long id : chunk) {
+				products.add(product(id));
+			}
+			return products;
+		});
+
+		MerchantConfigurationService merchantConfigurationService = mock(MerchantConfigurationService.class);
+		when(merchantConfigurationService.getMerchantConfiguration(eq("SEARCH_REINDEX"), eq(store)))
+				.thenAnswer(invocation -> checkpoint.get());
+		doAnswer(invocation -> {
+			checkpoint.set(invocation.getArgument(0));
+			return null;
+		}).when(merchantConfigurationService).saveOrUpdate(any(MerchantConfiguration.class));
+
+		CoreConfiguration configuration = mock(CoreConfiguration.class);
+		when(configuration.getProperty("INDEX_PRODUCTS")).thenReturn("true");
+
+		ElasticsearchProductIndexBuilder indexBuilder = new ElasticsearchProductIndexBuilder();
+		ReflectionTestUtils.setField(indexBuilder, "bulkEventIndexer", bulkEventIndexer);
+
+		ProductIndexRebuilder rebuilder = new ProductIndexRebuilder();
+		ReflectionTestUtils.setField(rebuilder, "productRepository", productRepository);
+		ReflectionTestUtils.setField(rebuilder, "pricingService", pricingService);
+		ReflectionTestUtils.setField(rebuilder, "indexBuilder", indexBuilder);
+		ReflectionTestUtils.setField(rebuilder, "merchantConfigurationService", merchantConfigurationService);
+		ReflectionTestUtils.setField(rebuilder, "configuration", configuration);
+		ReflectionTestUtils.setField(rebuilder, "chunkSize", chunkSize);
+		ReflectionTestUtils.setField(rebuilder, "threads", 4);
+		rebuilder.init();
+		return rebuilder;
+	}
+
+	private ReindexStatus await(ProductIndexRebuilder rebuilder, ReindexStatus status) throws Exception {
+		// the rebuild is removed from the running ones after its last checkpoint
+		long deadline = System.currentTimeMillis() + 30000;
+		while (rebuilder.status(store) == status && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertNotNull(status.getEndDate());
+		return status;
+	}
+
+	/**
+	 * product ids with gaps
+	 */
+	private List<Long> catalogue(int size) {
+		List<Long> ids = new ArrayList<Long>(size);
+		for (long i = 1; i <= size; i++) {
+			ids.add(i * 3);
+		}
+		return ids;
+	}
+
+	private Product product(Long id) {
+		Product product = new Product();
+		product.setId(id);
+		product.setAvailable(true);
+
+		Set<ProductDescription> descriptions = new HashSet<ProductDescription>();
+		for (Language language : new Language[] { ENGLISH, FRENCH }) {
+			ProductDescription description = new ProductDescription();
+			description.setLanguage(language);
+			description.setName("Product " + id + " " + language.getCode());
+			description.setDescription("Description of product " + id);
+			description.setMetatagKeywords("tag1,tag2");
+			descriptions.add(description);
+		}
+		product.setDescriptions(descriptions);
+
+		Category category = new Category();
+		category.setCode("CATEGORY-" + id);
+		Set<Category> categories = new HashSet<Category>();
+		categories.add(category);
+		product.setCategories(categories);
+		return product;
+	}
+
+	/**
+	 * Index, bulk and alias endpoints of elasticsearch keeping documents in memory
+	 */
+	private static class ElasticsearchStub {
+
+		private final HttpServer server;
+		private final ObjectMapper mapper = new ObjectMapper();
+		private final Map<String, Map<String, String>> indices = new ConcurrentHashMap<String, Map<String, String>>();
+		private final Map<String, String> aliases = new ConcurrentHashMap<String, String>();
+		private final Set<String> refreshEnabled = ConcurrentHashMap.newKeySet();
+		private final AtomicInteger bulkRequests = new AtomicInteger();
+		private final AtomicInteger aliasRequests = new AtomicInteger();
+		/** bulk request number answered with an error */
+		private final AtomicInteger failBulk = new AtomicInteger();
+		private volatile boolean keepDocuments = true;
+
+		ElasticsearchStub() throws Exception {
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.createContext("/", exchange -> {
+				try {
+					handle(exchange);
+				} catch (Exception e) {
+					respond(exchange, 500, "{\"error\":\"" + e.getMessage() + "\",\"status\":500}");
+				}
+			});
+			server.start();
+		}
+
+		int port() {
+			return server.getAddress().getPort();
+		}
+
+		void stop() {
+			server.stop(0);
+		}
+
+		private void handle(HttpExchange exchange) throws Exception {
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+			String body;
+			try (InputStream in = exchange.getRequestBody()) {
+				body = IOUtils.toString(in, StandardCharsets.UTF_8);
+			}
+
+			if (path.equals("/_bulk")) {
+				bulk(exchange, body);
+			} else if (path.equals("/_aliases")) {
+				aliasRequests.incrementAndGet();
+				for (JsonNode action : mapper.readTree(body).get("actions")) {
+					String type = action.fieldNames().next();
+					JsonNode values = action.get(type);
+					String index = values.get("indices").get(0).asText();
+					if (type.equals("add")) {
+						aliases.put(values.get("aliases").get(0).asText(), index);
+					} else if (type.equals("remove_index")) {
+						indices.remove(index);
+					}
+				}
+				respond(exchange, 200, "{\"acknowledged\":true}");
+			} else if (path.startsWith("/_alias/")) {
+				String alias = path.substring("/_alias/".length());
+				String index = aliases.get(alias);
+				if (index == null) {
+					respond(exchange, 404, "{\"error\":\"alias [" + alias + "] missing\",\"status\":404}");
+				} else {
+					respond(exchange, 200, "{\"" + index + "\":{\"aliases\":{\"" + alias + "\":{}}}}");
+				}
+			} else if (path.endsWith("/_settings")) {
+				String index = path.substring(1, path.indexOf('/', 1));
+				if (body.contains("null")) {
+					refreshEnabled.add(index);
+				}
+				respond(exchange, 200, "{\"acknowledged\":true}");
+			} else if (path.endsWith("/_refresh")) {
+				respond(exchange, 200, "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}");
+			} else if (path.contains("/_doc/")) {
+				// single document
+				respond(exchange, 201, "{\"_index\":\"product\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\","
+						+ "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":1,\"_primary_term\":1}");
+			} else if (method.equals("HEAD")) {
+				exchange.sendResponseHeaders(indices.containsKey(path.substring(1)) ? 200 : 404, -1);
+				exchange.close();
+			} else if (method.equals("PUT")) {
+				String index = path.substring(1);
+				indices.put(index, new ConcurrentHashMap<String, String>());
+				respond(exchange, 200, "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"" + index + "\"}");
+			} else if (method.equals("DELETE")) {
+				for (String index : path.substring(1).split(",")) {
+					indices.remove(index);
+				}
+				respond(exchange, 200, "{\"acknowledged\":true}");
+			} else {
+				respond(exchange, 400, "{\"error\":\"unsupported " + method + " " + path + "\",\"status\":400}");
+			}
+		}
+
+		private void bulk(HttpExchange exchange, String body) throws Exception {
+			if (bulkRequests.incrementAndGet() == failBulk.get()) {
+				respond(exchange, 503, "{\"error\":\"unavailable\",\"status\":503}");
+				return;
+			}
+			StringBuilder items = new StringBuilder();
+			Iterator<String> lines = Arrays.asList(body.split("\n")).iterator();
+			int count = 0;
+			while (lines.hasNext()) {
+				JsonNode line = mapper.readTree(lines.next());
+				String type = line.fieldNames().next();
+				JsonNode action = line.get(type);
+				String index = action.get("_index").asText();
+				String id = action.get("_id").asText();
+				Map<String, String> documents = indices.get(index);
+				if (documents == null) {
+					throw new IllegalStateException("no index " + index);
+				}
+				if (type.equals("delete")) {
+					documents.remove(id);
+				} else {
+					String source = lines.next();
+					if (keepDocuments) {
+						documents.put(id, source);
+					}
+				}
+				if (count++ > 0) {
+					items.append(',');
+				}
+				items.append("{\"").append(type).append("\":{\"_index\":\"").append(index).append("\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+						.append("\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},")
+						.append("\"_seq_no\":").append(count).append(",\"_primary_term\":1,\"status\":201}}");
+			}
+			respond(exchange, 200, "{\"took\":1,\"errors\":false,\"items\":[" + items + "]}");
+		}
+
+		private void respond(HttpExchange exchange, int status, String json) throws IOException {
+			byte[] response = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, response.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.salesmanager.test.shipping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.modules.integration.shipping.impl.PackingEngine;
+import com.salesmanager.core.business.modules.integration.shipping.impl.PackingEngine.Box;
+import com.salesmanager.core.business.modules.integration.shipping.impl.PackingEngine.Item;
+import com.salesmanager.core.model.shipping.PackageDetails;
+
+/**
+ * Packing of item aggregates in a box catalog
+ */
+public class PackingEngineTest {
+
+	private final PackingEngine engine = new PackingEngine();
+
+	// usable volume 750, holds 93 units of 2x2x2 by volume
+	private final Box large = new Box("LARGE", 10, 10, 10, 1, 100);
+	// usable volume 60, holds 7 units of 2x2x2
+	private final Box small = new Box("SMALL", 4, 4, 5, 0.2, 20);
+
+	@Test
+	public void thousandsOfUnitsGiveCompactPackages() throws Exception {
+		List<PackageDetails> packages = engine.pack(
+				Collections.singletonList(new Item("bolt", 2, 2, 2, 0.5, 5000)), Arrays.asList(large, small));
+
+		// 53 full large boxes and the last 71 units in a large box
+		assertEquals(2, packages.size());
+		assertEquals("LARGE", packages.get(0).getCode());
+		assertEquals(53, packages.get(0).getShippingQuantity());
+		assertEquals(1 + 93 * 0.5, packages.get(0).getShippingWeight(), 0.0001);
+		assertEquals(1, packages.get(1).getShippingQuantity());
+		assertEquals(1 + 71 * 0.5, packages.get(1).getShippingWeight(), 0.0001);
+	}
+
+	@Test
+	public void smallestBoxForRemainderAndOpenBoxesReused() throws Exception {
+		List<PackageDetails> packages = engine.pack(Arrays.asList(
+				new Item("bolt", 2, 2, 2, 0.5, 95),
+				new Item("nut", 1, 1, 1, 0.1, 10)), Arrays.asList(large, small));
+
+		// one full large box, 2 bolts in a small box with 10 nuts added (volume 16 + 10 <= 60)
+		assertEquals(2, packages.size());
+		assertEquals("LARGE", packages.get(0).getCode());
+		assertEquals(1, packages.get(0).getShippingQuantity());
+		assertEquals("SMALL", packages.get(1).getCode());
+		assertEquals(0.2 + 2 * 0.5 + 10 * 0.1, packages.get(1).getShippingWeight(), 0.0001);
+	}
+
+	@Test
+	public void weightLimitsUnitsPerBox() throws Exception {
+		List<PackageDetails> packages = engine.pack(
+				Collections.singletonList(new Item("anvil", 2, 2, 2, 40, 10)), Arrays.asList(large));
+
+		// 2 units of 40 per box of 100
+		assertEquals(1, packages.size());
+		assertEquals(5, packages.get(0).getShippingQuantity());
+		assertEquals(81, packages.get(0).getShippingWeight(), 0.0001);
+	}
+
+	@Test
+	public void unitLargerThanUsableVolumeKeepsItsBox() throws Exception {
+		List<PackageDetails> packages = engine.pack(Arrays.asList(
+				new Item("crate", 10, 10, 9, 10, 1),
+				new Item("bolt", 2, 2, 2, 0.5, 5)), Arrays.asList(large, small));
+
+		// the crate fills more than the usable volume of its box, bolts go in a small box
+		assertEquals(2, packages.size());
+		assertEquals("LARGE", packages.get(0).getCode());
+		assertEquals(1 + 10, packages.get(0).getShippingWeight(), 0.0001);
+		assertEquals("SMALL", packages.get(1).getCode());
+		assertEquals(0.2 + 5 * 0.5, packages.get(1).getShippingWeight(), 0.0001);
+	}
+
+	@Test
+	public void rotatedItemFitsOversizedDoesNot() throws Exception {
+		engine.pack(Collections.singletonList(new Item("rod", 2, 9, 2, 1, 1)),
+				Collections.singletonList(new Box("FLAT", 10, 3, 3, 0, 10)));
+
+		assertThrows(ServiceException.class, () -> engine.pack(
+				Collections.singletonList(new Item("beam", 12, 1, 1, 1, 1)), Arrays.asList(large, small)));
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.salesmanager.test.shipping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.modules.integration.shipping.impl.ShippingDistancePreProcessorImpl;
+import com.salesmanager.core.business.repositories.shipping.ShippingDistanceRepository;
+import com.salesmanager.core.business.repositories.shipping.ShippingGeoCodeRepository;
+import com.salesmanager.core.business.services.shipping.ShippingGeoCache;
+import com.salesmanager.core.model.shipping.ShippingDistance;
+import com.salesmanager.core.model.shipping.ShippingGeoCode;
+
+/**
+ * Geocodes and distances cached in memory and in the database
+ */
+public class ShippingGeoCacheTest {
+
+	private static final String ADDRESS = "2055 Peel Street Montreal H3A 1V4 QC CA";
+
+	private ShippingGeoCache geoCache;
+	private ShippingGeoCodeRepository geoCodeRepository;
+	private ShippingDistanceRepository distanceRepository;
+
+	@BeforeEach
+	public void setUp() {
+		geoCodeRepository = mock(ShippingGeoCodeRepository.class);
+		distanceRepository = mock(ShippingDistanceRepository.class);
+		when(geoCodeRepository.findById(any())).thenReturn(Optional.empty());
+		when(distanceRepository.findById(any())).thenReturn(Optional.empty());
+
+		geoCache = new ShippingGeoCache();
+		ReflectionTestUtils.setField(geoCache, "geoCodeRepository", geoCodeRepository);
+		ReflectionTestUtils.setField(geoCache, "distanceRepository", distanceRepository);
+		ReflectionTestUtils.setField(geoCache, "ttl", 30L);
+		ReflectionTestUtils.setField(geoCache, "cacheSize", 100L);
+		geoCache.init();
+	}
+
+	@Test
+	public void geoCodeSavedThenServedFromMemory() throws Exception {
+		assertNull(geoCache.getGeoCode(ADDRESS));
+		geoCache.saveGeoCode(ADDRESS, 45.5, -73.57);
+		verify(geoCodeRepository).save(any(ShippingGeoCode.class));
+
+		// same address written differently
+		ShippingGeoCode geoCode = geoCache.getGeoCode("  2055 PEEL Street  Montreal H3A 1V4 QC CA");
+		assertEquals(45.5, geoCode.getLatitude(), 0);
+		verify(geoCodeRepository, times(1)).findById(any());
+	}
+
+	@Test
+	public void storedEntriesSurviveRestartUntilExpired() throws Exception {
+		String key = ShippingGeoCache.addressKey(ADDRESS);
+		ShippingGeoCode stored = new ShippingGeoCode(key, 45.5, -73.57);
+		when(geoCodeRepository.findById(key)).thenReturn(Optional.of(stored));
+		assertEquals(-73.57, geoCache.getGeoCode(ADDRESS).getLongitude(), 0);
+
+		ShippingGeoCode destination = new ShippingGeoCode("dest", 46.81, -71.21);
+		ShippingDistance expired = new ShippingDistance(key + "_dest", 250);
+		expired.setDateCreated(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31)));
+		when(distanceRepository.findById(key + "_dest")).thenReturn(Optional.of(expired));
+		assertNull(geoCache.getDistance(stored, destination));
+
+		geoCache.saveDistance(stored, destination, 253.2);
+		assertEquals(253.2, geoCache.getDistance(stored, destination), 0);
+	}
+
+	@Test
+	public void straightLineDistance() {
+		// Montreal - Quebec city
+		double distance = ShippingDistancePreProcessorImpl.haversine(45.5017, -73.5673, 46.8139, -71.2080);
+		assertEquals(233, distance, 2);
+		assertEquals(0, ShippingDistancePreProcessorImpl.haversine(45.5, -73.5, 45.5, -73.5), 0);
+	}
+
+}
@@ -0,0 +1,219 @@
+package com.salesmanager.test.shipping;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.modules.integration.shipping.impl.ShippingHttpClient;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.business.services.shipping.ShippingQuoteAggregator;
+import com.salesmanager.core.business.services.shipping.ShippingQuoteAggregator.Carrier;
+import com.salesmanager.core.model.common.Delivery;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.country.Country;
+import com.salesmanager.core.model.shipping.PackageDetails;
+import com.salesmanager.core.model.shipping.ShippingOption;
+import com.salesmanager.core.model.shipping.ShippingOrigin;
+import com.salesmanager.core.model.shipping.ShippingQuote;
+import com.salesmanager.core.model.system.IntegrationConfiguration;
+import com.salesmanager.core.model.system.IntegrationModule;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+import com.salesmanager.core.modules.integration.shipping.model.ShippingQuoteModule;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Carriers quoted in parallel against a local http stub, with a deadline
+ * and a quote cache
+ */
+public class ShippingQuoteAggregatorTest {
+
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private ShippingHttpClient httpClient;
+	private ShippingQuoteAggregator aggregator;
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private MerchantStore store;
+	private Delivery delivery;
+	private ShippingOrigin origin;
+	private List<PackageDetails> packages;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/rate", exchange -> {
+			requests.incrementAndGet();
+			String query = exchange.getRequestURI().getQuery();
+			if (query.contains("slow")) {
+				try {
+					Thread.sleep(3000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			int status = query.contains("error") ? 500 : 200;
+			byte[] body = "12.50".getBytes(StandardCharsets.US_ASCII);
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		// carriers are quoted concurrently
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.start();
+
+		httpClient = new ShippingHttpClient();
+		ReflectionTestUtils.setField(httpClient, "timeout", 5000);
+		ReflectionTestUtils.setField(httpClient, "maxConnections", 10);
+		ReflectionTestUtils.setField(httpClient, "maxConnectionsPerRoute", 10);
+		httpClient.init();
+
+		aggregator = new ShippingQuoteAggregator();
+		ReflectionTestUtils.setField(aggregator, "threads", 4);
+		ReflectionTestUtils.setField(aggregator, "timeout", 500L);
+		ReflectionTestUtils.setField(aggregator, "cacheTtl", 60L);
+		ReflectionTestUtils.setField(aggregator, "cacheSize", 100L);
+		aggregator.init();
+
+		store = new MerchantStore();
+		store.setId(1);
+		Country country = new Country("CA");
+		delivery = new Delivery();
+		delivery.setCountry(country);
+		delivery.setPostalCode("H2H2H2");
+		origin = new ShippingOrigin();
+		origin.setCountry(country);
+		origin.setPostalCode("J4B5E3");
+
+		PackageDetails box = new PackageDetails();
+		box.setShippingQuantity(1);
+		box.setShippingWeight(2);
+		packages = Collections.singletonList(box);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		aggregator.shutdown();
+		httpClient.shutdown();
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	/**
+	 * carrier calling the stub, the option price is the response body
+	 */
+	private Carrier carrier(String code) throws Exception {
+		ShippingQuoteModule module = mock(ShippingQuoteModule.class);
+		when(module.getShippingQuotes(any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+				.thenAnswer(invocation -> {
+					HttpGet get = new HttpGet("http://127.0.0.1:" + server.getAddress().getPort() + "/rate?carrier=" + code);
+					String price = httpClient.getClient().execute(get, response -> {
+						if (response.getStatusLine().getStatusCode() != 200) {
+							throw new IllegalStateException(code + " error " + response.getStatusLine().getStatusCode());
+						}
+						return EntityUtils.toString(response.getEntity());
+					});
+					ShippingOption option = new ShippingOption();
+					option.setOptionCode(code);
+					option.setOptionPrice(new BigDecimal(price));
+					return Collections.singletonList(option);
+				});
+
+		IntegrationModule integrationModule = new IntegrationModule();
+		integrationModule.setCode(code);
+		return new Carrier(module, new IntegrationConfiguration(), integrationModule);
+	}
+
+	private List<ShippingOption> quote(ShippingQuote quote, List<Carrier> carriers) {
+		return aggregator.getShippingQuotes(carriers, quote, packages, new BigDecimal("40.00"), delivery, origin,
+				store, null, Locale.CANADA);
+	}
+
+	@Test
+	public void slowAndFailingCarriersAreSkipped() throws Exception {
+		ShippingQuote quote = new ShippingQuote();
+		long start = System.currentTimeMillis();
+		List<ShippingOption> options = quote(quote,
+				Arrays.asList(carrier("fast"), carrier("slow"), carrier("error"), carrier("other")));
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals(2, options.size());
+		assertEquals("fast", options.get(0).getShippingModuleCode());
+		assertEquals("other", options.get(1).getShippingModuleCode());
+		assertEquals(0, new BigDecimal("12.50").compareTo(options.get(0).getOptionPrice()));
+		assertEquals(2, quote.getWarnings().size());
+		assertTrue(elapsed < 2500, "took " + elapsed + " ms");
+	}
+
+	@Test
+	public void repeatedQuotesServedFromCache() throws Exception {
+		List<Carrier> carriers = Arrays.asList(carrier("fast"), carrier("other"));
+		List<ShippingOption> first = quote(new ShippingQuote(), carriers);
+		List<ShippingOption> second = quote(new ShippingQuote(), carriers);
+		assertEquals(2, requests.get());
+		assertEquals(2, second.size());
+		assertNotSame(first.get(0), second.get(0));
+
+		// another destination is quoted
+		delivery.setPostalCode("H3H3H3");
+		quote(new ShippingQuote(), carriers);
+		assertEquals(4, requests.get());
+
+		// configuration changes clear the cache
+		aggregator.onEntityChange(new EntityChangeEvent(this, new MerchantConfiguration(), ChangeType.SAVE));
+		quote(new ShippingQuote(), carriers);
+		assertEquals(6, requests.get());
+	}
+
+	@Test
+	public void carriersRejectedByFullPoolAreSkipped() throws Exception {
+		aggregator.shutdown();
+		ReflectionTestUtils.setField(aggregator, "threads", 1);
+		aggregator.init();
+
+		// one running and 16 queued, the last carrier does not fit
+		List<Carrier> carriers = new ArrayList<Carrier>();
+		for (int i = 0; i < 17; i++) {
+			carriers.add(carrier("slow" + i));
+		}
+		carriers.add(carrier("fast"));
+
+		ShippingQuote quote = new ShippingQuote();
+		long start = System.currentTimeMillis();
+		List<ShippingOption> options = quote(quote, carriers);
+		long elapsed = System.currentTimeMillis() - start;
+
+		// not quoted on the request thread
+		assertNull(options);
+		assertEquals(18, quote.getWarnings().size());
+		assertTrue(quote.getWarnings().contains("No shipping quote from fast"));
+		assertTrue(elapsed < 2500, "took " + elapsed + " ms");
+	}
+
+}
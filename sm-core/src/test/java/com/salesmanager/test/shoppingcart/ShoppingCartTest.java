@@ -250,6 +250,17 @@ public class ShoppingCartTest extends com.salesmanager.test.common.AbstractSales
 	    ShoppingCart retrievedCart = shoppingCartService.getByCode(cartCode.toString(), store);
 	    
 	    Assert.assertNotNull(retrievedCart);
+
+	    /** Cart version, not changed by reading the cart **/
+	    String version = shoppingCartService.getVersion(cartCode.toString(), store);
+	    Assert.assertNotNull(version);
+	    retrievedCart = shoppingCartService.getByCode(cartCode.toString(), store);
+	    Assert.assertEquals(version, shoppingCartService.getVersion(cartCode.toString(), store));
+
+	    retrievedCart.getLineItems().iterator().next().setQuantity(2);
+	    shoppingCartService.saveOrUpdate(retrievedCart);
+	    Assert.assertNotEquals(version, shoppingCartService.getVersion(cartCode.toString(), store));
+	    retrievedCart = shoppingCartService.getByCode(cartCode.toString(), store);
 	    
 	    /** Delete cart **/
 	    shoppingCartService.delete(retrievedCart);
@@ -258,6 +269,7 @@ public class ShoppingCartTest extends com.salesmanager.test.common.AbstractSales
 	    retrievedCart = shoppingCartService.getByCode(cartCode.toString(), store);
 	    
 	    Assert.assertNull(retrievedCart);
+	    Assert.assertNull(shoppingCartService.getVersion(cartCode.toString(), store));
 
 		// Clean up for other tests
 	    categoryService.delete(shirts);
@@ -0,0 +1,240 @@
+package com.salesmanager.test.system;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.constants.Constants;
+import com.salesmanager.core.business.modules.email.DefaultEmailSenderImpl;
+import com.salesmanager.core.business.modules.email.Email;
+import com.salesmanager.core.business.modules.email.EmailComponent;
+import com.salesmanager.core.business.modules.email.EmailConfig;
+import com.salesmanager.core.business.modules.email.EmailTemplateRenderer;
+import com.salesmanager.core.business.repositories.system.EmailOutboxRepository;
+import com.salesmanager.core.business.services.merchant.MerchantStoreService;
+import com.salesmanager.core.business.services.system.EmailOutboxDispatcher;
+import com.salesmanager.core.business.services.system.MerchantConfigurationRegistry;
+import com.salesmanager.core.business.utils.JsonUtils;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.system.EmailOutbox;
+
+import freemarker.template.Configuration;
+
+/**
+ * Outbox emails sent to an smtp stub
+ */
+public class EmailOutboxDispatcherTest {
+
+	private SmtpStub smtp;
+	private DefaultEmailSenderImpl emailSender;
+	private EmailConfig emailConfig;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		smtp = new SmtpStub();
+
+		EmailTemplateRenderer renderer = new EmailTemplateRenderer();
+		renderer.setFreemarkerMailConfiguration(new Configuration(Configuration.VERSION_2_3_31));
+		renderer.init();
+
+		emailSender = new DefaultEmailSenderImpl();
+		emailSender.setEmailTemplateRenderer(renderer);
+		emailSender.setMailSender(new JavaMailSenderImpl());
+
+		emailConfig = new EmailConfig();
+		emailConfig.setProtocol("smtp");
+		emailConfig.setHost("localhost");
+		emailConfig.setPort(String.valueOf(smtp.getPort()));
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		smtp.close();
+	}
+
+	@Test
+	public void storeEmailsSentOverOneConnection() throws Exception {
+		Email rejected = email("unknown@shopizer.com");
+		Map<Email, Exception> failed = emailSender.send(emailConfig,
+				Arrays.asList(email("first@shopizer.com"), rejected, email("second@shopizer.com")));
+
+		assertEquals(1, failed.size());
+		assertTrue(failed.containsKey(rejected));
+		assertEquals(1, smtp.connections.get());
+		assertEquals(Arrays.asList("first@shopizer.com", "second@shopizer.com"), smtp.delivered);
+	}
+
+	@Test
+	public void failedEmailsRetriedLater() throws Exception {
+		EmailOutbox sent = outbox(1L, email("customer@shopizer.com"));
+		EmailOutbox failed = outbox(2L, email("unknown@shopizer.com"));
+		failed.setAttempts(1);
+
+		EmailOutboxRepository repository = mock(EmailOutboxRepository.class);
+		when(repository.findDue(any(), any(Pageable.class))).thenReturn(Arrays.asList(1L, 2L));
+		when(repository.claim(anyLong(), any(), any())).thenReturn(1);
+		when(repository.findAllById(any())).thenReturn(Arrays.asList(sent, failed));
+
+		MerchantStore store = new MerchantStore(1, MerchantStore.DEFAULT_STORE, "store");
+		MerchantStoreService merchantStoreService = mock(MerchantStoreService.class);
+		when(merchantStoreService.getById(1)).thenReturn(store);
+		MerchantConfigurationRegistry registry = mock(MerchantConfigurationRegistry.class);
+		when(registry.<EmailConfig>get(eq(store), eq(Constants.EMAIL_CONFIG), any())).thenReturn(emailConfig);
+
+		EmailComponent sender = new EmailComponent();
+		ReflectionTestUtils.setField(sender, "emailSender", "default");
+		ReflectionTestUtils.setField(sender, "defaultEmailSender", emailSender);
+
+		EmailOutboxDispatcher dispatcher = new EmailOutboxDispatcher();
+		ReflectionTestUtils.setField(dispatcher, "outboxRepository", repository);
+		ReflectionTestUtils.setField(dispatcher, "merchantStoreService", merchantStoreService);
+		ReflectionTestUtils.setField(dispatcher, "merchantConfigurationRegistry", registry);
+		ReflectionTestUtils.setField(dispatcher, "sender", sender);
+		ReflectionTestUtils.setField(dispatcher, "enabled", false);
+		ReflectionTestUtils.setField(dispatcher, "threads", 2);
+		ReflectionTestUtils.setField(dispatcher, "batchSize", 50);
+		ReflectionTestUtils.setField(dispatcher, "maxAttempts", 3);
+		ReflectionTestUtils.setField(dispatcher, "retryDelay", 30L);
+		dispatcher.init();
+		try {
+			assertEquals(2, dispatcher.drain());
+		} finally {
+			dispatcher.shutdown();
+		}
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<List<EmailOutbox>> saved = ArgumentCaptor.forClass(List.class);
+		verify(repository).saveAll(saved.capture());
+		assertEquals(2, saved.getValue().size());
+
+		assertEquals(EmailOutbox.Status.SENT, sent.getStatus());
+		assertNull(sent.getLastError());
+		assertEquals(Arrays.asList("customer@shopizer.com"), smtp.delivered);
+
+		// second attempt, next one in 60 seconds
+		assertEquals(EmailOutbox.Status.PENDING, failed.getStatus());
+		assertEquals(2, failed.getAttempts());
+		long delay = failed.getNextAttempt().getTime() - System.currentTimeMillis();
+		assertTrue(delay > TimeUnit.SECONDS.toMillis(50) && delay <= TimeUnit.SECONDS.toMillis(60), "delay " + delay);
+		assertTrue(failed.getLastError().contains("550"), failed.getLastError());
+	}
+
+	private Email email(String to) {
+		Email email = new Email();
+		email.setFrom("Default store");
+		email.setFromEmail("store@shopizer.com");
+		email.setTo(to);
+		email.setSubject("Outbox");
+		email.setTemplateName("email_template_marketing.ftl");
+		return email;
+	}
+
+	private EmailOutbox outbox(Long id, Email email) throws Exception {
+		EmailOutbox outbox = new EmailOutbox(1, JsonUtils.MAPPER.writeValueAsString(email));
+		outbox.setId(id);
+		outbox.setStatus(EmailOutbox.Status.SENDING);
+		return outbox;
+	}
+
+	/**
+	 * Accepts any smtp command, rejects recipients starting with unknown
+	 */
+	private static class SmtpStub {
+
+		private final ServerSocket server;
+		private final ExecutorService sessions = Executors.newCachedThreadPool();
+		private final AtomicInteger connections = new AtomicInteger();
+		private final List<String> delivered = new CopyOnWriteArrayList<String>();
+
+		SmtpStub() throws IOException {
+			server = new ServerSocket(0);
+			sessions.execute(() -> {
+				while (!server.isClosed()) {
+					try {
+						Socket socket = server.accept();
+						connections.incrementAndGet();
+						sessions.execute(() -> session(socket));
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			});
+		}
+
+		int getPort() {
+			return server.getLocalPort();
+		}
+
+		void close() throws IOException {
+			server.close();
+			sessions.shutdownNow();
+		}
+
+		private void session(Socket socket) {
+			try (Socket s = socket;
+					BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+					PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+				reply(out, "220 stub ESMTP");
+				String recipient = null;
+				String line;
+				while ((line = in.readLine()) != null) {
+					String command = line.toUpperCase();
+					if (command.startsWith("RCPT TO:")) {
+						recipient = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+						reply(out, recipient.startsWith("unknown") ? "550 5.1.1 unknown recipient" : "250 OK");
+					} else if (command.equals("DATA")) {
+						reply(out, "354 end with .");
+						while ((line = in.readLine()) != null && !".".equals(line)) {
+							// message content
+						}
+						delivered.add(recipient);
+						reply(out, "250 queued");
+					} else if (command.equals("QUIT")) {
+						reply(out, "221 bye");
+						return;
+					} else {
+						reply(out, "250 OK");
+					}
+				}
+			} catch (IOException e) {
+				// client gone
+			}
+		}
+
+		private void reply(PrintWriter out, String reply) {
+			out.print(reply + "\r\n");
+			out.flush();
+		}
+	}
+
+}
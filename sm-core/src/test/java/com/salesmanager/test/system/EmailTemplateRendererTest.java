@@ -0,0 +1,133 @@
+package com.salesmanager.test.system;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.modules.email.Email;
+import com.salesmanager.core.business.modules.email.EmailTemplateRenderer;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+
+/**
+ * Email templates parsed once and rendered with the email tokens.
+ *
+ * The benchmark renders the password reset email and logs the throughput
+ * and the memory allocated per email, it runs with
+ * -Dbenchmark.emails=200000
+ */
+public class EmailTemplateRendererTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EmailTemplateRendererTest.class);
+
+	private static final String TEMPLATE = "email_template_password_reset_customer.ftl";
+
+	@Test
+	public void templateParsedOnce() throws Exception {
+		Configuration configuration = spy(new Configuration(Configuration.VERSION_2_3_31));
+		EmailTemplateRenderer renderer = renderer(configuration, 60);
+
+		String first = renderer.render(email("Alice"));
+		String second = renderer.render(email("Bob"));
+
+		assertTrue(first.contains("Alice"));
+		assertTrue(second.contains("Bob"));
+		verify(configuration, times(1)).getTemplate(anyString());
+	}
+
+	@Test
+	public void changedTemplateReloaded(@TempDir Path directory) throws Exception {
+		File template = directory.resolve("templates/email/changed.ftl").toFile();
+		template.getParentFile().mkdirs();
+		Files.write(template.toPath(), "Hello ${NAME}".getBytes(StandardCharsets.UTF_8));
+
+		Configuration configuration = new Configuration(Configuration.VERSION_2_3_31);
+		EmailTemplateRenderer renderer = renderer(configuration, 0);
+		configuration.setTemplateLoader(new FileTemplateLoader(directory.toFile()));
+
+		Map<String, String> tokens = new HashMap<String, String>();
+		tokens.put("NAME", "Alice");
+		assertEquals("Hello Alice", renderer.render("changed.ftl", null, tokens));
+
+		Files.write(template.toPath(), "Bye ${NAME}".getBytes(StandardCharsets.UTF_8));
+		template.setLastModified(template.lastModified() + 10000);
+		Thread.sleep(5);
+		assertEquals("Bye Alice", renderer.render("changed.ftl", null, tokens));
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark.emails", matches = "[0-9]+")
+	public void renderingThroughput() throws Exception {
+		int emails = Integer.parseInt(System.getProperty("benchmark.emails"));
+		EmailTemplateRenderer renderer = renderer(new Configuration(Configuration.VERSION_2_3_31), 60);
+		Email email = email("Alice");
+
+		// warm up
+		for (int i = 0; i < emails / 10; i++) {
+			renderer.render(email);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long length = 0;
+		for (int i = 0; i < emails; i++) {
+			length += renderer.render(email).length();
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+		LOGGER.info("Rendered " + emails + " emails in " + (elapsed / 1000000) + " ms, "
+				+ (emails * 1000000000L / elapsed) + " emails/s, " + (allocated / emails) + " bytes allocated per email");
+		assertTrue(length > 0);
+	}
+
+	private EmailTemplateRenderer renderer(Configuration configuration, long updateDelay) {
+		EmailTemplateRenderer renderer = new EmailTemplateRenderer();
+		renderer.setFreemarkerMailConfiguration(configuration);
+		ReflectionTestUtils.setField(renderer, "updateDelay", updateDelay);
+		renderer.init();
+		return renderer;
+	}
+
+	private Email email(String firstName) {
+		Map<String, String> tokens = new HashMap<String, String>();
+		tokens.put("LOGOPATH", "Default store");
+		tokens.put("LABEL_HI", "Hi");
+		tokens.put("EMAIL_CUSTOMER_FIRSTNAME", firstName);
+		tokens.put("EMAIL_CUSTOMER_LASTNAME", "Customer");
+		tokens.put("EMAIL_RESET_PASSWORD_TXT", "Your password has been reset");
+		tokens.put("EMAIL_PASSWORD_LABEL", "Password");
+		tokens.put("EMAIL_CUSTOMER_PASSWORD", "secret");
+		tokens.put("EMAIL_CONTACT_OWNER", "Contact us");
+		tokens.put("EMAIL_DISCLAIMER", "Disclaimer");
+		tokens.put("EMAIL_SPAM_DISCLAIMER", "Spam disclaimer");
+		tokens.put("EMAIL_FOOTER_COPYRIGHT", "Copyright");
+
+		Email email = new Email();
+		email.setTemplateName(TEMPLATE);
+		email.setTemplateTokens(tokens);
+		return email;
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.salesmanager.test.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.maxmind.geoip2.DatabaseProvider;
+import com.maxmind.geoip2.model.CityResponse;
+import com.maxmind.geoip2.record.City;
+import com.maxmind.geoip2.record.Country;
+import com.salesmanager.core.business.modules.utils.GeoLocationImpl;
+import com.salesmanager.core.model.common.Address;
+
+/**
+ * IP addresses resolved once per network
+ */
+public class GeoLocationTest {
+
+	private GeoLocationImpl geoLocation;
+	private DatabaseProvider database;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		geoLocation = new GeoLocationImpl();
+		ReflectionTestUtils.setField(geoLocation, "databaseFile", "");
+		ReflectionTestUtils.setField(geoLocation, "cacheSize", 100L);
+		ReflectionTestUtils.setField(geoLocation, "cacheTtl", 60L);
+		ReflectionTestUtils.setField(geoLocation, "threads", 1);
+		ReflectionTestUtils.setField(geoLocation, "queueCapacity", 10);
+		geoLocation.init();
+
+		CityResponse montreal = new CityResponse(
+				new City(Collections.singletonList("en"), null, null, Collections.singletonMap("en", "Montreal")),
+				null, new Country(null, null, null, "CA", null), null, null, null, null, null, null, null);
+		database = mock(DatabaseProvider.class);
+		when(database.city(any(InetAddress.class))).thenReturn(montreal);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		geoLocation.close();
+	}
+
+	@Test
+	public void noDatabase() throws Exception {
+		assertNull(geoLocation.getAddress("24.48.0.1"));
+		assertNull(geoLocation.getAddressAsync("24.48.0.1").get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void resolvedOncePerNetwork() throws Exception {
+		ReflectionTestUtils.setField(geoLocation, "reader", database);
+
+		Address address = geoLocation.getAddress("24.48.0.1");
+		assertEquals("CA", address.getCountry());
+		assertEquals("Montreal", address.getCity());
+		assertEquals("CA", geoLocation.getAddress("24.48.0.200").getCountry());
+		geoLocation.getAddress("24.48.1.1");
+
+		verify(database, times(2)).city(any(InetAddress.class));
+	}
+
+	@Test
+	public void cachedNetworkCompletesImmediately() throws Exception {
+		ReflectionTestUtils.setField(geoLocation, "reader", database);
+
+		assertEquals("CA", geoLocation.getAddressAsync("2001:db8::1").get(1, TimeUnit.SECONDS).getCountry());
+		CompletableFuture<Address> cached = geoLocation.getAddressAsync("2001:db8::2");
+		assertTrue(cached.isDone());
+		assertEquals("Montreal", cached.get().getCity());
+	}
+
+	@Test
+	public void forwardedForListUsesClientHop() throws Exception {
+		ReflectionTestUtils.setField(geoLocation, "reader", database);
+
+		assertEquals("CA", geoLocation.getAddress(" 24.48.0.1, 10.0.0.1").getCountry());
+		assertEquals("CA", geoLocation.getAddressAsync("24.48.0.2,10.0.0.1").get(1, TimeUnit.SECONDS).getCountry());
+		verify(database, times(1)).city(InetAddress.getByName("24.48.0.1"));
+	}
+
+	@Test
+	public void invalidAddress() throws Exception {
+		ReflectionTestUtils.setField(geoLocation, "reader", database);
+
+		assertNull(geoLocation.getAddress("unknown"));
+		assertNull(geoLocation.getAddress("24.48.0"));
+		assertNull(geoLocation.getAddressAsync("unknown, 24.48.0.1").get(1, TimeUnit.SECONDS));
+		verify(database, times(0)).city(any(InetAddress.class));
+	}
+
+}
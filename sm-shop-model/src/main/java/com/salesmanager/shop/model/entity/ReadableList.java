@@ -12,6 +12,7 @@ public abstract class ReadableList implements Serializable {
 	private int number;//number of record in current page
 	private long recordsTotal;//total number of records in db
 	private int recordsFiltered;
+	private String next;//cursor of the next page when paging with cursors
 
 	public int getTotalPages() {
 		return totalPages;
@@ -37,6 +38,14 @@ public abstract class ReadableList implements Serializable {
 		this.recordsFiltered = recordsFiltered;
 	}
 
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+
 	public int getNumber() {
 		return number;
 	}
@@ -11,11 +11,17 @@ import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.method.support.ModelAndViewContainer;
 
 import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.shop.constants.Constants;
+import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.context.StoreContextRegistry;
 import com.salesmanager.shop.utils.LanguageUtils;
 
 @Component
 public class LanguageArgumentResolver implements HandlerMethodArgumentResolver {
 
+  @Autowired
+  private StoreContextRegistry storeContextRegistry;
+
   @Autowired
   private LanguageUtils languageUtils;
 
@@ -28,7 +34,12 @@ public class LanguageArgumentResolver implements HandlerMethodArgumentResolver {
   public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
       NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
     HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
-    return languageUtils.getRESTLanguage(request);
+    try {
+      return storeContextRegistry.resolve(request).getRequestLanguage(request.getParameter(Constants.LANG));
+    } catch (ResourceNotFoundException e) {
+      // unknown store, language does not depend on it
+      return languageUtils.getRESTLanguage(request);
+    }
   }
 
 }
@@ -2,9 +2,8 @@ package com.salesmanager.shop.application.config;
 
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.shop.store.api.exception.UnauthorizedException;
-import com.salesmanager.shop.store.controller.store.facade.StoreFacade;
+import com.salesmanager.shop.store.context.StoreContextRegistry;
 import com.salesmanager.shop.store.controller.user.facade.UserFacade;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,19 +15,16 @@ import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.method.support.ModelAndViewContainer;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Optional;
-
-import static com.salesmanager.core.business.constants.Constants.DEFAULT_STORE;
 
 @SuppressWarnings("SpellCheckingInspection")
 @Component
 public class MerchantStoreArgumentResolver implements HandlerMethodArgumentResolver {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(MerchantStoreArgumentResolver.class);
-	public static final String REQUEST_PARAMATER_STORE = "store";
+	public static final String REQUEST_PARAMATER_STORE = StoreContextRegistry.REQUEST_PARAMETER_STORE;
 
 	@Autowired
-	private StoreFacade storeFacade;
+	private StoreContextRegistry storeContextRegistry;
 
 	@Autowired
 	private UserFacade userFacade;
@@ -41,11 +37,8 @@ public class MerchantStoreArgumentResolver implements HandlerMethodArgumentResol
 	@Override
 	public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
 								  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
-		String storeValue = Optional.ofNullable(webRequest.getParameter(REQUEST_PARAMATER_STORE))
-				.filter(StringUtils::isNotBlank).orElse(DEFAULT_STORE);
-		// TODO get from cache
-		MerchantStore storeModel = storeFacade.get(storeValue);
 		HttpServletRequest httpServletRequest = webRequest.getNativeRequest(HttpServletRequest.class);
+		MerchantStore storeModel = storeContextRegistry.resolve(httpServletRequest).getStore();
 		// TODO filter ??
 		// authorize request
 		boolean authorized = userFacade.authorizeStore(storeModel, httpServletRequest.getRequestURI());
@@ -1,23 +1,21 @@
 package com.salesmanager.shop.controller;
 
-import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.content.ContentService;
 import com.salesmanager.core.model.content.FileContentType;
-import com.salesmanager.core.model.content.OutputContentFile;
 import com.salesmanager.shop.constants.Constants;
 import com.salesmanager.shop.store.controller.AbstractController;
+import com.salesmanager.shop.utils.ContentFileDelivery;
+import com.salesmanager.shop.utils.ContentFileDelivery.CachePolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
 
 @SuppressWarnings("JavaDoc")
 @Controller
@@ -27,32 +25,29 @@ public class FilesController extends AbstractController {
 
 	@Inject
 	private ContentService contentService;
+
+	@Inject
+	private ContentFileDelivery contentFileDelivery;
 	
 
 	/**
 	 * Serves static files (css, js ...) the repository is a single node by merchant
 	 * @param storeCode
 	 * @param extension
-	 * @return
-	 * @throws IOException
-	 * @throws ServiceException
+	 * @throws Exception
 	 */
 	@RequestMapping("/static/files/{storeCode}/{fileName}.{extension}")
-	public @ResponseBody byte[] downloadFile(@PathVariable final String storeCode, @PathVariable final String fileName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws IOException, ServiceException {
+	public void downloadFile(@PathVariable final String storeCode, @PathVariable final String fileName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
 
 		// example -> /files/<store code>/myfile.css
 		FileContentType fileType = FileContentType.STATIC_FILE;
+		String fileNameAndExtension = fileName + "." + extension;
+		String key = storeCode + "/" + fileType.name() + "/" + fileNameAndExtension;
 		
 		// needs to query the new API
-		OutputContentFile file =contentService.getContentFile(storeCode, fileType, new StringBuilder().append(fileName).append(".").append(extension).toString());
-		
-		
-		if(file!=null) {
-			return file.getFile().toByteArray();
-		} else {
+		if(!contentFileDelivery.deliver(key, () -> contentService.getContentFile(storeCode, fileType, fileNameAndExtension), request, response)) {
 			LOGGER.debug("File not found " + fileName + "." + extension);
 			response.sendError(404, Constants.FILE_NOT_FOUND);
-			return null;
 		}
 	}
 	
@@ -63,23 +58,20 @@ public class FilesController extends AbstractController {
 	 * @param extension
 	 * @param request
 	 * @param response
-	 * @return
 	 * @throws Exception
 	 */
 	@PreAuthorize("hasRole('PRODUCTS')")
 	@RequestMapping("/admin/files/downloads/{storeCode}/{fileName}.{extension}")
-	public @ResponseBody byte[] downloadProduct(@PathVariable final String storeCode, @PathVariable final String fileName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
+	public void downloadProduct(@PathVariable final String storeCode, @PathVariable final String fileName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
 		FileContentType fileType = FileContentType.PRODUCT_DIGITAL;
 		String fileNameAndExtension = fileName + "." + extension;
+		String key = storeCode + "/" + fileType.name() + "/" + fileNameAndExtension;
+		response.setHeader("Content-Disposition", "attachment; filename=\"" + fileNameAndExtension + "\"");
 		// needs to query the new API
-		OutputContentFile file = contentService.getContentFile(storeCode, fileType, fileNameAndExtension);
-		if(file!=null) {
-			response.setHeader("Content-Disposition", "attachment; filename=\"" + fileNameAndExtension + "\"");
-			return file.getFile().toByteArray();
-		} else {
+		if(!contentFileDelivery.deliver(key, () -> contentService.getContentFile(storeCode, fileType, fileNameAndExtension), CachePolicy.PRIVATE, request, response)) {
 			LOGGER.debug("File not found " + fileName + "." + extension);
+			response.setHeader("Content-Disposition", null);
 			response.sendError(404, Constants.FILE_NOT_FOUND);
-			return null;
 		}
 	}
 
@@ -6,21 +6,25 @@ import com.salesmanager.core.business.services.content.ContentService;
 import com.salesmanager.core.model.catalog.product.file.ProductImageSize;
 import com.salesmanager.core.model.content.FileContentType;
 import com.salesmanager.core.model.content.OutputContentFile;
+import com.salesmanager.shop.utils.ContentFileDelivery;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.ResourceUtils;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.Callable;
 
 /**
  * When handling images and files from the application server
@@ -32,6 +36,8 @@ public class ImagesController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ImagesController.class);
 
+    private static final String WIDTH_PARAMETER = "w";
+
 
     @Inject
     private ContentService contentService;
@@ -39,6 +45,9 @@ public class ImagesController {
     @Inject
     private ProductImageService productImageService;
 
+    @Inject
+    private ContentFileDelivery contentFileDelivery;
+
     private byte[] tempImage = null;
 
     @PostConstruct
@@ -62,13 +71,10 @@ public class ImagesController {
      * @param storeId
      * @param imageType (LOGO, CONTENT, IMAGE)
      * @param imageName
-     * @return
-     * @throws IOException
-     * @throws ServiceException
+     * @throws Exception
      */
     @RequestMapping("/static/files/{storeCode}/{imageType}/{imageName}.{extension}")
-    public @ResponseBody
-    byte[] printImage(@PathVariable final String storeCode, @PathVariable final String imageType, @PathVariable final String imageName, @PathVariable final String extension) throws IOException, ServiceException {
+    public void printImage(@PathVariable final String storeCode, @PathVariable final String imageType, @PathVariable final String imageName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
 
         // example -> /static/files/DEFAULT/CONTENT/myImage.png
 
@@ -86,14 +92,11 @@ public class ImagesController {
             imgType = FileContentType.PROPERTY;
         }
 
-        OutputContentFile image = contentService.getContentFile(storeCode, imgType, new StringBuilder().append(imageName).append(".").append(extension).toString());
+        final FileContentType contentType = imgType;
+        String fileName = new StringBuilder().append(imageName).append(".").append(extension).toString();
+        String key = new StringBuilder().append(storeCode).append("/").append(imageType).append("/").append(fileName).toString();
 
-
-        if (image != null) {
-            return image.getFile().toByteArray();
-        } else {
-            return tempImage;
-        }
+        write(key, () -> contentService.getContentFile(storeCode, contentType, fileName), request, response);
 
     }
 
@@ -106,13 +109,11 @@ public class ImagesController {
      * @param imageType
      * @param imageName
      * @param extension
-     * @return
-     * @throws IOException
+     * @throws Exception
      * @Deprecated
      */
     @RequestMapping("/static/{storeCode}/{imageType}/{productCode}/{imageName}.{extension}")
-    public @ResponseBody
-    byte[] printImage(@PathVariable final String storeCode, @PathVariable final String productCode, @PathVariable final String imageType, @PathVariable final String imageName, @PathVariable final String extension) throws IOException {
+    public void printImage(@PathVariable final String storeCode, @PathVariable final String productCode, @PathVariable final String imageType, @PathVariable final String imageName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
 
         // product image
         // example small product image -> /static/DEFAULT/products/TB12345/product1.jpg
@@ -133,18 +134,7 @@ public class ImagesController {
         }
 
 
-        OutputContentFile image = null;
-        try {
-            image = productImageService.getProductImage(storeCode, productCode, new StringBuilder().append(imageName).append(".").append(extension).toString(), size);
-        } catch (ServiceException e) {
-            LOGGER.error("Cannot retrieve image " + imageName, e);
-        }
-        if (image != null) {
-            return image.getFile().toByteArray();
-        } else {
-            //empty image placeholder
-            return tempImage;
-        }
+        writeProductImage(storeCode, productCode, new StringBuilder().append(imageName).append(".").append(extension).toString(), size, request, response);
 
     }
 
@@ -156,13 +146,11 @@ public class ImagesController {
      * @param imageName
      * @param extension
      * @param request
-     * @return
-     * @throws IOException
+     * @throws Exception
      */
     @RequestMapping(value = "/static/products/{storeCode}/{productCode}/{imageSize}/{imageName}.{extension}",
             produces = {"image/gif", "image/jpg", "image/png", "application/octet-stream"})
-    public @ResponseBody
-    byte[] printImage(@PathVariable final String storeCode, @PathVariable final String productCode, @PathVariable final String imageSize, @PathVariable final String imageName, @PathVariable final String extension, HttpServletRequest request) throws IOException {
+    public void printProductImage(@PathVariable final String storeCode, @PathVariable final String productCode, @PathVariable final String imageSize, @PathVariable final String imageName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
 
         // product image small
         // example small product image -> /static/products/DEFAULT/TB12345/SMALL/product1.jpg
@@ -183,18 +171,7 @@ public class ImagesController {
         }
 
 
-        OutputContentFile image = null;
-        try {
-            image = productImageService.getProductImage(storeCode, productCode, new StringBuilder().append(imageName).append(".").append(extension).toString(), size);
-        } catch (ServiceException e) {
-            LOGGER.error("Cannot retrieve image " + imageName, e);
-        }
-        if (image != null) {
-            return image.getFile().toByteArray();
-        } else {
-            //empty image placeholder
-            return tempImage;
-        }
+        writeProductImage(storeCode, productCode, new StringBuilder().append(imageName).append(".").append(extension).toString(), size, request, response);
 
     }
 
@@ -206,18 +183,17 @@ public class ImagesController {
      * @param imageName
      * @param extension
      * @param request
-     * @return
-     * @throws IOException
+     * @throws Exception
      */
     @RequestMapping(value = "/static/products/{storeCode}/{productCode}/{imageName}.{extension}",
             produces = {"image/gif", "image/jpg", "image/png", "application/octet-stream"})
-    public @ResponseBody
-    byte[] printImage(@PathVariable final String storeCode, @PathVariable final String productCode, @PathVariable final String imageName, @PathVariable final String extension, HttpServletRequest request) throws IOException {
+    public void printProductImage(@PathVariable final String storeCode, @PathVariable final String productCode, @PathVariable final String imageName, @PathVariable final String extension, HttpServletRequest request, HttpServletResponse response) throws Exception {
 
         // product image
         // example small product image -> /static/products/DEFAULT/TB12345/product1.jpg?size=small
 
         // example large product image -> /static/products/DEFAULT/TB12345/product1.jpg
+        // example listing variant -> /static/products/DEFAULT/TB12345/product1.jpg?w=400
         // or
         //example large product image -> /static/products/DEFAULT/TB12345/product1.jpg?size=large
 
@@ -239,17 +215,42 @@ public class ImagesController {
         }
 
 
-        OutputContentFile image = null;
-        try {
-            image = productImageService.getProductImage(storeCode, productCode, new StringBuilder().append(imageName).append(".").append(extension).toString(), size);
-        } catch (ServiceException e) {
-            LOGGER.error("Cannot retrieve image " + imageName, e);
-        }
-        if (image != null) {
-            return image.getFile().toByteArray();
-        } else {
-            //empty image placeholder
-            return tempImage;
+        writeProductImage(storeCode, productCode, new StringBuilder().append(imageName).append(".").append(extension).toString(), size, request, response);
+
+    }
+
+    /**
+     * Product image of the requested size, or the variant closest
+     * to the display width when the w request parameter is set
+     */
+    private void writeProductImage(String storeCode, String productCode, String fileName, ProductImageSize size, HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        int width = NumberUtils.toInt(request.getParameter(WIDTH_PARAMETER), 0);
+        String key = new StringBuilder().append(storeCode).append("/").append(productCode).append("/").append(width > 0 ? "w" + width : size.name()).append("/").append(fileName).toString();
+
+        write(key, () -> {
+            try {
+                return width > 0
+                        ? productImageService.getProductImage(storeCode, productCode, fileName, width)
+                        : productImageService.getProductImage(storeCode, productCode, fileName, size);
+            } catch (ServiceException e) {
+                LOGGER.error("Cannot retrieve image " + fileName, e);
+                return null;
+            }
+        }, request, response);
+
+    }
+
+    private void write(String key, Callable<OutputContentFile> loader, HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        if (!contentFileDelivery.deliver(key, loader, request, response)) {
+            //empty image placeholder, not cached by the client
+            response.setContentType(MediaType.IMAGE_PNG_VALUE);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+            if (tempImage != null) {
+                response.setContentLength(tempImage.length);
+                response.getOutputStream().write(tempImage);
+            }
         }
 
     }
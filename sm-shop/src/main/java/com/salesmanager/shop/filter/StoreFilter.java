@@ -1,6 +1,5 @@
 package com.salesmanager.shop.filter;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesmanager.core.business.services.catalog.category.CategoryService;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
 import com.salesmanager.core.business.services.content.ContentService;
@@ -8,8 +7,8 @@ import com.salesmanager.core.business.services.customer.CustomerService;
 import com.salesmanager.core.business.services.merchant.MerchantStoreService;
 import com.salesmanager.core.business.services.reference.language.LanguageService;
 import com.salesmanager.core.business.services.system.MerchantConfigurationService;
-import com.salesmanager.core.business.utils.CacheUtils;
 import com.salesmanager.core.business.utils.CoreConfiguration;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.catalog.category.Category;
 import com.salesmanager.core.model.catalog.category.CategoryDescription;
 import com.salesmanager.core.model.catalog.product.Product;
@@ -25,7 +24,6 @@ import com.salesmanager.core.model.system.MerchantConfiguration;
 import com.salesmanager.core.model.system.MerchantConfigurationType;
 import com.salesmanager.shop.constants.Constants;
 import com.salesmanager.shop.model.catalog.category.ReadableCategory;
-import com.salesmanager.shop.model.catalog.category.ReadableCategoryList;
 import com.salesmanager.shop.model.customer.AnonymousCustomer;
 import com.salesmanager.shop.model.customer.address.Address;
 import com.salesmanager.shop.model.shop.Breadcrumb;
@@ -33,11 +31,12 @@ import com.salesmanager.shop.model.shop.BreadcrumbItem;
 import com.salesmanager.shop.model.shop.BreadcrumbItemType;
 import com.salesmanager.shop.model.shop.PageInformation;
 import com.salesmanager.shop.populator.catalog.ReadableCategoryPopulator;
+import com.salesmanager.shop.store.context.StoreContext;
+import com.salesmanager.shop.store.context.StoreContextRegistry;
 import com.salesmanager.shop.store.controller.category.facade.CategoryFacade;
 import com.salesmanager.shop.utils.GeoLocationUtils;
 import com.salesmanager.shop.utils.LabelUtils;
 import com.salesmanager.shop.utils.LanguageUtils;
-import com.salesmanager.shop.utils.WebApplicationCacheUtils;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -58,8 +57,10 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * Servlet Filter implementation class StoreFilter
@@ -72,6 +73,12 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 
 	private final static String STORE_REQUEST_PARAMETER = "store";
 
+	/**
+	 * session attribute set while the anonymous customer address waits
+	 * for the geo ip lookup
+	 */
+	private final static String GEO_LOCATION_PENDING = "GEO_LOCATION_PENDING";
+
 	@Inject
 	private ContentService contentService;
 
@@ -100,10 +107,7 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 	private LanguageUtils languageUtils;
 
 	@Inject
-	private CacheUtils cache;
-
-	@Inject
-	private WebApplicationCacheUtils webApplicationCache;
+	private StoreContextRegistry storeContextRegistry;
 
 	@Inject
 	private CategoryFacade categoryFacade;
@@ -147,8 +151,14 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 			if (store == null) {
 				store = setMerchantStoreInSession(request, MerchantStore.DEFAULT_STORE);
 			}
-			if(StringUtils.isBlank(store.getStoreTemplate())) {
-				store.setStoreTemplate(Constants.DEFAULT_TEMPLATE);
+			// current snapshot of the store, replaces the copy kept in session
+			StoreContext storeContext = storeContextRegistry.get(store.getCode());
+			if (storeContext != null) {
+				if (store != storeContext.getStore()) {
+					store = storeContext.getStore();
+					request.getSession().setAttribute(Constants.MERCHANT_STORE, store);
+				}
+				request.setAttribute(StoreContextRegistry.REQUEST_STORE_CONTEXT, storeContext);
 			}
 			request.setAttribute(Constants.MERCHANT_STORE, store);
 			String ipAddress = GeoLocationUtils.getClientIpAddress(request);
@@ -178,39 +188,28 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 			AnonymousCustomer anonymousCustomer = (AnonymousCustomer) request.getSession()
 					.getAttribute(Constants.ANONYMOUS_CUSTOMER);
 			if (anonymousCustomer == null) {
-				Address address = null;
-				try {
-					if(!StringUtils.isBlank(ipAddress)) {
-						com.salesmanager.core.model.common.Address geoAddress = customerService.getCustomerAddress(store, ipAddress);
-						if (geoAddress != null) {
-							address = new Address();
-							address.setCountry(geoAddress.getCountry());
-							address.setCity(geoAddress.getCity());
-							address.setZone(geoAddress.getZone());
-							// address.setPostalCode(geoAddress.getPostalCode());
-						}
-					}
-				} catch (Exception ce) {
-					LOGGER.error("Cannot get geo ip component ", ce);
-				}
-
-				if (address == null) {
-					address = new Address();
-					address.setCountry(store.getCountry().getIsoCode());
-					if (store.getZone() != null) {
-						address.setZone(store.getZone().getCode());
-					} else {
-						address.setStateProvince(store.getStorestateprovince());
-					}
-					// address.setPostalCode(store.getStorepostalcode());
+				Address address = new Address();
+				address.setCountry(store.getCountry().getIsoCode());
+				if (store.getZone() != null) {
+					address.setZone(store.getZone().getCode());
+				} else {
+					address.setStateProvince(store.getStorestateprovince());
 				}
+				// address.setPostalCode(store.getStorepostalcode());
 
 				anonymousCustomer = new AnonymousCustomer();
 				anonymousCustomer.setBilling(address);
 				request.getSession().setAttribute(Constants.ANONYMOUS_CUSTOMER, anonymousCustomer);
+
+				if (!StringUtils.isBlank(ipAddress)) {
+					request.getSession().setAttribute(GEO_LOCATION_PENDING, Boolean.TRUE);
+				}
 			} else {
 				request.setAttribute(Constants.ANONYMOUS_CUSTOMER, anonymousCustomer);
 			}
+			if (request.getSession().getAttribute(GEO_LOCATION_PENDING) != null) {
+				geoLocate(request, store, ipAddress, anonymousCustomer);
+			}
 
 			Language language = languageUtils.getRequestLanguage(request, response);
 			request.setAttribute(Constants.LANGUAGE, language);
@@ -221,12 +220,12 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 			LocaleContextHolder.setLocale(locale);
 			setBreadcrumb(request, locale);
 			// get from the cache first
-			this.getContentObjects(store, language, request);
+			this.getContentObjects(store, storeContext, language, request);
 
-			this.getContentPageNames(store, language, request);
+			this.getContentPageNames(store, storeContext, language, request);
 
 			// this.getTopCategories(store, language, request);
-			this.setTopCategories(store, language, request);
+			this.setTopCategories(store, storeContext, language, request);
 
 			PageInformation pageInformation = new PageInformation();
 			pageInformation.setPageTitle(store.getStorename());
@@ -262,7 +261,7 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 
 			request.setAttribute(Constants.REQUEST_PAGE_INFORMATION, pageInformation);
 
-			this.getMerchantConfigurations(store, request);
+			this.getMerchantConfigurations(store, storeContext, request);
 
 			String shoppingCarCode = (String) request.getSession().getAttribute(Constants.SHOPPING_CART);
 			if (shoppingCarCode != null) {
@@ -277,39 +276,43 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void getMerchantConfigurations(MerchantStore store, HttpServletRequest request) throws Exception {
-		// Convert configKey StringBuilder into String
-		String configKey = store.getId() + "_" + Constants.CONFIG_CACHE_KEY;
-
-		StringBuilder configKeyMissed = new StringBuilder();
-		configKeyMissed.append(configKey).append(Constants.MISSED_CACHE_KEY);
-		Map<String, Object> configs;
-
-		if (store.isUseCache()) {
-			// get from the cache
-			configs = (Map<String, Object>) cache.getFromCache(configKey);
-			if (configs == null) {
-				// get from missed cache
-				// Boolean missedContent =
-				// (Boolean)cache.getFromCache(configKeyMissed.toString());
-
-				// if( missedContent==null) {
-				configs = this.getConfigurations(store);
-				// put in cache
-
-				if (configs != null) {
-					cache.putInCache(configs, configKey);
-				} else {
-					// put in missed cache
-					// May need to update this part..
-				}
-				// }
-			}
-
-		} else {
-			configs = this.getConfigurations(store);
+	/**
+	 * Known networks resolve right away, other lookups run in background and
+	 * the address is applied on a following request once the network is
+	 * cached, so the session is only changed by request threads.
+	 */
+	private void geoLocate(HttpServletRequest request, MerchantStore store, String ipAddress,
+			AnonymousCustomer anonymousCustomer) {
+		CompletableFuture<com.salesmanager.core.model.common.Address> lookup = customerService
+				.getCustomerAddressAsync(store, ipAddress);
+		if (!lookup.isDone()) {
+			return;
+		}
+		request.getSession().removeAttribute(GEO_LOCATION_PENDING);
+		com.salesmanager.core.model.common.Address geoAddress;
+		try {
+			geoAddress = lookup.join();
+		} catch (CompletionException ce) {
+			LOGGER.error("Cannot get geo ip component ", ce);
+			return;
 		}
+		if (geoAddress != null && !StringUtils.isBlank(geoAddress.getCountry())) {
+			Address geo = new Address();
+			geo.setCountry(geoAddress.getCountry());
+			geo.setCity(geoAddress.getCity());
+			geo.setZone(geoAddress.getZone());
+			// geo.setPostalCode(geoAddress.getPostalCode());
+			anonymousCustomer.setBilling(geo);
+			// set again so that distributed sessions store the change
+			request.getSession().setAttribute(Constants.ANONYMOUS_CUSTOMER, anonymousCustomer);
+		}
+	}
+
+	private void getMerchantConfigurations(MerchantStore store, StoreContext storeContext, HttpServletRequest request)
+			throws Exception {
+		String configKey = store.getId() + "_" + Constants.CONFIG_CACHE_KEY;
+		Map<String, Object> configs = fromStoreContext(store, storeContext, configKey,
+				() -> this.getConfigurations(store));
 
 		if (configs != null && configs.size() > 0) {
 			request.setAttribute(Constants.REQUEST_CONFIGS, configs);
@@ -317,9 +320,8 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void getContentPageNames(MerchantStore store, Language language, HttpServletRequest request)
-			throws Exception {
+	private void getContentPageNames(MerchantStore store, StoreContext storeContext, Language language,
+			HttpServletRequest request) throws Exception {
 
 		// build the key
 
@@ -327,38 +329,8 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 		contentKey.append(store.getId()).append("_").append(Constants.CONTENT_PAGE_CACHE_KEY).append("-")
 				.append(language.getCode());
 
-		// This SB is unused...
-		StringBuilder contentKeyMissed = new StringBuilder();
-		contentKeyMissed.append(contentKey).append(Constants.MISSED_CACHE_KEY);
-
-		Map<String, List<ContentDescription>> contents = null;
-
-		if (store.isUseCache()) {
-
-			// get from the cache
-			contents = (Map<String, List<ContentDescription>>) cache.getFromCache(contentKey.toString());
-
-			if (contents == null) {
-				// get from missed cache
-				// Boolean missedContent =
-				// (Boolean)cache.getFromCache(contentKeyMissed.toString());
-
-				// if(missedContent==null) {
-
-				contents = this.getContentPagesNames(store, language);
-
-				if (contents != null) {
-					// put in cache
-					cache.putInCache(contents, contentKey.toString());
-
-				} else {
-					// put in missed cache
-				}
-				// }
-			}
-		} else {
-			contents = this.getContentPagesNames(store, language);
-		}
+		Map<String, List<ContentDescription>> contents = fromStoreContext(store, storeContext,
+				contentKey.toString(), () -> this.getContentPagesNames(store, language));
 
 		if (contents != null && contents.size() > 0) {
 			List<ContentDescription> descriptions = contents.get(contentKey.toString());
@@ -369,9 +341,8 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 		}
 	}
 
-	@SuppressWarnings({ "unchecked" })
-	private void getContentObjects(MerchantStore store, Language language, HttpServletRequest request)
-			throws Exception {
+	private void getContentObjects(MerchantStore store, StoreContext storeContext, Language language,
+			HttpServletRequest request) throws Exception {
 
 		// build the key
 
@@ -379,39 +350,8 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 		contentKey.append(store.getId()).append("_").append(Constants.CONTENT_CACHE_KEY).append("-")
 				.append(language.getCode());
 
-		StringBuilder contentKeyMissed = new StringBuilder();
-		contentKeyMissed.append(contentKey).append(Constants.MISSED_CACHE_KEY);
-
-		Map<String, List<Content>> contents = null;
-
-		if (store.isUseCache()) {
-
-			// get from the cache
-			contents = (Map<String, List<Content>>) cache.getFromCache(contentKey.toString());
-
-			if (contents == null) {
-
-				// get from missed cache
-				// Boolean missedContent =
-				// (Boolean)cache.getFromCache(contentKeyMissed.toString());
-
-				// if(missedContent==null) {
-
-				contents = this.getContent(store, language);
-				if (contents != null && contents.size() > 0) {
-					// put in cache
-					cache.putInCache(contents, contentKey.toString());
-				} else {
-					// put in missed cache
-				}
-				// }
-
-			}
-		} else {
-
-			contents = this.getContent(store, language);
-
-		}
+		Map<String, List<Content>> contents = fromStoreContext(store, storeContext, contentKey.toString(),
+				() -> this.getContent(store, language));
 
 		if (contents != null && contents.size() > 0) {
 
@@ -430,47 +370,15 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void setTopCategories(MerchantStore store, Language language, HttpServletRequest request) throws Exception {
+	private void setTopCategories(MerchantStore store, StoreContext storeContext, Language language,
+			HttpServletRequest request) throws Exception {
 
 		StringBuilder categoriesKey = new StringBuilder();
 		categoriesKey.append(store.getId()).append("_").append(Constants.CATEGORIES_CACHE_KEY).append("-")
 				.append(language.getCode());
 
-		// This one is also unused.. (never queried)
-		StringBuilder categoriesKeyMissed = new StringBuilder();
-		categoriesKeyMissed.append(categoriesKey).append(Constants.MISSED_CACHE_KEY);
-
-		// language code - List of category
-		Map<String, List<ReadableCategory>> objects = null;
-		List<ReadableCategory> loadedCategories = null;
-
-		if (store.isUseCache()) {
-			objects = (Map<String, List<ReadableCategory>>) webApplicationCache.getFromCache(categoriesKey.toString());
-
-			if (objects == null) {
-				// load categories
-				ReadableCategoryList categoryList = categoryFacade.getCategoryHierarchy(store, null, 0, language, null,
-						0, 200);// null
-				loadedCategories = categoryList.getCategories();
-
-				// filter out invisible category
-				loadedCategories.stream().filter(cat -> cat.isVisible() == true).collect(Collectors.toList());
-
-				objects = new ConcurrentHashMap<>();
-				objects.put(language.getCode(), loadedCategories);
-				webApplicationCache.putInCache(categoriesKey.toString(), objects);
-
-			} else {
-				loadedCategories = objects.get(language.getCode());
-			}
-
-		} else {
-
-			ReadableCategoryList categoryList = categoryFacade.getCategoryHierarchy(store, null, 0, language, null, 0,
-					200);// null // filter
-			loadedCategories = categoryList.getCategories();
-		}
+		List<ReadableCategory> loadedCategories = fromStoreContext(store, storeContext, categoriesKey.toString(),
+				() -> categoryFacade.getCategoryHierarchy(store, null, 0, language, null, 0, 200).getCategories());
 
 		if (loadedCategories != null) {
 			request.setAttribute(Constants.REQUEST_TOP_CATEGORIES, loadedCategories);
@@ -478,6 +386,19 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 
 	}
 
+	/**
+	 * Loads store data once per store context snapshot, the value is dropped
+	 * with the snapshot when the store, its configurations, contents or categories change.
+	 * Loaded on every request when the store does not use cache.
+	 */
+	private <T> T fromStoreContext(MerchantStore store, @Nullable StoreContext storeContext, String key,
+			Callable<T> loader) throws Exception {
+		if (storeContext == null || !store.isUseCache()) {
+			return loader.call();
+		}
+		return storeContext.get(key, loader);
+	}
+
 	private Map<String, List<ContentDescription>> getContentPagesNames(MerchantStore store, Language language)
 			throws Exception {
 
@@ -669,9 +590,8 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 					configs = new HashMap<>();
 				}
 
-				ObjectMapper m = new ObjectMapper();
 				@SuppressWarnings("unchecked")
-				Map<String, Object> props = m.convertValue(merchantConfig, Map.class);
+				Map<String, Object> props = JsonUtils.MAPPER.convertValue(merchantConfig, Map.class);
 
 				for (String key : props.keySet()) {
 					configs.put(key, props.get(key));
@@ -783,7 +703,8 @@ public class StoreFilter extends HandlerInterceptorAdapter {
 	private MerchantStore setMerchantStoreInSession(HttpServletRequest request, String storeCode) throws Exception {
 		if (storeCode == null || request == null)
 			return null;
-		MerchantStore store = merchantService.getByCode(storeCode);
+		StoreContext storeContext = storeContextRegistry.get(storeCode);
+		MerchantStore store = storeContext != null ? storeContext.getStore() : null;
 		if (store != null) {
 			request.getSession().setAttribute(Constants.MERCHANT_STORE, store);
 		}
@@ -113,8 +113,12 @@ public class ReadableShoppingCartMapper implements Mapper<ShoppingCart, Readable
 							.getAttributes();
 					if (attributes != null) {
 						for (com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem attribute : attributes) {
-							ProductAttribute productAttribute = productAttributeService
-									.getById(attribute.getProductAttributeId());
+							// resolved when the cart was populated
+							ProductAttribute productAttribute = attribute.getProductAttribute();
+							if (productAttribute == null) {
+								productAttribute = productAttributeService
+										.getById(attribute.getProductAttributeId());
+							}
 							if (productAttribute == null) {
 								LOG.warn("Product attribute with ID " + attribute.getId()
 										+ " not found, skipping cart attribute " + attribute.getId());
@@ -251,11 +251,33 @@ public class PersistableProductDefinitionMapper implements Mapper<PersistablePro
 
 			
 			//categories
-			return getProduct(destination, store, source.getCategories(), categoryService, source);
+			return getProduct(destination, store, source.getCategories());
 
 		} catch (Exception e) {
 			throw new ConversionRuntimeException("Error converting product mapper",e);
 		}
 	}
 
+	private Product getProduct(Product target, MerchantStore store, List<com.salesmanager.shop.model.catalog.category.Category> categories) throws Exception {
+		if (!CollectionUtils.isEmpty(categories)) {
+			for (com.salesmanager.shop.model.catalog.category.Category category : categories) {
+				Category c;
+				if (!StringUtils.isBlank(category.getCode())) {
+					c = categoryService.getByCode(store, category.getCode());
+				} else {
+					Validate.notNull(category.getId(), "Category id nust not be null");
+					c = categoryService.getById(category.getId(), store.getId());
+				}
+				if (c == null) {
+					throw new ConversionException("Category id " + category.getId() + " does not exist");
+				}
+				if (c.getMerchantStore().getId().intValue() != store.getId().intValue()) {
+					throw new ConversionException("Invalid category id");
+				}
+				target.getCategories().add(c);
+			}
+		}
+		return target;
+	}
+
 }
@@ -4,6 +4,7 @@ import com.salesmanager.core.business.utils.CacheUtils;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
 import com.salesmanager.shop.store.controller.store.facade.StoreFacade;
+import com.salesmanager.shop.store.facade.product.ReadableProductCache;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +35,9 @@ public class CacheApi {
     @Inject
     private CacheUtils cache;
 
+    @Inject
+    private ReadableProductCache readableProductCache;
+
     @DeleteMapping(value = "/auth/cache/store/{storeId}/clear")
     public @ResponseBody
     ResponseEntity<String> clearCache(@PathVariable("storeId") String storeCode,
@@ -48,6 +52,7 @@ public class CacheApi {
                 cache.removeFromCache(key.toString());
             } else {
                 cache.removeAllFromCache(merchantStore);
+                readableProductCache.invalidateAll();
             }
         } catch (Exception e) {
             LOGGER.error("Error while clearning cache {}", e.getCause());
@@ -1,5 +1,6 @@
 package com.salesmanager.shop.store.api.v1.customer;
 
+import com.salesmanager.core.business.utils.PageCursor;
 import com.salesmanager.core.model.customer.Customer;
 import com.salesmanager.core.model.customer.CustomerCriteria;
 import com.salesmanager.core.model.merchant.MerchantStore;
@@ -9,6 +10,7 @@ import com.salesmanager.shop.model.customer.PersistableCustomer;
 import com.salesmanager.shop.model.customer.ReadableCustomer;
 import com.salesmanager.shop.populator.customer.ReadableCustomerList;
 import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.api.exception.RestApiException;
 import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
 import com.salesmanager.shop.store.api.exception.UnauthorizedException;
 import com.salesmanager.shop.store.controller.customer.facade.CustomerFacade;
@@ -109,6 +111,8 @@ public class CustomerApi {
      *
      * @param start
      * @param count
+     * @param cursor next value of the previous page to page with a cursor, empty for the first page
+     * @param total false to skip counting customers when paging with a cursor
      * @param request
      * @return
      * @throws Exception
@@ -117,9 +121,19 @@ public class CustomerApi {
     @ApiImplicitParams({@ApiImplicitParam(name = "store", dataType = "string", defaultValue = "DEFAULT"),
             @ApiImplicitParam(name = "lang", dataType = "string", defaultValue = "en")})
     public ReadableCustomerList list(@RequestParam(value = "page", required = false) Integer page,
-                                     @RequestParam(value = "count", required = false) Integer count, @ApiIgnore MerchantStore merchantStore,
+                                     @RequestParam(value = "count", required = false) Integer count,
+                                     @RequestParam(value = "cursor", required = false) String cursor,
+                                     @RequestParam(value = "total", required = false, defaultValue = "true") boolean total,
+                                     @ApiIgnore MerchantStore merchantStore,
                                      @ApiIgnore Language language) {
         CustomerCriteria customerCriteria = createCustomerCriteria(page, count);
+        if (cursor != null) {
+            if (!PageCursor.isValid(cursor)) {
+                throw new RestApiException("Invalid cursor [" + cursor + "]");
+            }
+            customerCriteria.setCursor(cursor);
+        }
+        customerCriteria.setCountTotal(total);
         return customerFacade.getListByStore(merchantStore, customerCriteria, language);
     }
 
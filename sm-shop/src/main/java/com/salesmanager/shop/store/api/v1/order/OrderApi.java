@@ -3,6 +3,7 @@ package com.salesmanager.shop.store.api.v1.order;
 import com.salesmanager.core.business.services.customer.CustomerService;
 import com.salesmanager.core.business.services.order.OrderService;
 import com.salesmanager.core.business.services.shoppingcart.ShoppingCartService;
+import com.salesmanager.core.business.utils.PageCursor;
 import com.salesmanager.core.model.customer.Customer;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.order.Order;
@@ -21,6 +22,7 @@ import com.salesmanager.shop.model.order.v1.ReadableOrderConfirmation;
 import com.salesmanager.shop.populator.customer.ReadableCustomerPopulator;
 import com.salesmanager.shop.store.api.exception.GenericRuntimeException;
 import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.api.exception.RestApiException;
 import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
 import com.salesmanager.shop.store.controller.customer.facade.CustomerFacade;
 import com.salesmanager.shop.store.controller.order.facade.OrderFacade;
@@ -201,6 +203,8 @@ public class OrderApi {
      *
      * @param start
      * @param count
+     * @param cursor next value of the previous page to page with a cursor instead of page, empty for the first page
+     * @param total false to skip counting orders when paging with a cursor
      * @return List of orders
      * @throws Exception
      */
@@ -215,12 +219,21 @@ public class OrderApi {
             @RequestParam(value = "status", required = false) String status,
             @RequestParam(value = "phone", required = false) String phone,
             @RequestParam(value = "email", required = false) String email,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "total", required = false, defaultValue = "true") boolean total,
             @ApiIgnore MerchantStore merchantStore,
             @ApiIgnore Language language) {
 
         OrderCriteria orderCriteria = new OrderCriteria();
         orderCriteria.setPageSize(count);
         orderCriteria.setStartPage(page);
+        if (cursor != null) {
+            if (!PageCursor.isValid(cursor)) {
+                throw new RestApiException("Invalid cursor [" + cursor + "]");
+            }
+            orderCriteria.setCursor(cursor);
+        }
+        orderCriteria.setCountTotal(total);
 
         orderCriteria.setCustomerName(name);
         orderCriteria.setCustomerPhone(phone);
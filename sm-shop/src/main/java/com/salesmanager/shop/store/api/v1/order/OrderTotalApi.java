@@ -1,6 +1,7 @@
 package com.salesmanager.shop.store.api.v1.order;
 
 import com.salesmanager.core.business.services.catalog.product.PricingService;
+import com.salesmanager.core.business.services.catalog.product.availability.ProductAvailabilityService;
 import com.salesmanager.core.business.services.customer.CustomerService;
 import com.salesmanager.core.business.services.order.OrderService;
 import com.salesmanager.core.business.services.shipping.ShippingQuoteService;
@@ -36,7 +37,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Controller
 @RequestMapping("/api/v1")
@@ -59,6 +62,8 @@ public class OrderTotalApi {
     private ShippingQuoteService shippingQuoteService;
     @Inject
     private OrderService orderService;
+    @Inject
+    private ProductAvailabilityService productAvailabilityService;
 
     /**
      * This service calculates order total for a given shopping cart This method takes in
@@ -134,6 +139,15 @@ public class OrderTotalApi {
             orderTotalSummary =
                     orderService.caculateOrderTotal(orderSummary, customer, merchantStore, language);
 
+            // hold cart quantities while the customer completes checkout
+            Map<Long, Integer> quantities = new HashMap<Long, Integer>();
+            for (ShoppingCartItem item : itemsSet) {
+                quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+            }
+            if (!productAvailabilityService.reserve(shoppingCart.getShoppingCartCode(), quantities)) {
+                LOGGER.warn("Cart " + shoppingCart.getShoppingCartCode() + " quantities could not be fully reserved");
+            }
+
             ReadableOrderTotalSummary returnSummary = new ReadableOrderTotalSummary();
             ReadableOrderSummaryPopulator populator = new ReadableOrderSummaryPopulator();
             populator.setMessages(messages);
@@ -2,6 +2,7 @@ package com.salesmanager.shop.store.api.v1.product;
 
 import com.salesmanager.core.business.services.catalog.category.CategoryService;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
+import com.salesmanager.core.business.utils.PageCursor;
 import com.salesmanager.core.model.catalog.category.Category;
 import com.salesmanager.core.model.catalog.product.Product;
 import com.salesmanager.core.model.catalog.product.ProductCriteria;
@@ -18,6 +19,7 @@ import com.salesmanager.shop.model.catalog.product.product.definition.ReadablePr
 import com.salesmanager.shop.model.entity.Entity;
 import com.salesmanager.shop.model.entity.EntityExists;
 import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.api.exception.RestApiException;
 import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
 import com.salesmanager.shop.store.api.exception.UnauthorizedException;
 import com.salesmanager.shop.store.controller.product.facade.ProductDefinitionFacade;
@@ -166,7 +168,9 @@ public class ProductApi {
      * Filtering product lists based on product attributes ?category=1
      * &manufacturer=2 &type=... &lang=en|fr NOT REQUIRED, will use request
      * language &start=0 NOT REQUIRED, can be used for pagination &count=10 NOT
-     * REQUIRED, can be used to limit item count
+     * REQUIRED, can be used to limit item count &cursor= NOT REQUIRED, pages
+     * with the next value of the previous page instead of page, empty for the
+     * first page &total=false NOT REQUIRED, no total count with cursor
      *
      * @param request
      * @param response
@@ -195,6 +199,9 @@ public class ProductApi {
                                     @RequestParam(value = "count", required = false, defaultValue = "100") Integer count, // count
                                     // per
                                     // page
+                                    // next of the previous page, empty for the first page
+                                    @RequestParam(value = "cursor", required = false) String cursor,
+                                    @RequestParam(value = "total", required = false, defaultValue = "true") boolean total,
                                     @ApiIgnore MerchantStore merchantStore, @ApiIgnore Language language, HttpServletRequest request,
                                     HttpServletResponse response) throws Exception {
 
@@ -234,6 +241,14 @@ public class ProductApi {
             criteria.setMaxCount(count);
         }
 
+        if (cursor != null) {
+            if (!PageCursor.isValid(cursor)) {
+                throw new RestApiException("Invalid cursor [" + cursor + "]");
+            }
+            criteria.setCursor(cursor);
+        }
+        criteria.setCountTotal(total);
+
         if (!StringUtils.isBlank(name)) {
             criteria.setProductName(name);
         }
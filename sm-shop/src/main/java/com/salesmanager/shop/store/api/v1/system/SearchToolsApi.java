@@ -2,8 +2,10 @@ package com.salesmanager.shop.store.api.v1.system;
 
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.search.ReindexStatus;
 import com.salesmanager.shop.constants.Constants;
 import com.salesmanager.shop.model.user.ReadableUser;
+import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
 import com.salesmanager.shop.store.api.exception.RestApiException;
 import com.salesmanager.shop.store.api.exception.UnauthorizedException;
 import com.salesmanager.shop.store.controller.search.facade.SearchFacade;
@@ -16,6 +18,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import springfox.documentation.annotations.ApiIgnore;
@@ -45,10 +48,53 @@ public class SearchToolsApi {
     private UserFacade userFacade;
 
     @PostMapping("/private/system/search/index")
-    @ApiOperation(httpMethod = "POST", value = "Indexes all products", notes = "", produces = "application/json")
+    @ApiOperation(httpMethod = "POST", value = "Indexes all products", notes = "Products are indexed in background in new indexes that replace the current ones when complete", produces = "application/json")
     @ApiImplicitParams({@ApiImplicitParam(name = "store", dataType = "String", defaultValue = "DEFAULT"),
             @ApiImplicitParam(name = "lang", dataType = "String", defaultValue = "en")})
-    public ResponseEntity<Void> contact(@ApiIgnore MerchantStore merchantStore, @ApiIgnore Language language, HttpServletRequest request) {
+    public ResponseEntity<ReindexStatus> contact(@ApiIgnore MerchantStore merchantStore, @ApiIgnore Language language, HttpServletRequest request) {
+
+        authorize(merchantStore, language, request);
+        try {
+            return new ResponseEntity<ReindexStatus>(searchFacade.indexAllData(merchantStore), HttpStatus.CREATED);
+        } catch (Exception e) {
+            throw new RestApiException("Exception while indexing store data", e);
+        }
+    }
+
+    @PostMapping("/private/system/search/index/resume")
+    @ApiOperation(httpMethod = "POST", value = "Resumes a failed or interrupted indexing of all products", notes = "", produces = "application/json")
+    @ApiImplicitParams({@ApiImplicitParam(name = "store", dataType = "String", defaultValue = "DEFAULT"),
+            @ApiImplicitParam(name = "lang", dataType = "String", defaultValue = "en")})
+    public ResponseEntity<ReindexStatus> resume(@ApiIgnore MerchantStore merchantStore, @ApiIgnore Language language, HttpServletRequest request) {
+
+        authorize(merchantStore, language, request);
+        try {
+            return new ResponseEntity<ReindexStatus>(searchFacade.resumeIndexAllData(merchantStore), HttpStatus.CREATED);
+        } catch (Exception e) {
+            throw new RestApiException("Exception while resuming indexing of store data", e);
+        }
+    }
+
+    @GetMapping("/private/system/search/index")
+    @ApiOperation(httpMethod = "GET", value = "Progress, throughput and last product of the running or last indexing of all products", notes = "", produces = "application/json")
+    @ApiImplicitParams({@ApiImplicitParam(name = "store", dataType = "String", defaultValue = "DEFAULT"),
+            @ApiImplicitParam(name = "lang", dataType = "String", defaultValue = "en")})
+    public ResponseEntity<ReindexStatus> status(@ApiIgnore MerchantStore merchantStore, @ApiIgnore Language language, HttpServletRequest request) {
+
+        authorize(merchantStore, language, request);
+        ReindexStatus status;
+        try {
+            status = searchFacade.indexAllDataStatus(merchantStore);
+        } catch (Exception e) {
+            throw new RestApiException("Exception while reading indexing status", e);
+        }
+        if (status == null) {
+            throw new ResourceNotFoundException("Products of store [" + merchantStore.getCode() + "] were never indexed");
+        }
+        return new ResponseEntity<ReindexStatus>(status, HttpStatus.OK);
+    }
+
+    private void authorize(MerchantStore merchantStore, Language language, HttpServletRequest request) {
 
         // superadmin, admin and admin_catalogue
         String authenticatedUser = userFacade.authenticatedUser();
@@ -71,12 +117,6 @@ public class SearchToolsApi {
         if (!user.getMerchant().equals(merchantStore.getCode())) {
             throw new UnauthorizedException();
         }
-        try {
-            searchFacade.indexAllData(merchantStore);
-        } catch (Exception e) {
-            throw new RestApiException("Exception while indexing store data", e);
-        }
-        return new ResponseEntity<Void>(HttpStatus.CREATED);
     }
 
 }
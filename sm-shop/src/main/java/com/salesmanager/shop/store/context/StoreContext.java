@@ -0,0 +1,116 @@
+package com.salesmanager.shop.store.context;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.currency.Currency;
+import com.salesmanager.core.model.reference.language.Language;
+
+/**
+ * Snapshot of a merchant store and of the reference data needed to serve
+ * a request for that store. A snapshot is never modified, when the store,
+ * its configurations, contents or categories change a new snapshot with
+ * a higher version replaces it in {@link StoreContextRegistry}.
+ *
+ * Data derived from the store (configurations, content names, top categories...)
+ * is memoized in the snapshot through {@link #get(String, Callable)} and
+ * therefore dropped with it.
+ */
+public final class StoreContext {
+
+	private static final String ALL_LANGUAGES = "_all";
+
+	private final long version;
+	private final long expires;
+	private final MerchantStore store;
+	private final Map<String, Language> languages;
+	private final Language defaultLanguage;
+
+	private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+	StoreContext(long version, long expires, MerchantStore store, Map<String, Language> languages,
+			Language defaultLanguage) {
+		this.version = version;
+		this.expires = expires;
+		this.store = store;
+		this.languages = Collections.unmodifiableMap(languages);
+		this.defaultLanguage = defaultLanguage;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public MerchantStore getStore() {
+		return store;
+	}
+
+	public Currency getCurrency() {
+		return store.getCurrency();
+	}
+
+	/**
+	 * Languages supported by the store
+	 */
+	public List<Language> getStoreLanguages() {
+		return store.getLanguages();
+	}
+
+	/**
+	 * Every language of the system by code
+	 */
+	public Map<String, Language> getLanguages() {
+		return languages;
+	}
+
+	public Language getDefaultLanguage() {
+		return defaultLanguage;
+	}
+
+	/**
+	 * Language requested by a rest call, same rules as LanguageUtils.getRESTLanguage
+	 * @param lang language code request parameter
+	 * @return default language when blank or unknown, null when all languages are requested
+	 */
+	public Language getRequestLanguage(String lang) {
+		if (StringUtils.isBlank(lang)) {
+			return defaultLanguage;
+		}
+		if (ALL_LANGUAGES.equals(lang)) {
+			return null;
+		}
+		Language language = languages.get(lang);
+		return language != null ? language : defaultLanguage;
+	}
+
+	/**
+	 * Value derived from this store, computed once per snapshot
+	 * @param key attribute key
+	 * @param loader computes the value, null values are not kept
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key, Callable<T> loader) throws Exception {
+		T value = (T) attributes.get(key);
+		if (value == null) {
+			value = loader.call();
+			if (value != null) {
+				T existing = (T) attributes.putIfAbsent(key, value);
+				if (existing != null) {
+					value = existing;
+				}
+			}
+		}
+		return value;
+	}
+
+	boolean isExpired() {
+		return expires < System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.salesmanager.shop.store.context;
+
+import static com.salesmanager.core.business.constants.Constants.DEFAULT_STORE;
+import static com.salesmanager.shop.constants.Constants.DEFAULT_TEMPLATE;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.merchant.MerchantStoreService;
+import com.salesmanager.core.business.services.reference.language.LanguageService;
+import com.salesmanager.core.model.catalog.category.Category;
+import com.salesmanager.core.model.content.Content;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
+
+/**
+ * Holds one {@link StoreContext} per store code. A snapshot is built on first
+ * use, replaced after commit when the store, a configuration, a content or a
+ * category of the store is saved or deleted, and rebuilt after
+ * config.storeContext.ttl seconds to pick up changes made by other instances.
+ */
+@Component
+public class StoreContextRegistry {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StoreContextRegistry.class);
+
+	public static final String REQUEST_STORE_CONTEXT = "STORE_CONTEXT";
+	public static final String REQUEST_PARAMETER_STORE = "store";
+
+	@Inject
+	private MerchantStoreService merchantStoreService;
+
+	@Inject
+	private LanguageService languageService;
+
+	@Value("${config.storeContext.ttl:600}")
+	private long ttl;
+
+	private final Map<String, StoreContext> contexts = new ConcurrentHashMap<String, StoreContext>();
+
+	/**
+	 * snapshot version per store code, also used to discard a snapshot built
+	 * while an invalidation of the store happened
+	 */
+	private final Map<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Store context of a request (store request parameter or DEFAULT),
+	 * resolved once and kept as a request attribute
+	 * @throws ResourceNotFoundException when the store does not exist
+	 */
+	public StoreContext resolve(HttpServletRequest request) {
+		StoreContext context = (StoreContext) request.getAttribute(REQUEST_STORE_CONTEXT);
+		if (context == null) {
+			String code = Optional.ofNullable(request.getParameter(REQUEST_PARAMETER_STORE))
+					.filter(StringUtils::isNotBlank).orElse(DEFAULT_STORE);
+			context = get(code);
+			if (context == null) {
+				throw new ResourceNotFoundException("Store [" + code + "] not found");
+			}
+			request.setAttribute(REQUEST_STORE_CONTEXT, context);
+		}
+		return context;
+	}
+
+	/**
+	 * @param code store code
+	 * @return store context or null if the store does not exist
+	 */
+	public StoreContext get(String code) {
+		StoreContext context = contexts.get(code);
+		if (context == null || context.isExpired()) {
+			AtomicLong version = versions.computeIfAbsent(code, c -> new AtomicLong());
+			long current = version.get();
+			StoreContext built = build(code, current + 1);
+			if (built == null) {
+				// unknown codes are not kept
+				versions.remove(code, version);
+				return null;
+			}
+			contexts.compute(code, (c, existing) -> version.compareAndSet(current, current + 1) ? built : existing);
+			context = built;
+		}
+		return context;
+	}
+
+	public void invalidate(String code) {
+		versions.computeIfAbsent(code, c -> new AtomicLong()).incrementAndGet();
+		contexts.remove(code);
+	}
+
+	public void invalidateAll() {
+		versions.values().forEach(AtomicLong::incrementAndGet);
+		contexts.clear();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(MerchantStore.class) || event.isOfType(Language.class)) {
+			// parent and child stores share data, store changes are rare
+			invalidateAll();
+		} else if (event.isOfType(MerchantConfiguration.class)) {
+			invalidate(((MerchantConfiguration) event.getEntity()).getMerchantStore());
+		} else if (event.isOfType(Content.class)) {
+			invalidate(((Content) event.getEntity()).getMerchantStore());
+		} else if (event.isOfType(Category.class)) {
+			invalidate(((Category) event.getEntity()).getMerchantStore());
+		}
+	}
+
+	private void invalidate(MerchantStore store) {
+		if (store == null) {
+			invalidateAll();
+			return;
+		}
+		if (StringUtils.isNotBlank(store.getCode())) {
+			invalidate(store.getCode());
+		}
+		contexts.entrySet().stream().filter(e -> e.getValue().getStore().getId().equals(store.getId()))
+				.map(Map.Entry::getKey).forEach(this::invalidate);
+	}
+
+	private StoreContext build(String code, long snapshotVersion) {
+		try {
+			MerchantStore store = merchantStoreService.getByCode(code);
+			if (store == null) {
+				return null;
+			}
+			// the snapshot is shared, requests must not change it
+			if (StringUtils.isBlank(store.getStoreTemplate())) {
+				store.setStoreTemplate(DEFAULT_TEMPLATE);
+			}
+			Map<String, Language> languages = languageService.getLanguagesMap();
+			LOGGER.debug("Building store context {} version {}", code, snapshotVersion);
+			return new StoreContext(snapshotVersion, System.currentTimeMillis() + ttl * 1000, store, languages,
+					languageService.defaultLanguage());
+		} catch (ServiceException e) {
+			throw new ServiceRuntimeException("Cannot load store [" + code + "]", e);
+		}
+	}
+
+}
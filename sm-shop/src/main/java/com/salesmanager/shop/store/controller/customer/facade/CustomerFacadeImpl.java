@@ -951,6 +951,7 @@ public class CustomerFacadeImpl implements CustomerFacade {
         ReadableCustomerList readableCustomerList = new ReadableCustomerList();
         readableCustomerList.setCustomers(readableCustomers);
         readableCustomerList.setTotalPages(Math.toIntExact(customerList.getTotalCount()));
+        readableCustomerList.setNext(customerList.getNext());
         return readableCustomerList;
     }
 
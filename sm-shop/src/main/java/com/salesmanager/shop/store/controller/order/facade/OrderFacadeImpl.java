@@ -82,8 +82,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.validation.ObjectError;
@@ -156,6 +157,9 @@ public class OrderFacadeImpl implements OrderFacade {
 	@Inject
 	private EmailTemplatesUtils emailTemplatesUtils;
 
+	@Inject
+	private PlatformTransactionManager transactionManager;
+
 	@Inject
 	private LabelUtils messages;
 
@@ -955,6 +959,7 @@ public class OrderFacadeImpl implements OrderFacade {
 			returnList.setTotalPages(orderList.getTotalPages());
 			returnList.setNumber(orderList.getOrders().size());
 			returnList.setRecordsFiltered(orderList.getOrders().size());
+			returnList.setNext(orderList.getNext());
 
 			return returnList;
 
@@ -1256,14 +1261,12 @@ public class OrderFacadeImpl implements OrderFacade {
 			// of process order request. If totals does not match, an error
 			// should be thrown.
 
-			OrderTotalSummary orderTotalSummary = null;
-
 			OrderSummary orderSummary = new OrderSummary();
 			orderSummary.setShippingSummary(shippingSummary);
 			List<ShoppingCartItem> itemsSet = new ArrayList<ShoppingCartItem>(cart.getLineItems());
 			orderSummary.setProducts(itemsSet);
 
-			orderTotalSummary = orderService.caculateOrderTotal(orderSummary, customer, store, language);
+			OrderTotalSummary orderTotalSummary = orderService.caculateOrderTotal(orderSummary, customer, store, language);
 
 			if (order.getPayment().getAmount() == null) {
 				throw new ConversionException("Requires Payment.amount");
@@ -1311,31 +1314,42 @@ public class OrderFacadeImpl implements OrderFacade {
 			}
 
 
-			//order service
-			modelOrder = orderService.processOrder(modelOrder, customer, items, orderTotalSummary, paymentModel, store);
+			//order service, order emails are queued in the order transaction
+			Order processedOrder;
+			try {
+				processedOrder = new TransactionTemplate(transactionManager).execute(status -> {
+					Order processed;
+					try {
+						processed = orderService.processOrder(modelOrder, customer, items, orderTotalSummary,
+								paymentModel, store);
+					} catch (ServiceException e) {
+						throw new ServiceRuntimeException(e);
+					}
+					if ("true".equals(coreConfiguration.getProperty("ORDER_EMAIL_API"))) {
+						try {
+							notify(processed, customer, store, language, locale);
+						} catch (Exception e) {
+							LOGGER.error("Cannot send order confirmation email", e);
+						}
+					}
+					return processed;
+				});
+			} catch (ServiceRuntimeException e) {
+				if (e.getCause() instanceof ServiceException) {
+					throw (ServiceException) e.getCause();
+				}
+				throw e;
+			}
 
 			// update cart
 			try {
-				cart.setOrderId(modelOrder.getId());
+				cart.setOrderId(processedOrder.getId());
 				shoppingCartFacade.saveOrUpdateShoppingCart(cart);
 			} catch (Exception e) {
 				LOGGER.error("Cannot delete cart " + cart.getId(), e);
 			}
 
-			//email management
-			if ("true".equals(coreConfiguration.getProperty("ORDER_EMAIL_API"))) {
-				// send email
-				try {
-
-					notify(modelOrder, customer, store, language, locale);
-
-
-				} catch (Exception e) {
-					LOGGER.error("Cannot send order confirmation email", e);
-				}
-			}
-
-			return modelOrder;
+			return processedOrder;
 
 		} catch (Exception e) {
 
@@ -1345,7 +1359,6 @@ public class OrderFacadeImpl implements OrderFacade {
 
 	}
 
-	@Async
 	private void notify(Order order, Customer customer, MerchantStore store, Language language, Locale locale) throws Exception {
 
 		// send order confirmation email to customer
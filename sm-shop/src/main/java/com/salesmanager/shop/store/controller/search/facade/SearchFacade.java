@@ -2,6 +2,7 @@ package com.salesmanager.shop.store.controller.search.facade;
 
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.search.ReindexStatus;
 import com.salesmanager.core.model.search.SearchResponse;
 import com.salesmanager.shop.model.catalog.SearchProductList;
 import com.salesmanager.shop.model.catalog.SearchProductRequest;
@@ -16,11 +17,29 @@ public interface SearchFacade {
 	
 
 	/**
-	 * This utility method will re-index all products in the catalogue
+	 * This utility method will re-index all products in the catalogue,
+	 * products are written to new indexes that replace the current ones
+	 * when complete
 	 * @param store
+	 * @return progress of the rebuild running in background
 	 * @throws Exception
 	 */
-	public void indexAllData(MerchantStore store) throws Exception;
+	public ReindexStatus indexAllData(MerchantStore store) throws Exception;
+
+	/**
+	 * Resumes a failed or interrupted re-index after the last product written
+	 * @param store
+	 * @return progress of the rebuild running in background
+	 * @throws Exception
+	 */
+	public ReindexStatus resumeIndexAllData(MerchantStore store) throws Exception;
+
+	/**
+	 * @param store
+	 * @return progress of the running or last re-index, null if none
+	 * @throws Exception
+	 */
+	public ReindexStatus indexAllDataStatus(MerchantStore store) throws Exception;
 	
 	/**
 	 * Produces a search request against elastic search
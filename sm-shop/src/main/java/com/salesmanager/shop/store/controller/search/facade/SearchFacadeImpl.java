@@ -5,6 +5,7 @@ import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.catalog.category.CategoryService;
 import com.salesmanager.core.business.services.catalog.product.PricingService;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
+import com.salesmanager.core.business.services.search.ProductIndexRebuilder;
 import com.salesmanager.core.business.services.search.SearchService;
 import com.salesmanager.core.model.catalog.category.Category;
 import com.salesmanager.core.model.catalog.product.Product;
@@ -13,6 +14,7 @@ import com.salesmanager.core.model.catalog.product.ProductList;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.reference.language.Language;
 import com.salesmanager.core.model.search.IndexProduct;
+import com.salesmanager.core.model.search.ReindexStatus;
 import com.salesmanager.core.model.search.SearchEntry;
 import com.salesmanager.core.model.search.SearchFacet;
 import com.salesmanager.core.model.search.SearchKeywords;
@@ -32,7 +34,6 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
@@ -60,6 +61,9 @@ public class SearchFacadeImpl implements SearchFacade {
 	@Inject
 	private PricingService pricingService;
 
+	@Inject
+	private ProductIndexRebuilder productIndexRebuilder;
+
 	@Inject
 	@Qualifier("img")
 	private ImageFilePath imageUtils;
@@ -69,18 +73,22 @@ public class SearchFacadeImpl implements SearchFacade {
 	private final static int AUTOCOMPLETE_ENTRIES_COUNT = 15;
 
 	/**
-	 * Index all products from the catalogue Better stop the system, remove ES
-	 * indexex manually restart ES and run this query
+	 * Index all products from the catalogue in new indexes, searches use the
+	 * current indexes until the new ones are complete
 	 */
 	@Override
-	@Async
-	public void indexAllData(MerchantStore store) throws Exception {
-		List<Product> products = productService.listByStore(store);
+	public ReindexStatus indexAllData(MerchantStore store) throws Exception {
+		return productIndexRebuilder.rebuild(store);
+	}
 
-		for (Product product : products) {
-			searchService.index(store, product);
-		}
+	@Override
+	public ReindexStatus resumeIndexAllData(MerchantStore store) throws Exception {
+		return productIndexRebuilder.resume(store);
+	}
 
+	@Override
+	public ReindexStatus indexAllDataStatus(MerchantStore store) throws Exception {
+		return productIndexRebuilder.status(store);
 	}
 
 	@Override
@@ -6,6 +6,7 @@ import com.salesmanager.core.business.services.reference.country.CountryService;
 import com.salesmanager.core.business.services.reference.zone.ZoneService;
 import com.salesmanager.core.business.services.shipping.ShippingOriginService;
 import com.salesmanager.core.business.services.shipping.ShippingService;
+import com.salesmanager.core.business.utils.JsonUtils;
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.core.model.reference.country.Country;
 import com.salesmanager.core.model.reference.language.Language;
@@ -31,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -178,15 +180,18 @@ public class ShippingFacadeImpl implements ShippingFacade {
 	private ShippingConfiguration getDbConfig(MerchantStore store) {
 
 		try {
-			//get original configuration
+			//get original configuration, copied as the service returns a shared instance
 			ShippingConfiguration config = shippingService.getShippingConfiguration(store);
+			if(config!=null) {
+				config = JsonUtils.readValue(config.toJSONString(), ShippingConfiguration.class);
+			}
 			if(config==null) {
 				config = new ShippingConfiguration();
 				config.setShippingType(ShippingType.INTERNATIONAL);
 			}
 
 			return config;
-		} catch (ServiceException e) {
+		} catch (ServiceException | IOException e) {
 			LOGGER.error("Error while getting expedition configuration", e);
 			throw new ServiceRuntimeException("Error while getting Expedition configuration for store[" + store.getCode() + "]", e);
 		}
@@ -0,0 +1,310 @@
+package com.salesmanager.shop.store.controller.shoppingCart.facade;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.shoppingcart.ShoppingCartService;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.attribute.ProductAttribute;
+import com.salesmanager.core.model.catalog.product.attribute.ProductOption;
+import com.salesmanager.core.model.catalog.product.attribute.ProductOptionValue;
+import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
+import com.salesmanager.core.model.catalog.product.image.ProductImage;
+import com.salesmanager.core.model.catalog.product.price.ProductPrice;
+import com.salesmanager.core.model.customer.Customer;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.shoppingcart.ShoppingCart;
+import com.salesmanager.core.model.shoppingcart.ShoppingCartItem;
+import com.salesmanager.core.model.system.MerchantConfiguration;
+import com.salesmanager.core.model.tax.taxclass.TaxClass;
+import com.salesmanager.core.model.tax.taxrate.TaxRate;
+import com.salesmanager.shop.model.shoppingcart.ReadableShoppingCart;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Calculated ReadableShoppingCart by cart code, store and language, kept
+ * in memory by each node. Keys follow the <storeId>_<rest of the key>
+ * convention.
+ *
+ * Carts are written through: a modified cart is calculated once and
+ * stored, polling the cart then answers from memory. Each entry keeps the
+ * version of the cart it was calculated from (ShoppingCartService
+ * getVersion) and is served only while the cart in the database has the
+ * same version, checked with one query on every read, so a cart modified
+ * on another node is calculated again. Entries of a cart are also dropped
+ * when the cart, one of its items or its customer is saved or deleted on
+ * this node. Catalog, price and tax changes clear every entry of this
+ * node, a catalog change made on another node is seen once the entry
+ * expires after config.cartCache.ttl seconds. A global generation is
+ * incremented on each invalidation so that a cart calculated while it was
+ * being changed is never stored.
+ */
+@Component
+public class ReadableShoppingCartCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReadableShoppingCartCache.class);
+
+	private static final String METRIC_PREFIX = "shopizer.cart.cache";
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Inject
+	private ShoppingCartService shoppingCartService;
+
+	@Value("${config.cartCache.enabled:true}")
+	private boolean enabled;
+
+	@Value("${config.cartCache.size:10000}")
+	private long size;
+
+	@Value("${config.cartCache.ttl:30}")
+	private long ttl;
+
+	private Cache<String, Entry> carts;
+
+	/**
+	 * cart code -> cache keys holding that cart, entries are removed with
+	 * the cached carts
+	 */
+	private final Map<String, Set<String>> keysByCart = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * customer id -> codes of the customer carts having cache keys
+	 */
+	private final Map<Long, Set<String>> cartsByCustomer = new ConcurrentHashMap<Long, Set<String>>();
+
+	/**
+	 * incremented on every invalidation, a cart calculated while an
+	 * invalidation happened is not cached
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		carts = CacheBuilder.newBuilder()
+				.maximumSize(size)
+				.expireAfterWrite(ttl, TimeUnit.SECONDS)
+				.removalListener(this::removed)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, carts, METRIC_PREFIX);
+			FunctionCounter.builder(METRIC_PREFIX + ".hits", hits, AtomicLong::get)
+					.description("Carts served from memory").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".misses", misses, AtomicLong::get)
+					.description("Carts loaded and calculated from the database").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".invalidations", invalidations, AtomicLong::get)
+					.description("Cache entries evicted following a cart or catalog change").register(meterRegistry);
+		}
+	}
+
+	/**
+	 * Returns the cached cart or calculates it using the loader
+	 * @param store merchant store
+	 * @param language language
+	 * @param code cart code
+	 * @param loader loads and calculates the cart, may return null
+	 * @return ReadableShoppingCart or null
+	 * @throws Exception
+	 */
+	public ReadableShoppingCart get(MerchantStore store, Language language, String code,
+			Callable<ReadableShoppingCart> loader) throws Exception {
+
+		if (!enabled) {
+			return loader.call();
+		}
+
+		// read before the cart is loaded, a cart changed meanwhile is loaded again
+		String version = shoppingCartService.getVersion(code, store);
+		if (version == null) {
+			return loader.call();
+		}
+		Entry entry = carts.getIfPresent(key(store, language, code));
+		if (entry != null && entry.version.equals(version)) {
+			hits.incrementAndGet();
+			return entry.cart;
+		}
+
+		misses.incrementAndGet();
+		return put(store, language, version, loader);
+	}
+
+	/**
+	 * Calculates a cart that has just been modified and replaces the cached
+	 * copy, called once the modification is committed
+	 * @param store merchant store
+	 * @param language language
+	 * @param code cart code
+	 * @param loader calculates the cart, may return null
+	 * @return ReadableShoppingCart or null
+	 * @throws Exception
+	 */
+	public ReadableShoppingCart update(MerchantStore store, Language language, String code,
+			Callable<ReadableShoppingCart> loader) throws Exception {
+
+		if (!enabled) {
+			return loader.call();
+		}
+		String version = shoppingCartService.getVersion(code, store);
+		if (version == null) {
+			invalidate(code);
+			return loader.call();
+		}
+		return put(store, language, version, loader);
+	}
+
+	/**
+	 * Removes every cached representation of a cart
+	 */
+	public void invalidate(String code) {
+		generation.incrementAndGet();
+		Set<String> keys = keysByCart.get(code);
+		if (keys != null) {
+			invalidations.addAndGet(keys.size());
+			carts.invalidateAll(keys);
+		}
+	}
+
+	/**
+	 * Removes the carts of a customer
+	 */
+	public void invalidateCustomer(Long customerId) {
+		generation.incrementAndGet();
+		Set<String> codes = cartsByCustomer.get(customerId);
+		if (codes != null) {
+			codes.forEach(this::invalidate);
+		}
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		invalidations.addAndGet(carts.size());
+		carts.invalidateAll();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(Product.class) || event.isOfType(ProductAvailability.class)
+				|| event.isOfType(ProductPrice.class) || event.isOfType(ProductAttribute.class)
+				|| event.isOfType(ProductImage.class) || event.isOfType(ProductOption.class)
+				|| event.isOfType(ProductOptionValue.class) || event.isOfType(TaxClass.class)
+				|| event.isOfType(TaxRate.class) || event.isOfType(MerchantConfiguration.class)
+				|| event.isOfType(MerchantStore.class)) {
+			invalidateAll();
+			return;
+		}
+
+		try {
+			if (event.isOfType(ShoppingCart.class)) {
+				invalidate(((ShoppingCart) event.getEntity()).getShoppingCartCode());
+			} else if (event.isOfType(ShoppingCartItem.class)) {
+				invalidate(((ShoppingCartItem) event.getEntity()).getShoppingCart().getShoppingCartCode());
+			} else if (event.isOfType(Customer.class)) {
+				invalidateCustomer(((Customer) event.getEntity()).getId());
+			}
+		} catch (RuntimeException e) {
+			//detached graph, cannot resolve the cart
+			LOGGER.debug("Cannot resolve cart of changed entity, clearing cart cache", e);
+			invalidateAll();
+		}
+	}
+
+	private ReadableShoppingCart put(MerchantStore store, Language language, String version,
+			Callable<ReadableShoppingCart> loader) throws Exception {
+
+		long loadGeneration = generation.get();
+		ReadableShoppingCart cart = loader.call();
+		if (cart != null && cart.getCode() != null && loadGeneration == generation.get()) {
+			String key = key(store, language, cart.getCode());
+			//added while holding the entry, the removal listener may drop an empty set
+			keysByCart.compute(cart.getCode(), (code, keys) -> added(keys, key));
+			if (cart.getCustomer() != null) {
+				cartsByCustomer.compute(cart.getCustomer(), (customer, codes) -> added(codes, cart.getCode()));
+			}
+			carts.put(key, new Entry(cart, version));
+			if (loadGeneration != generation.get()) {
+				//invalidated while being stored
+				carts.invalidate(key);
+			}
+		}
+		return cart;
+	}
+
+	private static Set<String> added(Set<String> values, String value) {
+		Set<String> set = values != null ? values : ConcurrentHashMap.newKeySet();
+		set.add(value);
+		return set;
+	}
+
+	/**
+	 * Keeps the cart and customer indexes to the keys in the cache
+	 */
+	private void removed(RemovalNotification<String, Entry> notification) {
+		if (notification.getCause() == RemovalCause.REPLACED || notification.getValue() == null) {
+			return;
+		}
+		ReadableShoppingCart cart = notification.getValue().cart;
+		keysByCart.computeIfPresent(cart.getCode(), (code, keys) -> {
+			keys.remove(notification.getKey());
+			if (!keys.isEmpty()) {
+				return keys;
+			}
+			if (cart.getCustomer() != null) {
+				cartsByCustomer.computeIfPresent(cart.getCustomer(), (customer, codes) -> {
+					codes.remove(code);
+					return codes.isEmpty() ? null : codes;
+				});
+			}
+			return null;
+		});
+	}
+
+	private String key(MerchantStore store, Language language, String code) {
+		return new StringBuilder().append(store.getId()).append("_CART_").append(language.getCode())
+				.append("_").append(code).toString();
+	}
+
+	/**
+	 * Calculated cart and version of the cart it was calculated from
+	 */
+	private static class Entry {
+
+		private final ReadableShoppingCart cart;
+		private final String version;
+
+		Entry(ReadableShoppingCart cart, String version) {
+			this.cart = cart;
+			this.version = version;
+		}
+	}
+
+}
@@ -6,7 +6,6 @@ package com.salesmanager.shop.store.controller.shoppingCart.facade;
 import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.services.catalog.product.PricingService;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
-import com.salesmanager.core.business.services.catalog.product.attribute.ProductAttributeService;
 import com.salesmanager.core.business.services.shoppingcart.ShoppingCartCalculationService;
 import com.salesmanager.core.business.services.shoppingcart.ShoppingCartService;
 import com.salesmanager.core.business.utils.ProductPriceUtils;
@@ -46,6 +45,7 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 import javax.inject.Inject;
 import javax.persistence.NoResultException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -83,9 +83,6 @@ public class ShoppingCartFacadeImpl
     @Inject
     private PricingService pricingService;
 
-    @Inject
-    private ProductAttributeService productAttributeService;
-
 	@Inject
 	@Qualifier("img")
 	private ImageFilePath imageUtils;
@@ -93,6 +90,9 @@ public class ShoppingCartFacadeImpl
 	@Autowired
 	private ReadableShoppingCartMapper readableShoppingCartMapper;
 
+	@Inject
+	private ReadableShoppingCartCache readableShoppingCartCache;
+
     public void deleteShoppingCart(final Long id, final MerchantStore store) throws Exception {
     	ShoppingCart cart = shoppingCartService.getById(id, store);
     	if(cart!=null) {
@@ -173,11 +173,8 @@ public class ShoppingCartFacadeImpl
         	cartModel.getLineItems().add( shoppingCartItem );
         }
 
-        /** Update cart in database with line items **/
-        shoppingCartService.saveOrUpdate( cartModel );
-
-        //refresh cart
-        cartModel = shoppingCartService.getById(cartModel.getId(), store);
+        /** Update cart in database with line items and refresh prices **/
+        cartModel = shoppingCartService.saveAndRefresh( cartModel );
 
         shoppingCartCalculationService.calculate( cartModel, store, language );
 
@@ -196,7 +193,7 @@ public class ShoppingCartFacadeImpl
         throws Exception
     {
 
-        Product product = productService.getById( shoppingCartItem.getProductId() );
+        Product product = getProduct( shoppingCartItem.getProductId() );
 
         if ( product == null )
         {
@@ -249,9 +246,8 @@ public class ShoppingCartFacadeImpl
         {
             for ( ShoppingCartAttribute attribute : cartAttributes )
             {
-                ProductAttribute productAttribute = productAttributeService.getById( attribute.getAttributeId() );
-                if ( productAttribute != null
-                    && productAttribute.getProduct().getId().longValue() == product.getId().longValue() )
+                ProductAttribute productAttribute = getProductAttribute( product, attribute.getAttributeId() );
+                if ( productAttribute != null )
                 {
                     com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem attributeItem =
                         new com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem( item,
@@ -270,7 +266,7 @@ public class ShoppingCartFacadeImpl
 	private com.salesmanager.core.model.shoppingcart.ShoppingCartItem createCartItem(ShoppingCart cartModel,
 			 PersistableShoppingCartItem shoppingCartItem, MerchantStore store) throws Exception {
 
-		Product product = productService.getById(shoppingCartItem.getProduct());
+		Product product = getProduct(shoppingCartItem.getProduct());
 
 		if (product == null) {
 			throw new ResourceNotFoundException("Item with id " + shoppingCartItem.getProduct() + " does not exist");
@@ -320,10 +316,9 @@ public class ShoppingCartFacadeImpl
 		if (!CollectionUtils.isEmpty(attributes)) {
 			for(com.salesmanager.shop.model.catalog.product.attribute.ProductAttribute attribute : attributes) {
 
-				ProductAttribute productAttribute = productAttributeService.getById(attribute.getId());
+				ProductAttribute productAttribute = getProductAttribute(product, attribute.getId());
 
-				if (productAttribute != null
-						&& productAttribute.getProduct().getId().longValue() == product.getId().longValue()) {
+				if (productAttribute != null) {
 
 					com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem attributeItem = new com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem(
 							item, productAttribute);
@@ -401,10 +396,9 @@ public class ShoppingCartFacadeImpl
             if (!CollectionUtils.isEmpty(attributes)) {
                 for(com.salesmanager.shop.model.catalog.product.attribute.ProductAttribute attribute : attributes) {
 
-                    ProductAttribute productAttribute = productAttributeService.getById(attribute.getId());
+                    ProductAttribute productAttribute = getProductAttribute(p, attribute.getId());
 
-                    if (productAttribute != null
-                            && productAttribute.getProduct().getId().longValue() == p.getId().longValue()) {
+                    if (productAttribute != null) {
 
                         com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem attributeItem = new com.salesmanager.core.model.shoppingcart.ShoppingCartAttributeItem(
                                 item, productAttribute);
@@ -420,6 +414,28 @@ public class ShoppingCartFacadeImpl
     }
 
 
+    /**
+     * Product with its availabilities and attributes, loaded in one query
+     */
+    private Product getProduct(final Long productId) {
+        List<Product> products = productService.listByIds(Collections.singleton(productId));
+        return products.isEmpty() ? null : products.get(0);
+    }
+
+    /**
+     * Attribute of a loaded product, null when the attribute does not belong to the product
+     */
+    private ProductAttribute getProductAttribute(final Product product, final Long attributeId) {
+        if (product.getAttributes() != null) {
+            for (ProductAttribute productAttribute : product.getAttributes()) {
+                if (productAttribute.getId().equals(attributeId)) {
+                    return productAttribute;
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public ShoppingCart createCartModel( final String shoppingCartCode, final MerchantStore store,final Customer customer )
         throws Exception
@@ -915,13 +931,11 @@ public class ShoppingCartFacadeImpl
         	cartModel.getLineItems().add( itemModel );
         }
 
-        saveShoppingCart( cartModel );
-
-        //refresh cart
-        cartModel = shoppingCartService.getById(cartModel.getId(), store);
+        //save and refresh prices
+        cartModel = shoppingCartService.saveAndRefresh( cartModel );
 
         shoppingCartCalculationService.calculate( cartModel, store, language );
-        return readableShoppingCartMapper.convert(cartModel, store, language);
+        return cache(cartModel, store, language);
 
 	}
 	
@@ -993,10 +1007,8 @@ public class ShoppingCartFacadeImpl
 			cartModel.setPromoAdded(new Date());
 		}
 
-        saveShoppingCart( cartModel );
-
-        //refresh cart
-        cartModel = shoppingCartService.getById(cartModel.getId(), store);
+        //save and refresh prices
+        cartModel = shoppingCartService.saveAndRefresh( cartModel );
 
         if(cartModel==null) {
         	return null;
@@ -1004,11 +1016,7 @@ public class ShoppingCartFacadeImpl
 
         shoppingCartCalculationService.calculate( cartModel, store, language );
 
-
-        ReadableShoppingCart readableCart = new  ReadableShoppingCart();
-        readableCart = readableShoppingCartMapper.convert(cartModel, store, language);
-
-		return readableCart;
+		return cache(cartModel, store, language);
 
 	}
 
@@ -1065,10 +1073,7 @@ public class ShoppingCartFacadeImpl
             }
         }
         // at the moment we expect that some change have been done
-        saveShoppingCart(cartModel);
-
-        //refresh cart
-        cartModel = shoppingCartService.getById(cartModel.getId(), store);
+        cartModel = shoppingCartService.saveAndRefresh(cartModel);
 
         if (cartModel == null) {
             return null;
@@ -1077,7 +1082,7 @@ public class ShoppingCartFacadeImpl
 
         shoppingCartCalculationService.calculate(cartModel, store, language);
 
-        return readableShoppingCartMapper.convert(cartModel, store, language);
+        return cache(cartModel, store, language);
 
 
     }
@@ -1130,10 +1135,6 @@ public class ShoppingCartFacadeImpl
         return modifyCartMulti(cartModel, items, store, language);
     }
 
-    private void saveShoppingCart(ShoppingCart shoppingCart) throws Exception {
-		shoppingCartService.save(shoppingCart);
-	}
-
 	private String uniqueShoppingCartCode() {
 		return UUID.randomUUID().toString().replaceAll( "-", "" );
 	}
@@ -1162,19 +1163,20 @@ public class ShoppingCartFacadeImpl
 	@Override
 	public ReadableShoppingCart getByCode(String code, MerchantStore store, Language language) throws Exception {
 
-		ShoppingCart cart = shoppingCartService.getByCode(code, store);
-		ReadableShoppingCart readableCart = null;
-
-		if(cart != null) {
+		return readableShoppingCartCache.get(store, language, code, () -> {
 
+			ShoppingCart cart = shoppingCartService.getByCode(code, store);
+			ReadableShoppingCart readableCart = null;
 
-            readableCart = readableShoppingCartMapper.convert(cart, store, language);
+			if(cart != null) {
 
+	            readableCart = readableShoppingCartMapper.convert(cart, store, language);
 
-            ReadableShoppingCartMapper.checkPromoCode(cart, readableCart);
-        }
+	            ReadableShoppingCartMapper.checkPromoCode(cart, readableCart);
+	        }
 
-		return readableCart;
+			return readableCart;
+		});
 
 	}
 
@@ -1201,8 +1203,16 @@ public class ShoppingCartFacadeImpl
 		
 		shoppingCartService.save(cart);
 
-        return readableShoppingCartMapper.convert(cart, store, language);
+        return cache(cart, store, language);
+
+	}
 
+	/**
+	 * Converts a cart that has just been saved and writes it to the cart cache
+	 */
+	private ReadableShoppingCart cache(ShoppingCart cartModel, MerchantStore store, Language language) throws Exception {
+		return readableShoppingCartCache.update(store, language, cartModel.getShoppingCartCode(),
+				() -> readableShoppingCartMapper.convert(cartModel, store, language));
 	}
 
 
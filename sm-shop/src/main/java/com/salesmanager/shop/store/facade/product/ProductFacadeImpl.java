@@ -54,7 +54,6 @@ import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -94,6 +93,9 @@ public class ProductFacadeImpl implements ProductFacade {
 	@Qualifier("img")
 	private ImageFilePath imageUtils;
 
+	@Inject
+	private ReadableProductCache readableProductCache;
+
 	@Override
 	public PersistableProduct saveProduct(MerchantStore store, PersistableProduct product, Language language) {
 
@@ -162,42 +164,46 @@ public class ProductFacadeImpl implements ProductFacade {
 	@Override
 	public ReadableProduct getProduct(MerchantStore store, Long id, Language language) throws Exception {
 
-		Product product = productService.findOne(id, store);
-		if (product == null) {
-			throw new ResourceNotFoundException("Product [" + id + "] not found");
-		}
+		return readableProductCache.get(store, language, ReadableProductCache.BY_ID, id, () -> {
 
-		if (product.getMerchantStore().getId() != store.getId()) {
-			throw new ResourceNotFoundException("Product [" + id + "] not found for store [" + store.getId() + "]");
-		}
+			Product product = productService.findOne(id, store);
+			if (product == null) {
+				throw new ResourceNotFoundException("Product [" + id + "] not found");
+			}
 
-		ReadableProduct readableProduct = new ReadableProduct();
-		ReadableProductPopulator populator = new ReadableProductPopulator();
-		populator.setPricingService(pricingService);
-		populator.setImageUtils(imageUtils);
-		readableProduct = populator.populate(product, readableProduct, store, language);
+			if (product.getMerchantStore().getId() != store.getId()) {
+				throw new ResourceNotFoundException("Product [" + id + "] not found for store [" + store.getId() + "]");
+			}
 
-		return readableProduct;
+			ReadableProduct readableProduct = new ReadableProduct();
+			ReadableProductPopulator populator = new ReadableProductPopulator();
+			populator.setPricingService(pricingService);
+			populator.setImageUtils(imageUtils);
+			return populator.populate(product, readableProduct, store, language);
+		});
 	}
 
 	@Override
 	public ReadableProduct getProduct(MerchantStore store, String sku, Language language) throws Exception {
 
-		Product product = productService.getByCode(sku, language);
+		return readableProductCache.get(store, language, ReadableProductCache.BY_SKU, sku, () -> {
 
-		if (product == null) {
-			return null;
-		}
+			Product product = productService.getByCode(sku, language);
 
-		ReadableProduct readableProduct = new ReadableProduct();
+			if (product == null) {
+				return null;
+			}
 
-		ReadableProductPopulator populator = new ReadableProductPopulator();
+			ReadableProduct readableProduct = new ReadableProduct();
 
-		populator.setPricingService(pricingService);
-		populator.setImageUtils(imageUtils);
-		populator.populate(product, readableProduct, store, language);
+			ReadableProductPopulator populator = new ReadableProductPopulator();
 
-		return readableProduct;
+			populator.setPricingService(pricingService);
+			populator.setImageUtils(imageUtils);
+			populator.populate(product, readableProduct, store, language);
+
+			return readableProduct;
+		});
 	}
 
 	@Override
@@ -285,24 +291,10 @@ public class ProductFacadeImpl implements ProductFacade {
 
 			if (criterias.getCategoryIds().size() == 1) {
 
-				com.salesmanager.core.model.catalog.category.Category category = categoryService
-						.getById(criterias.getCategoryIds().get(0));
-
-				if (category != null) {
-					String lineage = new StringBuilder().append(category.getLineage())
-							.toString();
-
-					List<com.salesmanager.core.model.catalog.category.Category> categories = categoryService
-							.getListByLineage(store, lineage);
-
-					List<Long> ids = new ArrayList<Long>();
-					if (categories != null && categories.size() > 0) {
-						for (com.salesmanager.core.model.catalog.category.Category c : categories) {
-							ids.add(c.getId());
-						}
-					}
-					ids.add(category.getId());
-					criterias.setCategoryIds(ids);
+				// category and sub categories from the in memory category tree
+				List<Long> ids = categoryService.getSubCategoryIds(store, criterias.getCategoryIds().get(0));
+				if (!ids.isEmpty()) {
+					criterias.setCategoryIds(new ArrayList<Long>(ids));
 				}
 			}
 		}
@@ -310,32 +302,42 @@ public class ProductFacadeImpl implements ProductFacade {
 		//com.salesmanager.core.model.catalog.product.ProductList products = productService.listByStore(store, language,
 		//		criterias);
 		
-		Page<Product> modelProductList = productService.listByStore(store, language, criterias, criterias.getStartPage(), criterias.getMaxCount());
-		
-		List<Product> products = modelProductList.getContent();
-		
-		List<Product> prds = products.stream().sorted(Comparator.comparing(Product::getSortOrder)).collect(Collectors.toList());
-		products = prds;
+		ReadableProductList productList = new ReadableProductList();
+		List<Product> products = null;
+
+		if (criterias.isCursorPagination()) {
+			com.salesmanager.core.model.catalog.product.ProductList modelProductList = productService.listByStore(store,
+					language, criterias);
+			products = modelProductList.getProducts();
+			productList.setRecordsTotal(modelProductList.getTotalCount());
+			productList.setTotalPages(modelProductList.getTotalPages());
+			productList.setNext(modelProductList.getNext());
+		} else {
+			Page<Product> modelProductList = productService.listByStore(store, language, criterias, criterias.getStartPage(), criterias.getMaxCount());
+			
+			// ordered by sort order in the database
+			products = modelProductList.getContent();
+
+			// productList.setTotalPages(products.getTotalCount());
+			productList.setRecordsTotal(modelProductList.getTotalElements());
+			productList.setTotalPages(modelProductList.getTotalPages());
+		}
 		
 		ReadableProductPopulator populator = new ReadableProductPopulator();
 		populator.setPricingService(pricingService);
 		populator.setImageUtils(imageUtils);
 
-		ReadableProductList productList = new ReadableProductList();
 		for (Product product : products) {
 
 			// create new proxy product
-			ReadableProduct readProduct = populator.populate(product, new ReadableProduct(), store, language);
+			ReadableProduct readProduct = readableProductCache.get(store, language, ReadableProductCache.LISTING,
+					product.getId(), () -> populator.populate(product, new ReadableProduct(), store, language));
 			productList.getProducts().add(readProduct);
 
 		}
 
-		// productList.setTotalPages(products.getTotalCount());
-		productList.setRecordsTotal(modelProductList.getTotalElements());
 		productList.setNumber(productList.getProducts().size());
 
-		productList.setTotalPages(modelProductList.getTotalPages());
-
 		return productList;
 	}
 
@@ -552,21 +554,24 @@ public class ProductFacadeImpl implements ProductFacade {
 	@Override
 	public ReadableProduct getProductBySeUrl(MerchantStore store, String friendlyUrl, Language language) throws Exception {
 
-		Product product = productService.getBySeUrl(store, friendlyUrl, LocaleUtils.getLocale(language));
+		return readableProductCache.get(store, language, ReadableProductCache.BY_URL, friendlyUrl, () -> {
 
-		if (product == null) {
-			return null;
-		}
+			Product product = productService.getBySeUrl(store, friendlyUrl, LocaleUtils.getLocale(language));
 
-		ReadableProduct readableProduct = new ReadableProduct();
+			if (product == null) {
+				return null;
+			}
 
-		ReadableProductPopulator populator = new ReadableProductPopulator();
+			ReadableProduct readableProduct = new ReadableProduct();
 
-		populator.setPricingService(pricingService);
-		populator.setImageUtils(imageUtils);
-		populator.populate(product, readableProduct, store, language);
+			ReadableProductPopulator populator = new ReadableProductPopulator();
 
-		return readableProduct;
+			populator.setPricingService(pricingService);
+			populator.setImageUtils(imageUtils);
+			populator.populate(product, readableProduct, store, language);
+
+			return readableProduct;
+		});
 	}
 
 	@Override
@@ -0,0 +1,239 @@
+package com.salesmanager.shop.store.facade.product;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.utils.CacheUtils;
+import com.salesmanager.core.model.catalog.category.Category;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.attribute.ProductAttribute;
+import com.salesmanager.core.model.catalog.product.attribute.ProductOption;
+import com.salesmanager.core.model.catalog.product.attribute.ProductOptionValue;
+import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
+import com.salesmanager.core.model.catalog.product.image.ProductImage;
+import com.salesmanager.core.model.catalog.product.manufacturer.Manufacturer;
+import com.salesmanager.core.model.catalog.product.price.ProductPrice;
+import com.salesmanager.core.model.catalog.product.review.ProductReview;
+import com.salesmanager.core.model.catalog.product.type.ProductType;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.shop.model.catalog.product.ReadableProduct;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Two level cache of populated ReadableProduct per store and language.
+ * A size bounded in memory near cache sits in front of the shared
+ * ehcache service cache (CacheUtils). Keys follow the
+ * <storeId>_<rest of the key> convention so that clearing the store cache
+ * also clears products.
+ *
+ * Entries of a product are dropped when the product, one of its
+ * availabilities, prices, images, attributes or reviews is saved or deleted.
+ * Category, manufacturer, option and type changes clear every entry.
+ */
+@Component
+public class ReadableProductCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReadableProductCache.class);
+
+	private static final String METRIC_PREFIX = "shopizer.product.cache";
+
+	public static final String BY_ID = "ID";
+	public static final String BY_SKU = "SKU";
+	public static final String BY_URL = "URL";
+	/**
+	 * products of a listing, populated from the listing query which does not
+	 * load the same graph as the product detail
+	 */
+	public static final String LISTING = "LIST";
+
+	@Inject
+	private CacheUtils cache;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Value("${config.productCache.enabled:true}")
+	private boolean enabled;
+
+	@Value("${config.productCache.nearSize:2000}")
+	private long nearSize;
+
+	@Value("${config.productCache.nearTtl:300}")
+	private long nearTtl;
+
+	private Cache<String, ReadableProduct> nearCache;
+
+	/**
+	 * product id -> cache keys holding that product
+	 */
+	private final Map<Long, Set<String>> keysByProduct = new ConcurrentHashMap<Long, Set<String>>();
+
+	/**
+	 * incremented on every invalidation, a value loaded while an invalidation
+	 * happened is not cached
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong nearHits = new AtomicLong();
+	private final AtomicLong sharedHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		nearCache = CacheBuilder.newBuilder()
+				.maximumSize(nearSize)
+				.expireAfterWrite(nearTtl, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, nearCache, METRIC_PREFIX + ".near");
+			FunctionCounter.builder(METRIC_PREFIX + ".hits", nearHits, AtomicLong::get).tag("tier", "near")
+					.description("Products served from the in memory near cache").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".hits", sharedHits, AtomicLong::get).tag("tier", "shared")
+					.description("Products served from the service cache").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".misses", misses, AtomicLong::get)
+					.description("Products loaded and populated from the database").register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".invalidations", invalidations, AtomicLong::get)
+					.description("Cache entries evicted following a catalog change").register(meterRegistry);
+		}
+	}
+
+	/**
+	 * Returns the cached product or populates it using the loader
+	 * @param store merchant store
+	 * @param language language
+	 * @param lookup BY_ID, BY_SKU, BY_URL or LISTING
+	 * @param value id, sku, friendly url or id of a listed product
+	 * @param loader loads and populates the product, may return null
+	 * @return ReadableProduct or null
+	 * @throws Exception
+	 */
+	public ReadableProduct get(MerchantStore store, Language language, String lookup, Object value,
+			Callable<ReadableProduct> loader) throws Exception {
+
+		if (!enabled) {
+			return loader.call();
+		}
+
+		String key = key(store, language, lookup, value);
+
+		ReadableProduct product = nearCache.getIfPresent(key);
+		if (product != null) {
+			nearHits.incrementAndGet();
+			return product;
+		}
+
+		product = (ReadableProduct) cache.getFromCache(key);
+		if (product != null) {
+			sharedHits.incrementAndGet();
+			nearCache.put(key, product);
+			return product;
+		}
+
+		misses.incrementAndGet();
+		long loadGeneration = generation.get();
+		product = loader.call();
+		if (product != null && product.getId() != null && product.getId() > 0) {
+			keysByProduct.computeIfAbsent(product.getId(), k -> ConcurrentHashMap.newKeySet()).add(key);
+			if (loadGeneration == generation.get()) {
+				cache.putInCache(product, key);
+				nearCache.put(key, product);
+			}
+		}
+		return product;
+	}
+
+	/**
+	 * Removes every cached representation of a product
+	 */
+	public void invalidate(Long productId) {
+		generation.incrementAndGet();
+		Set<String> keys = keysByProduct.remove(productId);
+		if (keys != null) {
+			keys.forEach(this::evict);
+		}
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		for (Long productId : keysByProduct.keySet()) {
+			invalidate(productId);
+		}
+		nearCache.invalidateAll();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(Category.class) || event.isOfType(Manufacturer.class)
+				|| event.isOfType(ProductOption.class) || event.isOfType(ProductOptionValue.class)
+				|| event.isOfType(ProductType.class)) {
+			invalidateAll();
+			return;
+		}
+
+		try {
+			Long productId = null;
+			if (event.isOfType(Product.class)) {
+				productId = ((Product) event.getEntity()).getId();
+			} else if (event.isOfType(ProductAvailability.class)) {
+				productId = ((ProductAvailability) event.getEntity()).getProduct().getId();
+			} else if (event.isOfType(ProductPrice.class)) {
+				productId = ((ProductPrice) event.getEntity()).getProductAvailability().getProduct().getId();
+			} else if (event.isOfType(ProductImage.class)) {
+				productId = ((ProductImage) event.getEntity()).getProduct().getId();
+			} else if (event.isOfType(ProductAttribute.class)) {
+				productId = ((ProductAttribute) event.getEntity()).getProduct().getId();
+			} else if (event.isOfType(ProductReview.class)) {
+				productId = ((ProductReview) event.getEntity()).getProduct().getId();
+			} else {
+				return;
+			}
+			if (productId != null) {
+				invalidate(productId);
+			}
+		} catch (RuntimeException e) {
+			//detached graph, cannot resolve the product
+			LOGGER.debug("Cannot resolve product of changed entity, clearing product cache", e);
+			invalidateAll();
+		}
+	}
+
+	private void evict(String key) {
+		invalidations.incrementAndGet();
+		nearCache.invalidate(key);
+		try {
+			cache.removeFromCache(key);
+		} catch (Exception e) {
+			LOGGER.warn("Cannot evict " + key + " from service cache", e);
+		}
+	}
+
+	private String key(MerchantStore store, Language language, String lookup, Object value) {
+		return new StringBuilder().append(store.getId()).append("_PRODUCT_").append(language.getCode())
+				.append("_").append(lookup).append("_").append(value).toString();
+	}
+
+}
@@ -36,6 +36,7 @@ import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
 import com.salesmanager.shop.store.api.exception.UnauthorizedException;
 import com.salesmanager.shop.store.controller.security.facade.SecurityFacade;
 import com.salesmanager.shop.store.controller.user.facade.UserFacade;
+import com.salesmanager.shop.store.security.common.StoreAuthorizationCache;
 import com.salesmanager.shop.utils.DateUtil;
 import com.salesmanager.shop.utils.EmailUtils;
 import com.salesmanager.shop.utils.FilePathUtils;
@@ -92,6 +93,9 @@ public class UserFacadeImpl implements UserFacade {
 	@Inject
 	private LanguageService languageService;
 
+	@Inject
+	private StoreAuthorizationCache storeAuthorizationCache;
+
 	@Inject
 	private PersistableUserPopulator persistableUserPopulator;
 
@@ -657,46 +661,9 @@ public class UserFacadeImpl implements UserFacade {
 
 				String currentPrincipalName = authentication.getName();
 
-				LOGGER.info("Principal " + currentPrincipalName);
-
-				ReadableUser readableUser = findByUserName(currentPrincipalName, languageService.defaultLanguage());
-
-				if (readableUser == null) {
-					return false;
-				}
-
-				// current user match;
-				String merchant = readableUser.getMerchant();
-
-				//user store is store request param
-				if (store.getCode().equalsIgnoreCase(merchant)) {
-					return true;
-				}
-
-				Set<String> roles = authentication.getAuthorities().stream().map(r -> r.getAuthority())
-						.collect(Collectors.toSet());
-
-				// is superadmin
-				for (ReadableGroup group : readableUser.getGroups()) {
-					if (Constants.GROUP_SUPERADMIN.equals(group.getName())) {
-						return true;
-					}
-				}
-
-				boolean authorized = false;
-
-				// user store can be parent and requested store is child
-				// get parent
-				// TODO CACHE
-				MerchantStore parent = merchantStoreService.getParent(merchant);
-
-				// user can be in parent
-				if (parent != null && parent.getCode().equals(store.getCode())) {
-					authorized = true;
-				}
+				LOGGER.debug("Principal " + currentPrincipalName);
 
-				// else false
-				return authorized;
+				return storeAuthorizationCache.isAuthorized(currentPrincipalName, store.getCode());
 			} catch (Exception e) {
 				throw new UnauthorizedException("Cannot authorize user " + authentication.getPrincipal().toString()
 						+ " for store " + store.getCode(), e.getMessage());
@@ -3,6 +3,7 @@ package com.salesmanager.shop.store.security.admin;
 import com.salesmanager.shop.store.security.JWTTokenUtil;
 import com.salesmanager.shop.store.security.common.CustomAuthenticationException;
 import com.salesmanager.shop.store.security.common.CustomAuthenticationManager;
+import com.salesmanager.shop.store.security.common.JWTPrincipalCache;
 import io.jsonwebtoken.ExpiredJwtException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +34,9 @@ public class JWTAdminAuthenticationManager extends CustomAuthenticationManager {
     @Inject
     private UserDetailsService jwtAdminDetailsService;
 
+    @Inject
+    private JWTPrincipalCache jwtPrincipalCache;
+
     @Override
     public Authentication attemptAuthentication(HttpServletRequest request,
                                                 HttpServletResponse response) throws AuthenticationException {
@@ -61,7 +65,8 @@ public class JWTAdminAuthenticationManager extends CustomAuthenticationManager {
             // It is not compelling necessary to load the use details from the database. You could also
             // store the information
             // in the token and read it from it. It's up to you ;)
-            UserDetails userDetails = this.jwtAdminDetailsService.loadUserByUsername(username);
+            UserDetails userDetails = jwtPrincipalCache.get(JWTPrincipalCache.ADMIN_REALM, username,
+                    jwtTokenUtil.getIssuedAtDateFromToken(authToken), this.jwtAdminDetailsService);
 
             // For simple validation it is completely sufficient to just check the token integrity. You
             // don't have to call
@@ -0,0 +1,182 @@
+package com.salesmanager.shop.store.security.common;
+
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.model.customer.Customer;
+import com.salesmanager.core.model.user.Group;
+import com.salesmanager.core.model.user.Permission;
+import com.salesmanager.core.model.user.User;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Bounded cache of authenticated principals used by the JWT authentication
+ * managers. Entries are keyed by realm (admin or customer), user name and
+ * token issue date so that a token already verified for a user does not
+ * reload user, groups and permissions from the database.
+ *
+ * Entries expire after jwt.cache.ttl seconds and are evicted as soon as a
+ * user, customer, group or permission is saved or deleted.
+ */
+@Component
+public class JWTPrincipalCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(JWTPrincipalCache.class);
+
+	public static final String ADMIN_REALM = "admin";
+	public static final String CUSTOMER_REALM = "customer";
+
+	private static final String METRIC_PREFIX = "shopizer.jwt.principal";
+
+	@Value("${jwt.cache.maxSize:10000}")
+	private long maxSize;
+
+	@Value("${jwt.cache.ttl:300}")
+	private long ttl;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	private Cache<PrincipalKey, UserDetails> cache;
+
+	private Timer loadTimer;
+
+	private final LongAdder loadCount = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+	private final LongAdder savedNanos = new LongAdder();
+
+	@PostConstruct
+	public void init() {
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttl, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, cache, METRIC_PREFIX);
+			loadTimer = Timer.builder(METRIC_PREFIX + ".load")
+					.description("Time spent loading principals from the database")
+					.register(meterRegistry);
+			FunctionCounter.builder(METRIC_PREFIX + ".saved", savedNanos, s -> s.sum() / 1_000_000d)
+					.description("Estimated database latency saved by cache hits")
+					.baseUnit("milliseconds")
+					.register(meterRegistry);
+		}
+	}
+
+	/**
+	 * Returns the principal for a given token, loading it from the details service
+	 * when it is not already cached
+	 * @param realm admin or customer
+	 * @param userName token subject
+	 * @param issuedAt token issue date
+	 * @param detailsService service used on cache miss
+	 * @return UserDetails
+	 */
+	public UserDetails get(String realm, String userName, Date issuedAt, UserDetailsService detailsService) {
+
+		PrincipalKey key = new PrincipalKey(realm, userName, issuedAt);
+		UserDetails details = cache.getIfPresent(key);
+		if (details != null) {
+			long loads = loadCount.sum();
+			if (loads > 0) {
+				savedNanos.add(loadNanos.sum() / loads);
+			}
+			return details;
+		}
+
+		long start = System.nanoTime();
+		details = detailsService.loadUserByUsername(userName);
+		long elapsed = System.nanoTime() - start;
+
+		loadCount.increment();
+		loadNanos.add(elapsed);
+		if (loadTimer != null) {
+			loadTimer.record(elapsed, TimeUnit.NANOSECONDS);
+		}
+
+		if (details != null) {
+			cache.put(key, details);
+		}
+		return details;
+	}
+
+	/**
+	 * Removes every cached token of a given user
+	 */
+	public void invalidate(String realm, String userName) {
+		cache.asMap().keySet().removeIf(k -> k.realm.equals(realm) && k.userName.equals(userName));
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(User.class)) {
+			invalidate(ADMIN_REALM, ((User) event.getEntity()).getAdminName());
+		} else if (event.isOfType(Customer.class)) {
+			invalidate(CUSTOMER_REALM, ((Customer) event.getEntity()).getNick());
+		} else if (event.isOfType(Group.class) || event.isOfType(Permission.class)) {
+			LOGGER.debug("Security group or permission changed, clearing principal cache");
+			invalidateAll();
+		}
+	}
+
+	private static final class PrincipalKey {
+
+		private final String realm;
+		private final String userName;
+		private final long issuedAt;
+
+		PrincipalKey(String realm, String userName, Date issuedAt) {
+			this.realm = realm;
+			this.userName = userName;
+			this.issuedAt = issuedAt == null ? 0 : issuedAt.getTime();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof PrincipalKey)) {
+				return false;
+			}
+			PrincipalKey other = (PrincipalKey) o;
+			return issuedAt == other.issuedAt && realm.equals(other.realm) && userName.equals(other.userName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(realm, userName, issuedAt);
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.salesmanager.shop.store.security.common;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesmanager.core.business.exception.ServiceException;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.merchant.MerchantStoreHierarchy;
+import com.salesmanager.core.business.services.user.UserService;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.user.Group;
+import com.salesmanager.core.model.user.User;
+import com.salesmanager.shop.constants.Constants;
+import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Store authorization decisions of admin users keyed by (user name, store code).
+ *
+ * A user is authorized for its own store, for the parent of its store
+ * and for every store when it belongs to the SUPERADMIN group. The
+ * parent is resolved from the in memory MerchantStoreHierarchy.
+ *
+ * Decisions of a user are dropped when the user is saved or deleted, all
+ * decisions are dropped when a group or a store changes and they expire
+ * after config.storeAuthorization.ttl seconds.
+ */
+@Component
+public class StoreAuthorizationCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StoreAuthorizationCache.class);
+
+	@Inject
+	private UserService userService;
+
+	@Inject
+	private MerchantStoreHierarchy merchantStoreHierarchy;
+
+	@Autowired(required = false)
+	private MeterRegistry meterRegistry;
+
+	@Value("${config.storeAuthorization.maxSize:10000}")
+	private long maxSize;
+
+	@Value("${config.storeAuthorization.ttl:300}")
+	private long ttl;
+
+	private Cache<DecisionKey, Boolean> decisions;
+
+	/**
+	 * incremented on every invalidation, a decision computed while an
+	 * invalidation happened is returned but not kept
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+		decisions = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttl, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+
+		if (meterRegistry != null) {
+			GuavaCacheMetrics.monitor(meterRegistry, decisions, "shopizer.store.authorization");
+		}
+	}
+
+	/**
+	 * @param userName authenticated admin user name
+	 * @param storeCode requested store
+	 * @return true when the user can work on the store
+	 * @throws ResourceNotFoundException when the user does not exist
+	 * @throws ServiceException
+	 */
+	public boolean isAuthorized(String userName, String storeCode) throws ServiceException {
+
+		DecisionKey key = new DecisionKey(userName, storeCode);
+		Boolean decision = decisions.getIfPresent(key);
+		if (decision != null) {
+			return decision;
+		}
+
+		long readGeneration = generation.get();
+		decision = decide(userName, storeCode);
+		if (readGeneration == generation.get()) {
+			decisions.put(key, decision);
+		}
+		return decision;
+	}
+
+	private boolean decide(String userName, String storeCode) throws ServiceException {
+
+		User user = userService.getByUserName(userName);
+		if (user == null) {
+			throw new ResourceNotFoundException("User [" + userName + "] not found");
+		}
+
+		// user store is store request param
+		String merchant = user.getMerchantStore().getCode();
+		if (storeCode.equalsIgnoreCase(merchant)) {
+			return true;
+		}
+
+		// is superadmin
+		for (Group group : user.getGroups()) {
+			if (Constants.GROUP_SUPERADMIN.equals(group.getGroupName())) {
+				return true;
+			}
+		}
+
+		// user can be in parent
+		if (!merchantStoreHierarchy.exists(merchant)) {
+			throw new ServiceException("Store with code [" + merchant + "] is not found");
+		}
+		String parent = merchantStoreHierarchy.parent(merchant);
+		return parent != null && parent.equals(storeCode);
+	}
+
+	/**
+	 * Removes the decisions of a given user
+	 */
+	public void invalidate(String userName) {
+		generation.incrementAndGet();
+		decisions.asMap().keySet().removeIf(k -> k.userName.equals(userName));
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		decisions.invalidateAll();
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(User.class)) {
+			invalidate(((User) event.getEntity()).getAdminName());
+		} else if (event.isOfType(Group.class) || event.isOfType(MerchantStore.class)) {
+			LOGGER.debug("Security group or store changed, clearing store authorizations");
+			invalidateAll();
+		}
+	}
+
+	private static final class DecisionKey {
+
+		private final String userName;
+		private final String storeCode;
+
+		DecisionKey(String userName, String storeCode) {
+			this.userName = userName;
+			this.storeCode = storeCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof DecisionKey)) {
+				return false;
+			}
+			DecisionKey other = (DecisionKey) o;
+			return userName.equals(other.userName) && storeCode.equals(other.storeCode);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(userName, storeCode);
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package com.salesmanager.shop.store.security.customer;
 import com.salesmanager.shop.store.security.JWTTokenUtil;
 import com.salesmanager.shop.store.security.common.CustomAuthenticationException;
 import com.salesmanager.shop.store.security.common.CustomAuthenticationManager;
+import com.salesmanager.shop.store.security.common.JWTPrincipalCache;
 import io.jsonwebtoken.ExpiredJwtException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +31,9 @@ public class JWTCustomerAuthenticationManager extends CustomAuthenticationManage
     @Inject
     private UserDetailsService jwtCustomerDetailsService;
 
+    @Inject
+    private JWTPrincipalCache jwtPrincipalCache;
+
     @Override
     public Authentication attemptAuthentication(HttpServletRequest request, HttpServletResponse response)
             throws AuthenticationException {
@@ -58,7 +62,8 @@ public class JWTCustomerAuthenticationManager extends CustomAuthenticationManage
 
             // It is not compelling necessary to load the use details from the database. You could also store the information
             // in the token and read it from it. It's up to you ;)
-            UserDetails userDetails = this.jwtCustomerDetailsService.loadUserByUsername(username);
+            UserDetails userDetails = jwtPrincipalCache.get(JWTPrincipalCache.CUSTOMER_REALM, username,
+                    jwtTokenUtil.getIssuedAtDateFromToken(authToken), this.jwtCustomerDetailsService);
 
             // For simple validation it is completely sufficient to just check the token integrity. You don't have to call
             // the database compellingly. Again it's up to you ;)
@@ -0,0 +1,285 @@
+package com.salesmanager.shop.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.content.ContentFileChangeEvent;
+import com.salesmanager.core.model.catalog.product.image.ProductImage;
+import com.salesmanager.core.model.content.OutputContentFile;
+
+/**
+ * Writes images and files coming from the CMS to the http response
+ * without buffering them on the heap.
+ *
+ * Files on the local file system are sent with the container sendfile support
+ * when available, otherwise copied with FileChannel.transferTo. Files held in
+ * memory by the other backends are written from their buffer without copy.
+ *
+ * Each response carries an ETag, Last-Modified and Cache-Control. Store content is
+ * public, files behind authentication are private and not stored by caches.
+ * Validators are kept in memory for config.content.validators.ttl seconds so that
+ * conditional requests are answered with 304 without reading the file from the
+ * backend. They are dropped when files of the store change, validators of files
+ * on the local file system are also checked against the file.
+ */
+@Component
+public class ContentFileDelivery {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContentFileDelivery.class);
+
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	@Value("${config.content.maxAge:3600}")
+	private long maxAge;
+
+	@Value("${config.content.validators.size:20000}")
+	private long validatorsSize;
+
+	@Value("${config.content.validators.ttl:300}")
+	private long validatorsTtl;
+
+	private Cache<String, Validators> validators;
+
+	public enum CachePolicy {
+		/** store content, cached by browsers and shared caches */
+		PUBLIC,
+		/** files served to authenticated users, never stored */
+		PRIVATE
+	}
+
+	@PostConstruct
+	public void init() {
+		validators = CacheBuilder.newBuilder()
+				.maximumSize(validatorsSize)
+				.expireAfterWrite(validatorsTtl, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Writes a public file to the response or answers 304 when the client copy is current
+	 * @param key identifies the file, usually the request path and size
+	 * @param loader gets the file from the CMS, may return null
+	 * @return false when the loader did not find the file, nothing is written
+	 */
+	public boolean deliver(String key, Callable<OutputContentFile> loader, HttpServletRequest request,
+			HttpServletResponse response) throws Exception {
+		return deliver(key, loader, CachePolicy.PUBLIC, request, response);
+	}
+
+	/**
+	 * Writes a file to the response or answers 304 when the client copy is current
+	 * @param key identifies the file, starts with the store code
+	 * @param loader gets the file from the CMS, may return null
+	 * @param policy Cache-Control of the endpoint
+	 * @return false when the loader did not find the file, nothing is written
+	 */
+	public boolean deliver(String key, Callable<OutputContentFile> loader, CachePolicy policy,
+			HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+		ServletWebRequest webRequest = new ServletWebRequest(request, response);
+
+		Validators known = validators.getIfPresent(key);
+		if (known != null && current(known) && notModified(webRequest, known, policy)) {
+			return true;
+		}
+
+		OutputContentFile file = loader.call();
+		if (file == null || (file.getPath() == null && file.getFile() == null)) {
+			return false;
+		}
+
+		Validators current = file.getPath() != null ? validators(file.getPath()) : validators(file);
+		validators.put(key, current);
+		if (notModified(webRequest, current, policy)) {
+			return true;
+		}
+
+		response.setContentType(contentType(file).toString());
+		if (file.getPath() != null) {
+			send(file.getPath(), current.length, request, response);
+		} else {
+			response.setContentLengthLong(current.length);
+			file.getFile().writeTo(response.getOutputStream());
+		}
+		return true;
+	}
+
+	public void invalidateAll() {
+		validators.invalidateAll();
+	}
+
+	/**
+	 * Drops the validators of the files of a store
+	 */
+	public void invalidateStore(String storeCode) {
+		String prefix = storeCode + "/";
+		validators.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onEntityChange(EntityChangeEvent event) {
+		if (event.isOfType(ProductImage.class)) {
+			invalidateAll();
+		}
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onContentFileChange(ContentFileChangeEvent event) {
+		invalidateStore(event.getMerchantStoreCode());
+	}
+
+	private boolean notModified(ServletWebRequest webRequest, Validators v, CachePolicy policy) {
+		HttpServletResponse response = webRequest.getResponse();
+		response.setHeader(HttpHeaders.CACHE_CONTROL,
+				policy == CachePolicy.PUBLIC ? "public, max-age=" + maxAge : "private, no-store");
+		return webRequest.checkNotModified(v.etag, v.lastModified);
+	}
+
+	/**
+	 * A file on the file system replaced since its validators were computed
+	 * is read again
+	 */
+	private boolean current(Validators v) {
+		if (v.path == null) {
+			return true;
+		}
+		try {
+			return Files.getLastModifiedTime(v.path).toMillis() == v.lastModified && Files.size(v.path) == v.length;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Whole file or the single byte range requested, other range requests get the whole file
+	 */
+	private void send(Path path, long length, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		long start = 0;
+		long end = length - 1;
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		String range = request.getHeader(HttpHeaders.RANGE);
+		if (StringUtils.isNotBlank(range) && length > 0) {
+			try {
+				List<HttpRange> ranges = HttpRange.parseRanges(range);
+				if (ranges.size() == 1) {
+					start = ranges.get(0).getRangeStart(length);
+					end = ranges.get(0).getRangeEnd(length);
+					response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+				}
+			} catch (IllegalArgumentException e) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+		}
+		long count = end - start + 1;
+		response.setContentLengthLong(count);
+
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			// the container sends the file after the request is handled
+			request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, end + 1);
+			return;
+		}
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			OutputStream out = response.getOutputStream();
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = start;
+			while (position <= end) {
+				long sent = channel.transferTo(position, end + 1 - position, target);
+				if (sent <= 0) {
+					break;
+				}
+				position += sent;
+			}
+		}
+	}
+
+	private Validators validators(Path path) throws IOException {
+		long length = Files.size(path);
+		long lastModified = Files.getLastModifiedTime(path).toMillis();
+		// same validator as common web servers, changes when the file is replaced
+		String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+		return new Validators(etag, lastModified, length, path);
+	}
+
+	private Validators validators(OutputContentFile file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		// digest computed from the buffer without copying it
+		file.getFile().writeTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+		String etag = "\"" + String.format("%032x", new BigInteger(1, digest.digest())) + "\"";
+		return new Validators(etag, file.getLastModified() > 0 ? file.getLastModified() : -1, file.getFile().size(), null);
+	}
+
+	private MediaType contentType(OutputContentFile file) {
+		if (StringUtils.isNotBlank(file.getMimeType())) {
+			try {
+				return MediaType.parseMediaType(file.getMimeType());
+			} catch (Exception e) {
+				LOGGER.debug("Invalid mime type " + file.getMimeType());
+			}
+		}
+		String name = file.getFileName() != null ? file.getFileName()
+				: file.getPath() != null ? file.getPath().getFileName().toString() : null;
+		return MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM);
+	}
+
+	private static final class Validators {
+		private final String etag;
+		private final long lastModified;
+		private final long length;
+		private final Path path;
+
+		Validators(String etag, long lastModified, long length, Path path) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.path = path;
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.salesmanager.shop.utils;
 
+import com.salesmanager.core.business.exception.ServiceException;
 import com.salesmanager.core.business.modules.email.Email;
 import com.salesmanager.core.business.services.catalog.product.PricingService;
 import com.salesmanager.core.business.services.catalog.product.ProductService;
@@ -65,7 +66,9 @@ public class EmailTemplatesUtils {
     private FilePathUtils filePathUtils;
 
     /**
-     * Sends an email to the customer after a completed order
+     * Sends an email to the customer after a completed order. Not
+     * asynchronous, the email is queued in the outbox within the
+     * transaction of the caller, which is the order transaction at checkout.
      *
      * @param customer
      * @param order
@@ -74,7 +77,6 @@ public class EmailTemplatesUtils {
      * @param merchantStore
      * @param contextPath
      */
-    @Async
     public void sendOrderEmail(String toEmail, Customer customer, Order order, Locale customerLocale, Language language, MerchantStore merchantStore, String contextPath) {
         /** issue with putting that elsewhere **/
         LOGGER.info("Sending welcome email to customer");
@@ -82,8 +84,6 @@ public class EmailTemplatesUtils {
 
             Map<String, Zone> zones = zoneService.getZones(language);
 
-            Map<String, Country> countries = countryService.getCountriesMap(language);
-
             //format Billing address
             StringBuilder billing = new StringBuilder();
             if (StringUtils.isBlank(order.getBilling().getCompany())) {
@@ -104,9 +104,9 @@ public class EmailTemplatesUtils {
             } else if (!StringUtils.isBlank(order.getBilling().getState())) {
                 billing.append(order.getBilling().getState()).append(LINE_BREAK);
             }
-            Country country = countries.get(order.getBilling().getCountry().getIsoCode());
+            String country = countryName(order.getBilling().getCountry().getIsoCode(), language);
             if (country != null) {
-                billing.append(country.getName()).append(" ");
+                billing.append(country).append(" ");
             }
             billing.append(order.getBilling().getPostalCode());
 
@@ -133,9 +133,9 @@ public class EmailTemplatesUtils {
                 } else if (!StringUtils.isBlank(order.getDelivery().getState())) {
                     shipping.append(order.getDelivery().getState()).append(LINE_BREAK);
                 }
-                Country deliveryCountry = countries.get(order.getDelivery().getCountry().getIsoCode());
-                if (country != null) {
-                    shipping.append(deliveryCountry.getName()).append(" ");
+                String deliveryCountry = countryName(order.getDelivery().getCountry().getIsoCode(), language);
+                if (deliveryCountry != null) {
+                    shipping.append(deliveryCountry).append(" ");
                 }
                 shipping.append(order.getDelivery().getPostalCode());
             }
@@ -236,6 +236,7 @@ public class EmailTemplatesUtils {
             email.setSubject(messages.getMessage("email.order.title", title, customerLocale));
             email.setTo(toEmail);
             email.setTemplateName(EmailConstants.EMAIL_ORDER_TPL);
+            email.setLocale(customerLocale.toLanguageTag());
             email.setTemplateTokens(templateTokens);
 
             LOGGER.debug("Sending email to {} for order id {} ", customer.getEmailAddress(), order.getId());
@@ -286,6 +287,7 @@ public class EmailTemplatesUtils {
             email.setSubject(messages.getMessage("email.newuser.title", customerLocale));
             email.setTo(customer.getEmailAddress());
             email.setTemplateName(EmailConstants.EMAIL_CUSTOMER_TPL);
+            email.setLocale(customerLocale.toLanguageTag());
             email.setTemplateTokens(templateTokens);
 
             LOGGER.debug("Sending email to {} on their  registered email id {} ", customer.getBilling().getFirstName(), customer.getEmailAddress());
@@ -326,6 +328,7 @@ public class EmailTemplatesUtils {
             //contact has to be delivered to store owner, receiver is store email
             email.setTo(merchantStore.getStoreEmailAddress());
             email.setTemplateName(EmailConstants.EMAIL_CONTACT_TMPL);
+            email.setLocale(storeLocale.toLanguageTag());
             email.setTemplateTokens(templateTokens);
 
             LOGGER.debug("Sending contact email");
@@ -381,6 +384,7 @@ public class EmailTemplatesUtils {
             email.setSubject(messages.getMessage("email.order.status.title", new String[]{String.valueOf(order.getId())}, customerLocale));
             email.setTo(customer.getEmailAddress());
             email.setTemplateName(EmailConstants.ORDER_STATUS_TMPL);
+            email.setLocale(customerLocale.toLanguageTag());
             email.setTemplateTokens(templateTokens);
 
 
@@ -393,7 +397,8 @@ public class EmailTemplatesUtils {
     }
 
     /**
-     * Send download email instructions to customer
+     * Send download email instructions to customer, queued in the outbox
+     * within the transaction of the caller
      *
      * @param customer
      * @param order
@@ -401,7 +406,6 @@ public class EmailTemplatesUtils {
      * @param customerLocale
      * @param contextPath
      */
-    @Async
     public void sendOrderDownloadEmail(
             Customer customer, Order order, MerchantStore merchantStore,
             Locale customerLocale, String contextPath) {
@@ -430,6 +434,7 @@ public class EmailTemplatesUtils {
             email.setSubject(messages.getMessage("email.order.download.title", orderInfo, customerLocale));
             email.setTo(customer.getEmailAddress());
             email.setTemplateName(EmailConstants.EMAIL_ORDER_DOWNLOAD_TPL);
+            email.setLocale(customerLocale.toLanguageTag());
             email.setTemplateTokens(templateTokens);
 
             LOGGER.debug("Sending email to {} with download info", customer.getEmailAddress());
@@ -474,6 +479,7 @@ public class EmailTemplatesUtils {
             email.setSubject(messages.getMessage("label.notification.title.passwordchanged", customerLocale));
             email.setTo(customer.getEmailAddress());
             email.setTemplateName(EmailConstants.EMAIL_NOTIFICATION_TMPL);
+            email.setLocale(customerLocale.toLanguageTag());
             email.setTemplateTokens(templateTokens);
 
 
@@ -485,4 +491,17 @@ public class EmailTemplatesUtils {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Name of a country from the cached country list, without building a
+     * map of every country for each email
+     */
+    private String countryName(String isoCode, Language language) throws ServiceException {
+        for (Country country : countryService.getCountries(language)) {
+            if (country.getIsoCode().equals(isoCode)) {
+                return country.getName();
+            }
+        }
+        return null;
+    }
+
+}
@@ -2,10 +2,15 @@ package com.salesmanager.shop.utils;
 
 import com.salesmanager.core.model.merchant.MerchantStore;
 import com.salesmanager.shop.constants.Constants;
+import com.salesmanager.shop.store.api.exception.ServiceRuntimeException;
+import com.salesmanager.shop.store.context.StoreContext;
+import com.salesmanager.shop.store.context.StoreContextRegistry;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
+import java.time.Year;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -25,8 +30,13 @@ public class EmailUtils {
     @Qualifier("img")
     private ImageFilePath imageUtils;
 
+    @Inject
+    private StoreContextRegistry storeContextRegistry;
+
     /**
-     * Builds generic html email information
+     * Builds generic html email information. The store tokens are built once
+     * per store, locale and year and kept in the store context, a copy is
+     * returned for the email specific tokens.
      *
      * @param store
      * @param messages
@@ -35,6 +45,28 @@ public class EmailUtils {
      */
     public Map<String, String> createEmailObjectsMap(String contextPath, MerchantStore store, LabelUtils messages, Locale locale) {
 
+        Map<String, String> storeTokens = null;
+        StoreContext storeContext = storeContextRegistry.get(store.getCode());
+        if (storeContext != null) {
+            String key = new StringBuilder("emailTokens_").append(locale).append("_").append(contextPath)
+                    .append("_").append(Year.now().getValue()).toString();
+            try {
+                storeTokens = storeContext.get(key, () -> Collections.unmodifiableMap(storeTokens(contextPath, storeContext.getStore(), messages, locale)));
+            } catch (Exception e) {
+                throw new ServiceRuntimeException("Cannot build email tokens of store " + store.getCode(), e);
+            }
+        } else {
+            storeTokens = storeTokens(contextPath, store, messages, locale);
+        }
+
+        // room for the tokens added by each email
+        Map<String, String> templateTokens = new HashMap<String, String>(64);
+        templateTokens.putAll(storeTokens);
+        return templateTokens;
+    }
+
+    private Map<String, String> storeTokens(String contextPath, MerchantStore store, LabelUtils messages, Locale locale) {
+
         Map<String, String> templateTokens = new HashMap<String, String>();
 
         String[] adminNameArg = {store.getStorename()};
@@ -0,0 +1,184 @@
+package com.salesmanager.test.shop.cart;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.business.services.shoppingcart.ShoppingCartService;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.price.ProductPrice;
+import com.salesmanager.core.model.customer.Customer;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.core.model.shoppingcart.ShoppingCart;
+import com.salesmanager.core.model.shoppingcart.ShoppingCartItem;
+import com.salesmanager.shop.model.shoppingcart.ReadableShoppingCart;
+import com.salesmanager.shop.store.controller.shoppingCart.facade.ReadableShoppingCartCache;
+
+/**
+ * Write through cart cache, version check and event based invalidation of
+ * calculated carts
+ */
+public class ReadableShoppingCartCacheTest {
+
+	private ReadableShoppingCartCache cartCache;
+	private MerchantStore store;
+	private Language language;
+	private final AtomicInteger loads = new AtomicInteger();
+	/** versions of the carts in the database, carts not listed do not exist */
+	private final Map<String, String> versions = new ConcurrentHashMap<String, String>();
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		ShoppingCartService shoppingCartService = mock(ShoppingCartService.class);
+		when(shoppingCartService.getVersion(anyString(), any(MerchantStore.class)))
+				.thenAnswer(invocation -> versions.get(invocation.getArgument(0)));
+		versions.put("abc", "1");
+		versions.put("def", "1");
+		for (int i = 0; i < 50; i++) {
+			versions.put("cart" + i, "1");
+		}
+
+		cartCache = new ReadableShoppingCartCache();
+		ReflectionTestUtils.setField(cartCache, "shoppingCartService", shoppingCartService);
+		ReflectionTestUtils.setField(cartCache, "enabled", true);
+		ReflectionTestUtils.setField(cartCache, "size", 100L);
+		ReflectionTestUtils.setField(cartCache, "ttl", 60L);
+		cartCache.init();
+
+		store = new MerchantStore();
+		store.setId(1);
+		language = new Language("en");
+	}
+
+	private ReadableShoppingCart load(String code, Long customer) {
+		loads.incrementAndGet();
+		ReadableShoppingCart cart = new ReadableShoppingCart();
+		cart.setCode(code);
+		cart.setCustomer(customer);
+		return cart;
+	}
+
+	private ShoppingCart cart(String code) {
+		ShoppingCart cart = new ShoppingCart();
+		cart.setShoppingCartCode(code);
+		return cart;
+	}
+
+	@Test
+	public void calculatedOnceThenServedFromCache() throws Exception {
+		ReadableShoppingCart first = cartCache.get(store, language, "abc", () -> load("abc", null));
+		ReadableShoppingCart second = cartCache.get(store, language, "abc", () -> load("abc", null));
+		assertSame(first, second);
+		assertEquals(1, loads.get());
+
+		// missing carts are not cached
+		assertNull(cartCache.get(store, language, "none", () -> null));
+		assertNull(cartCache.get(store, language, "none", () -> null));
+	}
+
+	@Test
+	public void modifiedCartIsWrittenThrough() throws Exception {
+		cartCache.get(store, language, "abc", () -> load("abc", null));
+
+		// item change committed, then the modified cart is calculated
+		Product product = new Product();
+		product.setId(10L);
+		ShoppingCartItem item = new ShoppingCartItem(cart("abc"), product);
+		cartCache.onEntityChange(new EntityChangeEvent(this, item, ChangeType.DELETE));
+
+		versions.put("abc", "2");
+		ReadableShoppingCart modified = cartCache.update(store, language, "abc", () -> load("abc", null));
+		assertSame(modified, cartCache.get(store, language, "abc", () -> load("abc", null)));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void cartModifiedOnAnotherNodeIsCalculatedAgain() throws Exception {
+		ReadableShoppingCart first = cartCache.get(store, language, "abc", () -> load("abc", null));
+
+		// no event on this node
+		versions.put("abc", "2");
+		ReadableShoppingCart second = cartCache.get(store, language, "abc", () -> load("abc", null));
+		assertNotSame(first, second);
+		assertSame(second, cartCache.get(store, language, "abc", () -> load("abc", null)));
+		assertEquals(2, loads.get());
+
+		// deleted on another node
+		versions.remove("abc");
+		assertNull(cartCache.get(store, language, "abc", () -> null));
+	}
+
+	@Test
+	public void cartCustomerAndCatalogChangesEvict() throws Exception {
+		cartCache.get(store, language, "abc", () -> load("abc", null));
+		cartCache.get(store, new Language("fr"), "abc", () -> load("abc", null));
+		cartCache.get(store, language, "def", () -> load("def", 5L));
+		assertEquals(3, loads.get());
+
+		cartCache.onEntityChange(new EntityChangeEvent(this, cart("abc"), ChangeType.SAVE));
+		cartCache.get(store, language, "def", () -> load("def", 5L));
+		assertEquals(3, loads.get());
+		cartCache.get(store, new Language("fr"), "abc", () -> load("abc", null));
+		assertEquals(4, loads.get());
+
+		Customer customer = new Customer();
+		customer.setId(5L);
+		cartCache.onEntityChange(new EntityChangeEvent(this, customer, ChangeType.SAVE));
+		cartCache.get(store, language, "def", () -> load("def", 5L));
+		assertEquals(5, loads.get());
+
+		cartCache.get(store, language, "abc", () -> load("abc", null));
+		cartCache.onEntityChange(new EntityChangeEvent(this, new ProductPrice(), ChangeType.SAVE));
+		cartCache.get(store, language, "abc", () -> load("abc", null));
+		cartCache.get(store, language, "def", () -> load("def", 5L));
+		assertEquals(8, loads.get());
+	}
+
+	@Test
+	public void cartCalculatedDuringInvalidationIsNotCached() throws Exception {
+		cartCache.get(store, language, "abc", () -> {
+			cartCache.invalidate("abc");
+			return load("abc", null);
+		});
+		cartCache.get(store, language, "abc", () -> load("abc", null));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void indexesFollowTheCachedCarts() throws Exception {
+		ReflectionTestUtils.setField(cartCache, "size", 2L);
+		cartCache.init();
+		Map<String, ?> keysByCart = (Map<String, ?>) ReflectionTestUtils.getField(cartCache, "keysByCart");
+		Map<Long, ?> cartsByCustomer = (Map<Long, ?>) ReflectionTestUtils.getField(cartCache, "cartsByCustomer");
+
+		for (int i = 0; i < 50; i++) {
+			String code = "cart" + i;
+			long customer = i;
+			cartCache.get(store, language, code, () -> load(code, customer));
+		}
+		assertEquals(2, keysByCart.size());
+		assertEquals(2, cartsByCustomer.size());
+
+		cartCache.invalidateAll();
+		assertEquals(0, keysByCart.size());
+		assertEquals(0, cartsByCustomer.size());
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.salesmanager.test.shop.content;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.content.ContentFileChangeEvent;
+import com.salesmanager.core.model.content.OutputContentFile;
+import com.salesmanager.shop.utils.ContentFileDelivery;
+import com.salesmanager.shop.utils.ContentFileDelivery.CachePolicy;
+
+/**
+ * Validators, conditional requests and ranges of CMS files written to the response
+ */
+public class ContentFileDeliveryTest {
+
+	private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+	@TempDir
+	Path folder;
+
+	private ContentFileDelivery delivery;
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@BeforeEach
+	public void setUp() {
+		delivery = new ContentFileDelivery();
+		ReflectionTestUtils.setField(delivery, "maxAge", 3600L);
+		ReflectionTestUtils.setField(delivery, "validatorsSize", 100L);
+		ReflectionTestUtils.setField(delivery, "validatorsTtl", 60L);
+		delivery.init();
+	}
+
+	private OutputContentFile inMemory() {
+		loads.incrementAndGet();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.writeBytes(CONTENT);
+		OutputContentFile file = new OutputContentFile();
+		file.setFileName("logo.png");
+		file.setFile(out);
+		return file;
+	}
+
+	private OutputContentFile onDisk() throws Exception {
+		loads.incrementAndGet();
+		Path path = folder.resolve("product.jpg");
+		if (!Files.exists(path)) {
+			Files.write(path, CONTENT);
+		}
+		OutputContentFile file = new OutputContentFile();
+		file.setFileName("product.jpg");
+		file.setPath(path);
+		return file;
+	}
+
+	@Test
+	public void conditionalRequestAnsweredWithoutBackend() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(delivery.deliver("DEFAULT/LOGO/logo.png", this::inMemory, new MockHttpServletRequest("GET", "/"), response));
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(CONTENT, response.getContentAsByteArray());
+		assertEquals("image/png", response.getContentType());
+		assertEquals("public, max-age=3600", response.getHeader(HttpHeaders.CACHE_CONTROL));
+		String etag = response.getHeader(HttpHeaders.ETAG);
+		assertNotNull(etag);
+
+		MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/");
+		conditional.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+		MockHttpServletResponse notModified = new MockHttpServletResponse();
+		assertTrue(delivery.deliver("DEFAULT/LOGO/logo.png", this::inMemory, conditional, notModified));
+		assertEquals(304, notModified.getStatus());
+		assertEquals(0, notModified.getContentAsByteArray().length);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void byteRangeFromFile() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(delivery.deliver("DEFAULT/SKU/LARGE/product.jpg", this::onDisk, request, response));
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 2-5/10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+		assertEquals("2345", response.getContentAsString());
+		assertEquals("image/jpeg", response.getContentType());
+		assertNotNull(response.getHeader(HttpHeaders.LAST_MODIFIED));
+	}
+
+	@Test
+	public void fileHandedToContainerSendfile() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+		request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(delivery.deliver("DEFAULT/SKU/LARGE/product.jpg", this::onDisk, request, response));
+		assertEquals(10L, response.getContentLengthLong());
+		assertEquals(0, response.getContentAsByteArray().length);
+		assertEquals(0L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+		assertEquals(10L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+	}
+
+	@Test
+	public void authenticatedDownloadIsNotStored() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(delivery.deliver("DEFAULT/PRODUCT_DIGITAL/manual.pdf", this::inMemory, CachePolicy.PRIVATE,
+				new MockHttpServletRequest("GET", "/"), response));
+		assertEquals("private, no-store", response.getHeader(HttpHeaders.CACHE_CONTROL));
+	}
+
+	@Test
+	public void changedFilesAreReadAgain() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		delivery.deliver("DEFAULT/STATIC_FILE/site.css", this::inMemory, new MockHttpServletRequest("GET", "/"), response);
+		MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/");
+		conditional.addHeader(HttpHeaders.IF_NONE_MATCH, response.getHeader(HttpHeaders.ETAG));
+
+		// files of another store changed
+		delivery.onContentFileChange(new ContentFileChangeEvent(this, "OTHER"));
+		delivery.deliver("DEFAULT/STATIC_FILE/site.css", this::inMemory, conditional, new MockHttpServletResponse());
+		assertEquals(1, loads.get());
+
+		delivery.onContentFileChange(new ContentFileChangeEvent(this, "DEFAULT"));
+		delivery.deliver("DEFAULT/STATIC_FILE/site.css", this::inMemory, conditional, new MockHttpServletResponse());
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void replacedLocalFileIsReadAgain() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		delivery.deliver("DEFAULT/SKU/LARGE/product.jpg", this::onDisk, new MockHttpServletRequest("GET", "/"), response);
+		MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/");
+		conditional.addHeader(HttpHeaders.IF_NONE_MATCH, response.getHeader(HttpHeaders.ETAG));
+
+		Files.write(folder.resolve("product.jpg"), "replaced".getBytes(StandardCharsets.US_ASCII));
+		MockHttpServletResponse replaced = new MockHttpServletResponse();
+		delivery.deliver("DEFAULT/SKU/LARGE/product.jpg", this::onDisk, conditional, replaced);
+		assertEquals(200, replaced.getStatus());
+		assertEquals("replaced", replaced.getContentAsString());
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void missingFile() throws Exception {
+		assertFalse(delivery.deliver("DEFAULT/LOGO/none.png", () -> null, new MockHttpServletRequest("GET", "/"),
+				new MockHttpServletResponse()));
+	}
+
+}
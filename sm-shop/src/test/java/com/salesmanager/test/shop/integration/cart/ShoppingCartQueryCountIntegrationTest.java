@@ -0,0 +1,148 @@
+package com.salesmanager.test.shop.integration.cart;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.HttpStatus.CREATED;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.salesmanager.core.business.services.merchant.MerchantStoreService;
+import com.salesmanager.core.business.services.reference.language.LanguageService;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.shop.application.ShopApplication;
+import com.salesmanager.shop.model.catalog.product.ReadableProduct;
+import com.salesmanager.shop.model.shoppingcart.PersistableShoppingCartItem;
+import com.salesmanager.shop.model.shoppingcart.ReadableShoppingCart;
+import com.salesmanager.shop.store.controller.shoppingCart.facade.ReadableShoppingCartCache;
+import com.salesmanager.shop.store.controller.shoppingCart.facade.ShoppingCartFacade;
+import com.salesmanager.test.shop.common.ServicesTestSupport;
+
+/**
+ * Products of cart items are loaded together, reading or modifying a cart
+ * runs the same number of statements whatever the number of items
+ */
+@SpringBootTest(classes = ShopApplication.class, webEnvironment = WebEnvironment.RANDOM_PORT)
+@ExtendWith(SpringExtension.class)
+public class ShoppingCartQueryCountIntegrationTest extends ServicesTestSupport {
+
+	@Autowired
+	private ShoppingCartFacade shoppingCartFacade;
+
+	@Autowired
+	private ReadableShoppingCartCache readableShoppingCartCache;
+
+	@Autowired
+	private MerchantStoreService merchantStoreService;
+
+	@Autowired
+	private LanguageService languageService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	public void queryCountDoesNotDependOnCartSize() throws Exception {
+
+		List<ReadableProduct> products = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			products.add(sampleProduct("queryCount" + i));
+		}
+
+		String smallCart = cart(products.subList(0, 1));
+		String largeCart = cart(products.subList(0, 4));
+
+		MerchantStore store = merchantStoreService.getByCode(MerchantStore.DEFAULT_STORE);
+		Language language = languageService.getByCode("en");
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+
+		// read from the database, as in a web request the cart stays attached while it is converted
+		readableShoppingCartCache.invalidateAll();
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long smallRead = statements(statistics, () -> transaction.execute(s -> {
+			try {
+				return shoppingCartFacade.getByCode(smallCart, store, language);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}));
+		readableShoppingCartCache.invalidateAll();
+		long largeRead = statements(statistics, () -> transaction.execute(s -> {
+			try {
+				return shoppingCartFacade.getByCode(largeCart, store, language);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}));
+		assertEquals(smallRead, largeRead);
+
+		// add the same product to each cart
+		long smallAdd = statements(statistics, () -> add(smallCart, products.get(4)));
+		long largeAdd = statements(statistics, () -> add(largeCart, products.get(4)));
+		assertEquals(smallAdd, largeAdd);
+
+		statistics.setStatisticsEnabled(false);
+	}
+
+	private long statements(Statistics statistics, Runnable call) {
+		statistics.clear();
+		call.run();
+		return statistics.getPrepareStatementCount();
+	}
+
+	private String cart(List<ReadableProduct> products) {
+		PersistableShoppingCartItem first = item(products.get(0));
+		ResponseEntity<ReadableShoppingCart> response = testRestTemplate.postForEntity("/api/v1/cart/",
+				new HttpEntity<>(first, getHeader()), ReadableShoppingCart.class);
+		assertThat(response.getStatusCode(), is(CREATED));
+		String code = response.getBody().getCode();
+
+		if (products.size() > 1) {
+			PersistableShoppingCartItem[] items = products.subList(1, products.size()).stream().map(this::item)
+					.toArray(PersistableShoppingCartItem[]::new);
+			response = testRestTemplate.exchange("/api/v1/cart/" + code + "/multi", HttpMethod.POST,
+					new HttpEntity<>(items, getHeader()), ReadableShoppingCart.class);
+			assertThat(response.getStatusCode(), is(CREATED));
+			assertEquals(products.size(), response.getBody().getQuantity());
+		}
+		return code;
+	}
+
+	private void add(String code, ReadableProduct product) {
+		ResponseEntity<ReadableShoppingCart> response = testRestTemplate.exchange("/api/v1/cart/" + code,
+				HttpMethod.PUT, new HttpEntity<>(item(product), getHeader()), ReadableShoppingCart.class);
+		assertThat(response.getStatusCode(), is(CREATED));
+		assertNotNull(response.getBody());
+	}
+
+	private PersistableShoppingCartItem item(ReadableProduct product) {
+		PersistableShoppingCartItem item = new PersistableShoppingCartItem();
+		item.setProduct(product.getId());
+		item.setQuantity(1);
+		return item;
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.salesmanager.test.shop.integration.product;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.salesmanager.shop.application.ShopApplication;
+import com.salesmanager.shop.model.catalog.product.ReadableProduct;
+import com.salesmanager.shop.model.catalog.product.ReadableProductList;
+import com.salesmanager.shop.model.order.v0.ReadableOrderList;
+import com.salesmanager.shop.populator.customer.ReadableCustomerList;
+import com.salesmanager.test.shop.common.ServicesTestSupport;
+
+/**
+ * Product, order and customer listings paged with a cursor
+ */
+@SpringBootTest(classes = ShopApplication.class, webEnvironment = WebEnvironment.RANDOM_PORT)
+@ExtendWith(SpringExtension.class)
+public class ListingCursorIntegrationTest extends ServicesTestSupport {
+
+	@Test
+	public void listAllPagesWithCursor() throws Exception {
+
+		Set<Long> created = new HashSet<>();
+		for (int i = 0; i < 5; i++) {
+			created.add(sampleProduct("cursorListing" + i).getId());
+		}
+
+		List<Long> listed = new ArrayList<>();
+		long total = -1;
+		String cursor = "";
+		do {
+			ReadableProductList page = list("/api/v1/products?count=2&cursor=" + cursor);
+			assertTrue(page.getProducts().size() <= 2);
+			if (total < 0) {
+				total = page.getRecordsTotal();
+			}
+			page.getProducts().stream().map(ReadableProduct::getId).forEach(listed::add);
+			cursor = page.getNext();
+		} while (cursor != null);
+
+		assertEquals(total, listed.size());
+		assertEquals(listed.size(), new HashSet<>(listed).size());
+		assertTrue(listed.containsAll(created));
+
+		// without counting
+		ReadableProductList page = list("/api/v1/products?count=2&cursor=&total=false");
+		assertEquals(0, page.getRecordsTotal());
+		assertEquals(listed.subList(0, 2), Arrays.asList(page.getProducts().get(0).getId(), page.getProducts().get(1).getId()));
+
+		ResponseEntity<String> invalid = testRestTemplate.exchange("/api/v1/products?cursor=invalid", HttpMethod.GET,
+				new HttpEntity<>(getHeader()), String.class);
+		assertThat(invalid.getStatusCode(), is(BAD_REQUEST));
+	}
+
+	@Test
+	public void emptyListHasNoNextPage() throws Exception {
+		ReadableProductList page = list("/api/v1/products?name=noSuchProductName&cursor=");
+		assertTrue(page.getProducts().isEmpty());
+		assertNull(page.getNext());
+	}
+
+	@Test
+	public void ordersAndCustomersWithCursor() throws Exception {
+		ResponseEntity<ReadableOrderList> orders = testRestTemplate.exchange("/api/v1/private/orders?count=1&cursor=",
+				HttpMethod.GET, new HttpEntity<>(getHeader()), ReadableOrderList.class);
+		assertThat(orders.getStatusCode(), is(OK));
+
+		ResponseEntity<ReadableCustomerList> customers = testRestTemplate.exchange(
+				"/api/v1/private/customers?count=1&cursor=&total=false", HttpMethod.GET, new HttpEntity<>(getHeader()),
+				ReadableCustomerList.class);
+		assertThat(customers.getStatusCode(), is(OK));
+		assertTrue(customers.getBody().getCustomers().size() <= 1);
+	}
+
+	private ReadableProductList list(String url) {
+		ResponseEntity<ReadableProductList> response = testRestTemplate.exchange(url, HttpMethod.GET,
+				new HttpEntity<>(getHeader()), ReadableProductList.class);
+		assertThat(response.getStatusCode(), is(OK));
+		return response.getBody();
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.salesmanager.test.shop.integration.product;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.data.domain.Page;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.salesmanager.core.business.services.catalog.product.ProductService;
+import com.salesmanager.core.business.services.merchant.MerchantStoreService;
+import com.salesmanager.core.business.services.reference.language.LanguageService;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.ProductCriteria;
+import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
+import com.salesmanager.core.model.catalog.product.description.ProductDescription;
+import com.salesmanager.core.model.catalog.product.price.ProductPrice;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.shop.application.ShopApplication;
+import com.salesmanager.shop.model.catalog.product.ReadableProductList;
+import com.salesmanager.shop.store.controller.product.facade.ProductFacade;
+import com.salesmanager.test.shop.common.ServicesTestSupport;
+
+/**
+ * A listing page loads only the products of that page, ordered by the
+ * database.
+ *
+ * The benchmark lists products from a large catalog and logs the memory
+ * allocated by each request, it runs with
+ * -Dbenchmark.products=100000
+ */
+@SpringBootTest(classes = ShopApplication.class, webEnvironment = WebEnvironment.RANDOM_PORT)
+@ExtendWith(SpringExtension.class)
+public class ProductListingPaginationIntegrationTest extends ServicesTestSupport {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProductListingPaginationIntegrationTest.class);
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private ProductFacade productFacade;
+
+	@Autowired
+	private MerchantStoreService merchantStoreService;
+
+	@Autowired
+	private LanguageService languageService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@PersistenceContext
+	private EntityManager em;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	public void pageLoadsOnlyItsProducts() throws Exception {
+
+		MerchantStore store = merchantStoreService.getByCode(MerchantStore.DEFAULT_STORE);
+		Language language = languageService.getByCode("en");
+
+		// listed before any other product, last created first
+		createProducts(store, language, "paging", 3, -1000);
+
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		List<String> first = transaction.execute(s -> skus(productService.listByStore(store, language, criteria("paging"), 0, 2)));
+		long loaded = statistics.getEntityStatistics(Product.class.getName()).getLoadCount();
+		List<String> second = transaction.execute(s -> skus(productService.listByStore(store, language, criteria("paging"), 1, 2)));
+
+		statistics.setStatisticsEnabled(false);
+
+		assertEquals(2, loaded);
+		assertEquals(2, first.size());
+		assertEquals("paging2", first.get(0));
+		assertEquals("paging1", first.get(1));
+		assertEquals(1, second.size());
+		assertEquals("paging0", second.get(0));
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark.products", matches = "[0-9]+")
+	public void memoryPerListingRequest() throws Exception {
+
+		int products = Integer.parseInt(System.getProperty("benchmark.products"));
+		MerchantStore store = merchantStoreService.getByCode(MerchantStore.DEFAULT_STORE);
+		Language language = languageService.getByCode("en");
+		createProducts(store, language, "benchmark", products, 0);
+
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		int pageSize = 20;
+		for (int page : new int[] { 0, 0, products / pageSize / 2, products / pageSize - 1 }) {
+			ProductCriteria criteria = criteria("benchmark");
+			criteria.setStartPage(page);
+			criteria.setMaxCount(pageSize);
+
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			long start = System.currentTimeMillis();
+			ReadableProductList list = transaction.execute(s -> {
+				try {
+					return productFacade.getProductListsByCriterias(store, language, criteria);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			long elapsed = System.currentTimeMillis() - start;
+			allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+			LOGGER.info("Listing page " + page + " of " + products + " products: " + (allocated / 1024) + " KB allocated, "
+					+ elapsed + " ms");
+			assertEquals(pageSize, list.getProducts().size());
+			assertTrue(list.getRecordsTotal() >= products);
+		}
+	}
+
+	private ProductCriteria criteria(String sku) {
+		ProductCriteria criteria = new ProductCriteria();
+		criteria.setLanguage("en");
+		criteria.setCode(sku);
+		return criteria;
+	}
+
+	private List<String> skus(Page<Product> page) {
+		return page.getContent().stream().map(Product::getSku).collect(Collectors.toList());
+	}
+
+	/**
+	 * products with a description and a price, product i has sort order
+	 * firstSortOrder - i
+	 */
+	private void createProducts(MerchantStore store, Language language, String sku, int count, int firstSortOrder) {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		int batch = 1000;
+		for (int from = 0; from < count; from += batch) {
+			int start = from;
+			transaction.execute(s -> {
+				for (int i = start; i < Math.min(start + batch, count); i++) {
+					Product product = new Product();
+					product.setMerchantStore(em.getReference(MerchantStore.class, store.getId()));
+					product.setSku(sku + i);
+					product.setAvailable(true);
+					product.setDateAvailable(new Date());
+					product.setSortOrder(firstSortOrder - i);
+
+					ProductDescription description = new ProductDescription();
+					description.setName(sku + i);
+					description.setLanguage(em.getReference(Language.class, language.getId()));
+					description.setProduct(product);
+					product.getDescriptions().add(description);
+
+					ProductAvailability availability = new ProductAvailability();
+					availability.setProductQuantity(100);
+					availability.setRegion("*");
+					availability.setProduct(product);
+					product.getAvailabilities().add(availability);
+
+					ProductPrice price = new ProductPrice();
+					price.setDefaultPrice(true);
+					price.setProductPriceAmount(BigDecimal.TEN);
+					price.setProductAvailability(availability);
+					availability.getPrices().add(price);
+
+					em.persist(product);
+				}
+				em.flush();
+				em.clear();
+				return null;
+			});
+		}
+	}
+
+}
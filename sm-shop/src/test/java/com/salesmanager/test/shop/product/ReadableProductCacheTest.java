@@ -0,0 +1,124 @@
+package com.salesmanager.test.shop.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.business.utils.CacheUtils;
+import com.salesmanager.core.model.catalog.category.Category;
+import com.salesmanager.core.model.catalog.product.Product;
+import com.salesmanager.core.model.catalog.product.availability.ProductAvailability;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.shop.model.catalog.product.ReadableProduct;
+import com.salesmanager.shop.store.facade.product.ReadableProductCache;
+
+/**
+ * Near cache, service cache and event based invalidation of populated products
+ */
+public class ReadableProductCacheTest {
+
+	private ReadableProductCache productCache;
+	private ConcurrentMapCache serviceCache;
+	private MerchantStore store;
+	private Language language;
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@BeforeEach
+	public void setUp() {
+		serviceCache = new ConcurrentMapCache("test");
+		CacheUtils cacheUtils = new CacheUtils();
+		ReflectionTestUtils.setField(cacheUtils, "cache", serviceCache);
+
+		productCache = new ReadableProductCache();
+		ReflectionTestUtils.setField(productCache, "cache", cacheUtils);
+		ReflectionTestUtils.setField(productCache, "enabled", true);
+		ReflectionTestUtils.setField(productCache, "nearSize", 100L);
+		ReflectionTestUtils.setField(productCache, "nearTtl", 60L);
+		productCache.init();
+
+		store = new MerchantStore();
+		store.setId(1);
+		language = new Language("en");
+	}
+
+	private ReadableProduct load(long id) {
+		loads.incrementAndGet();
+		ReadableProduct product = new ReadableProduct();
+		product.setId(id);
+		return product;
+	}
+
+	@Test
+	public void populatedOnceThenServedFromCache() throws Exception {
+		ReadableProduct first = productCache.get(store, language, ReadableProductCache.BY_ID, 10L, () -> load(10L));
+		ReadableProduct second = productCache.get(store, language, ReadableProductCache.BY_ID, 10L, () -> load(10L));
+		assertSame(first, second);
+		assertEquals(1, loads.get());
+		assertEquals(first, serviceCache.get("1_PRODUCT_en_ID_10").get());
+
+		// another language is another entry
+		productCache.get(store, new Language("fr"), ReadableProductCache.BY_ID, 10L, () -> load(10L));
+		assertEquals(2, loads.get());
+
+		// missing products are not cached
+		assertNull(productCache.get(store, language, ReadableProductCache.BY_SKU, "none", () -> null));
+	}
+
+	@Test
+	public void productChangesEvictEveryKey() throws Exception {
+		productCache.get(store, language, ReadableProductCache.BY_ID, 10L, () -> load(10L));
+		productCache.get(store, language, ReadableProductCache.BY_URL, "shirt", () -> load(10L));
+		productCache.get(store, language, ReadableProductCache.BY_ID, 11L, () -> load(11L));
+		assertEquals(3, loads.get());
+
+		Product product = new Product();
+		product.setId(10L);
+		ProductAvailability availability = new ProductAvailability();
+		availability.setProduct(product);
+		productCache.onEntityChange(new EntityChangeEvent(this, availability, ChangeType.SAVE));
+
+		assertNull(serviceCache.get("1_PRODUCT_en_ID_10"));
+		assertNull(serviceCache.get("1_PRODUCT_en_URL_shirt"));
+		productCache.get(store, language, ReadableProductCache.BY_URL, "shirt", () -> load(10L));
+		productCache.get(store, language, ReadableProductCache.BY_ID, 11L, () -> load(11L));
+		assertEquals(4, loads.get());
+
+		productCache.onEntityChange(new EntityChangeEvent(this, new Category(), ChangeType.SAVE));
+		productCache.get(store, language, ReadableProductCache.BY_ID, 11L, () -> load(11L));
+		assertEquals(5, loads.get());
+	}
+
+	@Test
+	public void valueLoadedDuringInvalidationIsNotCached() throws Exception {
+		productCache.get(store, language, ReadableProductCache.BY_ID, 10L, () -> {
+			productCache.invalidate(10L);
+			return load(10L);
+		});
+		productCache.get(store, language, ReadableProductCache.BY_ID, 10L, () -> load(10L));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void listingAndDetailAreSeparateEntries() throws Exception {
+		ReadableProduct listed = productCache.get(store, language, ReadableProductCache.LISTING, 10L, () -> load(10L));
+		ReadableProduct detail = productCache.get(store, language, ReadableProductCache.BY_ID, 10L, () -> load(10L));
+		assertNotSame(listed, detail);
+		assertEquals(2, loads.get());
+
+		productCache.invalidate(10L);
+		assertNull(serviceCache.get("1_PRODUCT_en_LIST_10"));
+		assertNull(serviceCache.get("1_PRODUCT_en_ID_10"));
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.salesmanager.test.shop.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.model.customer.Customer;
+import com.salesmanager.core.model.user.Group;
+import com.salesmanager.core.model.user.Permission;
+import com.salesmanager.core.model.user.User;
+import com.salesmanager.shop.store.security.common.JWTPrincipalCache;
+
+/**
+ * Principals cached per token and evicted when a user, customer, group or
+ * permission changes
+ */
+public class JWTPrincipalCacheTest {
+
+	private static final Date ISSUED = new Date(1_600_000_000_000L);
+
+	private JWTPrincipalCache principalCache;
+	private final AtomicInteger loads = new AtomicInteger();
+	private UserDetailsService detailsService;
+
+	@BeforeEach
+	public void setUp() {
+		principalCache = new JWTPrincipalCache();
+		ReflectionTestUtils.setField(principalCache, "maxSize", 100L);
+		ReflectionTestUtils.setField(principalCache, "ttl", 60L);
+		principalCache.init();
+
+		detailsService = userName -> {
+			loads.incrementAndGet();
+			return mock(UserDetails.class);
+		};
+	}
+
+	private UserDetails admin(String userName) {
+		return principalCache.get(JWTPrincipalCache.ADMIN_REALM, userName, ISSUED, detailsService);
+	}
+
+	private UserDetails customer(String userName) {
+		return principalCache.get(JWTPrincipalCache.CUSTOMER_REALM, userName, ISSUED, detailsService);
+	}
+
+	@Test
+	public void loadedOncePerToken() {
+		UserDetails details = admin("admin@shopizer.com");
+		assertSame(details, admin("admin@shopizer.com"));
+		assertEquals(1, loads.get());
+
+		// another token of the same user
+		principalCache.get(JWTPrincipalCache.ADMIN_REALM, "admin@shopizer.com", new Date(), detailsService);
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void userChangeEvictsOnlyThatUser() {
+		UserDetails details = admin("admin@shopizer.com");
+		UserDetails other = admin("other@shopizer.com");
+		UserDetails customer = customer("admin@shopizer.com");
+
+		User user = new User();
+		user.setAdminName("admin@shopizer.com");
+		principalCache.onEntityChange(new EntityChangeEvent(this, user, ChangeType.SAVE));
+
+		assertNotSame(details, admin("admin@shopizer.com"));
+		assertSame(other, admin("other@shopizer.com"));
+		// same name in the customer realm is another principal
+		assertSame(customer, customer("admin@shopizer.com"));
+		assertEquals(4, loads.get());
+	}
+
+	@Test
+	public void customerDeleteEvictsCustomer() {
+		UserDetails details = customer("buyer");
+
+		Customer customer = new Customer();
+		customer.setNick("buyer");
+		principalCache.onEntityChange(new EntityChangeEvent(this, customer, ChangeType.DELETE));
+
+		assertNotSame(details, customer("buyer"));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void groupAndPermissionChangesEvictEveryPrincipal() {
+		admin("admin@shopizer.com");
+		customer("buyer");
+		assertEquals(2, principalCache.size());
+
+		principalCache.onEntityChange(new EntityChangeEvent(this, new Group("SUPERADMIN"), ChangeType.SAVE));
+		assertEquals(0, principalCache.size());
+
+		admin("admin@shopizer.com");
+		customer("buyer");
+		principalCache.onEntityChange(new EntityChangeEvent(this, new Permission("AUTH"), ChangeType.DELETE));
+		assertEquals(0, principalCache.size());
+		assertEquals(4, loads.get());
+	}
+
+	@Test
+	public void publishedChangeEvictsPrincipal() {
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(
+				JWTPrincipalCache.class)) {
+			principalCache = context.getBean(JWTPrincipalCache.class);
+			UserDetails details = admin("admin@shopizer.com");
+
+			User user = new User();
+			user.setAdminName("admin@shopizer.com");
+			// outside of a transaction the listener runs right away
+			context.publishEvent(new EntityChangeEvent(this, user, ChangeType.SAVE));
+
+			assertNotSame(details, admin("admin@shopizer.com"));
+			assertEquals(2, loads.get());
+		}
+	}
+
+}
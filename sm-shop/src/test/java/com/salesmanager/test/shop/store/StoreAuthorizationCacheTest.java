@@ -0,0 +1,99 @@
+package com.salesmanager.test.shop.store;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.repositories.merchant.MerchantRepository;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.business.services.merchant.MerchantStoreHierarchy;
+import com.salesmanager.core.business.services.user.UserService;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.user.Group;
+import com.salesmanager.core.model.user.User;
+import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.security.common.StoreAuthorizationCache;
+
+/**
+ * Store authorization decisions from user store, groups and store hierarchy
+ */
+public class StoreAuthorizationCacheTest {
+
+	private UserService userService;
+	private MerchantRepository merchantRepository;
+	private StoreAuthorizationCache cache;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		// DEFAULT
+		// |-RETAIL
+		// OTHER
+		List<Object[]> stores = new ArrayList<Object[]>();
+		stores.add(new Object[] {"DEFAULT", null});
+		stores.add(new Object[] {"RETAIL", "DEFAULT"});
+		stores.add(new Object[] {"OTHER", null});
+		merchantRepository = mock(MerchantRepository.class);
+		when(merchantRepository.findHierarchy()).thenReturn(stores);
+
+		MerchantStoreHierarchy hierarchy = new MerchantStoreHierarchy();
+		ReflectionTestUtils.setField(hierarchy, "merchantRepository", merchantRepository);
+		ReflectionTestUtils.setField(hierarchy, "ttl", 300L);
+
+		userService = mock(UserService.class);
+		when(userService.getByUserName("retailer")).thenReturn(user("retailer", "RETAIL", "ADMIN_RETAIL"));
+		when(userService.getByUserName("root")).thenReturn(user("root", "OTHER", "SUPERADMIN"));
+
+		cache = new StoreAuthorizationCache();
+		ReflectionTestUtils.setField(cache, "userService", userService);
+		ReflectionTestUtils.setField(cache, "merchantStoreHierarchy", hierarchy);
+		ReflectionTestUtils.setField(cache, "maxSize", 100L);
+		ReflectionTestUtils.setField(cache, "ttl", 300L);
+		cache.init();
+	}
+
+	private User user(String name, String storeCode, String groupName) {
+		MerchantStore store = new MerchantStore();
+		store.setCode(storeCode);
+		Group group = new Group();
+		group.setGroupName(groupName);
+		User user = new User();
+		user.setAdminName(name);
+		user.setMerchantStore(store);
+		user.getGroups().add(group);
+		return user;
+	}
+
+	@Test
+	public void decisions() throws Exception {
+		assertTrue(cache.isAuthorized("retailer", "RETAIL"));
+		assertTrue(cache.isAuthorized("retailer", "DEFAULT"));
+		assertFalse(cache.isAuthorized("retailer", "OTHER"));
+		assertTrue(cache.isAuthorized("root", "DEFAULT"));
+		assertThrows(ResourceNotFoundException.class, () -> cache.isAuthorized("nobody", "DEFAULT"));
+	}
+
+	@Test
+	public void decisionCachedUntilUserChanges() throws Exception {
+		assertFalse(cache.isAuthorized("retailer", "OTHER"));
+		assertFalse(cache.isAuthorized("retailer", "OTHER"));
+		verify(userService, times(1)).getByUserName("retailer");
+
+		when(userService.getByUserName("retailer")).thenReturn(user("retailer", "OTHER", "ADMIN_RETAIL"));
+		cache.onEntityChange(new EntityChangeEvent(this, user("retailer", "OTHER", "ADMIN_RETAIL"), ChangeType.SAVE));
+		assertTrue(cache.isAuthorized("retailer", "OTHER"));
+		verify(merchantRepository, times(1)).findHierarchy();
+	}
+
+}
@@ -0,0 +1,145 @@
+package com.salesmanager.test.shop.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent;
+import com.salesmanager.core.business.services.common.generic.EntityChangeEvent.ChangeType;
+import com.salesmanager.core.business.services.merchant.MerchantStoreService;
+import com.salesmanager.core.business.services.reference.language.LanguageService;
+import com.salesmanager.core.model.content.Content;
+import com.salesmanager.core.model.merchant.MerchantStore;
+import com.salesmanager.core.model.reference.language.Language;
+import com.salesmanager.shop.constants.Constants;
+import com.salesmanager.shop.store.api.exception.ResourceNotFoundException;
+import com.salesmanager.shop.store.context.StoreContext;
+import com.salesmanager.shop.store.context.StoreContextRegistry;
+
+/**
+ * Store and language resolution from store context snapshots
+ */
+public class StoreContextRegistryTest {
+
+	private MerchantStoreService merchantStoreService;
+	private StoreContextRegistry registry;
+	private MerchantStore store;
+	private Language en;
+	private Language fr;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		store = new MerchantStore();
+		store.setId(1);
+		store.setCode(MerchantStore.DEFAULT_STORE);
+		en = new Language("en");
+		fr = new Language("fr");
+		Map<String, Language> languages = new HashMap<String, Language>();
+		languages.put("en", en);
+		languages.put("fr", fr);
+
+		merchantStoreService = mock(MerchantStoreService.class);
+		when(merchantStoreService.getByCode(MerchantStore.DEFAULT_STORE)).thenReturn(store);
+		LanguageService languageService = mock(LanguageService.class);
+		when(languageService.getLanguagesMap()).thenReturn(languages);
+		when(languageService.defaultLanguage()).thenReturn(en);
+
+		registry = new StoreContextRegistry();
+		ReflectionTestUtils.setField(registry, "merchantStoreService", merchantStoreService);
+		ReflectionTestUtils.setField(registry, "languageService", languageService);
+		ReflectionTestUtils.setField(registry, "ttl", 600L);
+	}
+
+	@Test
+	public void resolvedOncePerRequestAndSharedBetweenRequests() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		StoreContext context = registry.resolve(request);
+		assertSame(context, registry.resolve(request));
+		assertSame(context, request.getAttribute(StoreContextRegistry.REQUEST_STORE_CONTEXT));
+		assertSame(store, context.getStore());
+
+		MockHttpServletRequest other = new MockHttpServletRequest();
+		other.setParameter(StoreContextRegistry.REQUEST_PARAMETER_STORE, MerchantStore.DEFAULT_STORE);
+		assertSame(context, registry.resolve(other));
+
+		verify(merchantStoreService, times(1)).getByCode(MerchantStore.DEFAULT_STORE);
+	}
+
+	@Test
+	public void requestLanguage() throws Exception {
+		StoreContext context = registry.get(MerchantStore.DEFAULT_STORE);
+		assertSame(fr, context.getRequestLanguage("fr"));
+		assertSame(en, context.getRequestLanguage(null));
+		assertSame(en, context.getRequestLanguage("xx"));
+		assertNull(context.getRequestLanguage("_all"));
+	}
+
+	@Test
+	public void unknownStore() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter(StoreContextRegistry.REQUEST_PARAMETER_STORE, "none");
+		assertThrows(ResourceNotFoundException.class, () -> registry.resolve(request));
+	}
+
+	@Test
+	public void storeChangesReplaceSnapshot() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		StoreContext context = registry.get(MerchantStore.DEFAULT_STORE);
+		context.get("CONTENT", () -> loads.incrementAndGet());
+		context.get("CONTENT", () -> loads.incrementAndGet());
+		assertEquals(1, loads.get());
+
+		Content content = new Content();
+		content.setMerchantStore(store);
+		registry.onEntityChange(new EntityChangeEvent(this, content, ChangeType.SAVE));
+
+		StoreContext replaced = registry.get(MerchantStore.DEFAULT_STORE);
+		assertNotSame(context, replaced);
+		replaced.get("CONTENT", () -> loads.incrementAndGet());
+		assertEquals(2, loads.get());
+		verify(merchantStoreService, times(2)).getByCode(MerchantStore.DEFAULT_STORE);
+	}
+
+	@Test
+	public void otherStoreChangesKeepSnapshotBeingBuilt() throws Exception {
+		when(merchantStoreService.getByCode(MerchantStore.DEFAULT_STORE)).thenAnswer(invocation -> {
+			registry.invalidate("other");
+			return store;
+		});
+		StoreContext context = registry.get(MerchantStore.DEFAULT_STORE);
+		assertSame(context, registry.get(MerchantStore.DEFAULT_STORE));
+		verify(merchantStoreService, times(1)).getByCode(MerchantStore.DEFAULT_STORE);
+	}
+
+	@Test
+	public void snapshotBuiltDuringStoreChangeIsDiscarded() throws Exception {
+		when(merchantStoreService.getByCode(MerchantStore.DEFAULT_STORE)).thenAnswer(invocation -> {
+			registry.invalidate(MerchantStore.DEFAULT_STORE);
+			return store;
+		});
+		registry.get(MerchantStore.DEFAULT_STORE);
+		registry.get(MerchantStore.DEFAULT_STORE);
+		verify(merchantStoreService, times(2)).getByCode(MerchantStore.DEFAULT_STORE);
+	}
+
+	@Test
+	public void defaultTemplateSetOnSnapshot() throws Exception {
+		assertEquals(Constants.DEFAULT_TEMPLATE, registry.get(MerchantStore.DEFAULT_STORE).getStore().getStoreTemplate());
+	}
+
+}